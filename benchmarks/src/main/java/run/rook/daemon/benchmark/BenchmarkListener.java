@@ -0,0 +1,26 @@
+package run.rook.daemon.benchmark;
+
+import org.agrona.DirectBuffer;
+
+import run.rook.daemon.cache.IOCacheListener;
+import run.rook.daemon.cache.IOKey;
+
+// listener that does no work besides acknowledging events that were published
+// by a LatencyProducer, so the producer can tell when every listener has seen
+// its update
+class BenchmarkListener implements IOCacheListener {
+
+	@Override
+	public void onInput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		if (source instanceof LatencyProducer) {
+			((LatencyProducer) source).acknowledge();
+		}
+	}
+
+	@Override
+	public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		if (source instanceof LatencyProducer) {
+			((LatencyProducer) source).acknowledge();
+		}
+	}
+}
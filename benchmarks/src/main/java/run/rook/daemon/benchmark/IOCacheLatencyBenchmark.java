@@ -0,0 +1,90 @@
+package run.rook.daemon.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import run.rook.daemon.cache.IOCache;
+
+// time from IOCache.processInput until every registered listener has received
+// the update
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IOCacheLatencyBenchmark {
+
+	static final String DATA_TYPE = "I16";
+
+	@Param({ "1", "8", "64" })
+	public int listeners;
+
+	@Param({ "2", "16", "128", "1024" })
+	public int payloadSize;
+
+	private IOCache cache;
+
+	@Setup
+	public void setup() {
+		cache = new IOCache();
+		for (int i = 0; i < listeners; i++) {
+			cache.registerListener(new BenchmarkListener());
+		}
+		cache.start();
+	}
+
+	@TearDown
+	public void tearDown() {
+		cache.stop();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void bytesOneProducer(LatencyProducer producer) {
+		publishBytes(producer);
+	}
+
+	@Benchmark
+	@Threads(16)
+	public void bytesSixteenProducers(LatencyProducer producer) {
+		publishBytes(producer);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void bufferOneProducer(LatencyProducer producer) {
+		publishBuffer(producer);
+	}
+
+	@Benchmark
+	@Threads(16)
+	public void bufferSixteenProducers(LatencyProducer producer) {
+		publishBuffer(producer);
+	}
+
+	private void publishBytes(LatencyProducer producer) {
+		producer.next();
+		cache.processInput(producer.name, DATA_TYPE, producer.bytes, payloadSize, producer);
+		producer.awaitAcknowledged();
+	}
+
+	private void publishBuffer(LatencyProducer producer) {
+		producer.next();
+		cache.processInput(producer.name, DATA_TYPE, producer.buffer, payloadSize, producer);
+		producer.awaitAcknowledged();
+	}
+}
@@ -0,0 +1,102 @@
+package run.rook.daemon.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import run.rook.daemon.cache.IOCache;
+
+// updates per second accepted by IOCache from concurrent producers
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IOCacheThroughputBenchmark {
+
+	static final String DATA_TYPE = "I16";
+
+	@Param({ "1", "8", "64" })
+	public int listeners;
+
+	@Param({ "2", "16", "128", "1024" })
+	public int payloadSize;
+
+	@Param({ "1" })
+	public int shards;
+
+	private IOCache cache;
+
+	@Setup
+	public void setup() {
+		cache = new IOCache(shards);
+		for (int i = 0; i < listeners; i++) {
+			cache.registerListener(new BenchmarkListener());
+		}
+		cache.start();
+	}
+
+	@TearDown
+	public void tearDown() {
+		cache.stop();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void bytesOneProducer(ThroughputProducer producer) {
+		publishBytes(producer);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void bytesFourProducers(ThroughputProducer producer) {
+		publishBytes(producer);
+	}
+
+	@Benchmark
+	@Threads(16)
+	public void bytesSixteenProducers(ThroughputProducer producer) {
+		publishBytes(producer);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void bufferOneProducer(ThroughputProducer producer) {
+		publishBuffer(producer);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void bufferFourProducers(ThroughputProducer producer) {
+		publishBuffer(producer);
+	}
+
+	@Benchmark
+	@Threads(16)
+	public void bufferSixteenProducers(ThroughputProducer producer) {
+		publishBuffer(producer);
+	}
+
+	private void publishBytes(ThroughputProducer producer) {
+		producer.next();
+		cache.processInput(producer.name, DATA_TYPE, producer.bytes, payloadSize, producer);
+	}
+
+	private void publishBuffer(ThroughputProducer producer) {
+		producer.next();
+		cache.processInput(producer.name, DATA_TYPE, producer.buffer, payloadSize, producer);
+	}
+}
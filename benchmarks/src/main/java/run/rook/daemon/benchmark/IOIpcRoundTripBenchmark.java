@@ -0,0 +1,117 @@
+package run.rook.daemon.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.BusySpinIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.YieldingIdleStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheWaitMode;
+import run.rook.daemon.ipc.IOIpcClient;
+import run.rook.daemon.ipc.IOIpcHandler;
+import run.rook.daemon.ipc.IOIpcKey;
+import run.rook.daemon.ipc.IOIpcTransport;
+
+// time from IOIpcClient.sendInput until the same client polls the update back
+// from the broadcast buffer
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IOIpcRoundTripBenchmark {
+
+	// of the cache's event thread and the IPC poller
+	@Param({ "blocking", "yielding", "busy_spin" })
+	public String waitMode;
+
+	@Param({ "8", "1024" })
+	public int payloadSize;
+
+	private IOCache cache;
+	private IOIpcTransport transport;
+	private IOIpcClient client;
+	private IOIpcKey key;
+	private UnsafeBuffer value;
+	// the client waits like the daemon's threads, so on a shared core it lets
+	// them run
+	private IdleStrategy idleStrategy;
+	private long sequence = 0;
+	private final Handler handler = new Handler();
+
+	@Setup
+	public void setup() throws IOException {
+		IOCacheWaitMode mode = IOCacheWaitMode.valueOf(waitMode.toUpperCase());
+		cache = new IOCache(1, IOCache.DEFAULT_MAX_VALUE_SIZE, null, mode);
+		cache.start();
+		File shm = new File("/dev/shm");
+		File file = File.createTempFile("rook", ".ipc", shm.isDirectory() ? shm : null);
+		transport = new IOIpcTransport(file, IOIpcTransport.DEFAULT_CAPACITY, cache);
+		if (mode == IOCacheWaitMode.YIELDING) {
+			idleStrategy = new YieldingIdleStrategy();
+			transport.setIdleStrategy(idleStrategy);
+		} else if (mode == IOCacheWaitMode.BUSY_SPIN) {
+			idleStrategy = new BusySpinIdleStrategy();
+			transport.setIdleStrategy(idleStrategy);
+		} else {
+			idleStrategy = new BusySpinIdleStrategy();
+		}
+		transport.start();
+		client = new IOIpcClient(file);
+		key = client.key("benchmark", "I64");
+		value = new UnsafeBuffer(new byte[payloadSize]);
+	}
+
+	@TearDown
+	public void tearDown() {
+		transport.stop();
+		cache.stop();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public long roundTrip() {
+		long sent = ++sequence;
+		value.putLong(0, sent);
+		while (!client.sendInput(key, value, 0, payloadSize)) {
+			// the poller is behind
+			idleStrategy.idle();
+		}
+		while (handler.received != sent) {
+			idleStrategy.idle(client.poll(handler, 16));
+		}
+		return sent;
+	}
+
+	private static class Handler implements IOIpcHandler {
+		long received;
+
+		@Override
+		public void onInput(IOIpcKey key, DirectBuffer value, int valueLength) {
+			received = value.getLong(0);
+		}
+
+		@Override
+		public void onOutput(IOIpcKey key, DirectBuffer value, int valueLength) {
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package run.rook.daemon.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.ThreadParams;
+
+// per-thread producer for IOCacheLatencyBenchmark
+@State(Scope.Thread)
+public class LatencyProducer {
+
+	private final AtomicLong acknowledged = new AtomicLong();
+	String name;
+	byte[] bytes;
+	UnsafeBuffer buffer;
+	private long expected;
+	private int listeners;
+
+	@Setup
+	public void setup(IOCacheLatencyBenchmark benchmark, ThreadParams threadParams) {
+		name = "latency/" + threadParams.getThreadIndex();
+		bytes = new byte[benchmark.payloadSize];
+		buffer = new UnsafeBuffer(new byte[benchmark.payloadSize]);
+		listeners = benchmark.listeners;
+	}
+
+	// stamps the payload with a new sequence so consecutive values differ
+	void next() {
+		expected += listeners;
+		short seq = (short) expected;
+		bytes[0] = (byte) seq;
+		bytes[1] = (byte) (seq >>> 8);
+		buffer.putShort(0, seq);
+	}
+
+	void acknowledge() {
+		acknowledged.incrementAndGet();
+	}
+
+	// spins until every listener has acknowledged the last update
+	void awaitAcknowledged() {
+		int spins = 0;
+		while (acknowledged.get() < expected) {
+			if (++spins > 1000) {
+				Thread.yield();
+			}
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package run.rook.daemon.benchmark;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.ThreadParams;
+
+// per-thread producer for IOCacheThroughputBenchmark
+@State(Scope.Thread)
+public class ThroughputProducer {
+
+	String name;
+	byte[] bytes;
+	UnsafeBuffer buffer;
+	private short seq;
+
+	@Setup
+	public void setup(IOCacheThroughputBenchmark benchmark, ThreadParams threadParams) {
+		name = "throughput/" + threadParams.getThreadIndex();
+		bytes = new byte[benchmark.payloadSize];
+		buffer = new UnsafeBuffer(new byte[benchmark.payloadSize]);
+	}
+
+	// stamps the payload with a new sequence so consecutive values differ
+	void next() {
+		seq++;
+		bytes[0] = (byte) seq;
+		bytes[1] = (byte) (seq >>> 8);
+		buffer.putShort(0, seq);
+	}
+}
@@ -1,22 +1,72 @@
 package run.rook.daemon;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import org.agrona.concurrent.BusySpinIdleStrategy;
+import org.agrona.concurrent.YieldingIdleStrategy;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
 import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheDispatchMode;
+import run.rook.daemon.cache.IOCacheWaitMode;
+import run.rook.daemon.cache.IOPublicationPolicy;
+import run.rook.daemon.checkpoint.IOCheckpoint;
+import run.rook.daemon.history.IOHistory;
+import run.rook.daemon.ipc.IOIpcTransport;
+import run.rook.daemon.journal.IOJournal;
+import run.rook.daemon.journal.IOJournalReader;
+import run.rook.daemon.journal.IOJournalReplay;
+import run.rook.daemon.mqtt.IOMqttBroker;
 import run.rook.daemon.mqtt.IOMqttClient;
+import run.rook.daemon.mqtt.IOMqttOverflowPolicy;
 import run.rook.daemon.web.DaemonWebServer;
+import run.rook.daemon.web.ws.IOWebSocket;
 
 public class Daemon {
 
 	public static void main(String[] args) throws Exception {
 		Options options = new Options();
 		options.addOption("wp", "webPort", true, "Port to use for http [default: 8080]");
+		options.addOption("pi", "pingInterval", true, "Milliseconds between WebSocket pings [default: 10000]");
+		options.addOption("pt", "pingTimeout", true, "Milliseconds a WebSocket session has to answer a ping before it is closed [default: 10000]");
 		options.addOption("mh", "mqttHost", true, "MQTT Host [default: localhost]");
 		options.addOption("mp", "mqttPort", true, "MQTT Port [default: 1883]");
 		options.addOption("mc", "mqttClientId", true, "MQTT Client ID [default: rook_daemon]");
+		options.addOption("mn", "mqttConnections", true, "MQTT connections to receive on, each with its own thread [default: 1]");
+		options.addOption("ms", "mqttSubscription", true, "Topic filter to receive, split across connections, repeatable [default: rook/io/i/+/+ and rook/io/o/+/+]");
+		options.addOption("mo", "mqttOverflow", true, "Outbound MQTT updates while the broker is slow, conflate or drop_oldest [default: conflate]");
+		options.addOption("mw", "mqttWindow", true, "Outbound MQTT publishes in flight at once [default: 64]");
+		options.addOption("mq", "mqttQueueSize", true, "Outbound MQTT queue size, power of 2 [default: 1024]");
+		options.addOption("mb", "mqttBrokerPort", true, "Run an embedded MQTT broker on this port instead of connecting to one [default: no broker]");
+		options.addOption("ip", "ipcFile", true, "File to exchange IO with local processes through shared memory, e.g. /dev/shm/rook.ipc [default: none]");
+		options.addOption("ic", "ipcCapacity", true, "Size of each shared memory buffer in bytes, power of 2 [default: 1048576]");
+		options.addOption("pf", "policyFile", true, "JSON file of publication policies, see README [default: dispatch every update]");
+		options.addOption("dm", "dispatchMode", true, "IOCache listener dispatch mode, inline or queued, inline needs a single shard [default: inline with one shard, queued with more]");
+		options.addOption("wm", "waitMode", true, "How the IOCache threads and the IPC poller wait for work, blocking, yielding or busy_spin [default: blocking]");
+		options.addOption("lq", "listenerQueueSize", true, "Per-listener queue size in queued dispatch mode, power of 2 [default: 1024]");
+		options.addOption("sh", "shards", true, "Number of IOCache shards, each with its own thread [default: 1]");
+		options.addOption("mv", "maxValueSize", true, "Largest accepted IO value in bytes [default: 4096]");
+		options.addOption("hs", "historySize", true, "Values of history kept per IO, 0 disables [default: 0]");
+		options.addOption("hn", "historySignal", true, "Values of history kept for one IO as name=size, repeatable");
+		options.addOption("jd", "journalDir", true, "Directory to journal all IO events to [default: no journal]");
+		options.addOption("js", "journalSegmentSize", true, "Size of each journal segment file in bytes [default: 67108864]");
+		options.addOption("rd", "replayDir", true, "Journal directory to replay into the cache on start [default: no replay]");
+		options.addOption("rs", "replaySpeed", true, "Replay speed as a multiple of the recorded pace, or max [default: 1]");
+		options.addOption("rf", "replayFrom", true, "Replay records since, in milliseconds since the epoch [default: all]");
+		options.addOption("rt", "replayTo", true, "Replay records until, in milliseconds since the epoch [default: all]");
+		options.addOption("cf", "checkpointFile", true, "File to save last values to and restore them from on start [default: none]");
+		options.addOption("ci", "checkpointInterval", true, "Milliseconds between checkpoints, 0 only saves on shutdown [default: 10000]");
 
 		CommandLineParser parser = new DefaultParser();
 		CommandLine cmd = parser.parse(options, args);
@@ -25,32 +75,294 @@ public class Daemon {
 		String mqttHostVal = cmd.getOptionValue("mqttHost");
 		String mqttPortVal = cmd.getOptionValue("mqttPort");
 		String mqttClientIdVal = cmd.getOptionValue("mqttClientId");
+		String mqttConnectionsVal = cmd.getOptionValue("mqttConnections");
+		String[] mqttSubscriptionVals = cmd.getOptionValues("mqttSubscription");
+		String mqttOverflowVal = cmd.getOptionValue("mqttOverflow");
+		String mqttWindowVal = cmd.getOptionValue("mqttWindow");
+		String mqttQueueSizeVal = cmd.getOptionValue("mqttQueueSize");
+		String mqttBrokerPortVal = cmd.getOptionValue("mqttBrokerPort");
+		String ipcFileVal = cmd.getOptionValue("ipcFile");
+		String policyFileVal = cmd.getOptionValue("policyFile");
+		String ipcCapacityVal = cmd.getOptionValue("ipcCapacity");
+		String dispatchModeVal = cmd.getOptionValue("dispatchMode");
+		String waitModeVal = cmd.getOptionValue("waitMode");
+		String listenerQueueSizeVal = cmd.getOptionValue("listenerQueueSize");
+		String shardsVal = cmd.getOptionValue("shards");
+		String maxValueSizeVal = cmd.getOptionValue("maxValueSize");
+		String historySizeVal = cmd.getOptionValue("historySize");
+		String[] historySignalVals = cmd.getOptionValues("historySignal");
+		String journalDirVal = cmd.getOptionValue("journalDir");
+		String journalSegmentSizeVal = cmd.getOptionValue("journalSegmentSize");
+		String replayDirVal = cmd.getOptionValue("replayDir");
+		String replaySpeedVal = cmd.getOptionValue("replaySpeed");
+		String replayFromVal = cmd.getOptionValue("replayFrom");
+		String replayToVal = cmd.getOptionValue("replayTo");
+		String checkpointFileVal = cmd.getOptionValue("checkpointFile");
+		String checkpointIntervalVal = cmd.getOptionValue("checkpointInterval");
+		String pingIntervalVal = cmd.getOptionValue("pingInterval");
+		String pingTimeoutVal = cmd.getOptionValue("pingTimeout");
 		
 		int webPort = webPortVal == null ? 8080 : Integer.parseInt(webPortVal);
 		String mqttHost = mqttHostVal == null ? "localhost" : mqttHostVal;
 		int mqttPort = mqttPortVal == null ? 1883 : Integer.parseInt(mqttPortVal);
 		String mqttClientId = mqttClientIdVal == null ? "rook_daemon" : mqttClientIdVal;
+		int mqttConnections = mqttConnectionsVal == null ? 1 : Integer.parseInt(mqttConnectionsVal);
+		IOMqttOverflowPolicy mqttOverflow = mqttOverflowVal == null ? IOMqttOverflowPolicy.CONFLATE : IOMqttOverflowPolicy.valueOf(mqttOverflowVal.toUpperCase());
+		int mqttWindow = mqttWindowVal == null ? 64 : Integer.parseInt(mqttWindowVal);
+		int mqttQueueSize = mqttQueueSizeVal == null ? 1024 : Integer.parseInt(mqttQueueSizeVal);
+		IOCacheDispatchMode dispatchMode = dispatchModeVal == null ? null : IOCacheDispatchMode.valueOf(dispatchModeVal.toUpperCase());
+		int listenerQueueSize = listenerQueueSizeVal == null ? 1024 : Integer.parseInt(listenerQueueSizeVal);
+		int shards = shardsVal == null ? 1 : Integer.parseInt(shardsVal);
+		int maxValueSize = maxValueSizeVal == null ? IOCache.DEFAULT_MAX_VALUE_SIZE : Integer.parseInt(maxValueSizeVal);
+		int historySize = historySizeVal == null ? 0 : Integer.parseInt(historySizeVal);
+		long checkpointInterval = checkpointIntervalVal == null ? 10000 : Long.parseLong(checkpointIntervalVal);
+		
+		IOHistory history = null;
+		if (historySize > 0 || historySignalVals != null) {
+			history = new IOHistory(historySize);
+			if (historySignalVals != null) {
+				for (String signal : historySignalVals) {
+					int split = signal.lastIndexOf('=');
+					if (split < 0) {
+						throw new IllegalArgumentException("historySignal must be name=size: " + signal);
+					}
+					history.setCapacity(signal.substring(0, split), Integer.parseInt(signal.substring(split + 1)));
+				}
+			}
+		}
+		
+		IOJournal journal = null;
+		if (journalDirVal != null) {
+			int segmentSize = journalSegmentSizeVal == null ? IOJournal.DEFAULT_SEGMENT_SIZE : Integer.parseInt(journalSegmentSizeVal);
+			journal = new IOJournal(new File(journalDirVal), segmentSize);
+		}
+		
+		IOCheckpoint checkpoint = checkpointFileVal == null ? null : new IOCheckpoint(new File(checkpointFileVal));
 		
 		String mqttUrl = "tcp://" + mqttHost + ":" + mqttPort;
 		
-		new Daemon(webPort, mqttUrl, mqttClientId).start();
+		Daemon daemon = new Daemon(webPort, mqttUrl, mqttClientId, dispatchMode, listenerQueueSize, shards,
+				maxValueSize);
+		if (waitModeVal != null) {
+			daemon.setWaitMode(IOCacheWaitMode.valueOf(waitModeVal.toUpperCase()));
+		}
+		daemon.setHistory(history);
+		daemon.setJournal(journal);
+		if (checkpoint != null) {
+			daemon.setCheckpoint(checkpoint, checkpointInterval);
+		}
+		daemon.setMqttConnections(mqttConnections, mqttSubscriptionVals);
+		daemon.setMqttPublisher(mqttOverflow, mqttWindow, mqttQueueSize);
+		if (mqttBrokerPortVal != null) {
+			daemon.setMqttBroker(Integer.parseInt(mqttBrokerPortVal));
+		}
+		if (ipcFileVal != null) {
+			int ipcCapacity = ipcCapacityVal == null ? IOIpcTransport.DEFAULT_CAPACITY : Integer.parseInt(ipcCapacityVal);
+			daemon.setIpc(new File(ipcFileVal), ipcCapacity);
+		}
+		if (replayDirVal != null) {
+			if (journalDirVal != null && new File(replayDirVal).getCanonicalFile().equals(new File(journalDirVal).getCanonicalFile())) {
+				throw new IllegalArgumentException("replayDir must not be the journalDir: " + replayDirVal);
+			}
+			double replaySpeed = replaySpeedVal == null ? 1 : "max".equalsIgnoreCase(replaySpeedVal) ? IOJournalReplay.AS_FAST_AS_POSSIBLE : Double.parseDouble(replaySpeedVal);
+			long replayFrom = replayFromVal == null ? 0 : Long.parseLong(replayFromVal);
+			long replayTo = replayToVal == null ? Long.MAX_VALUE : Long.parseLong(replayToVal);
+			daemon.setReplay(new IOJournalReader(new File(replayDirVal)), replaySpeed, replayFrom, replayTo);
+		}
+		if (policyFileVal != null) {
+			daemon.setPolicyFile(new File(policyFileVal));
+		}
+		daemon.setPing(pingIntervalVal == null ? IOWebSocket.DEFAULT_PING_INTERVAL : Long.parseLong(pingIntervalVal),
+				pingTimeoutVal == null ? IOWebSocket.DEFAULT_PING_TIMEOUT : Long.parseLong(pingTimeoutVal));
+		daemon.start();
+	}
+
+	// one entry of a policy file, the same fields as the set_policy WebSocket
+	// message
+	private static class PolicyEntry {
+		String name;
+		Boolean changesOnly;
+		Double deadband;
+		Long heartbeat;
+	}
+
+	private static void loadPolicies(File file, IOCache cache) throws IOException {
+		PolicyEntry[] entries;
+		try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+			entries = new Gson().fromJson(reader, PolicyEntry[].class);
+		} catch (JsonParseException e) {
+			throw new IOException("Could not parse policy file " + file, e);
+		}
+		for (PolicyEntry entry : entries == null ? new PolicyEntry[0] : entries) {
+			IOPublicationPolicy policy = new IOPublicationPolicy(entry.changesOnly != null && entry.changesOnly,
+					entry.deadband == null ? 0 : entry.deadband, entry.heartbeat == null ? 0 : entry.heartbeat);
+			if (entry.name == null) {
+				cache.setDefaultPublicationPolicy(policy);
+			} else {
+				cache.setPublicationPolicy(entry.name, policy);
+			}
+		}
 	}
 
 	private final int webPort;
 	private final String mqttUrl;
 	private final String mqttClientId;
+	private final IOCacheDispatchMode dispatchMode;
+	private final int listenerQueueSize;
+	private final int shards;
+	private final int maxValueSize;
+	private IOHistory history;
+	private IOJournal journal;
+	private IOCheckpoint checkpoint;
+	private long checkpointInterval;
+	private IOCacheWaitMode waitMode = IOCacheWaitMode.BLOCKING;
+	private int mqttConnections = 1;
+	private String[] mqttSubscriptions;
+	private IOMqttOverflowPolicy mqttOverflow = IOMqttOverflowPolicy.CONFLATE;
+	private int mqttWindow = 64;
+	private int mqttQueueSize = 1024;
+	private int mqttBrokerPort = -1;
+	private File ipcFile;
+	private File policyFile;
+	private int ipcCapacity;
+	private long pingInterval = IOWebSocket.DEFAULT_PING_INTERVAL;
+	private long pingTimeout = IOWebSocket.DEFAULT_PING_TIMEOUT;
+	private IOJournalReader replayReader;
+	private double replaySpeed;
+	private long replayFrom;
+	private long replayTo;
 
-	public Daemon(int webPort, String mqttUrl, String mqttClientId) {
+	public Daemon(int webPort, String mqttUrl, String mqttClientId, IOCacheDispatchMode dispatchMode, int listenerQueueSize,
+			int shards, int maxValueSize) {
 		this.webPort = webPort;
 		this.mqttUrl = mqttUrl;
 		this.mqttClientId = mqttClientId;
+		this.dispatchMode = dispatchMode;
+		this.listenerQueueSize = listenerQueueSize;
+		this.shards = shards;
+		this.maxValueSize = maxValueSize;
+	}
+
+	// sets how the cache threads and the IPC poller wait for work; yielding
+	// and busy_spin keep them off the scheduler while updates flow
+	public void setWaitMode(IOCacheWaitMode waitMode) {
+		this.waitMode = waitMode;
+	}
+
+	// keeps the recent values of IOs for history requests
+	public void setHistory(IOHistory history) {
+		this.history = history;
+	}
+
+	// appends every input and output event to the journal
+	public void setJournal(IOJournal journal) {
+		this.journal = journal;
+	}
+
+	// restores the last values from the checkpoint on start and saves them
+	// every interval, in milliseconds
+	public void setCheckpoint(IOCheckpoint checkpoint, long interval) {
+		this.checkpoint = checkpoint;
+		this.checkpointInterval = interval;
+	}
+
+	// receives MQTT on the given number of connections, splitting the
+	// subscriptions between them
+	public void setMqttConnections(int connections, String[] subscriptions) {
+		this.mqttConnections = connections;
+		this.mqttSubscriptions = subscriptions;
+	}
+
+	// configures the outbound MQTT publisher
+	public void setMqttPublisher(IOMqttOverflowPolicy overflow, int window, int queueSize) {
+		this.mqttOverflow = overflow;
+		this.mqttWindow = window;
+		this.mqttQueueSize = queueSize;
+	}
+
+	// runs an embedded MQTT broker on the given port instead of connecting to
+	// the MQTT URL
+	public void setMqttBroker(int port) {
+		this.mqttBrokerPort = port;
+	}
+
+	// exchanges IO with local processes through a shared memory file
+	public void setIpc(File file, int capacity) {
+		this.ipcFile = file;
+		this.ipcCapacity = capacity;
+	}
+
+	// sets how often WebSocket sessions are pinged and how long they have to
+	// answer, in milliseconds
+	public void setPing(long interval, long timeout) {
+		this.pingInterval = interval;
+		this.pingTimeout = timeout;
+	}
+
+	// loads publication policies from a JSON file on start
+	public void setPolicyFile(File file) {
+		this.policyFile = file;
+	}
+
+	// replays a journal into the cache once the daemon is started
+	public void setReplay(IOJournalReader reader, double speed, long from, long to) {
+		this.replayReader = reader;
+		this.replaySpeed = speed;
+		this.replayFrom = from;
+		this.replayTo = to;
 	}
 
 	public void start() throws Exception {
-		IOCache cache = new IOCache();
+		IOCache cache = new IOCache(shards, maxValueSize, journal == null ? null : journal::createWriter, waitMode);
+		if (dispatchMode != null) {
+			cache.setDispatchMode(dispatchMode);
+		}
+		cache.setListenerQueueSize(listenerQueueSize);
+		if (history != null) {
+			cache.registerListener(history);
+		}
+		if (policyFile != null) {
+			loadPolicies(policyFile, cache);
+		}
+		if (checkpoint != null) {
+			// restored before anything can read or update the cache
+			checkpoint.restore(cache);
+		}
 		cache.start();
-		new DaemonWebServer(webPort, cache).start();
-		new Thread(new IOMqttClient(mqttUrl, mqttClientId, cache), "IOMqttClient").start();
+		if (checkpoint != null) {
+			checkpoint.start(cache, checkpointInterval);
+			Runtime.getRuntime().addShutdownHook(new Thread(checkpoint::stop, "IOCheckpoint-Shutdown"));
+		}
+		DaemonWebServer webServer = new DaemonWebServer(webPort, cache, history);
+		webServer.setPing(pingInterval, pingTimeout);
+		webServer.start();
+		if (mqttBrokerPort >= 0) {
+			IOMqttBroker broker = new IOMqttBroker(mqttBrokerPort, cache);
+			broker.start();
+			webServer.getMetrics().register(broker);
+		} else {
+			IOMqttClient mqttClient = new IOMqttClient(mqttUrl, mqttClientId, cache);
+			mqttClient.setOverflowPolicy(mqttOverflow);
+			mqttClient.setMaxInFlight(mqttWindow);
+			mqttClient.setQueueSize(mqttQueueSize);
+			mqttClient.setConnections(mqttConnections, mqttSubscriptions);
+			webServer.getMetrics().register(mqttClient);
+			new Thread(mqttClient, "IOMqttClient").start();
+		}
+		if (ipcFile != null) {
+			IOIpcTransport ipc = new IOIpcTransport(ipcFile, ipcCapacity, cache);
+			if (waitMode == IOCacheWaitMode.YIELDING) {
+				ipc.setIdleStrategy(new YieldingIdleStrategy());
+			} else if (waitMode == IOCacheWaitMode.BUSY_SPIN) {
+				ipc.setIdleStrategy(new BusySpinIdleStrategy());
+			}
+			ipc.start();
+			webServer.getMetrics().register(ipc);
+			Runtime.getRuntime().addShutdownHook(new Thread(ipc::stop, "IOIpcTransport-Shutdown"));
+		}
+		if (replayReader != null) {
+			new Thread(new IOJournalReplay(replayReader, cache, replaySpeed, replayFrom, replayTo), "IOJournalReplay").start();
+		}
 	}
 
 }
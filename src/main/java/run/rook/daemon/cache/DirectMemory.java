@@ -0,0 +1,35 @@
+package run.rook.daemon.cache;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import org.agrona.UnsafeAccess;
+
+// off-heap memory backed by direct ByteBuffers, so it is freed by the garbage
+// collector
+public final class DirectMemory {
+
+	// read directly, wrapping a direct ByteBuffer with this Agrona version
+	// needs sun.nio.ch, which newer JREs do not export
+	private static final long ADDRESS_OFFSET;
+
+	static {
+		try {
+			ADDRESS_OFFSET = UnsafeAccess.UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+		} catch (NoSuchFieldException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private DirectMemory() {
+
+	}
+
+	// returns the native address of a direct buffer
+	public static long address(ByteBuffer direct) {
+		if (!direct.isDirect()) {
+			throw new IllegalArgumentException("Not a direct buffer");
+		}
+		return UnsafeAccess.UNSAFE.getLong(direct, ADDRESS_OFFSET);
+	}
+}
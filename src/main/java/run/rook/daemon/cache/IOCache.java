@@ -1,300 +1,600 @@
 package run.rook.daemon.cache;
 
-import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
 
 import org.agrona.DirectBuffer;
-import org.agrona.MutableDirectBuffer;
-import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.UnsafeAccess;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.lmax.disruptor.BlockingWaitStrategy;
-import com.lmax.disruptor.RingBuffer;
-import com.lmax.disruptor.dsl.Disruptor;
-import com.lmax.disruptor.dsl.ProducerType;
+import run.rook.daemon.metrics.IOHistogram;
+import run.rook.daemon.metrics.IOMetricsSource;
+import run.rook.daemon.metrics.IOMetricsWriter;
 
-public class IOCache {
+// current input and output values and their listeners
+public class IOCache implements IOMetricsSource {
+
+	public static final int DEFAULT_MAX_VALUE_SIZE = 4096;
+	
+	private static final int SNAPSHOT_ATTEMPTS = 8;
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
-	private final Map<String, IOValue> inputs = new HashMap<>();
-	private final Map<String, IOValue> outputs = new HashMap<>();
-	private final Set<IOCacheListener> listeners = new LinkedHashSet<>();
-	private final Disruptor<IOCacheEvent> disruptor = new Disruptor<>(IOCacheEvent::new, 1024,
-			(Runnable r) -> new Thread(r, "IOCache"), ProducerType.MULTI, new BlockingWaitStrategy());
-	private final RingBuffer<IOCacheEvent> ringBuffer;
-
-	@SuppressWarnings("unchecked")
+	private final IORegistry registry = new IORegistry();
+	private final IOCacheShard[] shards;
+	private final Map<IOCacheListener, IOListenerQueue> listenerQueues = new ConcurrentHashMap<>();
+	// by listener class, so sessions of the same kind share one histogram
+	private final Map<Class<?>, IOHistogram> listenerTimes = new ConcurrentHashMap<>();
+	private final int maxValueSize;
+	private final AtomicLong rejectedCount = new AtomicLong();
+	// drops of queues that were closed, so the total never goes back
+	private final AtomicLong detachedOverflowCount = new AtomicLong();
+	private final Map<String, IOPublicationPolicy> policies = new ConcurrentHashMap<>();
+	private volatile IOPublicationPolicy defaultPolicy = IOPublicationPolicy.ALWAYS;
+	// bumped on every policy change, values pick up their policy again
+	private volatile int policyVersion = 0;
+	private IOCacheDispatchMode dispatchMode;
+	private int listenerQueueSize = 1024;
+	private final ExecutorService dispatchExecutor;
+	private volatile boolean started = false;
+
 	public IOCache() {
-		disruptor.handleEventsWith(this::handleEvent);
-		ringBuffer = disruptor.getRingBuffer();
+		this(1);
+	}
+	
+	public IOCache(int shardCount) {
+		this(shardCount, DEFAULT_MAX_VALUE_SIZE);
+	}
+	
+	// creates a cache that hashes names across the given number of shards, each
+	// handled by its own thread
+	public IOCache(int shardCount, int maxValueSize) {
+		this(shardCount, maxValueSize, null);
+	}
+	
+	// same as IOCache(), with a stage ahead of every shard created per shard
+	// index
+	public IOCache(int shardCount, int maxValueSize, IntFunction<IOCacheStage> stageFactory) {
+		this(shardCount, maxValueSize, stageFactory, IOCacheWaitMode.BLOCKING);
+	}
+	
+	// same as IOCache(), with the given wait mode for the event threads
+	public IOCache(int shardCount, int maxValueSize, IntFunction<IOCacheStage> stageFactory, IOCacheWaitMode waitMode) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("shardCount must be at least 1");
+		}
+		if (maxValueSize < 1) {
+			throw new IllegalArgumentException("maxValueSize must be at least 1");
+		}
+		this.maxValueSize = maxValueSize;
+		shards = new IOCacheShard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			String threadName = shardCount == 1 ? "IOCache" : "IOCache-" + i;
+			IOCacheStage stage = stageFactory == null ? null : stageFactory.apply(i);
+			shards[i] = new IOCacheShard(this, registry, threadName, maxValueSize, stage, waitMode);
+		}
+		dispatchMode = shardCount > 1 ? IOCacheDispatchMode.QUEUED : IOCacheDispatchMode.INLINE;
+		AtomicInteger threadCount = new AtomicInteger();
+		// only starts threads once a listener queue is attached
+		dispatchExecutor = Executors.newCachedThreadPool((Runnable r) -> {
+			Thread t = new Thread(r, "IOCache-Dispatch-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	// must be called before start()
+	public void setDispatchMode(IOCacheDispatchMode dispatchMode) {
+		if (dispatchMode == IOCacheDispatchMode.INLINE && shards.length > 1) {
+			throw new IllegalArgumentException("INLINE dispatch needs a single shard, use QUEUED with " + shards.length + " shards");
+		}
+		this.dispatchMode = dispatchMode;
+	}
+
+	// capacity of each listener's queue in IOCacheDispatchMode.QUEUED mode;
+	// must be a power of 2 and set before start()
+	public void setListenerQueueSize(int listenerQueueSize) {
+		if (Integer.bitCount(listenerQueueSize) != 1) {
+			throw new IllegalArgumentException("listenerQueueSize must be a power of 2");
+		}
+		this.listenerQueueSize = listenerQueueSize;
+	}
+	
+	public int getShardCount() {
+		return shards.length;
+	}
+	
+	public int getMaxValueSize() {
+		return maxValueSize;
+	}
+	
+	// number of values rejected because they were larger than the max value
+	// size, or their name or data type was too long
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+	
+	// number of updates not dispatched because of their publication policy
+	public long getSuppressedCount() {
+		long count = 0;
+		for (IOCacheShard shard : shards) {
+			count += shard.getSuppressedCount();
+		}
+		return count;
+	}
+	
+	// sets the policy of every name without a policy of its own
+	public synchronized void setDefaultPublicationPolicy(IOPublicationPolicy policy) {
+		defaultPolicy = policy;
+		policyVersion++;
+	}
+	
+	// sets the policy of all data types of a name
+	public synchronized void setPublicationPolicy(String name, IOPublicationPolicy policy) {
+		policies.put(name, policy);
+		policyVersion++;
+	}
+	
+	// returns a name to the default policy
+	public synchronized void clearPublicationPolicy(String name) {
+		policies.remove(name);
+		policyVersion++;
+	}
+	
+	public IOPublicationPolicy getPublicationPolicy(String name) {
+		IOPublicationPolicy policy = policies.get(name);
+		return policy == null ? defaultPolicy : policy;
+	}
+	
+	int getPolicyVersion() {
+		return policyVersion;
 	}
 	
 	public void start() {
-		disruptor.start();
+		started = true;
+		for (IOCacheShard shard : shards) {
+			shard.start();
+		}
+	}
+	
+	public void stop() {
+		started = false;
+		for (IOCacheShard shard : shards) {
+			shard.stop();
+		}
+		dispatchExecutor.shutdownNow();
+	}
+	
+	public IORegistry getRegistry() {
+		return registry;
 	}
 	
 	public void processInput(String name, String dataType, byte[] value, int valueLength, Object source) {
-		dispatchEvent(IOCacheEventType.INPUT, name, dataType, value, valueLength, source);
+		IOKey key = register(name, dataType);
+		if (key == null || rejected(key, valueLength)) {
+			return;
+		}
+		shardOf(key).dispatchEvent(IOCacheEventType.INPUT, key, value, valueLength, source);
 	}
 	
 	public void processOutput(String name, String dataType, byte[] value, int valueLength, Object source) {
-		dispatchEvent(IOCacheEventType.OUTPUT, name, dataType, value, valueLength, source);
+		IOKey key = register(name, dataType);
+		if (key == null || rejected(key, valueLength)) {
+			return;
+		}
+		shardOf(key).dispatchEvent(IOCacheEventType.OUTPUT, key, value, valueLength, source);
 	}
 	
-	private void dispatchEvent(IOCacheEventType eventType, String name, String dataType, byte[] value, int valueLength, Object source) {
-		long seq = ringBuffer.next();
-		IOCacheEvent event = ringBuffer.get(seq);
-		event.setEventType(eventType);
-		event.setName(name);
-		event.setDataType(dataType);
-		event.setValue(value, valueLength);
-		event.setSource(source);
-		ringBuffer.publish(seq);
+	// publishes an input by the id the IORegistry gave its name and data type
+	public void processInput(int id, byte[] value, int valueLength, Object source) {
+		IOKey key = getKey(id);
+		if (rejected(key, valueLength)) {
+			return;
+		}
+		shardOf(key).dispatchEvent(IOCacheEventType.INPUT, key, value, valueLength, source);
+	}
+	
+	// publishes an output by the id the IORegistry gave its name and data type
+	public void processOutput(int id, byte[] value, int valueLength, Object source) {
+		IOKey key = getKey(id);
+		if (rejected(key, valueLength)) {
+			return;
+		}
+		shardOf(key).dispatchEvent(IOCacheEventType.OUTPUT, key, value, valueLength, source);
 	}
 	
 	public void processInput(String name, String dataType, DirectBuffer value, int valueLength, Object source) {
-		dispatchEvent(IOCacheEventType.INPUT, name, dataType, value, valueLength, source);
+		IOKey key = register(name, dataType);
+		if (key == null || rejected(key, valueLength)) {
+			return;
+		}
+		shardOf(key).dispatchEvent(IOCacheEventType.INPUT, key, value, valueLength, source);
 	}
 	
 	public void processOutput(String name, String dataType, DirectBuffer value, int valueLength, Object source) {
-		dispatchEvent(IOCacheEventType.OUTPUT, name, dataType, value, valueLength, source);
+		IOKey key = register(name, dataType);
+		if (key == null || rejected(key, valueLength)) {
+			return;
+		}
+		shardOf(key).dispatchEvent(IOCacheEventType.OUTPUT, key, value, valueLength, source);
 	}
 	
-	private void dispatchEvent(IOCacheEventType eventType, String name, String dataType, DirectBuffer value, int valueLength, Object source) {
-		long seq = ringBuffer.next();
-		IOCacheEvent event = ringBuffer.get(seq);
-		event.setEventType(eventType);
-		event.setName(name);
-		event.setDataType(dataType);
-		event.setValue(value, valueLength);
-		event.setSource(source);
-		ringBuffer.publish(seq);
+	public void processInput(int id, DirectBuffer value, int valueLength, Object source) {
+		IOKey key = getKey(id);
+		if (rejected(key, valueLength)) {
+			return;
+		}
+		shardOf(key).dispatchEvent(IOCacheEventType.INPUT, key, value, valueLength, source);
 	}
 	
-	public void registerListener(IOCacheListener listener) {
-		dispatchEvent(IOCacheEventType.REGISTER, listener);
+	public void processOutput(int id, DirectBuffer value, int valueLength, Object source) {
+		IOKey key = getKey(id);
+		if (rejected(key, valueLength)) {
+			return;
+		}
+		shardOf(key).dispatchEvent(IOCacheEventType.OUTPUT, key, value, valueLength, source);
 	}
-
-	public void deregisterListener(IOCacheListener listener) {
-		dispatchEvent(IOCacheEventType.DEREGISTER, listener);
+	
+	// sets an input value restored from an earlier run; must be called before
+	// start()
+	public void restoreInput(String name, String dataType, DirectBuffer value, int valueLength) {
+		checkNotStarted();
+		IOKey key = register(name, dataType);
+		if (key != null && !rejected(key, valueLength)) {
+			shardOf(key).restoreInput(key, value, valueLength);
+		}
 	}
 	
-	public void getInputs(IOCacheListener listener) {
-		dispatchEvent(IOCacheEventType.GET_INPUTS, listener);
+	// sets an output value restored from an earlier run; must be called before
+	// start()
+	public void restoreOutput(String name, String dataType, DirectBuffer value, int valueLength) {
+		checkNotStarted();
+		IOKey key = register(name, dataType);
+		if (key != null && !rejected(key, valueLength)) {
+			shardOf(key).restoreOutput(key, value, valueLength);
+		}
 	}
-
-	public void getOutputs(IOCacheListener listener) {
-		dispatchEvent(IOCacheEventType.GET_OUTPUTS, listener);
-	}
-	
-	private void dispatchEvent(IOCacheEventType eventType, IOCacheListener listener) {
-		long seq = ringBuffer.next();
-		IOCacheEvent event = ringBuffer.get(seq);
-		event.setEventType(eventType);
-		event.setListener(listener);
-		ringBuffer.publish(seq);
-	}
-	
-	private void handleEvent(IOCacheEvent event, long sequence, boolean endOfBatch) {
-		switch(event.getEventType()) {
-		case INPUT:
-			handleInputEvent(event.getName(), event.getDataType(), event.getValue(), event.getValueLength(), event.getSource());
-			break;
-		case OUTPUT:
-			handleOutputEvent(event.getName(), event.getDataType(), event.getValue(), event.getValueLength(), event.getSource());
-			break;
-		case REGISTER:
-			handleRegisterEvent(event.getListener());
-			break;
-		case DEREGISTER:
-			handleDeregisterEvent(event.getListener());
-			break;
-		case GET_INPUTS:
-			handleGetInputsEvent(event.getListener());
-			break;
-		case GET_OUTPUTS:
-			handleGetOutputsEvent(event.getListener());
-			break;
-		}
-		event.reset();
-	}
-	
-	private void handleInputEvent(String name, String dataType, DirectBuffer value, int valueLength, Object source) {
-		updateInputValue(name, dataType, value, valueLength);
-		dispatchInput(name, dataType, value, valueLength, source);
-	}
-
-	private void updateInputValue(String name, String dataType, DirectBuffer value, int valueLength) {
-		IOValue val = inputs.get(name);
-		if (val == null) {
-			val = new IOValue();
-			inputs.put(name, val);
-		}
-		val.setType(dataType);
-		val.setValue(value, valueLength);
-		if(logger.isDebugEnabled()) {
-			logger.debug("Updated Input '" + name + "': " + val);
-		}
-	}
-
-	private void dispatchInput(String name, String dataType, DirectBuffer value, int valueLength, Object source) {
-		for (IOCacheListener listener : listeners) {
-			try {
-				listener.onInput(name, dataType, value, valueLength, source);
-			} catch (Throwable t) {
-				// protect the caller from a listener exception
-				logger.error("Could not dispatch input to listener", t);
+	
+	private void checkNotStarted() {
+		if (started) {
+			// the event threads own the values once started
+			throw new IllegalStateException("Values can only be restored before the cache is started");
+		}
+	}
+	
+	// reads the current value of an input from the calling thread, without
+	// going through the event thread; returns null if it has no value
+	public IOValueSnapshot readInput(int id) {
+		IOKey key = registry.get(id);
+		return key == null ? null : shardOf(key).readInput(key);
+	}
+	
+	// reads the current value of an output from the calling thread, without
+	// going through the event thread; returns null if it has no value
+	public IOValueSnapshot readOutput(int id) {
+		IOKey key = registry.get(id);
+		return key == null ? null : shardOf(key).readOutput(key);
+	}
+	
+	// reads all input and output values at a single point in time; must not be
+	// called from a listener
+	public IOCacheSnapshot read() {
+		long[] versions = new long[shards.length];
+		for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+			if (readBatchVersions(versions)) {
+				IOCacheSnapshot snapshot = copyAll();
+				UnsafeAccess.UNSAFE.loadFence();
+				if (sameBatchVersions(versions)) {
+					return snapshot;
+				}
 			}
+			Thread.yield();
 		}
+		return readAtBarrier();
 	}
 
-	public void handleOutputEvent(String name, String dataType, DirectBuffer value, int valueLength, Object source) {
-		updateOutputValue(name, dataType, value, valueLength);
-		dispatchOutput(name, dataType, value, valueLength, source);
+	private synchronized IOCacheSnapshot readAtBarrier() {
+		// one barrier at a time, shards holding for different barriers would
+		// wait for each other
+		IOCacheBarrier barrier = new IOCacheBarrier(shards.length);
+		try {
+			for (IOCacheShard shard : shards) {
+				shard.dispatchBarrier(barrier);
+			}
+			while (!barrier.awaitArrival(100, TimeUnit.MILLISECONDS)) {
+				if (!started) {
+					// a stopped shard never arrives, but no longer changes its values either
+					break;
+				}
+			}
+			return copyAll();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while reading the cache", e);
+		} finally {
+			barrier.release();
+		}
 	}
 
-	private void updateOutputValue(String name, String dataType, DirectBuffer value, int valueLength) {
-		IOValue val = outputs.get(name);
-		if (val == null) {
-			val = new IOValue();
-			outputs.put(name, val);
-		}
-		val.setType(dataType);
-		val.setValue(value, valueLength);
-		if(logger.isDebugEnabled()) {
-			logger.debug("Updated Output '" + name + "': " + val);
+	private boolean readBatchVersions(long[] versions) {
+		for (int i = 0; i < shards.length; i++) {
+			versions[i] = shards[i].getBatchVersion();
+			if ((versions[i] & 1) == 1) {
+				return false;
+			}
 		}
+		return true;
 	}
 
-	private void dispatchOutput(String name, String dataType, DirectBuffer value, int valueLength, Object source) {
-		for (IOCacheListener listener : listeners) {
-			try {
-				listener.onOutput(name, dataType, value, valueLength, source);
-			} catch (Throwable t) {
-				// protect the caller from a listener exception
-				logger.error("Could not dispatch output to listener", t);
+	private boolean sameBatchVersions(long[] versions) {
+		for (int i = 0; i < shards.length; i++) {
+			if (shards[i].getBatchVersion() != versions[i]) {
+				return false;
 			}
 		}
+		return true;
 	}
 
-	public void handleGetInputsEvent(IOCacheListener listener) {
-		for (Map.Entry<String, IOValue> e : inputs.entrySet()) {
-			String name = e.getKey();
-			IOValue val = e.getValue();
-			listener.onInput(name, val.getType(), val.getValue(), val.getLength(), this);
+	private IOCacheSnapshot copyAll() {
+		List<IOValueSnapshot> inputs = new ArrayList<>();
+		List<IOValueSnapshot> outputs = new ArrayList<>();
+		for (IOCacheShard shard : shards) {
+			shard.copyInputs(inputs);
+			shard.copyOutputs(outputs);
 		}
+		return new IOCacheSnapshot(inputs, outputs);
 	}
-
-	public void handleGetOutputsEvent(IOCacheListener listener) {
-		for (Map.Entry<String, IOValue> e : outputs.entrySet()) {
-			String name = e.getKey();
-			IOValue val = e.getValue();
-			listener.onOutput(name, val.getType(), val.getValue(), val.getLength(), this);
+	
+	private IOKey register(String name, String dataType) {
+		try {
+			return registry.register(name, dataType);
+		} catch (IllegalArgumentException e) {
+			reject(e.getMessage() + ", rejected value of '" + abbreviate(name) + "'");
+			return null;
 		}
 	}
 
-	public void handleRegisterEvent(IOCacheListener listener) {
-		listeners.add(listener);
+	private static String abbreviate(String name) {
+		return name == null || name.length() <= 64 ? name : name.substring(0, 64) + "...";
 	}
 
-	public void handleDeregisterEvent(IOCacheListener listener) {
-		while (listeners.remove(listener)) {
-			
+	private boolean rejected(IOKey key, int valueLength) {
+		if (valueLength <= maxValueSize) {
+			return false;
 		}
+		reject("Rejected value of " + valueLength + " bytes for '" + key.getName() + "', max value size is "
+				+ maxValueSize);
+		return true;
 	}
 
-	private static class IOCacheEvent {
-		private final MutableDirectBuffer defaultValue = new UnsafeBuffer(new byte[128]);
-		private IOCacheEventType eventType;
-		private String name;
-		private String dataType;
-		private MutableDirectBuffer value = defaultValue;
-		private int valueLength;
-		private Object source;
-		private IOCacheListener listener;
-		
-		public void setEventType(IOCacheEventType type) {
-			this.eventType = type;
+	private void reject(String message) {
+		long count = rejectedCount.incrementAndGet();
+		if (Long.bitCount(count) == 1) {
+			// back off logging while values keep getting rejected
+			logger.warn(message + " (" + count + " rejected)");
 		}
-		
-		public IOCacheEventType getEventType() {
-			return eventType;
+	}
+	
+	private IOKey getKey(int id) {
+		IOKey key = registry.get(id);
+		if (key == null) {
+			throw new IllegalArgumentException("Unknown IO id: " + id);
 		}
-		
-		public void setName(String name) {
-			this.name = name;
+		return key;
+	}
+	
+	private IOCacheShard shardOf(IOKey key) {
+		return shardOf(key.getName());
+	}
+	
+	private IOCacheShard shardOf(String name) {
+		return shards[shardIndex(name)];
+	}
+
+	private int shardIndex(String name) {
+		if (shards.length == 1) {
+			return 0;
 		}
-		
-		public String getName() {
-			return name;
+		return (name.hashCode() & Integer.MAX_VALUE) % shards.length;
+	}
+	
+	// subscribes the listener to all inputs and outputs
+	public void registerListener(IOCacheListener listener) {
+		dispatchEvent(IOCacheEventType.REGISTER, attach(listener), null);
+	}
+
+	// removes all subscriptions of the listener
+	public void deregisterListener(IOCacheListener listener) {
+		IOCacheListener target = deliveryTarget(listener);
+		AtomicInteger remaining = new AtomicInteger(shards.length);
+		Runnable removed = () -> {
+			if (remaining.decrementAndGet() == 0) {
+				detach(listener, target);
+			}
+		};
+		for (IOCacheShard shard : shards) {
+			shard.dispatchDeregister(target, removed);
 		}
-		
-		public void setDataType(String dataType) {
-			this.dataType = dataType;
+	}
+	
+	// subscribes the listener to the input with the given name, to the inputs
+	// matching an IOTopicPattern such as "arm/#", or to all inputs if name is
+	// null
+	public void subscribeInputs(IOCacheListener listener, String name) {
+		subscribeInputs(listener, Collections.singletonList(name));
+	}
+
+	// subscribes the listener to several names and patterns at once, null for
+	// all inputs
+	public void subscribeInputs(IOCacheListener listener, Collection<String> names) {
+		dispatchSubscribe(IOCacheEventType.SUBSCRIBE_INPUTS, attach(listener), names);
+	}
+
+	public void unsubscribeInputs(IOCacheListener listener, String name) {
+		dispatchEvent(IOCacheEventType.UNSUBSCRIBE_INPUTS, deliveryTarget(listener), name);
+	}
+	
+	// subscribes the listener to the output with the given name, to the outputs
+	// matching an IOTopicPattern, or to all outputs if name is null
+	public void subscribeOutputs(IOCacheListener listener, String name) {
+		subscribeOutputs(listener, Collections.singletonList(name));
+	}
+
+	public void subscribeOutputs(IOCacheListener listener, Collection<String> names) {
+		dispatchSubscribe(IOCacheEventType.SUBSCRIBE_OUTPUTS, attach(listener), names);
+	}
+
+	public void unsubscribeOutputs(IOCacheListener listener, String name) {
+		dispatchEvent(IOCacheEventType.UNSUBSCRIBE_OUTPUTS, deliveryTarget(listener), name);
+	}
+	
+	// delivers the current values of all inputs as one snapshot per shard
+	public void getInputs(IOCacheListener listener) {
+		dispatchEvent(IOCacheEventType.GET_INPUTS, deliveryTarget(listener), null);
+	}
+
+	public void getOutputs(IOCacheListener listener) {
+		dispatchEvent(IOCacheEventType.GET_OUTPUTS, deliveryTarget(listener), null);
+	}
+	
+	private void dispatchEvent(IOCacheEventType eventType, IOCacheListener listener, String name) {
+		if (name != null && !IOTopicPattern.isPattern(name)) {
+			// only the name's shard ever dispatches it
+			shardOf(name).dispatchEvent(eventType, listener, name);
+		} else {
+			// all names, or a pattern that may match names of every shard
+			for (IOCacheShard shard : shards) {
+				shard.dispatchEvent(eventType, listener, name);
+			}
 		}
-		
-		public String getDataType() {
-			return dataType;
+	}
+
+	private void dispatchSubscribe(IOCacheEventType eventType, IOCacheListener listener, Collection<String> names) {
+		List<List<String>> byShard = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			byShard.add(new ArrayList<>());
 		}
-		
-		public void setValue(byte[] value, int valueLength) {
-			if(value == null || valueLength == 0) {
-				this.valueLength = 0;
-				return;
+		for (String name : names) {
+			if (name != null && !IOTopicPattern.isPattern(name)) {
+				byShard.get(shardIndex(name)).add(name);
+			} else {
+				for (List<String> shardNames : byShard) {
+					shardNames.add(name);
+				}
 			}
-			if(valueLength > defaultValue.capacity()) {
-				this.value = new UnsafeBuffer(new byte[128]) ;
+		}
+		for (int i = 0; i < shards.length; i++) {
+			List<String> shardNames = byShard.get(i);
+			if (!shardNames.isEmpty()) {
+				shards[i].dispatchEvent(eventType, listener, shardNames.toArray(new String[shardNames.size()]));
 			}
-			this.value.putBytes(0, value);
-			this.valueLength = valueLength;
 		}
-		
-		public MutableDirectBuffer getValue() {
-			return value;
+	}
+
+	// returns the object that updates for the listener are handed to, creating
+	// the listener's queue in IOCacheDispatchMode.QUEUED mode
+	private IOCacheListener attach(IOCacheListener listener) {
+		if (dispatchMode != IOCacheDispatchMode.QUEUED) {
+			getListenerTime(listener);
+			return listener;
 		}
-		
-		public int getValueLength() {
-			return valueLength;
+		// every shard feeds the same queue, so it needs a multi producer ring
+		return listenerQueues.computeIfAbsent(listener,
+				l -> new IOListenerQueue(l, getListenerTime(l), listenerQueueSize, maxValueSize, dispatchExecutor, shards.length > 1));
+	}
+
+	IOHistogram getListenerTime(IOCacheListener listener) {
+		IOHistogram histogram = listenerTimes.get(listener.getClass());
+		if (histogram == null) {
+			histogram = listenerTimes.computeIfAbsent(listener.getClass(), c -> new IOHistogram());
 		}
-		
-		public void setValue(DirectBuffer value, int valueLength) {
-			if(valueLength > defaultValue.capacity()) {
-				this.value = new UnsafeBuffer(new byte[128]) ;
+		return histogram;
+	}
+
+	// the histogram the shards record the target's time in, or null for queues,
+	// which time the listener on the drain thread
+	IOHistogram getDirectListenerTime(IOCacheListener target) {
+		return target instanceof IOListenerQueue ? null : getListenerTime(target);
+	}
+
+	IOCacheListener deliveryTarget(IOCacheListener listener) {
+		IOListenerQueue queue = listenerQueues.get(listener);
+		return queue == null ? listener : queue;
+	}
+
+	private void detach(IOCacheListener listener, IOCacheListener target) {
+		if (target instanceof IOListenerQueue && listenerQueues.remove(listener, target)) {
+			IOListenerQueue queue = (IOListenerQueue) target;
+			queue.close();
+			detachedOverflowCount.addAndGet(queue.getOverflowCount());
+		}
+	}
+
+	// true if any shard still has a subscription of the target
+	boolean isSubscribed(IOCacheListener target) {
+		for (IOCacheShard shard : shards) {
+			if (shard.isSubscribed(target)) {
+				return true;
 			}
-			this.value.putBytes(0, value, 0, valueLength);
-			this.valueLength = valueLength;
 		}
-		
-		public void setSource(Object source) {
-			this.source = source;
+		return false;
+	}
+
+	// number of updates dropped per listener because its queue was full; only
+	// listeners registered in IOCacheDispatchMode.QUEUED mode are included
+	public Map<IOCacheListener, Long> getOverflowCounts() {
+		Map<IOCacheListener, Long> counts = new LinkedHashMap<>();
+		for (IOListenerQueue queue : listenerQueues.values()) {
+			counts.put(queue.getListener(), queue.getOverflowCount());
 		}
-		
-		public Object getSource() {
-			return source;
+		return counts;
+	}
+
+	// updates dropped by all listener queues so far, including the queues of
+	// listeners that were deregistered
+	public long getListenerQueueOverflowCount() {
+		long overflow = detachedOverflowCount.get();
+		for (IOListenerQueue queue : listenerQueues.values()) {
+			overflow += queue.getOverflowCount();
 		}
-		
-		public IOCacheListener getListener() {
-			return listener;
+		return overflow;
+	}
+
+	@Override
+	public void writeMetrics(IOMetricsWriter writer) {
+		writer.gauge("rook_cache_ring_remaining_capacity", "Free slots of each shard's ring.");
+		for (int i = 0; i < shards.length; i++) {
+			writer.sample("rook_cache_ring_remaining_capacity", "shard", Integer.toString(i), shards[i].getRemainingCapacity());
 		}
-		
-		public void setListener(IOCacheListener listener) {
-			this.listener = listener;
+		writer.histogram("rook_cache_producer_wait_seconds", "Time producers waited for a slot of a full ring.");
+		for (int i = 0; i < shards.length; i++) {
+			writer.samples("rook_cache_producer_wait_seconds", "shard", Integer.toString(i), shards[i].getProducerWait());
 		}
-		
-		public void reset() {
-			eventType = null;
-			name = null;
-			dataType = null;
-			value = defaultValue;
-			source = null;
-			listener = null;
+		writer.histogram("rook_cache_dispatch_latency_seconds", "Time from publishing an update until its shard applies it.");
+		for (int i = 0; i < shards.length; i++) {
+			writer.samples("rook_cache_dispatch_latency_seconds", "shard", Integer.toString(i), shards[i].getDispatchLatency());
 		}
-	}
-	
-	private static enum IOCacheEventType {
-		OUTPUT, INPUT, REGISTER, DEREGISTER, GET_INPUTS, GET_OUTPUTS
+		writer.histogram("rook_cache_listener_seconds", "Time spent in listeners, by listener class.");
+		for (Map.Entry<Class<?>, IOHistogram> e : listenerTimes.entrySet()) {
+			String name = e.getKey().getName();
+			writer.samples("rook_cache_listener_seconds", "listener", name.substring(name.lastIndexOf('.') + 1), e.getValue());
+		}
+		writer.counter("rook_cache_rejected_total", "Values rejected for exceeding the max value, name or data type size.");
+		writer.sample("rook_cache_rejected_total", getRejectedCount());
+		writer.counter("rook_cache_suppressed_total", "Updates not dispatched because of their publication policy.");
+		writer.sample("rook_cache_suppressed_total", getSuppressedCount());
+		writer.counter("rook_cache_listener_queue_overflow_total", "Updates dropped because a listener queue was full.");
+		writer.sample("rook_cache_listener_queue_overflow_total", getListenerQueueOverflowCount());
 	}
 }
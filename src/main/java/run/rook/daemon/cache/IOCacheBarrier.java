@@ -0,0 +1,33 @@
+package run.rook.daemon.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// holds the event thread of every shard between two events while a reader
+// copies the values of all shards
+class IOCacheBarrier {
+	private final CountDownLatch arrived;
+	private final CountDownLatch released = new CountDownLatch(1);
+
+	IOCacheBarrier(int shardCount) {
+		arrived = new CountDownLatch(shardCount);
+	}
+
+	// called by each shard's event thread, returns once the reader is done
+	void arriveAndWait() {
+		arrived.countDown();
+		try {
+			released.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	boolean awaitArrival(long timeout, TimeUnit unit) throws InterruptedException {
+		return arrived.await(timeout, unit);
+	}
+
+	void release() {
+		released.countDown();
+	}
+}
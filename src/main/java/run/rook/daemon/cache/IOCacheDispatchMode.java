@@ -0,0 +1,10 @@
+package run.rook.daemon.cache;
+
+// how the IOCache event thread hands updates to its listeners
+public enum IOCacheDispatchMode {
+	// listeners are called one after another on the event thread
+	INLINE,
+	// every listener gets its own bounded queue that is drained on a shared
+	// dispatch pool
+	QUEUED
+}
@@ -0,0 +1,170 @@
+package run.rook.daemon.cache;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+class IOCacheEvent {
+	// keeps the slab memory behind the value buffer reachable
+	private final IOCacheEventSlab slab;
+	private final MutableDirectBuffer slot;
+	private final int maxValueSize;
+	// values larger than the slot, allocated on first use
+	private UnsafeBuffer overflow;
+	private MutableDirectBuffer value;
+	private IOCacheEventType eventType;
+	private IOKey key;
+	private String name;
+	private String[] names;
+	private IOSnapshot snapshot;
+	private IOCacheBarrier barrier;
+	private Runnable callback;
+	private int valueLength;
+	private Object source;
+	private IOCacheListener listener;
+	private long publishNanos;
+	
+	public IOCacheEvent(IOCacheEventSlab slab, MutableDirectBuffer slot, int maxValueSize) {
+		this.slab = slab;
+		this.slot = slot;
+		this.maxValueSize = maxValueSize;
+		this.value = slot;
+	}
+	
+	public void setEventType(IOCacheEventType type) {
+		this.eventType = type;
+	}
+	
+	public IOCacheEventType getEventType() {
+		return eventType;
+	}
+	
+	public void setKey(IOKey key) {
+		this.key = key;
+	}
+	
+	public IOKey getKey() {
+		return key;
+	}
+	
+	public void setName(String name) {
+		this.name = name;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public void setNames(String[] names) {
+		this.names = names;
+	}
+	
+	public String[] getNames() {
+		return names;
+	}
+	
+	public void setSnapshot(IOSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+	
+	public IOSnapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	public void setBarrier(IOCacheBarrier barrier) {
+		this.barrier = barrier;
+	}
+	
+	public IOCacheBarrier getBarrier() {
+		return barrier;
+	}
+	
+	public void setCallback(Runnable callback) {
+		this.callback = callback;
+	}
+	
+	public Runnable getCallback() {
+		return callback;
+	}
+	
+	public void setValue(byte[] value, int valueLength) {
+		if(value == null || valueLength == 0) {
+			this.valueLength = 0;
+			return;
+		}
+		checkCapacity(valueLength);
+		this.value.putBytes(0, value, 0, valueLength);
+		this.valueLength = valueLength;
+	}
+	
+	public MutableDirectBuffer getValue() {
+		return value;
+	}
+	
+	public int getValueLength() {
+		return valueLength;
+	}
+	
+	public void setValue(DirectBuffer value, int valueLength) {
+		if(value == null || valueLength == 0) {
+			this.valueLength = 0;
+			return;
+		}
+		checkCapacity(valueLength);
+		this.value.putBytes(0, value, 0, valueLength);
+		this.valueLength = valueLength;
+	}
+	
+	private void checkCapacity(int valueLength) {
+		if(valueLength <= slot.capacity()) {
+			value = slot;
+			return;
+		}
+		if(valueLength > maxValueSize) {
+			// IOCache rejects oversized values before they reach a slot
+			throw new IllegalArgumentException("Value of " + valueLength + " bytes exceeds the max value size of " + maxValueSize);
+		}
+		if(overflow == null || overflow.capacity() < valueLength) {
+			int capacity = Math.min(Integer.highestOneBit(valueLength - 1) << 1, maxValueSize);
+			overflow = new UnsafeBuffer(new byte[capacity]);
+		}
+		value = overflow;
+	}
+	
+	public void setSource(Object source) {
+		this.source = source;
+	}
+	
+	public Object getSource() {
+		return source;
+	}
+	
+	public IOCacheListener getListener() {
+		return listener;
+	}
+	
+	public void setListener(IOCacheListener listener) {
+		this.listener = listener;
+	}
+	
+	public long getPublishNanos() {
+		return publishNanos;
+	}
+	
+	public void setPublishNanos(long publishNanos) {
+		this.publishNanos = publishNanos;
+	}
+	
+	public void reset() {
+		eventType = null;
+		key = null;
+		name = null;
+		names = null;
+		snapshot = null;
+		barrier = null;
+		callback = null;
+		valueLength = 0;
+		source = null;
+		listener = null;
+	}
+}
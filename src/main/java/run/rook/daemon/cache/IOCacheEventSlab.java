@@ -0,0 +1,45 @@
+package run.rook.daemon.cache;
+
+import java.nio.ByteBuffer;
+
+import org.agrona.concurrent.UnsafeBuffer;
+
+import com.lmax.disruptor.EventFactory;
+
+// creates the events of a ring with their value buffers carved out of one
+// preallocated off-heap slab, one fixed size region per slot
+class IOCacheEventSlab implements EventFactory<IOCacheEvent> {
+
+	// freed by the garbage collector once no event refers to the slab anymore
+	private final ByteBuffer memory;
+	private final long address;
+	private final int slots;
+	private final int slotSize;
+	private final int maxValueSize;
+	private int nextSlot = 0;
+
+	public IOCacheEventSlab(int slots, int slotSize) {
+		this(slots, slotSize, slotSize);
+	}
+
+	public IOCacheEventSlab(int slots, int slotSize, int maxValueSize) {
+		if ((long) slots * slotSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Slab of " + slots + " slots of " + slotSize + " bytes is too large");
+		}
+		this.memory = ByteBuffer.allocateDirect(slots * slotSize);
+		this.address = DirectMemory.address(memory);
+		this.slots = slots;
+		this.slotSize = slotSize;
+		this.maxValueSize = maxValueSize;
+	}
+
+	@Override
+	public IOCacheEvent newInstance() {
+		if (nextSlot == slots) {
+			throw new IllegalStateException("Slab has no slots left");
+		}
+		UnsafeBuffer value = new UnsafeBuffer(address + (long) nextSlot * slotSize, slotSize);
+		nextSlot++;
+		return new IOCacheEvent(this, value, maxValueSize);
+	}
+}
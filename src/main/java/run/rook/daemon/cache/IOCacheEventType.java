@@ -0,0 +1,6 @@
+package run.rook.daemon.cache;
+
+enum IOCacheEventType {
+	OUTPUT, INPUT, REGISTER, DEREGISTER, GET_INPUTS, GET_OUTPUTS, SUBSCRIBE_INPUTS, UNSUBSCRIBE_INPUTS, SUBSCRIBE_OUTPUTS,
+	UNSUBSCRIBE_OUTPUTS, INPUT_SNAPSHOT, OUTPUT_SNAPSHOT, BARRIER
+}
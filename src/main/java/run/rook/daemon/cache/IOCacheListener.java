@@ -1,8 +1,27 @@
 package run.rook.daemon.cache;
 
 import org.agrona.DirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
 
 public interface IOCacheListener {
-	void onInput(String name, String dataType, DirectBuffer value, int valueLength, Object source);
-	void onOutput(String name, String dataType, DirectBuffer value, int valueLength, Object source);
+	void onInput(IOKey key, DirectBuffer value, int valueLength, Object source);
+	void onOutput(IOKey key, DirectBuffer value, int valueLength, Object source);
+
+	// called once per subscribe with the current values of the inputs it
+	// matched, before any live update of them
+	default void onInputSnapshot(IOSnapshot snapshot, Object source) {
+		UnsafeBuffer buffer = new UnsafeBuffer(new byte[0]);
+		for (IOValueSnapshot value : snapshot.getValues()) {
+			buffer.wrap(value.getValue());
+			onInput(value.getKey(), buffer, value.getValue().length, source);
+		}
+	}
+
+	default void onOutputSnapshot(IOSnapshot snapshot, Object source) {
+		UnsafeBuffer buffer = new UnsafeBuffer(new byte[0]);
+		for (IOValueSnapshot value : snapshot.getValues()) {
+			buffer.wrap(value.getValue());
+			onOutput(value.getKey(), buffer, value.getValue().length, source);
+		}
+	}
 }
@@ -0,0 +1,555 @@
+package run.rook.daemon.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+
+import org.agrona.DirectBuffer;
+import org.agrona.UnsafeAccess;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.metrics.IOHistogram;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.InsufficientCapacityException;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+
+// one partition of the IOCache: a ring, its event thread, the values of the
+// names hashed to it and the subscriptions to those names
+class IOCacheShard {
+
+	private static final int RING_SIZE = 1024;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final IOCache cache;
+	private final IORegistry registry;
+	// tables are replaced when they grow and read by snapshot readers
+	private volatile IOValue[] inputs = new IOValue[64];
+	private volatile IOValue[] outputs = new IOValue[64];
+	// odd while the event thread is applying a batch of value updates
+	private volatile long batchVersion = 0;
+	// written by the event thread only
+	private volatile long suppressedCount = 0;
+	private final IOHistogram producerWait = new IOHistogram();
+	private final IOHistogram dispatchLatency = new IOHistogram();
+	private final IOSubscriptionIndex inputSubscriptions;
+	private final IOSubscriptionIndex outputSubscriptions;
+	private final Disruptor<IOCacheEvent> disruptor;
+	private final RingBuffer<IOCacheEvent> ringBuffer;
+
+	private final String threadName;
+	// consumed by the thread factory, in the order consumers were added
+	private final Queue<String> threadNames = new ArrayDeque<>();
+
+	// stage: runs ahead of the shard on its own thread, or null
+	@SuppressWarnings("unchecked")
+	public IOCacheShard(IOCache cache, IORegistry registry, String threadName, int maxValueSize, IOCacheStage stage,
+			IOCacheWaitMode waitMode) {
+		this.cache = cache;
+		this.registry = registry;
+		this.threadName = threadName;
+		// queues time their listener on the drain thread
+		inputSubscriptions = new IOSubscriptionIndex(cache::getDirectListenerTime);
+		outputSubscriptions = new IOSubscriptionIndex(cache::getDirectListenerTime);
+		disruptor = new Disruptor<>(new IOCacheEventSlab(RING_SIZE, maxValueSize), RING_SIZE,
+				(Runnable r) -> new Thread(r, threadNames.isEmpty() ? threadName : threadNames.poll()),
+				ProducerType.MULTI, waitStrategy(waitMode));
+		// handlers must be added before anything is published, they start at
+		// the ring's current sequence
+		if (stage == null) {
+			disruptor.handleEventsWith(this::handleEvent);
+		} else {
+			threadNames.add(threadName + "-Stage");
+			threadNames.add(threadName);
+			disruptor.handleEventsWith((IOCacheEvent event, long sequence, boolean endOfBatch) -> {
+				handleStageEvent(stage, event, endOfBatch);
+			}).then(this::handleEvent);
+		}
+		ringBuffer = disruptor.getRingBuffer();
+	}
+
+	private static WaitStrategy waitStrategy(IOCacheWaitMode waitMode) {
+		switch (waitMode) {
+		case YIELDING:
+			return new YieldingWaitStrategy();
+		case BUSY_SPIN:
+			return new BusySpinWaitStrategy();
+		default:
+			return new BlockingWaitStrategy();
+		}
+	}
+
+	public void start() {
+		disruptor.start();
+	}
+
+	public void stop() {
+		disruptor.halt();
+	}
+
+	public void dispatchEvent(IOCacheEventType eventType, IOKey key, byte[] value, int valueLength, Object source) {
+		long seq = claim();
+		IOCacheEvent event = ringBuffer.get(seq);
+		try {
+			event.setValue(value, valueLength);
+			event.setEventType(eventType);
+			event.setKey(key);
+			event.setSource(source);
+			event.setPublishNanos(System.nanoTime());
+		} catch (RuntimeException e) {
+			// publish the slot empty rather than half filled
+			event.reset();
+			throw e;
+		} finally {
+			// a claimed sequence must always be published
+			ringBuffer.publish(seq);
+		}
+	}
+
+	public void dispatchEvent(IOCacheEventType eventType, IOKey key, DirectBuffer value, int valueLength, Object source) {
+		long seq = claim();
+		IOCacheEvent event = ringBuffer.get(seq);
+		try {
+			event.setValue(value, valueLength);
+			event.setEventType(eventType);
+			event.setKey(key);
+			event.setSource(source);
+			event.setPublishNanos(System.nanoTime());
+		} catch (RuntimeException e) {
+			// publish the slot empty rather than half filled
+			event.reset();
+			throw e;
+		} finally {
+			// a claimed sequence must always be published
+			ringBuffer.publish(seq);
+		}
+	}
+
+	public void dispatchEvent(IOCacheEventType eventType, IOCacheListener listener, String name) {
+		long seq = claim();
+		IOCacheEvent event = ringBuffer.get(seq);
+		event.setEventType(eventType);
+		event.setListener(listener);
+		event.setName(name);
+		ringBuffer.publish(seq);
+	}
+
+	public void dispatchEvent(IOCacheEventType eventType, IOCacheListener listener, String[] names) {
+		long seq = claim();
+		IOCacheEvent event = ringBuffer.get(seq);
+		event.setEventType(eventType);
+		event.setListener(listener);
+		event.setNames(names);
+		ringBuffer.publish(seq);
+	}
+
+	public void dispatchDeregister(IOCacheListener target, Runnable removed) {
+		long seq = claim();
+		IOCacheEvent event = ringBuffer.get(seq);
+		event.setEventType(IOCacheEventType.DEREGISTER);
+		event.setListener(target);
+		event.setCallback(removed);
+		ringBuffer.publish(seq);
+	}
+
+	public void dispatchBarrier(IOCacheBarrier barrier) {
+		long seq = claim();
+		IOCacheEvent event = ringBuffer.get(seq);
+		event.setEventType(IOCacheEventType.BARRIER);
+		event.setBarrier(barrier);
+		ringBuffer.publish(seq);
+	}
+
+	private long claim() {
+		try {
+			return ringBuffer.tryNext();
+		} catch (InsufficientCapacityException e) {
+			// only producers that find the ring full are timed
+			long start = System.nanoTime();
+			long seq = ringBuffer.next();
+			producerWait.record(System.nanoTime() - start);
+			return seq;
+		}
+	}
+
+	// sets a stale value without dispatching it; only called before the shard
+	// is started
+	public void restoreInput(IOKey key, DirectBuffer value, int valueLength) {
+		updateInputValue(key, value, valueLength, true);
+	}
+
+	public void restoreOutput(IOKey key, DirectBuffer value, int valueLength) {
+		updateOutputValue(key, value, valueLength, true);
+	}
+
+	public long getSuppressedCount() {
+		return suppressedCount;
+	}
+
+	public long getRemainingCapacity() {
+		return ringBuffer.remainingCapacity();
+	}
+
+	// time producers waited for a slot of the full ring
+	public IOHistogram getProducerWait() {
+		return producerWait;
+	}
+
+	// time from publishing an update until the event thread applies it
+	public IOHistogram getDispatchLatency() {
+		return dispatchLatency;
+	}
+
+	public long getBatchVersion() {
+		return batchVersion;
+	}
+
+	public IOValueSnapshot readInput(IOKey key) {
+		return read(inputs, key);
+	}
+
+	public IOValueSnapshot readOutput(IOKey key) {
+		return read(outputs, key);
+	}
+
+	private IOValueSnapshot read(IOValue[] table, IOKey key) {
+		int id = key.getId();
+		IOValue val = id < table.length ? table[id] : null;
+		return val == null ? null : val.read(key);
+	}
+
+	// adds a copy of every value of this shard to the list
+	public void copyInputs(List<IOValueSnapshot> values) {
+		copyAll(inputs, values);
+	}
+
+	public void copyOutputs(List<IOValueSnapshot> values) {
+		copyAll(outputs, values);
+	}
+
+	private void copyAll(IOValue[] table, List<IOValueSnapshot> values) {
+		for (int id = 0; id < table.length; id++) {
+			IOValue val = table[id];
+			if (val != null) {
+				IOValueSnapshot snapshot = val.read(registry.get(id));
+				if (snapshot != null) {
+					values.add(snapshot);
+				}
+			}
+		}
+	}
+
+	private void handleStageEvent(IOCacheStage stage, IOCacheEvent event, boolean endOfBatch) {
+		if (event.getEventType() == null) {
+			return;
+		}
+		try {
+			switch (event.getEventType()) {
+			case INPUT:
+				stage.onInput(event.getKey(), event.getValue(), event.getValueLength(), event.getSource(), endOfBatch);
+				break;
+			case OUTPUT:
+				stage.onOutput(event.getKey(), event.getValue(), event.getValueLength(), event.getSource(), endOfBatch);
+				break;
+			default:
+				break;
+			}
+		} catch (Throwable t) {
+			// the shard must still apply the event
+			logger.error("Stage of " + threadName + " failed", t);
+		}
+	}
+
+	private void handleEvent(IOCacheEvent event, long sequence, boolean endOfBatch) {
+		if (event.getEventType() == null) {
+			// a slot that could not be filled
+			if (endOfBatch) {
+				endBatchUpdate();
+			}
+			return;
+		}
+		switch(event.getEventType()) {
+		case INPUT:
+			dispatchLatency.record(System.nanoTime() - event.getPublishNanos());
+			beginBatchUpdate();
+			handleInputEvent(event.getKey(), event.getValue(), event.getValueLength(), event.getSource());
+			break;
+		case OUTPUT:
+			dispatchLatency.record(System.nanoTime() - event.getPublishNanos());
+			beginBatchUpdate();
+			handleOutputEvent(event.getKey(), event.getValue(), event.getValueLength(), event.getSource());
+			break;
+		case REGISTER:
+			handleRegisterEvent(event.getListener());
+			break;
+		case DEREGISTER:
+			handleDeregisterEvent(event.getListener(), event.getCallback());
+			break;
+		case GET_INPUTS:
+			handleGetInputsEvent(event.getListener());
+			break;
+		case GET_OUTPUTS:
+			handleGetOutputsEvent(event.getListener());
+			break;
+		case SUBSCRIBE_INPUTS:
+			handleSubscribeInputsEvent(event.getListener(), event.getNames());
+			break;
+		case UNSUBSCRIBE_INPUTS:
+			inputSubscriptions.unsubscribe(event.getListener(), event.getName());
+			break;
+		case SUBSCRIBE_OUTPUTS:
+			handleSubscribeOutputsEvent(event.getListener(), event.getNames());
+			break;
+		case UNSUBSCRIBE_OUTPUTS:
+			outputSubscriptions.unsubscribe(event.getListener(), event.getName());
+			break;
+		case BARRIER:
+			// values stay unchanged until the reader is done copying
+			event.getBarrier().arriveAndWait();
+			break;
+		default:
+			break;
+		}
+		event.reset();
+		if (endOfBatch) {
+			endBatchUpdate();
+		}
+	}
+
+	private void beginBatchUpdate() {
+		long v = batchVersion;
+		if ((v & 1) == 0) {
+			batchVersion = v + 1;
+			// keep the value writes from becoming visible before the odd version
+			UnsafeAccess.UNSAFE.storeFence();
+		}
+	}
+
+	private void endBatchUpdate() {
+		long v = batchVersion;
+		if ((v & 1) == 1) {
+			batchVersion = v + 1;
+		}
+	}
+
+	private void handleInputEvent(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		if (updateInputValue(key, value, valueLength, false)) {
+			dispatchInput(key, value, valueLength, source);
+		}
+	}
+
+	// returns true if the update should be dispatched
+	private boolean updateInputValue(IOKey key, DirectBuffer value, int valueLength, boolean stale) {
+		int id = key.getId();
+		IOValue[] table = inputs;
+		if (id >= table.length) {
+			table = Arrays.copyOf(table, Math.max(table.length * 2, id + 1));
+			inputs = table;
+		}
+		IOValue val = table[id];
+		if (val == null) {
+			val = new IOValue();
+			val.setType(key.getDataType());
+			table[id] = val;
+		}
+		boolean accepted = stale || accept(key, val, value, valueLength);
+		if (stale) {
+			val.setStaleValue(value, valueLength);
+		} else {
+			val.setValue(value, valueLength);
+		}
+		if(logger.isDebugEnabled()) {
+			logger.debug("Updated Input '" + key.getName() + "': " + val);
+		}
+		return accepted;
+	}
+
+	private boolean accept(IOKey key, IOValue val, DirectBuffer value, int valueLength) {
+		int version = cache.getPolicyVersion();
+		if (val.policyVersion != version) {
+			val.policy = cache.getPublicationPolicy(key.getName());
+			val.policyVersion = version;
+		}
+		if (val.policy.accept(val, key.getType(), value, valueLength)) {
+			return true;
+		}
+		suppressedCount++;
+		return false;
+	}
+
+	private void dispatchInput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		IOCacheListener[] listeners = inputSubscriptions.get(key);
+		IOHistogram[] times = inputSubscriptions.getTimes(key);
+		for (int i = 0; i < listeners.length; i++) {
+			long start = times[i] == null ? 0 : System.nanoTime();
+			try {
+				listeners[i].onInput(key, value, valueLength, source);
+			} catch (Throwable t) {
+				// protect the caller from a listener exception
+				logger.error("Could not dispatch input to listener", t);
+			}
+			if (times[i] != null) {
+				times[i].record(System.nanoTime() - start);
+			}
+		}
+	}
+
+	private void handleOutputEvent(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		if (updateOutputValue(key, value, valueLength, false)) {
+			dispatchOutput(key, value, valueLength, source);
+		}
+	}
+
+	private boolean updateOutputValue(IOKey key, DirectBuffer value, int valueLength, boolean stale) {
+		int id = key.getId();
+		IOValue[] table = outputs;
+		if (id >= table.length) {
+			table = Arrays.copyOf(table, Math.max(table.length * 2, id + 1));
+			outputs = table;
+		}
+		IOValue val = table[id];
+		if (val == null) {
+			val = new IOValue();
+			val.setType(key.getDataType());
+			table[id] = val;
+		}
+		boolean accepted = stale || accept(key, val, value, valueLength);
+		if (stale) {
+			val.setStaleValue(value, valueLength);
+		} else {
+			val.setValue(value, valueLength);
+		}
+		if(logger.isDebugEnabled()) {
+			logger.debug("Updated Output '" + key.getName() + "': " + val);
+		}
+		return accepted;
+	}
+
+	private void dispatchOutput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		IOCacheListener[] listeners = outputSubscriptions.get(key);
+		IOHistogram[] times = outputSubscriptions.getTimes(key);
+		for (int i = 0; i < listeners.length; i++) {
+			long start = times[i] == null ? 0 : System.nanoTime();
+			try {
+				listeners[i].onOutput(key, value, valueLength, source);
+			} catch (Throwable t) {
+				// protect the caller from a listener exception
+				logger.error("Could not dispatch output to listener", t);
+			}
+			if (times[i] != null) {
+				times[i].record(System.nanoTime() - start);
+			}
+		}
+	}
+
+	private void handleGetInputsEvent(IOCacheListener target) {
+		// a snapshot, so listeners can tell stale values apart
+		List<IOValueSnapshot> values = new ArrayList<>();
+		copyAll(inputs, values);
+		if (!values.isEmpty()) {
+			target.onInputSnapshot(new IOSnapshot(values), cache);
+		}
+	}
+
+	private void handleGetOutputsEvent(IOCacheListener target) {
+		List<IOValueSnapshot> values = new ArrayList<>();
+		copyAll(outputs, values);
+		if (!values.isEmpty()) {
+			target.onOutputSnapshot(new IOSnapshot(values), cache);
+		}
+	}
+
+	private void handleSubscribeInputsEvent(IOCacheListener target, String[] names) {
+		List<IOValueSnapshot> values = copyMatching(inputs, names);
+		if (!values.isEmpty()) {
+			target.onInputSnapshot(new IOSnapshot(values), cache);
+		}
+		for (String name : names) {
+			inputSubscriptions.subscribe(target, name);
+		}
+	}
+
+	private void handleSubscribeOutputsEvent(IOCacheListener target, String[] names) {
+		List<IOValueSnapshot> values = copyMatching(outputs, names);
+		if (!values.isEmpty()) {
+			target.onOutputSnapshot(new IOSnapshot(values), cache);
+		}
+		for (String name : names) {
+			outputSubscriptions.subscribe(target, name);
+		}
+	}
+
+	// copies the values matching any of the names, each once
+	private List<IOValueSnapshot> copyMatching(IOValue[] table, String[] names) {
+		List<IOValueSnapshot> values = new ArrayList<>();
+		List<String> patterns = new ArrayList<>();
+		BitSet copied = new BitSet();
+		for (String name : names) {
+			if (name == null) {
+				copyAll(table, values);
+				return values;
+			} else if (IOTopicPattern.isPattern(name)) {
+				patterns.add(name);
+			} else {
+				for (IOKey key : registry.find(name)) {
+					copy(table, key, copied, values);
+				}
+			}
+		}
+		if (!patterns.isEmpty()) {
+			for (int id = 0; id < table.length; id++) {
+				IOKey key = table[id] == null || copied.get(id) ? null : registry.get(id);
+				if (key != null && matchesAny(patterns, key.getName())) {
+					copy(table, key, copied, values);
+				}
+			}
+		}
+		return values;
+	}
+
+	private static void copy(IOValue[] table, IOKey key, BitSet copied, List<IOValueSnapshot> values) {
+		int id = key.getId();
+		IOValue val = id < table.length ? table[id] : null;
+		if (val != null && !copied.get(id)) {
+			IOValueSnapshot snapshot = val.read(key);
+			if (snapshot != null) {
+				values.add(snapshot);
+				copied.set(id);
+			}
+		}
+	}
+
+	private static boolean matchesAny(List<String> patterns, String name) {
+		for (int i = 0; i < patterns.size(); i++) {
+			if (IOTopicPattern.matches(patterns.get(i), name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void handleRegisterEvent(IOCacheListener target) {
+		inputSubscriptions.subscribe(target, null);
+		outputSubscriptions.subscribe(target, null);
+	}
+
+	private void handleDeregisterEvent(IOCacheListener target, Runnable removed) {
+		inputSubscriptions.remove(target);
+		outputSubscriptions.remove(target);
+		removed.run();
+	}
+
+	// only safe to call once the shard is idle
+	boolean isSubscribed(IOCacheListener target) {
+		return inputSubscriptions.contains(target) || outputSubscriptions.contains(target);
+	}
+}
@@ -0,0 +1,22 @@
+package run.rook.daemon.cache;
+
+import java.util.List;
+
+// copy of all input and output values of the IOCache at a single point in time
+public final class IOCacheSnapshot {
+	private final List<IOValueSnapshot> inputs;
+	private final List<IOValueSnapshot> outputs;
+
+	IOCacheSnapshot(List<IOValueSnapshot> inputs, List<IOValueSnapshot> outputs) {
+		this.inputs = inputs;
+		this.outputs = outputs;
+	}
+
+	public List<IOValueSnapshot> getInputs() {
+		return inputs;
+	}
+
+	public List<IOValueSnapshot> getOutputs() {
+		return outputs;
+	}
+}
@@ -0,0 +1,9 @@
+package run.rook.daemon.cache;
+
+import org.agrona.DirectBuffer;
+
+// extra consumer of a shard's ring
+public interface IOCacheStage {
+	void onInput(IOKey key, DirectBuffer value, int valueLength, Object source, boolean endOfBatch);
+	void onOutput(IOKey key, DirectBuffer value, int valueLength, Object source, boolean endOfBatch);
+}
@@ -0,0 +1,11 @@
+package run.rook.daemon.cache;
+
+// how the IOCache event threads wait for the next event
+public enum IOCacheWaitMode {
+	// sleep until a producer wakes them, every publish signals the threads
+	BLOCKING,
+	// spin, then yield the CPU to other threads; producers never signal
+	YIELDING,
+	// spin without giving up the CPU, needs a free core for every event thread
+	BUSY_SPIN
+}
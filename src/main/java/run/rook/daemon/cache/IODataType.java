@@ -0,0 +1,248 @@
+package run.rook.daemon.cache;
+
+import java.math.BigInteger;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+// codecs of the data types the daemon understands
+public enum IODataType {
+	I8(1), U8(1), I16(2), U16(2), I32(4), U32(4), I64(8), U64(8), F32(4), F64(8), BOOL(1), STRING(0);
+
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	private static final Map<String, IODataType> BY_NAME = new HashMap<>();
+
+	static {
+		for (IODataType type : values()) {
+			BY_NAME.put(type.name(), type);
+			BY_NAME.put(type.name().toLowerCase(), type);
+		}
+	}
+
+	private final int size;
+
+	private IODataType(int size) {
+		this.size = size;
+	}
+
+	// returns the type of a data type string, or null if it is not one of the
+	// known types
+	public static IODataType of(String dataType) {
+		return dataType == null ? null : BY_NAME.get(dataType);
+	}
+
+	// size of a value in bytes, 0 for STRING
+	public int getSize() {
+		return size;
+	}
+
+	// true for the integer and floating point types
+	public boolean isNumeric() {
+		return this != BOOL && this != STRING;
+	}
+
+	public boolean isIntegral() {
+		return isNumeric() && this != F32 && this != F64;
+	}
+
+	// returns the value as a double, or NaN if the type is not numeric or the
+	// value is too short
+	public double toDouble(DirectBuffer buffer, int offset, int length) {
+		if (!isNumeric() || length < size) {
+			return Double.NaN;
+		}
+		switch (this) {
+		case F32:
+			return buffer.getFloat(offset, ORDER);
+		case F64:
+			return buffer.getDouble(offset, ORDER);
+		case U64:
+			long u = buffer.getLong(offset, ORDER);
+			return u >= 0 ? u : (u >>> 1) * 2.0 + (u & 1);
+		default:
+			return toLong(buffer, offset, length);
+		}
+	}
+
+	// returns an integral value sign- or zero-extended to a long, U64 as its
+	// raw bits; returns 0 for other types or too short values
+	public long toLong(DirectBuffer buffer, int offset, int length) {
+		if (length < size) {
+			return 0;
+		}
+		switch (this) {
+		case I8:
+		case BOOL:
+			return buffer.getByte(offset);
+		case U8:
+			return buffer.getByte(offset) & 0xFF;
+		case I16:
+			return buffer.getShort(offset, ORDER);
+		case U16:
+			return buffer.getShort(offset, ORDER) & 0xFFFF;
+		case I32:
+			return buffer.getInt(offset, ORDER);
+		case U32:
+			return buffer.getInt(offset, ORDER) & 0xFFFFFFFFL;
+		case I64:
+		case U64:
+			return buffer.getLong(offset, ORDER);
+		default:
+			return 0;
+		}
+	}
+
+	// returns the value as an object Gson writes as a plain JSON number,
+	// boolean or string, or null if the value is too short
+	public Object toJson(DirectBuffer buffer, int offset, int length) {
+		if (length < size) {
+			return null;
+		}
+		switch (this) {
+		case F32:
+			float f = buffer.getFloat(offset, ORDER);
+			return Float.isFinite(f) ? (Object) f : Float.toString(f);
+		case F64:
+			double d = buffer.getDouble(offset, ORDER);
+			return Double.isFinite(d) ? (Object) d : Double.toString(d);
+		case U64:
+			long u = buffer.getLong(offset, ORDER);
+			return u >= 0 ? (Object) u : new BigInteger(Long.toUnsignedString(u));
+		case BOOL:
+			return buffer.getByte(offset) != 0;
+		case STRING:
+			return buffer.getStringWithoutLengthUtf8(offset, length);
+		default:
+			return toLong(buffer, offset, length);
+		}
+	}
+
+	// writes a number as a value of this type, rounding it for integral types
+	public void putDouble(MutableDirectBuffer buffer, int offset, double value) {
+		switch (this) {
+		case F32:
+			buffer.putFloat(offset, (float) value, ORDER);
+			break;
+		case F64:
+			buffer.putDouble(offset, value, ORDER);
+			break;
+		case I8:
+		case U8:
+			buffer.putByte(offset, (byte) Math.round(value));
+			break;
+		case I16:
+		case U16:
+			buffer.putShort(offset, (short) Math.round(value), ORDER);
+			break;
+		case I32:
+		case U32:
+			buffer.putInt(offset, (int) Math.round(value), ORDER);
+			break;
+		case I64:
+		case U64:
+			buffer.putLong(offset, Math.round(value), ORDER);
+			break;
+		default:
+			break;
+		}
+	}
+
+	// encodes the text form of a value, as written by toJson
+	public byte[] parse(String text) {
+		if (this == STRING) {
+			return text.getBytes(StandardCharsets.UTF_8);
+		}
+		UnsafeBuffer buffer = new UnsafeBuffer(new byte[size]);
+		switch (this) {
+		case F32:
+			buffer.putFloat(0, Float.parseFloat(text), ORDER);
+			break;
+		case F64:
+			buffer.putDouble(0, Double.parseDouble(text), ORDER);
+			break;
+		case BOOL:
+			if (!"true".equals(text) && !"false".equals(text) && !"1".equals(text) && !"0".equals(text)) {
+				throw new IllegalArgumentException("Not a BOOL: " + text);
+			}
+			buffer.putByte(0, (byte) ("true".equals(text) || "1".equals(text) ? 1 : 0));
+			break;
+		case U64:
+			buffer.putLong(0, Long.parseUnsignedLong(integral(text)), ORDER);
+			break;
+		default:
+			long v = Long.parseLong(integral(text));
+			if (v < min() || v > max()) {
+				throw new IllegalArgumentException(text + " is out of range of " + this);
+			}
+			switch (size) {
+			case 1:
+				buffer.putByte(0, (byte) v);
+				break;
+			case 2:
+				buffer.putShort(0, (short) v, ORDER);
+				break;
+			case 4:
+				buffer.putInt(0, (int) v, ORDER);
+				break;
+			default:
+				buffer.putLong(0, v, ORDER);
+				break;
+			}
+			break;
+		}
+		return buffer.byteArray();
+	}
+
+	// strips a zero fraction, JSON parsers may write 3 as 3.0
+	private static String integral(String text) {
+		int dot = text.indexOf('.');
+		if (dot >= 0) {
+			for (int i = dot + 1; i < text.length(); i++) {
+				if (text.charAt(i) != '0') {
+					throw new NumberFormatException("Not an integer: " + text);
+				}
+			}
+			return text.substring(0, dot);
+		}
+		return text;
+	}
+
+	private long min() {
+		switch (this) {
+		case I8:
+			return Byte.MIN_VALUE;
+		case I16:
+			return Short.MIN_VALUE;
+		case I32:
+			return Integer.MIN_VALUE;
+		case I64:
+			return Long.MIN_VALUE;
+		default:
+			return 0;
+		}
+	}
+
+	private long max() {
+		switch (this) {
+		case I8:
+			return Byte.MAX_VALUE;
+		case U8:
+			return 0xFF;
+		case I16:
+			return Short.MAX_VALUE;
+		case U16:
+			return 0xFFFF;
+		case I32:
+			return Integer.MAX_VALUE;
+		case U32:
+			return 0xFFFFFFFFL;
+		default:
+			return Long.MAX_VALUE;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package run.rook.daemon.cache;
+
+// an IO name and data type pair together with the id it was given by the
+// IORegistry
+public final class IOKey {
+	private final int id;
+	private final String name;
+	private final String dataType;
+	private final IODataType type;
+
+	IOKey(int id, String name, String dataType) {
+		this.id = id;
+		this.name = name;
+		this.dataType = dataType;
+		this.type = IODataType.of(dataType);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getDataType() {
+		return dataType;
+	}
+
+	// the codec of the data type, null if the daemon does not know it
+	public IODataType getType() {
+		return type;
+	}
+
+	@Override
+	public String toString() {
+		return "IOKey [id=" + id + ", name=" + name + ", dataType=" + dataType + "]";
+	}
+}
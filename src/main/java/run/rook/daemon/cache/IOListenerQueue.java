@@ -0,0 +1,199 @@
+package run.rook.daemon.cache;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.agrona.DirectBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.metrics.IOHistogram;
+
+import com.lmax.disruptor.EventPoller;
+import com.lmax.disruptor.InsufficientCapacityException;
+import com.lmax.disruptor.RingBuffer;
+
+// bounded hand-off between the IOCache event threads and a single listener
+class IOListenerQueue implements IOCacheListener, Runnable {
+
+	private static final int MAX_DRAIN_BATCH = 256;
+	// most values are numbers or short strings, larger ones overflow to the heap
+	static final int SLOT_SIZE = 64;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final IOCacheListener listener;
+	private final IOHistogram listenerTime;
+	private final Executor executor;
+	private final RingBuffer<IOCacheEvent> ringBuffer;
+	private final EventPoller<IOCacheEvent> poller;
+	private final EventPoller.Handler<IOCacheEvent> drainHandler = this::deliver;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final AtomicLong overflowCount = new AtomicLong();
+	private volatile boolean closed = false;
+	// set by whichever shard producer first finds the ring full
+	private final AtomicBoolean overflowing = new AtomicBoolean(false);
+	private int drained;
+
+	// listenerTime: records the time spent in the listener
+	public IOListenerQueue(IOCacheListener listener, IOHistogram listenerTime, int capacity, int maxValueSize,
+			Executor executor, boolean multiProducer) {
+		this.listener = listener;
+		this.listenerTime = listenerTime;
+		this.executor = executor;
+		IOCacheEventSlab slab = new IOCacheEventSlab(capacity, Math.min(SLOT_SIZE, maxValueSize), maxValueSize);
+		this.ringBuffer = multiProducer ? RingBuffer.createMultiProducer(slab, capacity)
+				: RingBuffer.createSingleProducer(slab, capacity);
+		this.poller = ringBuffer.newPoller();
+		ringBuffer.addGatingSequences(poller.getSequence());
+	}
+
+	public IOCacheListener getListener() {
+		return listener;
+	}
+
+	public long getOverflowCount() {
+		return overflowCount.get();
+	}
+
+	public void close() {
+		closed = true;
+	}
+
+	@Override
+	public void onInput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		offer(IOCacheEventType.INPUT, key, value, valueLength, source);
+	}
+
+	@Override
+	public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		offer(IOCacheEventType.OUTPUT, key, value, valueLength, source);
+	}
+
+	@Override
+	public void onInputSnapshot(IOSnapshot snapshot, Object source) {
+		offer(IOCacheEventType.INPUT_SNAPSHOT, snapshot, source);
+	}
+
+	@Override
+	public void onOutputSnapshot(IOSnapshot snapshot, Object source) {
+		offer(IOCacheEventType.OUTPUT_SNAPSHOT, snapshot, source);
+	}
+
+	private void offer(IOCacheEventType eventType, IOKey key, DirectBuffer value, int valueLength, Object source) {
+		long seq = claim();
+		if (seq < 0) {
+			return;
+		}
+		IOCacheEvent event = ringBuffer.get(seq);
+		try {
+			event.setValue(value, valueLength);
+			event.setEventType(eventType);
+			event.setKey(key);
+			event.setSource(source);
+		} catch (RuntimeException e) {
+			// publish the slot empty rather than half filled
+			event.reset();
+			throw e;
+		} finally {
+			ringBuffer.publish(seq);
+		}
+		schedule();
+	}
+
+	private void offer(IOCacheEventType eventType, IOSnapshot snapshot, Object source) {
+		long seq = claim();
+		if (seq < 0) {
+			return;
+		}
+		try {
+			// the values are already copied, only the snapshot is handed over
+			IOCacheEvent event = ringBuffer.get(seq);
+			event.setEventType(eventType);
+			event.setSnapshot(snapshot);
+			event.setSource(source);
+		} finally {
+			ringBuffer.publish(seq);
+		}
+		schedule();
+	}
+
+	// returns the claimed sequence, or -1 if the ring is full
+	private long claim() {
+		try {
+			long seq = ringBuffer.tryNext();
+			if (overflowing.get() && overflowing.compareAndSet(true, false)) {
+				logger.info(listener + " caught up.");
+			}
+			return seq;
+		} catch (InsufficientCapacityException e) {
+			overflowCount.incrementAndGet();
+			// only log once per overflow streak
+			if (overflowing.compareAndSet(false, true)) {
+				logger.warn(listener + " is falling behind. Dropping updates.");
+			}
+			return -1;
+		}
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(this);
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			drained = 0;
+			while (!closed && drained < MAX_DRAIN_BATCH && poller.poll(drainHandler) == EventPoller.PollState.PROCESSING) {
+				// keep draining until idle or the batch limit is hit
+			}
+		} catch (Exception e) {
+			logger.error("Could not drain listener queue", e);
+		} finally {
+			scheduled.set(false);
+		}
+		// pick up anything published after the last poll
+		if (!closed && ringBuffer.getCursor() > poller.getSequence().get()) {
+			schedule();
+		}
+	}
+
+	private boolean deliver(IOCacheEvent event, long sequence, boolean endOfBatch) {
+		if (event.getEventType() == null) {
+			// a slot that could not be filled
+			return !closed && ++drained < MAX_DRAIN_BATCH;
+		}
+		long start = System.nanoTime();
+		try {
+			switch (event.getEventType()) {
+			case INPUT:
+				listener.onInput(event.getKey(), event.getValue(), event.getValueLength(), event.getSource());
+				break;
+			case OUTPUT:
+				listener.onOutput(event.getKey(), event.getValue(), event.getValueLength(), event.getSource());
+				break;
+			case INPUT_SNAPSHOT:
+				listener.onInputSnapshot(event.getSnapshot(), event.getSource());
+				break;
+			case OUTPUT_SNAPSHOT:
+				listener.onOutputSnapshot(event.getSnapshot(), event.getSource());
+				break;
+			default:
+				break;
+			}
+		} catch (Throwable t) {
+			// protect the drain task from a listener exception
+			logger.error("Could not dispatch to listener", t);
+		}
+		listenerTime.record(System.nanoTime() - start);
+		event.reset();
+		return !closed && ++drained < MAX_DRAIN_BATCH;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [listener=" + listener + ", overflowCount=" + overflowCount.get() + "]";
+	}
+}
@@ -0,0 +1,77 @@
+package run.rook.daemon.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.agrona.DirectBuffer;
+
+// decides which updates of an IO are dispatched to listeners
+public final class IOPublicationPolicy {
+
+	// dispatches every update
+	public static final IOPublicationPolicy ALWAYS = new IOPublicationPolicy(false, 0, 0);
+
+	// dispatches updates that change the value
+	public static final IOPublicationPolicy CHANGES_ONLY = new IOPublicationPolicy(true, 0, 0);
+
+	private final boolean changesOnly;
+	private final double deadband;
+	private final long heartbeatMillis;
+	private final long heartbeatNanos;
+
+	public IOPublicationPolicy(boolean changesOnly, double deadband, long heartbeatMillis) {
+		if (deadband < 0 || Double.isNaN(deadband)) {
+			throw new IllegalArgumentException("deadband must not be negative");
+		}
+		if (heartbeatMillis < 0) {
+			throw new IllegalArgumentException("heartbeatMillis must not be negative");
+		}
+		this.changesOnly = changesOnly;
+		this.deadband = deadband;
+		this.heartbeatMillis = heartbeatMillis;
+		this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis);
+	}
+
+	public boolean isChangesOnly() {
+		return changesOnly;
+	}
+
+	public double getDeadband() {
+		return deadband;
+	}
+
+	public long getHeartbeatMillis() {
+		return heartbeatMillis;
+	}
+
+	// returns true if the update should be dispatched, and then remembers it as
+	// the last dispatched value; called on the event thread before the current
+	// value is overwritten
+	boolean accept(IOValue current, IODataType dataType, DirectBuffer value, int valueLength) {
+		if (!changesOnly) {
+			return true;
+		}
+		long now = heartbeatNanos > 0 ? System.nanoTime() : 0;
+		double number = deadband > 0 && dataType != null ? dataType.toDouble(value, 0, valueLength) : Double.NaN;
+		boolean changed;
+		if (current.getVersion() == 0 || current.isStale()) {
+			// listeners have not seen a value yet
+			changed = true;
+		} else if (!Double.isNaN(number) && !Double.isNaN(current.publishedNumber)) {
+			changed = Math.abs(number - current.publishedNumber) > deadband;
+		} else {
+			changed = !current.contentEquals(value, valueLength);
+		}
+		if (changed || (heartbeatNanos > 0 && now - current.publishedNanos >= heartbeatNanos)) {
+			current.publishedNanos = now;
+			current.publishedNumber = number;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "IOPublicationPolicy [changesOnly=" + changesOnly + ", deadband=" + deadband + ", heartbeatMillis="
+				+ heartbeatMillis + "]";
+	}
+}
@@ -0,0 +1,117 @@
+package run.rook.daemon.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+// gives every IO name and data type pair a stable int id the first time it is
+// seen
+public class IORegistry {
+
+	// the binary WebSocket protocol has a u16 name and a u8 data type length
+	public static final int MAX_NAME_LENGTH = Short.MAX_VALUE;
+	public static final int MAX_DATA_TYPE_LENGTH = 0xFF;
+
+	private static final IOKey[] NO_KEYS = new IOKey[0];
+
+	private final Map<String, IOKey[]> keysByName = new ConcurrentHashMap<>();
+	private volatile IOKey[] keysById = new IOKey[64];
+	private volatile int size = 0;
+
+	// returns the key for the given pair, registering it if it was not seen
+	// before
+	public IOKey register(String name, String dataType) {
+		IOKey key = find(name, dataType);
+		if (key != null) {
+			return key;
+		}
+		String error = validate(name, dataType);
+		if (error != null) {
+			throw new IllegalArgumentException(error);
+		}
+		synchronized (this) {
+			key = find(name, dataType);
+			if (key == null) {
+				key = new IOKey(size, name, dataType);
+				IOKey[] byId = keysById;
+				if (size == byId.length) {
+					byId = Arrays.copyOf(byId, byId.length * 2);
+				}
+				byId[size] = key;
+				keysById = byId;
+				IOKey[] named = keysByName.getOrDefault(name, NO_KEYS);
+				named = Arrays.copyOf(named, named.length + 1);
+				named[named.length - 1] = key;
+				keysByName.put(name, named);
+				size++;
+			}
+			return key;
+		}
+	}
+
+	// returns why the pair cannot be registered, or null if it can
+	public static String validate(String name, String dataType) {
+		if (name == null) {
+			return "Name is missing";
+		}
+		if (utf8Length(name) > MAX_NAME_LENGTH) {
+			return "Name is longer than " + MAX_NAME_LENGTH + " bytes";
+		}
+		if (dataType != null && utf8Length(dataType) > MAX_DATA_TYPE_LENGTH) {
+			return "Data type is longer than " + MAX_DATA_TYPE_LENGTH + " bytes";
+		}
+		return null;
+	}
+
+	private static int utf8Length(String s) {
+		// at most 3 bytes per char, only encode when that could be too long
+		return s.length() * 3 <= MAX_DATA_TYPE_LENGTH ? s.length() : s.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	// returns the key for the given pair, or null if it was never registered
+	public IOKey find(String name, String dataType) {
+		IOKey[] named = keysByName.get(name);
+		if (named != null) {
+			for (IOKey key : named) {
+				if (Objects.equals(key.getDataType(), dataType)) {
+					return key;
+				}
+			}
+		}
+		return null;
+	}
+
+	// returns all keys registered under the given name, one per data type
+	public IOKey[] find(String name) {
+		return keysByName.getOrDefault(name, NO_KEYS);
+	}
+
+	// returns all keys whose names match the IOTopicPattern
+	public IOKey[] match(String pattern) {
+		IOKey[] byId = keysById;
+		int count = size;
+		List<IOKey> keys = new ArrayList<>();
+		for (int id = 0; id < count; id++) {
+			IOKey key = byId[id];
+			if (key != null && IOTopicPattern.matches(pattern, key.getName())) {
+				keys.add(key);
+			}
+		}
+		return keys.toArray(NO_KEYS);
+	}
+
+	// returns the key with the given id, or null if no such id was given out
+	public IOKey get(int id) {
+		IOKey[] byId = keysById;
+		return id >= 0 && id < byId.length ? byId[id] : null;
+	}
+
+	// number of ids given out so far
+	public int size() {
+		return size;
+	}
+}
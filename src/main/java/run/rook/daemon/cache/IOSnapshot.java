@@ -0,0 +1,17 @@
+package run.rook.daemon.cache;
+
+import java.util.List;
+
+// copy of input or output values taken by the IOCache event thread, delivered
+// to listeners when they subscribe
+public final class IOSnapshot {
+	private final List<IOValueSnapshot> values;
+
+	IOSnapshot(List<IOValueSnapshot> values) {
+		this.values = values;
+	}
+
+	public List<IOValueSnapshot> getValues() {
+		return values;
+	}
+}
@@ -0,0 +1,7 @@
+package run.rook.daemon.cache;
+
+// implemented by objects that publish to the IOCache as source, so recorders
+// can tell where updates came from
+public interface IOSource {
+	IOSourceKind getSourceKind();
+}
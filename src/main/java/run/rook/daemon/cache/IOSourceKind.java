@@ -0,0 +1,18 @@
+package run.rook.daemon.cache;
+
+// where an input or output update came from
+public enum IOSourceKind {
+	UNKNOWN,
+	MQTT,
+	WEBSOCKET,
+	// replayed or restored by the daemon itself
+	DAEMON,
+	// a process on the same host, through shared memory
+	IPC;
+
+	// returns the kind of the source object passed to IOCache.processInput()
+	// and friends
+	public static IOSourceKind of(Object source) {
+		return source instanceof IOSource ? ((IOSource) source).getSourceKind() : UNKNOWN;
+	}
+}
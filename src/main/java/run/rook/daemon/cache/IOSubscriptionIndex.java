@@ -0,0 +1,107 @@
+package run.rook.daemon.cache;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+import run.rook.daemon.metrics.IOHistogram;
+
+// which listeners are subscribed to which names and patterns, for one direction
+// (inputs or outputs); only used from the IOCache event thread
+class IOSubscriptionIndex {
+
+	private static final IOCacheListener[] NO_LISTENERS = new IOCacheListener[0];
+	private static final IOHistogram[] NO_TIMES = new IOHistogram[0];
+
+	private final Set<IOCacheListener> allNames = new LinkedHashSet<>();
+	private final IOTopicTrie byName = new IOTopicTrie();
+	// resolves the histogram of a listener, null if it is not timed
+	private final Function<IOCacheListener, IOHistogram> timer;
+	private IOCacheListener[][] byId = new IOCacheListener[64][];
+	private IOHistogram[][] timesById = new IOHistogram[64][];
+
+	public IOSubscriptionIndex() {
+		this(l -> null);
+	}
+
+	public IOSubscriptionIndex(Function<IOCacheListener, IOHistogram> timer) {
+		this.timer = timer;
+	}
+
+	// subscribes the listener to a single name or IOTopicPattern, or to all
+	// names if name is null
+	public void subscribe(IOCacheListener listener, String name) {
+		if (name == null) {
+			allNames.add(listener);
+		} else {
+			byName.add(name, listener);
+		}
+		invalidate();
+	}
+
+	public void unsubscribe(IOCacheListener listener, String name) {
+		if (name == null) {
+			allNames.remove(listener);
+		} else {
+			byName.remove(name, listener);
+		}
+		invalidate();
+	}
+
+	// removes every subscription of the listener
+	public void remove(IOCacheListener listener) {
+		allNames.remove(listener);
+		byName.removeAll(listener);
+		invalidate();
+	}
+
+	public boolean contains(IOCacheListener listener) {
+		return allNames.contains(listener) || byName.contains(listener);
+	}
+
+	// returns the listeners subscribed to the key's name, each one only once
+	public IOCacheListener[] get(IOKey key) {
+		int id = key.getId();
+		if (id >= byId.length) {
+			int length = Math.max(byId.length * 2, id + 1);
+			byId = Arrays.copyOf(byId, length);
+			timesById = Arrays.copyOf(timesById, length);
+		}
+		IOCacheListener[] listeners = byId[id];
+		if (listeners == null) {
+			listeners = resolve(key.getName());
+			byId[id] = listeners;
+			timesById[id] = resolveTimes(listeners);
+		}
+		return listeners;
+	}
+
+	// returns the histograms of the listeners last returned by get() for the
+	// key, by index
+	public IOHistogram[] getTimes(IOKey key) {
+		return timesById[key.getId()];
+	}
+
+	private IOCacheListener[] resolve(String name) {
+		Set<IOCacheListener> listeners = new LinkedHashSet<>(allNames);
+		byName.match(name, listeners);
+		return listeners.isEmpty() ? NO_LISTENERS : listeners.toArray(NO_LISTENERS);
+	}
+
+	private IOHistogram[] resolveTimes(IOCacheListener[] listeners) {
+		if (listeners.length == 0) {
+			return NO_TIMES;
+		}
+		IOHistogram[] times = new IOHistogram[listeners.length];
+		for (int i = 0; i < listeners.length; i++) {
+			times[i] = timer.apply(listeners[i]);
+		}
+		return times;
+	}
+
+	private void invalidate() {
+		Arrays.fill(byId, null);
+		Arrays.fill(timesById, null);
+	}
+}
@@ -0,0 +1,93 @@
+package run.rook.daemon.cache;
+
+// subscription patterns over IO names with MQTT-style wildcards
+public final class IOTopicPattern {
+
+	private IOTopicPattern() {
+	}
+
+	// returns true if the name is a valid pattern with at least one wildcard
+	public static boolean isPattern(String name) {
+		int length = name.length();
+		boolean wildcard = false;
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			if (c == '+' || c == '#') {
+				boolean levelStart = i == 0 || name.charAt(i - 1) == '/';
+				boolean levelEnd = i == length - 1 || name.charAt(i + 1) == '/';
+				if (!levelStart || !levelEnd || (c == '#' && i != length - 1)) {
+					return false;
+				}
+				wildcard = true;
+			}
+		}
+		return wildcard;
+	}
+
+	// returns true if the name matches the pattern, which must be valid
+	public static boolean matches(String pattern, String name) {
+		int pl = pattern.length();
+		int nl = name.length();
+		int p = 0;
+		int n = 0;
+		while (p < pl) {
+			char c = pattern.charAt(p);
+			if (c == '#') {
+				return true;
+			}
+			if (c == '+') {
+				while (n < nl && name.charAt(n) != '/') {
+					n++;
+				}
+				p++;
+			} else if (n < nl && name.charAt(n) == c) {
+				p++;
+				n++;
+			} else {
+				// "a/#" also matches its parent level "a"
+				return n == nl && c == '/' && p + 2 == pl && pattern.charAt(p + 1) == '#';
+			}
+		}
+		return n == nl;
+	}
+
+	// orders patterns that match the same name, most specific first
+	public static int compareSpecificity(String a, String b) {
+		int i = 0;
+		int j = 0;
+		while (i <= a.length() || j <= b.length()) {
+			int rank = levelRank(a, i) - levelRank(b, j);
+			if (rank != 0) {
+				return rank;
+			}
+			i = nextLevel(a, i);
+			j = nextLevel(b, j);
+		}
+		return a.compareTo(b);
+	}
+
+	private static int levelRank(String pattern, int start) {
+		if (start > pattern.length()) {
+			return 2;
+		}
+		int end = nextLevel(pattern, start) - 1;
+		if (end - start == 1) {
+			char c = pattern.charAt(start);
+			if (c == '+') {
+				return 1;
+			}
+			if (c == '#') {
+				return 3;
+			}
+		}
+		return 0;
+	}
+
+	private static int nextLevel(String pattern, int start) {
+		if (start > pattern.length()) {
+			return start;
+		}
+		int end = pattern.indexOf('/', start);
+		return (end < 0 ? pattern.length() : end) + 1;
+	}
+}
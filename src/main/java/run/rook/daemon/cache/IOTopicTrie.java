@@ -0,0 +1,136 @@
+package run.rook.daemon.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+// listeners by subscribed name or IOTopicPattern, one trie level per name
+// level; only used from the IOCache event thread
+class IOTopicTrie {
+
+	private static final String PLUS = "+";
+	private static final String HASH = "#";
+
+	private final Node root = new Node();
+
+	private static final class Node {
+		// literal levels, and "+" for the single level wildcard
+		final Map<String, Node> children = new HashMap<>(4);
+		// subscriptions ending at this level
+		final Set<IOCacheListener> listeners = new LinkedHashSet<>();
+		// subscriptions ending with "#" below this level
+		final Set<IOCacheListener> rest = new LinkedHashSet<>();
+
+		boolean isEmpty() {
+			return children.isEmpty() && listeners.isEmpty() && rest.isEmpty();
+		}
+	}
+
+	public void add(String name, IOCacheListener listener) {
+		boolean pattern = IOTopicPattern.isPattern(name);
+		Node node = root;
+		int start = 0;
+		while (true) {
+			int end = levelEnd(name, start);
+			String level = name.substring(start, end);
+			if (pattern && end == name.length() && HASH.equals(level)) {
+				node.rest.add(listener);
+				return;
+			}
+			// a literal "+" level of a plain name cannot occur, it makes the name a pattern
+			node = node.children.computeIfAbsent(level, l -> new Node());
+			if (end == name.length()) {
+				node.listeners.add(listener);
+				return;
+			}
+			start = end + 1;
+		}
+	}
+
+	public void remove(String name, IOCacheListener listener) {
+		remove(root, name, 0, IOTopicPattern.isPattern(name), listener);
+	}
+
+	private boolean remove(Node node, String name, int start, boolean pattern, IOCacheListener listener) {
+		int end = levelEnd(name, start);
+		String level = name.substring(start, end);
+		if (pattern && end == name.length() && HASH.equals(level)) {
+			node.rest.remove(listener);
+		} else {
+			Node child = node.children.get(level);
+			if (child == null) {
+				return node.isEmpty();
+			}
+			boolean empty = end == name.length() ? child.listeners.remove(listener) && child.isEmpty()
+					: remove(child, name, end + 1, pattern, listener);
+			if (empty) {
+				node.children.remove(level);
+			}
+		}
+		return node.isEmpty();
+	}
+
+	// removes every subscription of the listener
+	public void removeAll(IOCacheListener listener) {
+		removeAll(root, listener);
+	}
+
+	private boolean removeAll(Node node, IOCacheListener listener) {
+		node.listeners.remove(listener);
+		node.rest.remove(listener);
+		Iterator<Node> it = node.children.values().iterator();
+		while (it.hasNext()) {
+			if (removeAll(it.next(), listener)) {
+				it.remove();
+			}
+		}
+		return node.isEmpty();
+	}
+
+	public boolean contains(IOCacheListener listener) {
+		return contains(root, listener);
+	}
+
+	private static boolean contains(Node node, IOCacheListener listener) {
+		if (node.listeners.contains(listener) || node.rest.contains(listener)) {
+			return true;
+		}
+		for (Node child : node.children.values()) {
+			if (contains(child, listener)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// adds the listeners of every name and pattern matching the name
+	public void match(String name, Collection<IOCacheListener> out) {
+		match(root, name, 0, out);
+	}
+
+	private static void match(Node node, String name, int start, Collection<IOCacheListener> out) {
+		// "#" also matches the parent level, so it applies before the end check
+		out.addAll(node.rest);
+		if (start > name.length()) {
+			out.addAll(node.listeners);
+			return;
+		}
+		int end = levelEnd(name, start);
+		Node child = node.children.get(name.substring(start, end));
+		if (child != null) {
+			match(child, name, end + 1, out);
+		}
+		Node plus = node.children.get(PLUS);
+		if (plus != null && plus != child) {
+			match(plus, name, end + 1, out);
+		}
+	}
+
+	private static int levelEnd(String name, int start) {
+		int end = name.indexOf('/', start);
+		return end < 0 ? name.length() : end;
+	}
+}
@@ -4,12 +4,25 @@ import java.util.Arrays;
 
 import org.agrona.DirectBuffer;
 import org.agrona.MutableDirectBuffer;
+import org.agrona.UnsafeAccess;
 import org.agrona.concurrent.UnsafeBuffer;
 
+// current value of an input or output; only the IOCache event thread writes it
 public class IOValue {
 	private String type;
+	private IODataType dataType;
 	private MutableDirectBuffer value = new UnsafeBuffer(new byte[8]);
 	private int length;
+	private boolean stale;
+	// decoded once per write, for values of a known numeric data type
+	private long longValue;
+	private double doubleValue = Double.NaN;
+	private volatile long version = 0;
+	// publication policy state, only used by the event thread
+	IOPublicationPolicy policy;
+	int policyVersion = -1;
+	long publishedNanos;
+	double publishedNumber = Double.NaN;
 	
 	public String getType() {
 		return type;
@@ -17,14 +30,38 @@ public class IOValue {
 	
 	public void setType(String type) {
 		this.type = type;
+		this.dataType = IODataType.of(type);
 	}
 	
 	public void setValue(DirectBuffer src, int len) {
+		write(src, len, false);
+	}
+	
+	// sets a value restored from an earlier run, marked as stale until the next
+	// setValue()
+	public void setStaleValue(DirectBuffer src, int len) {
+		write(src, len, true);
+	}
+	
+	private void write(DirectBuffer src, int len, boolean stale) {
+		long v = version;
+		version = v + 1;
+		// keep the writes below from becoming visible before the odd version
+		UnsafeAccess.UNSAFE.storeFence();
 		if(len > value.capacity()) {
-			value = new UnsafeBuffer(new byte[len]);
+			UnsafeBuffer grown = new UnsafeBuffer(new byte[len]);
+			// readers must never see the buffer before it is constructed
+			UnsafeAccess.UNSAFE.storeFence();
+			value = grown;
 		}
 		value.putBytes(0, src, 0, len);
 		length = len;
+		this.stale = stale;
+		if (dataType != null && dataType.isNumeric()) {
+			longValue = dataType.toLong(src, 0, len);
+			doubleValue = dataType.toDouble(src, 0, len);
+		}
+		version = v + 2;
 	}
 	
 	public MutableDirectBuffer getValue() {
@@ -35,6 +72,79 @@ public class IOValue {
 		return length;
 	}
 	
+	public boolean isStale() {
+		return stale;
+	}
+	
+	// the value of a numeric data type as a double, NaN for other types
+	public double getDouble() {
+		return doubleValue;
+	}
+	
+	// the value of an integral data type as a long, U64 as its raw bits
+	public long getLong() {
+		return longValue;
+	}
+	
+	// returns true if the value has exactly these bytes; only meaningful on the
+	// event thread
+	public boolean contentEquals(DirectBuffer src, int len) {
+		if (len != length) {
+			return false;
+		}
+		int i = 0;
+		for (; i + 8 <= len; i += 8) {
+			if (value.getLong(i) != src.getLong(i)) {
+				return false;
+			}
+		}
+		for (; i < len; i++) {
+			if (value.getByte(i) != src.getByte(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// number of completed writes times two
+	public long getVersion() {
+		return version;
+	}
+	
+	// copies the value without locking; returns null if the value was never
+	// written
+	public IOValueSnapshot read(IOKey key) {
+		while (true) {
+			long v = version;
+			if (v == 0) {
+				return null;
+			}
+			if ((v & 1) == 0) {
+				byte[] copy = tryCopy();
+				boolean s = stale;
+				long l = longValue;
+				double d = doubleValue;
+				UnsafeAccess.UNSAFE.loadFence();
+				if (copy != null && version == v) {
+					return new IOValueSnapshot(key, copy, v, s, l, d);
+				}
+			}
+			Thread.yield();
+		}
+	}
+	
+	private byte[] tryCopy() {
+		MutableDirectBuffer buf = value;
+		int len = length;
+		if (len > buf.capacity()) {
+			// buffer and length from different writes, the version check fails
+			return null;
+		}
+		byte[] copy = new byte[len];
+		buf.getBytes(0, copy, 0, len);
+		return copy;
+	}
+	
 	@Override
 	public String toString() {
 		return "InputValue [type=" + type + ", value=" + Arrays.toString(Arrays.copyOf(value.byteArray(), length)) + "]";
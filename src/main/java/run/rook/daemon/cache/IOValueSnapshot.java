@@ -0,0 +1,50 @@
+package run.rook.daemon.cache;
+
+// immutable copy of an input or output value
+public final class IOValueSnapshot {
+	private final IOKey key;
+	private final byte[] value;
+	private final long version;
+	private final boolean stale;
+	private final long longValue;
+	private final double doubleValue;
+
+	IOValueSnapshot(IOKey key, byte[] value, long version, boolean stale, long longValue, double doubleValue) {
+		this.key = key;
+		this.value = value;
+		this.version = version;
+		this.stale = stale;
+		this.longValue = longValue;
+		this.doubleValue = doubleValue;
+	}
+
+	public IOKey getKey() {
+		return key;
+	}
+
+	// the copied value bytes
+	public byte[] getValue() {
+		return value;
+	}
+
+	// version of the value when it was copied
+	public long getVersion() {
+		return version;
+	}
+
+	// true if the value was restored from an earlier run and has not been
+	// updated since
+	public boolean isStale() {
+		return stale;
+	}
+
+	// the value of a numeric data type as a double, NaN for other types
+	public double getDouble() {
+		return doubleValue;
+	}
+
+	// the value of an integral data type as a long, U64 as its raw bits
+	public long getLong() {
+		return longValue;
+	}
+}
@@ -0,0 +1,211 @@
+package run.rook.daemon.checkpoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.cache.DirectMemory;
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheSnapshot;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOValueSnapshot;
+
+// last input and output values of an IOCache, kept in a memory-mapped file so a
+// restarted daemon does not start empty
+public class IOCheckpoint {
+
+	// "ROOKCKPT" in little-endian
+	static final long MAGIC = 0x54504B434B4F4F52L;
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 24;
+	static final int RECORD_HEADER_LENGTH = 8;
+
+	private static final byte TYPE_INPUT = 0;
+	private static final byte TYPE_OUTPUT = 1;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final File file;
+	// kept so the mapping stays valid while it is read through the address
+	private MappedByteBuffer restoring;
+	private ScheduledExecutorService executor;
+	private IOCache cache;
+
+	public IOCheckpoint(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	// loads the checkpoint into the cache, which must not be started yet;
+	// returns the number of values restored, 0 if there is no checkpoint
+	public synchronized int restore(IOCache cache) throws IOException {
+		if (!file.isFile()) {
+			return 0;
+		}
+		try {
+			return restore(cache, System.nanoTime());
+		} finally {
+			restoring = null;
+		}
+	}
+
+	private int restore(IOCache cache, long start) throws IOException {
+		int size;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			size = (int) Math.min(raf.length(), Integer.MAX_VALUE);
+			restoring = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		UnsafeBuffer buffer = new UnsafeBuffer(DirectMemory.address(restoring), size);
+		if (size < HEADER_LENGTH || buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION) {
+			logger.warn("Ignoring " + file + ", not a checkpoint of this version");
+			return 0;
+		}
+		int count = buffer.getInt(12);
+		long timestamp = buffer.getLong(16);
+		UnsafeBuffer value = new UnsafeBuffer(buffer, 0, 0);
+		int offset = HEADER_LENGTH;
+		int restored = 0;
+		for (; restored < count; restored++) {
+			if (offset + RECORD_HEADER_LENGTH > size) {
+				break;
+			}
+			byte type = buffer.getByte(offset);
+			int dataTypeLength = buffer.getByte(offset + 1) & 0xFF;
+			int nameLength = buffer.getShort(offset + 2) & 0xFFFF;
+			int valueLength = buffer.getInt(offset + 4);
+			int end = offset + RECORD_HEADER_LENGTH + nameLength + dataTypeLength + valueLength;
+			if (valueLength < 0 || end > size || end < offset) {
+				break;
+			}
+			offset += RECORD_HEADER_LENGTH;
+			String name = buffer.getStringWithoutLengthUtf8(offset, nameLength);
+			offset += nameLength;
+			String dataType = dataTypeLength == 0 ? null : buffer.getStringWithoutLengthUtf8(offset, dataTypeLength);
+			offset += dataTypeLength;
+			value.wrap(buffer, offset, valueLength);
+			offset += valueLength;
+			if (type == TYPE_INPUT) {
+				cache.restoreInput(name, dataType, value, valueLength);
+			} else {
+				cache.restoreOutput(name, dataType, value, valueLength);
+			}
+		}
+		if (restored < count) {
+			logger.warn("Checkpoint " + file + " is truncated, restored " + restored + " of " + count + " values");
+		}
+		logger.info("Restored " + restored + " values from " + file + ", saved at " + timestamp + ", in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+		return restored;
+	}
+
+	// writes the cache's current values
+	public synchronized void write(IOCache cache) throws IOException {
+		IOCacheSnapshot snapshot = cache.read();
+		List<IOValueSnapshot> values = new ArrayList<>(snapshot.getInputs());
+		int inputCount = values.size();
+		values.addAll(snapshot.getOutputs());
+		byte[][] names = new byte[values.size()][];
+		byte[][] dataTypes = new byte[values.size()][];
+		long size = HEADER_LENGTH;
+		for (int i = 0; i < values.size(); i++) {
+			IOKey key = values.get(i).getKey();
+			names[i] = key.getName().getBytes(StandardCharsets.UTF_8);
+			dataTypes[i] = key.getDataType() == null ? new byte[0] : key.getDataType().getBytes(StandardCharsets.UTF_8);
+			if (names[i].length > 0xFFFF || dataTypes[i].length > 0xFF) {
+				throw new IOException("Name or data type of '" + key.getName() + "' is too long for a checkpoint");
+			}
+			size += RECORD_HEADER_LENGTH + names[i].length + dataTypes[i].length + values.get(i).getValue().length;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Checkpoint of " + size + " bytes is too large");
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+			raf.setLength(size);
+			MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			UnsafeBuffer buffer = new UnsafeBuffer(DirectMemory.address(mapped), (int) size);
+			buffer.putLong(0, MAGIC);
+			buffer.putInt(8, VERSION);
+			buffer.putInt(12, values.size());
+			buffer.putLong(16, System.currentTimeMillis());
+			int offset = HEADER_LENGTH;
+			for (int i = 0; i < values.size(); i++) {
+				byte[] bytes = values.get(i).getValue();
+				buffer.putByte(offset, i < inputCount ? TYPE_INPUT : TYPE_OUTPUT);
+				buffer.putByte(offset + 1, (byte) dataTypes[i].length);
+				buffer.putShort(offset + 2, (short) names[i].length);
+				buffer.putInt(offset + 4, bytes.length);
+				offset += RECORD_HEADER_LENGTH;
+				buffer.putBytes(offset, names[i]);
+				offset += names[i].length;
+				buffer.putBytes(offset, dataTypes[i]);
+				offset += dataTypes[i].length;
+				buffer.putBytes(offset, bytes);
+				offset += bytes.length;
+			}
+			mapped.force();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Wrote " + values.size() + " values to " + file);
+		}
+	}
+
+	// writes a checkpoint of the cache every interval, and a last one on stop()
+	public synchronized void start(IOCache cache, long intervalMillis) {
+		this.cache = cache;
+		if (intervalMillis > 0) {
+			executor = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+				Thread t = new Thread(r, "IOCheckpoint");
+				t.setDaemon(true);
+				return t;
+			});
+			executor.scheduleWithFixedDelay(this::writeQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		if (cache != null) {
+			writeQuietly();
+			cache = null;
+		}
+	}
+
+	private synchronized void writeQuietly() {
+		if (cache == null) {
+			return;
+		}
+		try {
+			write(cache);
+		} catch (Throwable t) {
+			// keep checkpointing, the previous file is still intact
+			logger.error("Could not write checkpoint " + file, t);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [file=" + file + "]";
+	}
+}
@@ -0,0 +1,121 @@
+package run.rook.daemon.history;
+
+import org.agrona.collections.IntArrayList;
+
+// picks the samples to keep when reducing a range of n samples to at most
+// maxPoints
+final class IODownsampler {
+
+	private IODownsampler() {
+
+	}
+
+	// returns the kept indices in ascending order
+	public static int[] select(long[] timestamps, double[] values, int n, int maxPoints, IODownsampling downsampling) {
+		if (maxPoints <= 0 || n <= maxPoints) {
+			return all(n);
+		}
+		if (values == null) {
+			return evenlySpaced(n, maxPoints);
+		}
+		switch (downsampling) {
+		case LTTB:
+			return maxPoints < 3 ? evenlySpaced(n, maxPoints) : lttb(timestamps, values, n, maxPoints);
+		case MINMAX:
+		default:
+			return minMax(values, n, maxPoints);
+		}
+	}
+
+	private static int[] all(int n) {
+		int[] indices = new int[n];
+		for (int i = 0; i < n; i++) {
+			indices[i] = i;
+		}
+		return indices;
+	}
+
+	private static int[] evenlySpaced(int n, int maxPoints) {
+		if (maxPoints == 1) {
+			return new int[] { n - 1 };
+		}
+		int[] indices = new int[maxPoints];
+		for (int i = 0; i < maxPoints; i++) {
+			indices[i] = (int) ((long) i * (n - 1) / (maxPoints - 1));
+		}
+		return indices;
+	}
+
+	private static int[] minMax(double[] values, int n, int maxPoints) {
+		int buckets = Math.max(1, maxPoints / 2);
+		IntArrayList indices = new IntArrayList(buckets * 2, -1);
+		for (int b = 0; b < buckets; b++) {
+			int start = (int) ((long) b * n / buckets);
+			int end = (int) ((long) (b + 1) * n / buckets);
+			int min = start;
+			int max = start;
+			for (int i = start + 1; i < end; i++) {
+				// comparisons with NaN are false, so unreadable values are never picked
+				if (values[i] < values[min] || Double.isNaN(values[min])) {
+					min = i;
+				}
+				if (values[i] > values[max] || Double.isNaN(values[max])) {
+					max = i;
+				}
+			}
+			indices.addInt(Math.min(min, max));
+			if (min != max) {
+				indices.addInt(Math.max(min, max));
+			}
+		}
+		return indices.toIntArray();
+	}
+
+	private static int[] lttb(long[] timestamps, double[] values, int n, int maxPoints) {
+		int[] indices = new int[maxPoints];
+		double bucketSize = (double) (n - 2) / (maxPoints - 2);
+		long t0 = timestamps[0];
+		int a = 0;
+		indices[0] = 0;
+		for (int i = 0; i < maxPoints - 2; i++) {
+			// average of the next bucket is the third point of the triangle
+			int avgStart = (int) Math.floor((i + 1) * bucketSize) + 1;
+			int avgEnd = Math.min((int) Math.floor((i + 2) * bucketSize) + 1, n);
+			double avgX = 0;
+			double avgY = 0;
+			int avgCount = 0;
+			for (int j = avgStart; j < avgEnd; j++) {
+				if (!Double.isNaN(values[j])) {
+					avgX += timestamps[j] - t0;
+					avgY += values[j];
+					avgCount++;
+				}
+			}
+			if (avgCount > 0) {
+				avgX /= avgCount;
+				avgY /= avgCount;
+			} else {
+				avgX = timestamps[n - 1] - t0;
+				avgY = values[n - 1];
+			}
+
+			int rangeStart = (int) Math.floor(i * bucketSize) + 1;
+			int rangeEnd = (int) Math.floor((i + 1) * bucketSize) + 1;
+			double ax = timestamps[a] - t0;
+			double ay = values[a];
+			double maxArea = -1;
+			int next = rangeStart;
+			for (int j = rangeStart; j < rangeEnd; j++) {
+				double area = Math.abs((ax - avgX) * (values[j] - ay) - (ax - (timestamps[j] - t0)) * (avgY - ay));
+				if (area > maxArea) {
+					maxArea = area;
+					next = j;
+				}
+			}
+			indices[i + 1] = next;
+			a = next;
+		}
+		indices[maxPoints - 1] = n - 1;
+		return indices;
+	}
+}
@@ -0,0 +1,10 @@
+package run.rook.daemon.history;
+
+// how a history range is reduced to the requested number of points
+public enum IODownsampling {
+	// splits the range into buckets and keeps the smallest and largest sample
+	// of each bucket, so spikes are never lost
+	MINMAX,
+	// Largest-Triangle-Three-Buckets
+	LTTB
+}
@@ -0,0 +1,180 @@
+package run.rook.daemon.history;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.agrona.DirectBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheListener;
+import run.rook.daemon.cache.IODataType;
+import run.rook.daemon.cache.IOKey;
+
+// records recent values of every input and output in an off-heap ring per IO
+public class IOHistory implements IOCacheListener {
+
+	// marks names that have no history, so they are not looked up again
+	private static final IOHistoryBuffer DISABLED = new IOHistoryBuffer(0, 0);
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final int defaultCapacity;
+	private final Map<String, Integer> capacities = new ConcurrentHashMap<>();
+	private final Object lock = new Object();
+	// tables are only replaced under the lock and read without it
+	private volatile IOHistoryBuffer[] inputs = new IOHistoryBuffer[64];
+	private volatile IOHistoryBuffer[] outputs = new IOHistoryBuffer[64];
+
+	// defaultCapacity: entries kept per IO unless set per name, 0 to only
+	// record names with their own capacity
+	public IOHistory(int defaultCapacity) {
+		this.defaultCapacity = defaultCapacity;
+	}
+
+	// sets the number of entries kept for a name, 0 to not record it; must be
+	// called before the name's first value is recorded
+	public void setCapacity(String name, int capacity) {
+		capacities.put(name, capacity);
+	}
+
+	public int getCapacity(String name) {
+		Integer capacity = capacities.get(name);
+		return capacity == null ? defaultCapacity : capacity;
+	}
+
+	@Override
+	public void onInput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		IOHistoryBuffer buffer = inputs.length > key.getId() ? inputs[key.getId()] : null;
+		if (buffer == null || (buffer != DISABLED && buffer.getMaxValueLength() < valueLength)) {
+			buffer = createInputBuffer(key, valueLength);
+		}
+		if (buffer != DISABLED) {
+			buffer.append(System.currentTimeMillis(), value, valueLength);
+		}
+	}
+
+	@Override
+	public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		IOHistoryBuffer buffer = outputs.length > key.getId() ? outputs[key.getId()] : null;
+		if (buffer == null || (buffer != DISABLED && buffer.getMaxValueLength() < valueLength)) {
+			buffer = createOutputBuffer(key, valueLength);
+		}
+		if (buffer != DISABLED) {
+			buffer.append(System.currentTimeMillis(), value, valueLength);
+		}
+	}
+
+	private IOHistoryBuffer createInputBuffer(IOKey key, int valueLength) {
+		synchronized (lock) {
+			IOHistoryBuffer[] table = inputs;
+			if (key.getId() >= table.length) {
+				table = Arrays.copyOf(table, Math.max(table.length * 2, key.getId() + 1));
+			}
+			IOHistoryBuffer buffer = createBuffer(key, table[key.getId()], valueLength);
+			table[key.getId()] = buffer;
+			inputs = table;
+			return buffer;
+		}
+	}
+
+	private IOHistoryBuffer createOutputBuffer(IOKey key, int valueLength) {
+		synchronized (lock) {
+			IOHistoryBuffer[] table = outputs;
+			if (key.getId() >= table.length) {
+				table = Arrays.copyOf(table, Math.max(table.length * 2, key.getId() + 1));
+			}
+			IOHistoryBuffer buffer = createBuffer(key, table[key.getId()], valueLength);
+			table[key.getId()] = buffer;
+			outputs = table;
+			return buffer;
+		}
+	}
+
+	private IOHistoryBuffer createBuffer(IOKey key, IOHistoryBuffer previous, int valueLength) {
+		if (previous != null) {
+			// doubles, so a value that keeps growing copies the ring only a few times
+			int maxValueLength = Math.max(valueLength, previous.getMaxValueLength() * 2);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Growing history of " + key + " to values of " + maxValueLength + " bytes");
+			}
+			return new IOHistoryBuffer(previous, maxValueLength);
+		}
+		int capacity = getCapacity(key.getName());
+		if (capacity <= 0) {
+			return DISABLED;
+		}
+		IODataType type = key.getType();
+		int size = type == null ? 0 : type.getSize();
+		return new IOHistoryBuffer(capacity, Math.max(size, valueLength));
+	}
+
+	// resolves a query time in milliseconds since the epoch
+	public static long resolveTime(long time, long now) {
+		return time <= 0 ? now + time : time;
+	}
+
+	// returns the input's samples received between from and to, both inclusive
+	// and in milliseconds since the epoch, reduced to at most maxPoints
+	public List<IOHistorySample> queryInput(IOKey key, long from, long to, int maxPoints, IODownsampling downsampling) {
+		return query(inputs, key, from, to, maxPoints, downsampling);
+	}
+
+	// returns the output's samples received between from and to, both inclusive
+	// and in milliseconds since the epoch, reduced to at most maxPoints
+	public List<IOHistorySample> queryOutput(IOKey key, long from, long to, int maxPoints, IODownsampling downsampling) {
+		return query(outputs, key, from, to, maxPoints, downsampling);
+	}
+
+	private List<IOHistorySample> query(IOHistoryBuffer[] table, IOKey key, long from, long to, int maxPoints,
+			IODownsampling downsampling) {
+		IOHistoryBuffer buffer = table.length > key.getId() ? table[key.getId()] : null;
+		if (buffer == null || buffer == DISABLED) {
+			return Collections.emptyList();
+		}
+		long head = buffer.getHead();
+		long start = buffer.search(from, buffer.getTail(head), head);
+		long end = to == Long.MAX_VALUE ? head : buffer.search(to + 1, start, head);
+		int n = (int) (end - start);
+		if (n <= 0) {
+			return Collections.emptyList();
+		}
+
+		long[] timestamps = new long[n];
+		IODataType type = key.getType();
+		double[] values = type != null && type.isNumeric() ? new double[n] : null;
+		for (int i = 0; i < n; i++) {
+			long index = start + i;
+			timestamps[i] = buffer.getTimestamp(index);
+			if (values != null) {
+				values[i] = type.toDouble(buffer.getEntries(), buffer.getValueOffset(index), buffer.getLength(index));
+			}
+		}
+		int[] selected = IODownsampler.select(timestamps, values, n, maxPoints, downsampling);
+
+		long[] indices = new long[selected.length];
+		byte[][] copies = new byte[selected.length][];
+		for (int i = 0; i < selected.length; i++) {
+			indices[i] = start + selected[i];
+			copies[i] = buffer.copyValue(indices[i]);
+		}
+		// drop whatever the writer overwrote while we were copying
+		long validTail = buffer.getValidTail();
+		List<IOHistorySample> samples = new ArrayList<>(selected.length);
+		for (int i = 0; i < selected.length; i++) {
+			if (indices[i] >= validTail) {
+				samples.add(new IOHistorySample(timestamps[selected[i]], copies[i]));
+			}
+		}
+		return samples;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [defaultCapacity=" + defaultCapacity + "]";
+	}
+}
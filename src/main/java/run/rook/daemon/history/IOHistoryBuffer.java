@@ -0,0 +1,133 @@
+package run.rook.daemon.history;
+
+import java.nio.ByteBuffer;
+
+import org.agrona.DirectBuffer;
+import org.agrona.UnsafeAccess;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import run.rook.daemon.cache.DirectMemory;
+
+// off-heap ring of the most recent samples of one IO; only one thread appends,
+// any thread reads
+class IOHistoryBuffer {
+
+	private static final int TIMESTAMP_OFFSET = 0;
+	private static final int LENGTH_OFFSET = 8;
+	private static final int VALUE_OFFSET = 12;
+
+	// freed by the garbage collector once no reader holds the buffer anymore
+	private final ByteBuffer memory;
+	private final UnsafeBuffer entries;
+	private final int capacity;
+	private final int stride;
+	private volatile long head = 0;
+
+	public IOHistoryBuffer(int capacity, int maxValueLength) {
+		this.capacity = capacity;
+		this.stride = align(VALUE_OFFSET + maxValueLength);
+		if ((long) capacity * stride > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("History of " + capacity + " entries of " + stride + " bytes is too large");
+		}
+		this.memory = ByteBuffer.allocateDirect(capacity * stride);
+		this.entries = new UnsafeBuffer(DirectMemory.address(memory), capacity * stride);
+	}
+
+	// a larger copy of the previous ring, with the same entries and head
+	public IOHistoryBuffer(IOHistoryBuffer previous, int maxValueLength) {
+		this(previous.capacity, maxValueLength);
+		long h = previous.head;
+		for (long index = previous.getTail(h); index < h; index++) {
+			int offset = offset(index);
+			int previousOffset = previous.offset(index);
+			int length = previous.getLength(index);
+			entries.putLong(offset + TIMESTAMP_OFFSET, previous.getTimestamp(index));
+			entries.putInt(offset + LENGTH_OFFSET, length);
+			entries.putBytes(offset + VALUE_OFFSET, previous.entries, previousOffset + VALUE_OFFSET, length);
+		}
+		head = h;
+	}
+
+	private static int align(int length) {
+		return (length + 7) & ~7;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getMaxValueLength() {
+		return stride - VALUE_OFFSET;
+	}
+
+	// number of entries ever appended
+	public long getHead() {
+		return head;
+	}
+
+	// index of the oldest entry that is still stored, given a head
+	public long getTail(long head) {
+		return Math.max(0, head - capacity);
+	}
+
+	public void append(long timestamp, DirectBuffer value, int valueLength) {
+		long h = head;
+		int offset = offset(h);
+		entries.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+		entries.putInt(offset + LENGTH_OFFSET, valueLength);
+		entries.putBytes(offset + VALUE_OFFSET, value, 0, valueLength);
+		// the volatile write publishes the entry to readers
+		head = h + 1;
+	}
+
+	public long getTimestamp(long index) {
+		return entries.getLong(offset(index) + TIMESTAMP_OFFSET);
+	}
+
+	// length of the value at index
+	public int getLength(long index) {
+		int length = entries.getInt(offset(index) + LENGTH_OFFSET);
+		return Math.max(0, Math.min(length, getMaxValueLength()));
+	}
+
+	public DirectBuffer getEntries() {
+		return entries;
+	}
+
+	public int getValueOffset(long index) {
+		return offset(index) + VALUE_OFFSET;
+	}
+
+	public byte[] copyValue(long index) {
+		byte[] value = new byte[getLength(index)];
+		entries.getBytes(getValueOffset(index), value);
+		return value;
+	}
+
+	// index of the oldest entry that was not overwritten while the caller was
+	// copying
+	public long getValidTail() {
+		UnsafeAccess.UNSAFE.loadFence();
+		return getTail(head);
+	}
+
+	// index of the first stored entry with a timestamp at or after the given
+	// time, or the head if there is none
+	public long search(long timestamp, long tail, long head) {
+		long low = tail;
+		long high = head;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (getTimestamp(mid) < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int offset(long index) {
+		return (int) (index % capacity) * stride;
+	}
+}
@@ -0,0 +1,21 @@
+package run.rook.daemon.history;
+
+// a recorded value and the time it was received, in milliseconds since the
+// epoch
+public final class IOHistorySample {
+	private final long timestamp;
+	private final byte[] value;
+
+	IOHistorySample(long timestamp, byte[] value) {
+		this.timestamp = timestamp;
+		this.value = value;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public byte[] getValue() {
+		return value;
+	}
+}
@@ -0,0 +1,154 @@
+package run.rook.daemon.ipc;
+
+import static run.rook.daemon.ipc.IOIpcFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Int2ObjectHashMap;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.broadcast.BroadcastReceiver;
+import org.agrona.concurrent.ringbuffer.ManyToOneRingBuffer;
+
+import run.rook.daemon.cache.DirectMemory;
+
+// client side of an IOIpcTransport, for processes on the same host as the
+// daemon; not thread-safe
+public class IOIpcClient {
+
+	private final File file;
+	// kept so the mapping stays valid while it is used through its address
+	private final MappedByteBuffer mapped;
+	private final ManyToOneRingBuffer inbound;
+	private final BroadcastReceiver receiver;
+	private final UnsafeBuffer sendBuffer;
+	private final UnsafeBuffer receiveBuffer;
+	private final UnsafeBuffer value = new UnsafeBuffer(new byte[0]);
+	private final Int2ObjectHashMap<IOIpcKey> keysById = new Int2ObjectHashMap<>();
+	private final long startTime;
+
+	// connects to the file of a running daemon
+	public IOIpcClient(File file) throws IOException {
+		this.file = file;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		}
+		long address = DirectMemory.address(mapped);
+		UnsafeBuffer header = new UnsafeBuffer(address, Math.min(HEADER_LENGTH, mapped.capacity()));
+		if (mapped.capacity() < HEADER_LENGTH || header.getLongVolatile(MAGIC_OFFSET) != MAGIC
+				|| header.getInt(VERSION_OFFSET) != VERSION) {
+			throw new IOException(file + " is not a ready IPC file of this version");
+		}
+		int capacity = header.getInt(CAPACITY_OFFSET);
+		if (mapped.capacity() < fileLength(capacity)) {
+			throw new IOException(file + " is truncated");
+		}
+		startTime = header.getLong(START_TIME_OFFSET);
+		inbound = new ManyToOneRingBuffer(new UnsafeBuffer(address + inboundOffset(), inboundLength(capacity)));
+		receiver = new BroadcastReceiver(
+				new UnsafeBuffer(address + broadcastOffset(capacity), broadcastLength(capacity)));
+		sendBuffer = new UnsafeBuffer(new byte[inbound.maxMsgLength()]);
+		receiveBuffer = new UnsafeBuffer(new byte[capacity / 8]);
+	}
+
+	// encodes a key to send updates with
+	public IOIpcKey key(String name, String dataType) {
+		return new IOIpcKey(name, dataType, encodeKey(name, dataType));
+	}
+
+	// sends an input update; returns false if the daemon is not keeping up and
+	// the ring is full, or the update is too large
+	public boolean sendInput(IOIpcKey key, DirectBuffer value, int offset, int length) {
+		return send(INPUT, key, value, offset, length);
+	}
+
+	public boolean sendOutput(IOIpcKey key, DirectBuffer value, int offset, int length) {
+		return send(OUTPUT, key, value, offset, length);
+	}
+
+	public boolean sendInput(IOIpcKey key, byte[] value) {
+		this.value.wrap(value);
+		return send(INPUT, key, this.value, 0, value.length);
+	}
+
+	public boolean sendOutput(IOIpcKey key, byte[] value) {
+		this.value.wrap(value);
+		return send(OUTPUT, key, this.value, 0, value.length);
+	}
+
+	private boolean send(int type, IOIpcKey key, DirectBuffer value, int offset, int length) {
+		byte[] encoded = key.getEncoded();
+		int messageLength = encoded.length + length;
+		if (messageLength > sendBuffer.capacity()) {
+			return false;
+		}
+		sendBuffer.putBytes(0, encoded);
+		sendBuffer.putBytes(encoded.length, value, offset, length);
+		return inbound.write(type, sendBuffer, 0, messageLength);
+	}
+
+	// hands up to limit broadcast updates to the handler; returns how many were
+	// handled, 0 if there were none
+	public int poll(IOIpcHandler handler, int limit) {
+		int count = 0;
+		while (count < limit && receiver.receiveNext()) {
+			int length = receiver.length();
+			if (length > receiveBuffer.capacity()) {
+				continue;
+			}
+			int type = receiver.typeId();
+			// copied first, the daemon may overwrite it while it is read
+			receiveBuffer.putBytes(0, receiver.buffer(), receiver.offset(), length);
+			if (!receiver.validate()) {
+				continue;
+			}
+			IOIpcKey key = key(receiveBuffer);
+			int valueOffset = ID_LENGTH + key.getEncoded().length;
+			value.wrap(receiveBuffer, valueOffset, length - valueOffset);
+			if (type == INPUT) {
+				handler.onInput(key, value, length - valueOffset);
+			} else if (type == OUTPUT) {
+				handler.onOutput(key, value, length - valueOffset);
+			}
+			count++;
+		}
+		return count;
+	}
+
+	private IOIpcKey key(DirectBuffer message) {
+		int id = message.getInt(0);
+		IOIpcKey key = keysById.get(id);
+		if (key == null) {
+			// ids stay the same while the daemon runs
+			byte[] encoded = new byte[keyLength(message, ID_LENGTH)];
+			message.getBytes(ID_LENGTH, encoded);
+			key = new IOIpcKey(name(message, ID_LENGTH), dataType(message, ID_LENGTH), encoded);
+			keysById.put(id, key);
+		}
+		return key;
+	}
+
+	// number of times the daemon overwrote updates before this client read them
+	public long getLappedCount() {
+		return receiver.lappedCount();
+	}
+
+	// returns true if the daemon's poller was seen within the timeout
+	public boolean isDaemonAlive(long timeoutMillis) {
+		return System.currentTimeMillis() - inbound.consumerHeartbeatTime() <= timeoutMillis;
+	}
+
+	// when the daemon created the file, in milliseconds since the epoch
+	public long getStartTime() {
+		return startTime;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [file=" + file + "]";
+	}
+}
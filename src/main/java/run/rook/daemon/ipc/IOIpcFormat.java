@@ -0,0 +1,90 @@
+package run.rook.daemon.ipc;
+
+import java.nio.charset.StandardCharsets;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.broadcast.BroadcastBufferDescriptor;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+
+// layout of the shared file of an IOIpcTransport
+final class IOIpcFormat {
+
+	// "ROOK_IPC" in little-endian
+	static final long MAGIC = 0x4350495F4B4F4F52L;
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 128;
+	static final int MAGIC_OFFSET = 0;
+	static final int VERSION_OFFSET = 8;
+	static final int CAPACITY_OFFSET = 12;
+	static final int START_TIME_OFFSET = 16;
+
+	// message type ids must be positive
+	static final int INPUT = 1;
+	static final int OUTPUT = 2;
+
+	static final int KEY_HEADER_LENGTH = 4;
+	static final int ID_LENGTH = 4;
+
+	private IOIpcFormat() {
+
+	}
+
+	static int inboundOffset() {
+		return HEADER_LENGTH;
+	}
+
+	static int inboundLength(int capacity) {
+		return capacity + RingBufferDescriptor.TRAILER_LENGTH;
+	}
+
+	static int broadcastOffset(int capacity) {
+		return inboundOffset() + inboundLength(capacity);
+	}
+
+	static int broadcastLength(int capacity) {
+		return capacity + BroadcastBufferDescriptor.TRAILER_LENGTH;
+	}
+
+	static int fileLength(int capacity) {
+		return broadcastOffset(capacity) + broadcastLength(capacity);
+	}
+
+	// encodes the key part of a message
+	static byte[] encodeKey(String name, String dataType) {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		byte[] dataTypeBytes = dataType == null ? new byte[0] : dataType.getBytes(StandardCharsets.UTF_8);
+		if (nameBytes.length > 0xFFFF || dataTypeBytes.length > 0xFF) {
+			throw new IllegalArgumentException("Name or data type of '" + name + "' is too long");
+		}
+		byte[] key = new byte[KEY_HEADER_LENGTH + nameBytes.length + dataTypeBytes.length];
+		key[0] = (byte) nameBytes.length;
+		key[1] = (byte) (nameBytes.length >> 8);
+		key[2] = (byte) dataTypeBytes.length;
+		System.arraycopy(nameBytes, 0, key, KEY_HEADER_LENGTH, nameBytes.length);
+		System.arraycopy(dataTypeBytes, 0, key, KEY_HEADER_LENGTH + nameBytes.length, dataTypeBytes.length);
+		return key;
+	}
+
+	static int nameLength(DirectBuffer buffer, int keyOffset) {
+		// written byte by byte above, independent of the native order
+		return (buffer.getByte(keyOffset) & 0xFF) | ((buffer.getByte(keyOffset + 1) & 0xFF) << 8);
+	}
+
+	static int dataTypeLength(DirectBuffer buffer, int keyOffset) {
+		return buffer.getByte(keyOffset + 2) & 0xFF;
+	}
+
+	static int keyLength(DirectBuffer buffer, int keyOffset) {
+		return KEY_HEADER_LENGTH + nameLength(buffer, keyOffset) + dataTypeLength(buffer, keyOffset);
+	}
+
+	static String name(DirectBuffer buffer, int keyOffset) {
+		return buffer.getStringWithoutLengthUtf8(keyOffset + KEY_HEADER_LENGTH, nameLength(buffer, keyOffset));
+	}
+
+	static String dataType(DirectBuffer buffer, int keyOffset) {
+		int length = dataTypeLength(buffer, keyOffset);
+		return length == 0 ? null
+				: buffer.getStringWithoutLengthUtf8(keyOffset + KEY_HEADER_LENGTH + nameLength(buffer, keyOffset), length);
+	}
+}
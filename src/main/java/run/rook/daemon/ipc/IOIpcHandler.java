@@ -0,0 +1,10 @@
+package run.rook.daemon.ipc;
+
+import org.agrona.DirectBuffer;
+
+// receives the updates IOIpcClient.poll() reads
+public interface IOIpcHandler {
+	void onInput(IOIpcKey key, DirectBuffer value, int valueLength);
+
+	void onOutput(IOIpcKey key, DirectBuffer value, int valueLength);
+}
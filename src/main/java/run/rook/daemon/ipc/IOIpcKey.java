@@ -0,0 +1,33 @@
+package run.rook.daemon.ipc;
+
+// name and data type of an IO as used by IOIpcClient, encoded once so sending
+// does not encode the strings again
+public final class IOIpcKey {
+
+	private final String name;
+	private final String dataType;
+	private final byte[] encoded;
+
+	IOIpcKey(String name, String dataType, byte[] encoded) {
+		this.name = name;
+		this.dataType = dataType;
+		this.encoded = encoded;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getDataType() {
+		return dataType;
+	}
+
+	byte[] getEncoded() {
+		return encoded;
+	}
+
+	@Override
+	public String toString() {
+		return "IOIpcKey [name=" + name + ", dataType=" + dataType + "]";
+	}
+}
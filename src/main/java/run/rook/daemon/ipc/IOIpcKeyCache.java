@@ -0,0 +1,76 @@
+package run.rook.daemon.ipc;
+
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Int2ObjectHashMap;
+
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IORegistry;
+
+// resolves encoded keys of inbound messages to IOKeys without decoding the
+// strings again; not thread-safe, only used from the transport's poller thread
+class IOIpcKeyCache {
+
+	// bounds the memory used by clients sending ever new names
+	private static final int MAX_SIZE = 65536;
+
+	private final IORegistry registry;
+	private final Int2ObjectHashMap<Entry> entries = new Int2ObjectHashMap<>();
+	private int size = 0;
+
+	public IOIpcKeyCache(IORegistry registry) {
+		this.registry = registry;
+	}
+
+	public IOKey lookup(DirectBuffer buffer, int offset, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + buffer.getByte(offset + i);
+		}
+		Entry first = entries.get(hash);
+		for (Entry e = first; e != null; e = e.next) {
+			if (e.matches(buffer, offset, length)) {
+				return e.key;
+			}
+		}
+		String name = IOIpcFormat.name(buffer, offset);
+		String dataType = IOIpcFormat.dataType(buffer, offset);
+		if (IORegistry.validate(name, dataType) != null) {
+			return null;
+		}
+		IOKey key = registry.register(name, dataType);
+		if (size == MAX_SIZE) {
+			entries.clear();
+			size = 0;
+			first = null;
+		}
+		byte[] encoded = new byte[length];
+		buffer.getBytes(offset, encoded);
+		entries.put(hash, new Entry(encoded, key, first));
+		size++;
+		return key;
+	}
+
+	private static final class Entry {
+		private final byte[] encoded;
+		private final IOKey key;
+		private final Entry next;
+
+		Entry(byte[] encoded, IOKey key, Entry next) {
+			this.encoded = encoded;
+			this.key = key;
+			this.next = next;
+		}
+
+		boolean matches(DirectBuffer buffer, int offset, int length) {
+			if (encoded.length != length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (encoded[i] != buffer.getByte(offset + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
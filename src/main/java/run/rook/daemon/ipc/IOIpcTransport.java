@@ -0,0 +1,255 @@
+package run.rook.daemon.ipc;
+
+import static run.rook.daemon.ipc.IOIpcFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.broadcast.BroadcastTransmitter;
+import org.agrona.concurrent.ringbuffer.ManyToOneRingBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.cache.DirectMemory;
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheListener;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOSource;
+import run.rook.daemon.cache.IOSourceKind;
+import run.rook.daemon.metrics.IOMetricsSource;
+import run.rook.daemon.metrics.IOMetricsWriter;
+
+// exchanges IO updates with processes on the same host through a memory-mapped
+// file, see IOIpcFormat
+public class IOIpcTransport implements IOSource, IOMetricsSource {
+
+	public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+	private static final int READ_LIMIT = 256;
+	private static final long UNBLOCK_INTERVAL = 1000;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final File file;
+	private final int capacity;
+	private final IOCache cache;
+	private final IOIpcKeyCache keys;
+	private final UnsafeBuffer value = new UnsafeBuffer(new byte[0]);
+	private IdleStrategy idleStrategy = new BackoffIdleStrategy(100, 10, TimeUnit.MICROSECONDS.toNanos(1),
+			TimeUnit.MICROSECONDS.toNanos(100));
+	// kept so the mapping stays valid while it is used through its address
+	private MappedByteBuffer mapped;
+	private ManyToOneRingBuffer inbound;
+	private BroadcastTransmitter transmitter;
+	// guarded by the transmitter
+	private UnsafeBuffer transmitBuffer;
+	private byte[][] encodedKeys = new byte[64][];
+	private volatile boolean running = false;
+	private Thread poller;
+
+	private final AtomicLong receivedCount = new AtomicLong();
+	private final AtomicLong broadcastCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	// capacity: size of the ring and of the broadcast buffer, a power of 2
+	public IOIpcTransport(File file, int capacity, IOCache cache) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("capacity must be a power of 2");
+		}
+		this.file = file;
+		this.capacity = capacity;
+		this.cache = cache;
+		this.keys = new IOIpcKeyCache(cache.getRegistry());
+	}
+
+	// sets how the poller waits while no client writes
+	public void setIdleStrategy(IdleStrategy idleStrategy) {
+		this.idleStrategy = idleStrategy;
+	}
+
+	@Override
+	public IOSourceKind getSourceKind() {
+		return IOSourceKind.IPC;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private final IOCacheListener ioCacheListener = new IOCacheListener() {
+
+		@Override
+		public void onInput(IOKey key, DirectBuffer value, int valueLength, Object src) {
+			if (src != cache) {
+				transmit(INPUT, key, value, valueLength);
+			}
+		}
+
+		@Override
+		public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object src) {
+			if (src != cache) {
+				transmit(OUTPUT, key, value, valueLength);
+			}
+		}
+	};
+
+	public void start() throws IOException {
+		// a file left by an earlier run may still be mapped by its clients
+		file.delete();
+		int length = fileLength(capacity);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length);
+			mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		}
+		long address = DirectMemory.address(mapped);
+		UnsafeBuffer header = new UnsafeBuffer(address, HEADER_LENGTH);
+		inbound = new ManyToOneRingBuffer(new UnsafeBuffer(address + inboundOffset(), inboundLength(capacity)));
+		transmitter = new BroadcastTransmitter(
+				new UnsafeBuffer(address + broadcastOffset(capacity), broadcastLength(capacity)));
+		transmitBuffer = new UnsafeBuffer(new byte[transmitter.maxMsgLength()]);
+		inbound.consumerHeartbeatTime(System.currentTimeMillis());
+		header.putInt(VERSION_OFFSET, VERSION);
+		header.putInt(CAPACITY_OFFSET, capacity);
+		header.putLong(START_TIME_OFFSET, System.currentTimeMillis());
+		// clients wait for the magic, so it is written last
+		header.putLongOrdered(MAGIC_OFFSET, MAGIC);
+
+		running = true;
+		cache.registerListener(ioCacheListener);
+		poller = new Thread(this::pollLoop, "IOIpcTransport");
+		poller.setDaemon(true);
+		poller.start();
+		logger.info("IPC transport ready at " + file);
+	}
+
+	public void stop() {
+		running = false;
+		cache.deregisterListener(ioCacheListener);
+		if (poller != null) {
+			try {
+				poller.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		file.delete();
+	}
+
+	private void pollLoop() {
+		long nextCheck = 0;
+		long lastConsumerPosition = -1;
+		while (running) {
+			int count = inbound.read(this::onMessage, READ_LIMIT);
+			long now = System.currentTimeMillis();
+			if (now >= nextCheck) {
+				inbound.consumerHeartbeatTime(now);
+				long position = inbound.consumerPosition();
+				if (count == 0 && position == lastConsumerPosition && inbound.producerPosition() > position
+						&& inbound.unblock()) {
+					logger.warn("Skipped a message a client claimed but never finished writing");
+				}
+				lastConsumerPosition = position;
+				nextCheck = now + UNBLOCK_INTERVAL;
+			}
+			idleStrategy.idle(count);
+		}
+	}
+
+	private void onMessage(int type, MutableDirectBuffer buffer, int index, int length) {
+		int keyLength = length < KEY_HEADER_LENGTH ? Integer.MAX_VALUE : keyLength(buffer, index);
+		if (keyLength > length || (type != INPUT && type != OUTPUT)) {
+			drop("Malformed IPC message of type " + type);
+			return;
+		}
+		IOKey key = keys.lookup(buffer, index, keyLength);
+		if (key == null) {
+			drop("IPC message with a name or data type that is too long");
+			return;
+		}
+		int valueLength = length - keyLength;
+		value.wrap(buffer, index + keyLength, valueLength);
+		if (type == INPUT) {
+			cache.processInput(key.getId(), value, valueLength, this);
+		} else {
+			cache.processOutput(key.getId(), value, valueLength, this);
+		}
+		receivedCount.incrementAndGet();
+	}
+
+	private void transmit(int type, IOKey key, DirectBuffer value, int valueLength) {
+		synchronized (transmitter) {
+			byte[] encodedKey = encodedKey(key);
+			int length = ID_LENGTH + encodedKey.length + valueLength;
+			if (length > transmitBuffer.capacity()) {
+				drop("Update of " + key.getName() + " is too large for the IPC broadcast buffer");
+				return;
+			}
+			transmitBuffer.putInt(0, key.getId());
+			transmitBuffer.putBytes(ID_LENGTH, encodedKey);
+			transmitBuffer.putBytes(ID_LENGTH + encodedKey.length, value, 0, valueLength);
+			transmitter.transmit(type, transmitBuffer, 0, length);
+		}
+		broadcastCount.incrementAndGet();
+	}
+
+	private byte[] encodedKey(IOKey key) {
+		int id = key.getId();
+		if (id >= encodedKeys.length) {
+			encodedKeys = Arrays.copyOf(encodedKeys, Math.max(id + 1, encodedKeys.length * 2));
+		}
+		byte[] encoded = encodedKeys[id];
+		if (encoded == null) {
+			encoded = encodeKey(key.getName(), key.getDataType());
+			encodedKeys[id] = encoded;
+		}
+		return encoded;
+	}
+
+	private void drop(String reason) {
+		long count = droppedCount.incrementAndGet();
+		if (Long.bitCount(count) == 1) {
+			// back off logging while messages keep getting dropped
+			logger.warn(reason + ", dropping IPC messages (" + count + " dropped)");
+		}
+	}
+
+	// number of updates received from clients
+	public long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	// number of updates written to the broadcast buffer
+	public long getBroadcastCount() {
+		return broadcastCount.get();
+	}
+
+	// number of malformed or too large messages dropped
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	@Override
+	public void writeMetrics(IOMetricsWriter writer) {
+		writer.counter("rook_ipc_received_total", "Updates received from IPC clients.");
+		writer.sample("rook_ipc_received_total", getReceivedCount());
+		writer.counter("rook_ipc_broadcast_total", "Updates written to the IPC broadcast buffer.");
+		writer.sample("rook_ipc_broadcast_total", getBroadcastCount());
+		writer.counter("rook_ipc_dropped_total", "Malformed or too large IPC messages dropped.");
+		writer.sample("rook_ipc_dropped_total", getDroppedCount());
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [file=" + file + ", capacity=" + capacity + "]";
+	}
+}
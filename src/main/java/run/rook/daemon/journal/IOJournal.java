@@ -0,0 +1,40 @@
+package run.rook.daemon.journal;
+
+import java.io.File;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheStage;
+
+// append-only journal of every input and output, written to memory-mapped,
+// rolling segment files
+public class IOJournal {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private final File directory;
+	private final int segmentSize;
+
+	public IOJournal(File directory, int segmentSize) {
+		if (segmentSize < IOJournalFormat.SEGMENT_HEADER_LENGTH * 2) {
+			throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	// creates the writer of one shard
+	public IOCacheStage createWriter(int shard) {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalStateException("Could not create journal directory " + directory);
+		}
+		return new IOJournalWriter(directory, shard, segmentSize);
+	}
+}
@@ -0,0 +1,60 @@
+package run.rook.daemon.journal;
+
+// layout of journal segment files
+final class IOJournalFormat {
+
+	public static final long MAGIC = 0x4C4E524A4B4F4F52L; // "ROOKJRNL"
+	public static final int VERSION = 1;
+	public static final String SEGMENT_SUFFIX = ".journal";
+
+	public static final int SEGMENT_MAGIC_OFFSET = 0;
+	public static final int SEGMENT_VERSION_OFFSET = 8;
+	public static final int SEGMENT_SHARD_OFFSET = 12;
+	public static final int SEGMENT_INDEX_OFFSET = 16;
+	public static final int SEGMENT_FIRST_TIMESTAMP_OFFSET = 24;
+	public static final int SEGMENT_LAST_TIMESTAMP_OFFSET = 32;
+	public static final int SEGMENT_HEADER_LENGTH = 64;
+
+	public static final int RECORD_LENGTH_OFFSET = 0;
+	public static final int RECORD_TYPE_OFFSET = 4;
+	public static final int RECORD_SOURCE_KIND_OFFSET = 5;
+	public static final int RECORD_NAME_LENGTH_OFFSET = 6;
+	public static final int RECORD_TIMESTAMP_OFFSET = 8;
+	public static final int RECORD_VALUE_LENGTH_OFFSET = 16;
+	public static final int RECORD_DATA_TYPE_LENGTH_OFFSET = 20;
+	public static final int RECORD_HEADER_LENGTH = 21;
+
+	public static final byte TYPE_INPUT = 1;
+	public static final byte TYPE_OUTPUT = 2;
+
+	public static final int END_OF_SEGMENT = -1;
+
+	private IOJournalFormat() {
+
+	}
+
+	public static int align(int length) {
+		return (length + 7) & ~7;
+	}
+
+	public static String segmentName(int shard, long index) {
+		return String.format("%03d-%012d%s", shard, index, SEGMENT_SUFFIX);
+	}
+
+	// returns the shard of a segment file name, or -1 if the name is not a
+	// segment
+	public static int parseShard(String fileName) {
+		if (!fileName.endsWith(SEGMENT_SUFFIX) || fileName.indexOf('-') != 3) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(fileName.substring(0, 3));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	public static long parseIndex(String fileName) {
+		return Long.parseLong(fileName.substring(4, fileName.length() - SEGMENT_SUFFIX.length()));
+	}
+}
@@ -0,0 +1,174 @@
+package run.rook.daemon.journal;
+
+import static run.rook.daemon.journal.IOJournalFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.cache.DirectMemory;
+
+// reads the segments written by an IOJournal, which may still be written to
+public class IOJournalReader {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final File directory;
+
+	public IOJournalReader(File directory) {
+		this.directory = directory;
+	}
+
+	// calls the handler for every record with a timestamp between from and to,
+	// both inclusive and in milliseconds since the epoch; returns the number of
+	// records read
+	public long read(long from, long to, IOJournalRecordHandler handler) throws IOException {
+		PriorityQueue<ShardCursor> cursors = new PriorityQueue<>(
+				Comparator.comparingLong(ShardCursor::getTimestamp).thenComparingInt(ShardCursor::getShard));
+		for (List<File> segments : listSegments().values()) {
+			ShardCursor cursor = new ShardCursor(segments, from, to);
+			if (cursor.advance()) {
+				cursors.add(cursor);
+			}
+		}
+		IOJournalRecord record = new IOJournalRecord();
+		long count = 0;
+		while (!cursors.isEmpty()) {
+			ShardCursor cursor = cursors.poll();
+			record.wrap(cursor.segment, cursor.offset, cursor.shard);
+			handler.onRecord(record);
+			count++;
+			if (cursor.advance()) {
+				cursors.add(cursor);
+			}
+		}
+		return count;
+	}
+
+	// segment files per shard, ordered by index
+	private TreeMap<Integer, List<File>> listSegments() {
+		TreeMap<Integer, List<File>> shards = new TreeMap<>();
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return shards;
+		}
+		for (File file : files) {
+			int shard = parseShard(file.getName());
+			if (shard >= 0) {
+				shards.computeIfAbsent(shard, s -> new ArrayList<>()).add(file);
+			}
+		}
+		for (List<File> segments : shards.values()) {
+			segments.sort(Comparator.comparingLong((File f) -> parseIndex(f.getName())));
+		}
+		return shards;
+	}
+
+	// position in the records of one shard
+	private class ShardCursor {
+		private final List<File> segmentFiles;
+		private final long from;
+		private final long to;
+		private int nextSegment = 0;
+		private int shard = -1;
+		// kept so the mapping stays valid while it is read through the address
+		private MappedByteBuffer mapped;
+		private UnsafeBuffer segment;
+		private int offset;
+		private int nextOffset;
+		private boolean done = false;
+
+		ShardCursor(List<File> segmentFiles, long from, long to) {
+			this.segmentFiles = segmentFiles;
+			this.from = from;
+			this.to = to;
+		}
+
+		int getShard() {
+			return shard;
+		}
+
+		long getTimestamp() {
+			return segment.getLong(offset + RECORD_TIMESTAMP_OFFSET);
+		}
+
+		// moves to the next record in range; returns false once there is none
+		boolean advance() throws IOException {
+			while (!done) {
+				if (segment == null || !nextRecord()) {
+					if (!openNextSegment()) {
+						done = true;
+						break;
+					}
+					continue;
+				}
+				long timestamp = getTimestamp();
+				if (timestamp > to) {
+					done = true;
+				} else if (timestamp >= from) {
+					return true;
+				}
+			}
+			segment = null;
+			mapped = null;
+			return false;
+		}
+
+		private boolean nextRecord() {
+			if (nextOffset + RECORD_HEADER_LENGTH > segment.capacity()) {
+				return false;
+			}
+			int length = segment.getIntVolatile(nextOffset + RECORD_LENGTH_OFFSET);
+			if (length <= 0 || length > segment.capacity() - nextOffset) {
+				// end of the records written so far, or rolled over
+				return false;
+			}
+			offset = nextOffset;
+			nextOffset += length;
+			return true;
+		}
+
+		private boolean openNextSegment() throws IOException {
+			while (nextSegment < segmentFiles.size()) {
+				File file = segmentFiles.get(nextSegment++);
+				boolean last = nextSegment == segmentFiles.size();
+				map(file);
+				if (segment.capacity() < SEGMENT_HEADER_LENGTH || segment.getLong(SEGMENT_MAGIC_OFFSET) != MAGIC) {
+					logger.warn("Skipping " + file + ", not a journal segment");
+					continue;
+				}
+				long first = segment.getLongVolatile(SEGMENT_FIRST_TIMESTAMP_OFFSET);
+				long lastTimestamp = segment.getLongVolatile(SEGMENT_LAST_TIMESTAMP_OFFSET);
+				if (first > to) {
+					return false;
+				}
+				// the newest segment may have records past its last timestamp
+				if (!last && lastTimestamp != 0 && lastTimestamp < from) {
+					continue;
+				}
+				shard = segment.getInt(SEGMENT_SHARD_OFFSET);
+				nextOffset = SEGMENT_HEADER_LENGTH;
+				return true;
+			}
+			return false;
+		}
+
+		private void map(File file) throws IOException {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				int size = (int) Math.min(raf.length(), Integer.MAX_VALUE);
+				mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+				segment = new UnsafeBuffer(DirectMemory.address(mapped), size);
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package run.rook.daemon.journal;
+
+import static run.rook.daemon.journal.IOJournalFormat.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.agrona.DirectBuffer;
+
+import run.rook.daemon.cache.IOSourceKind;
+
+// flyweight over a record of a journal segment; only valid during the
+// IOJournalRecordHandler call it is passed to
+public final class IOJournalRecord {
+
+	private static final IOSourceKind[] SOURCE_KINDS = IOSourceKind.values();
+
+	private DirectBuffer segment;
+	private int offset;
+	private int shard;
+
+	void wrap(DirectBuffer segment, int offset, int shard) {
+		this.segment = segment;
+		this.offset = offset;
+		this.shard = shard;
+	}
+
+	public int getShard() {
+		return shard;
+	}
+
+	// milliseconds since the epoch when the shard received the update
+	public long getTimestamp() {
+		return segment.getLong(offset + RECORD_TIMESTAMP_OFFSET);
+	}
+
+	public boolean isInput() {
+		return segment.getByte(offset + RECORD_TYPE_OFFSET) == TYPE_INPUT;
+	}
+
+	public boolean isOutput() {
+		return segment.getByte(offset + RECORD_TYPE_OFFSET) == TYPE_OUTPUT;
+	}
+
+	public IOSourceKind getSourceKind() {
+		int kind = segment.getByte(offset + RECORD_SOURCE_KIND_OFFSET) & 0xFF;
+		return kind < SOURCE_KINDS.length ? SOURCE_KINDS[kind] : IOSourceKind.UNKNOWN;
+	}
+
+	public String getName() {
+		return segment.getStringWithoutLengthUtf8(offset + RECORD_HEADER_LENGTH, nameLength());
+	}
+
+	// null for an IO without a data type, like the key it was written from
+	public String getDataType() {
+		int length = dataTypeLength();
+		return length == 0 ? null : segment.getStringWithoutLengthUtf8(offset + RECORD_HEADER_LENGTH + nameLength(), length);
+	}
+
+	// the segment holding the value, starting at getValueOffset()
+	public DirectBuffer getValueBuffer() {
+		return segment;
+	}
+
+	public int getValueOffset() {
+		return offset + RECORD_HEADER_LENGTH + nameLength() + dataTypeLength();
+	}
+
+	public int getValueLength() {
+		return segment.getInt(offset + RECORD_VALUE_LENGTH_OFFSET);
+	}
+
+	public byte[] copyValue() {
+		byte[] value = new byte[getValueLength()];
+		segment.getBytes(getValueOffset(), value);
+		return value;
+	}
+
+	private int nameLength() {
+		return segment.getShort(offset + RECORD_NAME_LENGTH_OFFSET) & 0xFFFF;
+	}
+
+	private int dataTypeLength() {
+		return segment.getByte(offset + RECORD_DATA_TYPE_LENGTH_OFFSET) & 0xFF;
+	}
+
+	@Override
+	public String toString() {
+		return "IOJournalRecord [timestamp=" + getTimestamp() + ", type=" + (isInput() ? "input" : "output")
+				+ ", name=" + getName() + ", dataType=" + getDataType() + ", sourceKind=" + getSourceKind()
+				+ ", valueLength=" + getValueLength() + "]";
+	}
+}
@@ -0,0 +1,6 @@
+package run.rook.daemon.journal;
+
+@FunctionalInterface
+public interface IOJournalRecordHandler {
+	void onRecord(IOJournalRecord record);
+}
@@ -0,0 +1,144 @@
+package run.rook.daemon.journal;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOSource;
+import run.rook.daemon.cache.IOSourceKind;
+
+// feeds the records of a journal into an IOCache, as if they were received
+// again
+public class IOJournalReplay implements Runnable, IOSource {
+
+	public static final double AS_FAST_AS_POSSIBLE = 0;
+
+	private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+	// closer to the deadline than this, spin instead of parking
+	private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final IOJournalReader reader;
+	private final IOCache cache;
+	private final double speed;
+	private final long from;
+	private final long to;
+	private final UnsafeBuffer value = new UnsafeBuffer(new byte[0]);
+
+	private long startNanos;
+	private long firstTimestamp;
+	private long nextReportNanos;
+	private volatile long count;
+	private volatile long elapsedNanos;
+	private volatile long maxLagNanos;
+	private long totalLagNanos;
+
+	public IOJournalReplay(IOJournalReader reader, IOCache cache, double speed, long from, long to) {
+		if (speed < 0) {
+			throw new IllegalArgumentException("speed must not be negative");
+		}
+		this.reader = reader;
+		this.cache = cache;
+		this.speed = speed;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	public IOSourceKind getSourceKind() {
+		return IOSourceKind.DAEMON;
+	}
+
+	@Override
+	public void run() {
+		logger.info("Replaying journal at " + (speed == AS_FAST_AS_POSSIBLE ? "full speed" : speed + "x speed"));
+		startNanos = System.nanoTime();
+		nextReportNanos = startNanos + REPORT_INTERVAL;
+		try {
+			reader.read(from, to, this::replay);
+		} catch (IOException e) {
+			logger.error("Could not read journal", e);
+		}
+		elapsedNanos = System.nanoTime() - startNanos;
+		logger.info("Replay finished: " + report());
+	}
+
+	private void replay(IOJournalRecord record) {
+		long now = System.nanoTime();
+		if (count == 0) {
+			firstTimestamp = record.getTimestamp();
+		}
+		if (speed != AS_FAST_AS_POSSIBLE) {
+			long due = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(record.getTimestamp() - firstTimestamp) / speed);
+			now = waitUntil(due, now);
+			long lag = now - due;
+			totalLagNanos += lag;
+			if (lag > maxLagNanos) {
+				maxLagNanos = lag;
+			}
+		}
+
+		value.wrap(record.getValueBuffer(), record.getValueOffset(), record.getValueLength());
+		if (record.isInput()) {
+			cache.processInput(record.getName(), record.getDataType(), value, value.capacity(), this);
+		} else {
+			cache.processOutput(record.getName(), record.getDataType(), value, value.capacity(), this);
+		}
+		count++;
+
+		if (now >= nextReportNanos) {
+			elapsedNanos = now - startNanos;
+			nextReportNanos = now + REPORT_INTERVAL;
+			logger.info("Replaying: " + report());
+		}
+	}
+
+	private static long waitUntil(long due, long now) {
+		while (now < due) {
+			long wait = due - now;
+			if (wait > SPIN_NANOS) {
+				LockSupport.parkNanos(wait - SPIN_NANOS);
+			} else {
+				Thread.yield();
+			}
+			now = System.nanoTime();
+		}
+		return now;
+	}
+
+	// number of records replayed so far
+	public long getCount() {
+		return count;
+	}
+
+	// average records per second, updated with every progress report and at the
+	// end
+	public double getRate() {
+		long elapsed = elapsedNanos;
+		return elapsed == 0 ? 0 : count * 1e9 / elapsed;
+	}
+
+	public long getMaxLagNanos() {
+		return maxLagNanos;
+	}
+
+	private String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(count).append(" records in ").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append("ms, ");
+		sb.append(String.format("%.0f", getRate())).append(" records/s");
+		if (speed != AS_FAST_AS_POSSIBLE && count > 0) {
+			sb.append(String.format(", lag mean %.3fms max %.3fms", totalLagNanos / 1e6 / count, maxLagNanos / 1e6));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [speed=" + speed + ", from=" + from + ", to=" + to + "]";
+	}
+}
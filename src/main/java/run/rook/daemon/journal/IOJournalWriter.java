@@ -0,0 +1,183 @@
+package run.rook.daemon.journal;
+
+import static run.rook.daemon.journal.IOJournalFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.cache.DirectMemory;
+import run.rook.daemon.cache.IOCacheStage;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOSourceKind;
+
+// journal writer of one shard; only used from the shard's stage thread
+class IOJournalWriter implements IOCacheStage {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final File directory;
+	private final int shard;
+	private final int segmentSize;
+	private long segmentIndex;
+	// kept so the mapping stays valid while it is written through the address
+	private MappedByteBuffer mapped;
+	private UnsafeBuffer segment;
+	private int position;
+	private long lastTimestamp;
+	private byte[][] names = new byte[64][];
+	private byte[][] dataTypes = new byte[64][];
+	private long droppedCount = 0;
+
+	public IOJournalWriter(File directory, int shard, int segmentSize) {
+		this.directory = directory;
+		this.shard = shard;
+		this.segmentSize = segmentSize;
+		this.segmentIndex = nextSegmentIndex();
+	}
+
+	private long nextSegmentIndex() {
+		// never append to segments of an earlier run
+		long next = 0;
+		String[] files = directory.list();
+		if (files != null) {
+			for (String file : files) {
+				if (parseShard(file) == shard) {
+					next = Math.max(next, parseIndex(file) + 1);
+				}
+			}
+		}
+		return next;
+	}
+
+	@Override
+	public void onInput(IOKey key, DirectBuffer value, int valueLength, Object source, boolean endOfBatch) {
+		write(TYPE_INPUT, key, value, valueLength, source, endOfBatch);
+	}
+
+	@Override
+	public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object source, boolean endOfBatch) {
+		write(TYPE_OUTPUT, key, value, valueLength, source, endOfBatch);
+	}
+
+	private void write(byte type, IOKey key, DirectBuffer value, int valueLength, Object source, boolean endOfBatch) {
+		if (source instanceof IOJournalReplay) {
+			// already in a journal, writing it again would only duplicate it
+			return;
+		}
+		byte[] name = nameBytes(key);
+		byte[] dataType = dataTypeBytes(key);
+		if (name.length > 0xFFFF || dataType.length > 0xFF) {
+			drop("Name or data type of '" + key.getName() + "' is too long for the journal");
+			return;
+		}
+		int length = align(RECORD_HEADER_LENGTH + name.length + dataType.length + valueLength);
+		if (length > segmentSize - SEGMENT_HEADER_LENGTH) {
+			drop("Record of " + length + " bytes for '" + key.getName() + "' does not fit a journal segment");
+			return;
+		}
+		if (segment == null || position + length > segmentSize) {
+			try {
+				roll();
+			} catch (IOException e) {
+				drop("Could not start journal segment in " + directory + ": " + e);
+				return;
+			}
+		}
+
+		long timestamp = System.currentTimeMillis();
+		int p = position;
+		segment.putByte(p + RECORD_TYPE_OFFSET, type);
+		segment.putByte(p + RECORD_SOURCE_KIND_OFFSET, (byte) IOSourceKind.of(source).ordinal());
+		segment.putShort(p + RECORD_NAME_LENGTH_OFFSET, (short) name.length);
+		segment.putLong(p + RECORD_TIMESTAMP_OFFSET, timestamp);
+		segment.putInt(p + RECORD_VALUE_LENGTH_OFFSET, valueLength);
+		segment.putByte(p + RECORD_DATA_TYPE_LENGTH_OFFSET, (byte) dataType.length);
+		int offset = p + RECORD_HEADER_LENGTH;
+		segment.putBytes(offset, name);
+		offset += name.length;
+		segment.putBytes(offset, dataType);
+		offset += dataType.length;
+		segment.putBytes(offset, value, 0, valueLength);
+		// the length commits the record for concurrent readers
+		segment.putIntOrdered(p + RECORD_LENGTH_OFFSET, length);
+		position += length;
+
+		if (lastTimestamp == 0) {
+			segment.putLongOrdered(SEGMENT_FIRST_TIMESTAMP_OFFSET, timestamp);
+		}
+		lastTimestamp = timestamp;
+		if (endOfBatch) {
+			segment.putLongOrdered(SEGMENT_LAST_TIMESTAMP_OFFSET, timestamp);
+		}
+	}
+
+	private void roll() throws IOException {
+		if (segment != null) {
+			segment.putLongOrdered(SEGMENT_LAST_TIMESTAMP_OFFSET, lastTimestamp);
+			if (position + 4 <= segmentSize) {
+				segment.putIntOrdered(position, END_OF_SEGMENT);
+			}
+			segment = null;
+			mapped = null;
+		}
+		File file = new File(directory, segmentName(shard, segmentIndex));
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(segmentSize);
+			mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+		segment = new UnsafeBuffer(DirectMemory.address(mapped), segmentSize);
+		segment.putLong(SEGMENT_MAGIC_OFFSET, MAGIC);
+		segment.putInt(SEGMENT_VERSION_OFFSET, VERSION);
+		segment.putInt(SEGMENT_SHARD_OFFSET, shard);
+		segment.putLong(SEGMENT_INDEX_OFFSET, segmentIndex);
+		segmentIndex++;
+		position = SEGMENT_HEADER_LENGTH;
+		lastTimestamp = 0;
+		if (logger.isDebugEnabled()) {
+			logger.debug("Started journal segment " + file);
+		}
+	}
+
+	private void drop(String reason) {
+		droppedCount++;
+		if (Long.bitCount(droppedCount) == 1) {
+			// back off logging while records keep getting dropped
+			logger.error(reason + " (" + droppedCount + " records dropped)");
+		}
+	}
+
+	private byte[] nameBytes(IOKey key) {
+		int id = key.getId();
+		if (id >= names.length) {
+			names = Arrays.copyOf(names, Math.max(names.length * 2, id + 1));
+		}
+		byte[] bytes = names[id];
+		if (bytes == null) {
+			bytes = key.getName().getBytes(StandardCharsets.UTF_8);
+			names[id] = bytes;
+		}
+		return bytes;
+	}
+
+	private byte[] dataTypeBytes(IOKey key) {
+		int id = key.getId();
+		if (id >= dataTypes.length) {
+			dataTypes = Arrays.copyOf(dataTypes, Math.max(dataTypes.length * 2, id + 1));
+		}
+		byte[] bytes = dataTypes[id];
+		if (bytes == null) {
+			bytes = key.getDataType() == null ? new byte[0] : key.getDataType().getBytes(StandardCharsets.UTF_8);
+			dataTypes[id] = bytes;
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,53 @@
+package run.rook.daemon.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// durations in power of 2 buckets of nanoseconds, from MIN_SHIFT (128ns) up to
+// about 8.6s, and one bucket for anything longer
+public final class IOHistogram {
+
+	// upper bound of the first bucket is 2^MIN_SHIFT nanoseconds
+	static final int MIN_SHIFT = 7;
+	static final int MAX_SHIFT = 33;
+	static final int BUCKET_COUNT = MAX_SHIFT - MIN_SHIFT + 2;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong sumNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			// nanoTime of another thread may be slightly behind
+			nanos = 0;
+		}
+		buckets.incrementAndGet(bucketOf(nanos));
+		sumNanos.addAndGet(nanos);
+	}
+
+	static int bucketOf(long nanos) {
+		// smallest shift with nanos <= 2^shift
+		int shift = nanos <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(nanos - 1);
+		return shift <= MIN_SHIFT ? 0 : Math.min(shift - MIN_SHIFT, BUCKET_COUNT - 1);
+	}
+
+	// upper bound of a bucket in nanoseconds, Long.MAX_VALUE for the last one
+	static long upperBound(int bucket) {
+		return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << (bucket + MIN_SHIFT);
+	}
+
+	long getBucket(int bucket) {
+		return buckets.get(bucket);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += buckets.get(i);
+		}
+		return count;
+	}
+
+	public long getSumNanos() {
+		return sumNanos.get();
+	}
+}
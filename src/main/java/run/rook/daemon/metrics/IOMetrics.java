@@ -0,0 +1,27 @@
+package run.rook.daemon.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// the metrics sources of a daemon
+public class IOMetrics {
+
+	private final List<IOMetricsSource> sources = new CopyOnWriteArrayList<>();
+
+	public void register(IOMetricsSource source) {
+		sources.add(source);
+	}
+
+	public void deregister(IOMetricsSource source) {
+		sources.remove(source);
+	}
+
+	// all metrics in the Prometheus text format
+	public String write() {
+		IOMetricsWriter writer = new IOMetricsWriter();
+		for (IOMetricsSource source : sources) {
+			source.writeMetrics(writer);
+		}
+		return writer.toString();
+	}
+}
@@ -0,0 +1,7 @@
+package run.rook.daemon.metrics;
+
+// a part of the daemon that reports metrics; called on every scrape, from the
+// web server's threads
+public interface IOMetricsSource {
+	void writeMetrics(IOMetricsWriter writer);
+}
@@ -0,0 +1,107 @@
+package run.rook.daemon.metrics;
+
+// builds the Prometheus text exposition format
+public class IOMetricsWriter {
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+	private final StringBuilder sb = new StringBuilder(4096);
+
+	public IOMetricsWriter counter(String name, String help) {
+		return family(name, "counter", help);
+	}
+
+	public IOMetricsWriter gauge(String name, String help) {
+		return family(name, "gauge", help);
+	}
+
+	public IOMetricsWriter histogram(String name, String help) {
+		return family(name, "histogram", help);
+	}
+
+	private IOMetricsWriter family(String name, String type, String help) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		return this;
+	}
+
+	public IOMetricsWriter sample(String name, double value) {
+		return sample(name, null, null, value);
+	}
+
+	// label: name of the sample's only label, or null
+	public IOMetricsWriter sample(String name, String label, String labelValue, double value) {
+		sb.append(name);
+		labels(label, labelValue);
+		value(value);
+		sb.append('\n');
+		return this;
+	}
+
+	// writes the buckets, sum and count of a histogram
+	public IOMetricsWriter samples(String name, String label, String labelValue, IOHistogram histogram) {
+		long cumulative = 0;
+		for (int i = 0; i < IOHistogram.BUCKET_COUNT; i++) {
+			cumulative += histogram.getBucket(i);
+			sb.append(name).append("_bucket{");
+			if (label != null) {
+				label(label, labelValue);
+				sb.append(',');
+			}
+			long bound = IOHistogram.upperBound(i);
+			sb.append("le=\"");
+			if (bound == Long.MAX_VALUE) {
+				sb.append("+Inf");
+			} else {
+				value(bound / 1e9);
+			}
+			sb.append("\"} ").append(cumulative).append('\n');
+		}
+		sb.append(name).append("_sum");
+		labels(label, labelValue);
+		value(histogram.getSumNanos() / 1e9);
+		sb.append('\n');
+		sb.append(name).append("_count");
+		labels(label, labelValue);
+		// the +Inf bucket, so both always agree
+		sb.append(cumulative).append('\n');
+		return this;
+	}
+
+	private void labels(String label, String labelValue) {
+		if (label != null) {
+			sb.append('{');
+			label(label, labelValue);
+			sb.append('}');
+		}
+		sb.append(' ');
+	}
+
+	private void label(String label, String labelValue) {
+		sb.append(label).append("=\"");
+		for (int i = 0; i < labelValue.length(); i++) {
+			char c = labelValue.charAt(i);
+			if (c == '\\' || c == '"') {
+				sb.append('\\').append(c);
+			} else if (c == '\n') {
+				sb.append("\\n");
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	private void value(double value) {
+		if (value == (long) value) {
+			sb.append((long) value);
+		} else {
+			sb.append(value);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return sb.toString();
+	}
+}
@@ -0,0 +1,301 @@
+package run.rook.daemon.mqtt;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.agrona.DirectBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheListener;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOSource;
+import run.rook.daemon.cache.IOSourceKind;
+import run.rook.daemon.metrics.IOMetricsSource;
+import run.rook.daemon.metrics.IOMetricsWriter;
+
+// lightweight MQTT 3.1.1 broker inside the daemon, used instead of IOMqttClient
+// and an external broker
+public class IOMqttBroker implements IOSource, IOMetricsSource {
+
+	public static final int DEFAULT_MAX_PACKET_SIZE = 1024 * 1024;
+
+	private static final long KEEP_ALIVE_CHECK_INTERVAL = 1000;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final int port;
+	private final IOCache cache;
+	private final int maxPacketSize;
+	// outbound topics only, inbound topics are parsed per session
+	private final IOMqttTopics topics;
+	// only used from the broker thread
+	private final IOMqttTopics inboundTopics;
+	private byte[] forwardPacket = new byte[256];
+	private final Map<String, IOMqttBrokerSession> sessions = new ConcurrentHashMap<>();
+	private final Queue<IOMqttBrokerSession> writable = new ConcurrentLinkedQueue<>();
+	private final Map<String, byte[]> retained = new ConcurrentHashMap<>();
+	private final AtomicLong clientIdCount = new AtomicLong();
+	private final AtomicLong receivedCount = new AtomicLong();
+	private final AtomicLong forwardedCount = new AtomicLong();
+	private volatile boolean running = false;
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+	private Thread thread;
+
+	public IOMqttBroker(int port, IOCache cache) {
+		this(port, cache, DEFAULT_MAX_PACKET_SIZE);
+	}
+
+	public IOMqttBroker(int port, IOCache cache, int maxPacketSize) {
+		this.port = port;
+		this.cache = cache;
+		this.maxPacketSize = maxPacketSize;
+		this.topics = new IOMqttTopics(cache.getRegistry());
+		this.inboundTopics = new IOMqttTopics(cache.getRegistry());
+	}
+
+	@Override
+	public IOSourceKind getSourceKind() {
+		return IOSourceKind.MQTT;
+	}
+
+	IOCache getCache() {
+		return cache;
+	}
+
+	IOMqttTopics getInboundTopics() {
+		return inboundTopics;
+	}
+
+	private final IOCacheListener ioCacheListener = new IOCacheListener() {
+
+		@Override
+		public void onInput(IOKey key, DirectBuffer value, int valueLength, Object src) {
+			// updates of MQTT clients were forwarded when they arrived
+			if (src != IOMqttBroker.this && src != cache) {
+				publish(topics.getInput(key), value, valueLength);
+			}
+		}
+
+		@Override
+		public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object src) {
+			if (src != IOMqttBroker.this && src != cache) {
+				publish(topics.getOutput(key), value, valueLength);
+			}
+		}
+	};
+
+	public void start() throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		selector = Selector.open();
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		cache.registerListener(ioCacheListener);
+		thread = new Thread(this::run, "IOMqttBroker");
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("MQTT broker listening on port " + getLocalPort());
+	}
+
+	public void stop() {
+		running = false;
+		cache.deregisterListener(ioCacheListener);
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// the port the broker listens on, useful when started on port 0
+	public int getLocalPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	private void run() {
+		long nextCheck = System.currentTimeMillis() + KEEP_ALIVE_CHECK_INTERVAL;
+		try {
+			while (running) {
+				selector.select(KEEP_ALIVE_CHECK_INTERVAL);
+				long now = System.currentTimeMillis();
+				IOMqttBrokerSession session;
+				while ((session = writable.poll()) != null) {
+					session.awaitWritable();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept(now);
+						continue;
+					}
+					session = (IOMqttBrokerSession) key.attachment();
+					if (key.isWritable()) {
+						session.onWritable();
+					}
+					if (key.isValid() && key.isReadable()) {
+						session.onReadable(now);
+					}
+				}
+				if (now >= nextCheck) {
+					for (SelectionKey key : selector.keys()) {
+						if (key.isValid() && key.attachment() != null) {
+							((IOMqttBrokerSession) key.attachment()).checkKeepAlive(now);
+						}
+					}
+					nextCheck = now + KEEP_ALIVE_CHECK_INTERVAL;
+				}
+			}
+		} catch (IOException e) {
+			logger.error("MQTT broker failed", e);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() != null) {
+					((IOMqttBrokerSession) key.attachment()).close();
+				}
+			}
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	private void accept(long now) {
+		try {
+			SocketChannel channel = serverChannel.accept();
+			if (channel == null) {
+				return;
+			}
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			IOMqttBrokerSession session = new IOMqttBrokerSession(this, channel,
+					channel.getRemoteAddress().toString(), maxPacketSize, now);
+			session.register(selector);
+		} catch (IOException e) {
+			logger.error("Could not accept MQTT connection", e);
+		}
+	}
+
+	// has the broker thread write the rest of the session's send buffer once
+	// the socket takes it
+	void awaitWritable(IOMqttBrokerSession session) {
+		writable.add(session);
+		selector.wakeup();
+	}
+
+	String generateClientId() {
+		return "rook-" + clientIdCount.incrementAndGet();
+	}
+
+	void register(IOMqttBrokerSession session) {
+		IOMqttBrokerSession previous = sessions.put(session.getClientId(), session);
+		if (previous != null) {
+			logger.info("Client id " + session.getClientId() + " connected again, closing its earlier session");
+			previous.close();
+		}
+	}
+
+	void deregister(IOMqttBrokerSession session) {
+		if (session.getClientId() != null) {
+			sessions.remove(session.getClientId(), session);
+		}
+	}
+
+	// forwards a publish to every subscribed session and keeps it if it is
+	// retained; called on the broker thread
+	void publish(String topic, byte[] payload, int offset, int length, boolean retain) {
+		receivedCount.incrementAndGet();
+		byte[] topicBytes = IOMqttPackets.encodeTopic(topic);
+		if (retain) {
+			if (length == 0) {
+				retained.remove(topic);
+			} else {
+				retained.put(topic, IOMqttPackets.publish(topicBytes, payload, offset, length, true));
+			}
+		}
+		int size = IOMqttPackets.publishSize(topicBytes.length, length);
+		if (size > forwardPacket.length) {
+			forwardPacket = new byte[Math.max(size, forwardPacket.length * 2)];
+		}
+		int payloadOffset = IOMqttPackets.writePublishHeader(forwardPacket, topicBytes, length, false);
+		System.arraycopy(payload, offset, forwardPacket, payloadOffset, length);
+		forward(topic, forwardPacket, size);
+	}
+
+	private void publish(IOMqttPublication publication, DirectBuffer value, int valueLength) {
+		if (sessions.isEmpty()) {
+			return;
+		}
+		int size = publication.encode(value, valueLength);
+		forward(publication.getTopic(), publication.getPacket(), size);
+	}
+
+	private void forward(String topic, byte[] packet, int length) {
+		for (IOMqttBrokerSession session : sessions.values()) {
+			if (session.isSubscribed(topic)) {
+				session.send(packet, 0, length);
+				forwardedCount.incrementAndGet();
+			}
+		}
+	}
+
+	// sends the retained messages matching a new subscription
+	void sendRetained(IOMqttBrokerSession session, String filter) {
+		for (Map.Entry<String, byte[]> entry : retained.entrySet()) {
+			if (IOMqttTopicFilter.matches(filter, entry.getKey())) {
+				session.send(entry.getValue(), 0, entry.getValue().length);
+			}
+		}
+	}
+
+	// number of publishes received from clients
+	public long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	// number of publishes queued for subscribed clients, including those of the
+	// cache
+	public long getForwardedCount() {
+		return forwardedCount.get();
+	}
+
+	@Override
+	public void writeMetrics(IOMetricsWriter writer) {
+		writer.gauge("rook_mqtt_broker_sessions", "Connected MQTT clients.");
+		writer.sample("rook_mqtt_broker_sessions", getSessionCount());
+		writer.counter("rook_mqtt_received_total", "MQTT messages received.");
+		writer.sample("rook_mqtt_received_total", getReceivedCount());
+		writer.counter("rook_mqtt_sent_total", "MQTT messages sent.");
+		writer.sample("rook_mqtt_sent_total", getForwardedCount());
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [port=" + port + "]";
+	}
+}
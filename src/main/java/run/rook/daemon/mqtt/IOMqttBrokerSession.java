@@ -0,0 +1,447 @@
+package run.rook.daemon.mqtt;
+
+import static run.rook.daemon.mqtt.IOMqttPackets.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.cache.IOKey;
+
+// one client connection of the IOMqttBroker
+class IOMqttBrokerSession {
+
+	private static final int READ_BUFFER_SIZE = 4096;
+	private static final int SEND_BUFFER_SIZE = 16 * 1024;
+	private static final int MIN_SEND_LIMIT = 256 * 1024;
+	private static final long CONNECT_TIMEOUT = 10000;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final IOMqttBroker broker;
+	private final SocketChannel channel;
+	private final String address;
+	private final int maxPacketSize;
+	private final int sendLimit;
+	private final List<String> filters = new CopyOnWriteArrayList<>();
+	private volatile String clientId;
+	private volatile boolean closed = false;
+	// only used from the broker thread
+	private final UnsafeBuffer payload = new UnsafeBuffer(new byte[0]);
+	private SelectionKey key;
+	private byte[] in = new byte[READ_BUFFER_SIZE];
+	private ByteBuffer inBuffer = ByteBuffer.wrap(in);
+	private final long acceptedAt;
+	private long lastReceived;
+	private long keepAliveTimeout = 0;
+	private String willTopic;
+	private byte[] willPayload;
+	private boolean willRetain;
+	// guarded by this, holds what the socket did not take yet
+	private ByteBuffer out = ByteBuffer.allocateDirect(SEND_BUFFER_SIZE);
+	private boolean writePending = false;
+	private long droppedCount = 0;
+
+	public IOMqttBrokerSession(IOMqttBroker broker, SocketChannel channel, String address, int maxPacketSize,
+			long now) {
+		this.broker = broker;
+		this.channel = channel;
+		this.address = address;
+		this.maxPacketSize = maxPacketSize;
+		// room for the largest packet and a backlog of smaller ones
+		this.sendLimit = Math.max(MIN_SEND_LIMIT, maxPacketSize + 5);
+		this.acceptedAt = now;
+		this.lastReceived = now;
+	}
+
+	public String getClientId() {
+		return clientId;
+	}
+
+	void register(Selector selector) throws IOException {
+		key = channel.register(selector, SelectionKey.OP_READ, this);
+	}
+
+	// returns true if any of the client's subscriptions matches the topic
+	public boolean isSubscribed(String topic) {
+		for (String filter : filters) {
+			if (IOMqttTopicFilter.matches(filter, topic)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// sends a publish without waiting
+	public void send(byte[] packet, int offset, int length) {
+		if (!write(packet, offset, length)) {
+			synchronized (this) {
+				droppedCount++;
+				if (Long.bitCount(droppedCount) == 1) {
+					// back off logging while the client stays behind
+					logger.warn(this + " is falling behind, dropping publishes (" + droppedCount + " dropped)");
+				}
+			}
+		}
+	}
+
+	private void reply(byte[] packet) {
+		// replies must not be dropped
+		if (!write(packet, 0, packet.length)) {
+			logger.warn(this + " does not read its replies, closing");
+			disconnect(false);
+		}
+	}
+
+	private synchronized boolean write(byte[] packet, int offset, int length) {
+		if (closed) {
+			return true;
+		}
+		if (out.remaining() < length && !grow(length)) {
+			return false;
+		}
+		out.put(packet, offset, length);
+		if (!writePending) {
+			if (!flush() || out.position() > 0) {
+				// the broker thread writes the rest, or finds the failure
+				writePending = true;
+				broker.awaitWritable(this);
+			}
+		}
+		return true;
+	}
+
+	// called with the lock held
+	private boolean grow(int length) {
+		int needed = out.position() + length;
+		if (needed > sendLimit) {
+			return false;
+		}
+		ByteBuffer larger = ByteBuffer.allocateDirect(Math.min(Math.max(needed, out.capacity() * 2), sendLimit));
+		out.flip();
+		larger.put(out);
+		out = larger;
+		return true;
+	}
+
+	// called with the lock held
+	private boolean flush() {
+		out.flip();
+		try {
+			channel.write(out);
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			out.compact();
+		}
+	}
+
+	// waits for the socket to take the rest of the send buffer; called on the
+	// broker thread
+	void awaitWritable() {
+		if (key.isValid()) {
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	// called on the broker thread once the socket takes more data
+	void onWritable() {
+		boolean failed;
+		synchronized (this) {
+			failed = !flush();
+			if (!failed && out.position() == 0) {
+				writePending = false;
+				if (key.isValid()) {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			}
+		}
+		if (failed) {
+			if (!closed && logger.isDebugEnabled()) {
+				logger.debug(this + " write failed");
+			}
+			disconnect(false);
+		}
+	}
+
+	// reads and handles what the client sent; called on the broker thread
+	void onReadable(long now) {
+		try {
+			if (channel.read(inBuffer) < 0) {
+				// closed by the client
+				disconnect(false);
+				return;
+			}
+			lastReceived = now;
+			handlePackets();
+		} catch (IOException e) {
+			if (!closed && logger.isDebugEnabled()) {
+				logger.debug(this + " failed", e);
+			}
+			disconnect(false);
+		} catch (RuntimeException e) {
+			logger.error(this + " sent a malformed packet, closing", e);
+			disconnect(false);
+		}
+	}
+
+	// closes the session if the client missed its keep alive; called on the
+	// broker thread
+	void checkKeepAlive(long now) {
+		if (clientId == null && now - acceptedAt > CONNECT_TIMEOUT) {
+			logger.info(this + " did not connect in time, closing");
+			disconnect(false);
+		} else if (keepAliveTimeout > 0 && now - lastReceived > keepAliveTimeout) {
+			logger.info(this + " missed its keep alive, closing");
+			disconnect(false);
+		}
+	}
+
+	private void handlePackets() throws IOException {
+		int start = 0;
+		int end = inBuffer.position();
+		int needed = 0;
+		while (!closed && end - start >= 2) {
+			long length = readRemainingLength(in, start + 1, end);
+			if (length < 0) {
+				break;
+			}
+			int remaining = (int) length;
+			if (remaining > maxPacketSize) {
+				throw new IOException("Packet of " + remaining + " bytes is larger than " + maxPacketSize);
+			}
+			int bodyStart = start + 1 + (int) (length >>> 32);
+			if (bodyStart + remaining > end) {
+				needed = bodyStart - start + remaining;
+				break;
+			}
+			int header = in[start] & 0xFF;
+			start = bodyStart + remaining;
+			handle(header, bodyStart, start);
+		}
+		if (closed) {
+			return;
+		}
+		int left = end - start;
+		if (needed > in.length) {
+			byte[] larger = new byte[Math.max(needed, in.length * 2)];
+			System.arraycopy(in, start, larger, 0, left);
+			in = larger;
+			inBuffer = ByteBuffer.wrap(in);
+		} else {
+			System.arraycopy(in, start, in, 0, left);
+		}
+		inBuffer.clear();
+		inBuffer.position(left);
+	}
+
+	private void handle(int header, int start, int end) {
+		int type = header >> 4;
+		int flags = header & 0x0F;
+		int[] pos = { start };
+		if (clientId == null) {
+			if (type == CONNECT) {
+				connect(pos);
+			} else {
+				logger.warn(this + " did not start with CONNECT, closing");
+				disconnect(false);
+			}
+			return;
+		}
+		switch (type) {
+		case PUBLISH: {
+			int qos = (flags >> 1) & 0x03;
+			String topic = readString(in, pos);
+			if (qos == 3 || topic.indexOf('+') >= 0 || topic.indexOf('#') >= 0) {
+				unexpected(type);
+				return;
+			}
+			int packetId = qos > 0 ? readShort(in, pos) : 0;
+			onPublish(topic, in, pos[0], end - pos[0], (flags & 0x01) != 0);
+			if (qos == 1) {
+				reply(ack(PUBACK, 0, packetId));
+			} else if (qos == 2) {
+				// delivered once received, PUBREL only completes the handshake
+				reply(ack(PUBREC, 0, packetId));
+			}
+			return;
+		}
+		case PUBREL:
+			reply(ack(PUBCOMP, 0, readShort(in, pos)));
+			return;
+		case PUBACK:
+		case PUBREC:
+		case PUBCOMP:
+			// everything is sent with QoS 0
+			return;
+		case SUBSCRIBE: {
+			int packetId = readShort(in, pos);
+			byte[] granted = new byte[count(in, pos[0], end)];
+			String[] added = new String[granted.length];
+			for (int i = 0; i < granted.length; i++) {
+				String filter = readString(in, pos);
+				pos[0]++;
+				if (IOMqttTopicFilter.isValid(filter)) {
+					// QoS 0 is granted for every subscription
+					if (!filters.contains(filter)) {
+						filters.add(filter);
+					}
+					added[i] = filter;
+				} else {
+					granted[i] = (byte) SUBACK_FAILURE;
+				}
+			}
+			reply(suback(packetId, granted));
+			for (String filter : added) {
+				if (filter != null) {
+					broker.sendRetained(this, filter);
+				}
+			}
+			return;
+		}
+		case UNSUBSCRIBE: {
+			int packetId = readShort(in, pos);
+			while (pos[0] < end) {
+				filters.remove(readString(in, pos));
+			}
+			reply(ack(UNSUBACK, 0, packetId));
+			return;
+		}
+		case PINGREQ:
+			reply(PINGRESP_PACKET);
+			return;
+		case DISCONNECT:
+			disconnect(true);
+			return;
+		default:
+			unexpected(type);
+		}
+	}
+
+	private void unexpected(int type) {
+		logger.warn(this + " sent an unexpected packet of type " + type + ", closing");
+		disconnect(false);
+	}
+
+	private void connect(int[] pos) {
+		String protocol = readString(in, pos);
+		int level = in[pos[0]++] & 0xFF;
+		int flags = in[pos[0]++] & 0xFF;
+		int keepAlive = readShort(in, pos);
+		if (!("MQTT".equals(protocol) && level == 4) && !("MQIsdp".equals(protocol) && level == 3)) {
+			reject(CONNACK_UNACCEPTABLE_PROTOCOL);
+			return;
+		}
+		String id = readString(in, pos);
+		if ((flags & 0x04) != 0) {
+			willTopic = readString(in, pos);
+			int length = readShort(in, pos);
+			willPayload = new byte[length];
+			System.arraycopy(in, pos[0], willPayload, 0, length);
+			pos[0] += length;
+			willRetain = (flags & 0x20) != 0;
+		}
+		// user name and password are accepted without checking
+		if (id.isEmpty()) {
+			if ((flags & 0x02) == 0) {
+				// a persistent session needs a client id
+				reject(CONNACK_IDENTIFIER_REJECTED);
+				return;
+			}
+			id = broker.generateClientId();
+		}
+		keepAliveTimeout = keepAlive * 1500L;
+		clientId = id;
+		broker.register(this);
+		reply(connack(CONNACK_ACCEPTED));
+		if (logger.isDebugEnabled()) {
+			logger.debug(this + " connected");
+		}
+	}
+
+	private void reject(int returnCode) {
+		write(connack(returnCode), 0, 4);
+		close();
+	}
+
+	private void onPublish(String topic, byte[] body, int offset, int length, boolean retain) {
+		IOKey key = broker.getInboundTopics().parse(topic);
+		if (key != null) {
+			// straight into the cache, no client in between
+			payload.wrap(body, offset, length);
+			if (IOMqttTopics.isInput(topic)) {
+				broker.getCache().processInput(key.getId(), payload, length, broker);
+			} else {
+				broker.getCache().processOutput(key.getId(), payload, length, broker);
+			}
+		}
+		broker.publish(topic, body, offset, length, retain);
+	}
+
+	// number of filters in a SUBSCRIBE body, each followed by a QoS byte
+	private static int count(byte[] body, int pos, int end) {
+		int count = 0;
+		while (pos < end) {
+			pos += 2 + (((body[pos] & 0xFF) << 8) | (body[pos + 1] & 0xFF)) + 1;
+			count++;
+		}
+		return count;
+	}
+
+	private static int readShort(byte[] body, int[] pos) {
+		int value = ((body[pos[0]] & 0xFF) << 8) | (body[pos[0] + 1] & 0xFF);
+		pos[0] += 2;
+		return value;
+	}
+
+	private static String readString(byte[] body, int[] pos) {
+		int length = readShort(body, pos);
+		String s = new String(body, pos[0], length, StandardCharsets.UTF_8);
+		pos[0] += length;
+		return s;
+	}
+
+	// closes the session and publishes the will unless the client disconnected
+	// cleanly; called on the broker thread
+	void disconnect(boolean clean) {
+		if (closed) {
+			return;
+		}
+		close();
+		if (!clean && willTopic != null) {
+			onPublish(willTopic, willPayload, 0, willPayload.length, willRetain);
+		}
+	}
+
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		broker.deregister(this);
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [address=" + address + ", clientId=" + clientId + "]";
+	}
+}
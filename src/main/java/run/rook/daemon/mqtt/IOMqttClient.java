@@ -1,165 +1,213 @@
 package run.rook.daemon.mqtt;
 
-import java.util.Base64;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.agrona.DirectBuffer;
-import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
-import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import run.rook.daemon.cache.IOCache;
 import run.rook.daemon.cache.IOCacheListener;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOSource;
+import run.rook.daemon.cache.IOSourceKind;
+import run.rook.daemon.metrics.IOMetricsSource;
+import run.rook.daemon.metrics.IOMetricsWriter;
 
-public class IOMqttClient implements Runnable {
+public class IOMqttClient implements Runnable, IOSource, IOMetricsSource {
+
+	private static final long DISCONNECT_TIMEOUT = 1000;
+	private static final String[] DEFAULT_SUBSCRIPTIONS = { IOMqttTopics.INPUT_FILTER, IOMqttTopics.OUTPUT_FILTER };
 
-	private static final long RECONNECT_TIMEOUT = 500;
-	private static final String TOPIC_INPUT_PREFIX = "rook/io/i/";
-	private static final String TOPIC_OUTPUT_PREFIX = "rook/io/o/";
-	private static final String TOPIC_SEPARATOR = "/";
-	
 	private final Logger logger = LoggerFactory.getLogger(getClass());
-	private final Pattern topicPatterm = Pattern.compile("rook/io/([io])/(.+)/(.+)");
-	private final AtomicReference<MqttClient> clientRef = new AtomicReference<>(null);
 	private final String mqttUrl;
 	private final String mqttClientId;
 	private final IOCache cache;
+	private final IOMqttTopics topics;
+	private IOMqttOverflowPolicy overflowPolicy = IOMqttOverflowPolicy.CONFLATE;
+	private int maxInFlight = 64;
+	private int queueSize = 1024;
+	private int connections = 1;
+	private String[] subscriptions = DEFAULT_SUBSCRIPTIONS;
+	private volatile IOMqttPublisher publisher;
+	private final AtomicLong receivedCount = new AtomicLong();
+	private final AtomicLong reconnectCount = new AtomicLong();
 	
 	public IOMqttClient(String mqttUrl, String mqttClientId, IOCache cache) {
 		this.mqttUrl = mqttUrl;
 		this.mqttClientId = mqttClientId;
 		this.cache = cache;
+		this.topics = new IOMqttTopics(cache.getRegistry());
+	}
+	
+	@Override
+	public IOSourceKind getSourceKind() {
+		return IOSourceKind.MQTT;
+	}
+	
+	// what to do with updates while the broker is slow or disconnected; must be
+	// set before run()
+	public void setOverflowPolicy(IOMqttOverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+	
+	// number of publishes sent without waiting for paho to complete earlier
+	// ones; must be set before run()
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+	
+	// capacity of the outbound queue, a power of 2; must be set before run()
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+	
+	// receives on the given number of broker connections, each with its own
+	// callback thread, and splits the topic filters between them; must be set
+	// before run()
+	public void setConnections(int connections, String[] subscriptions) {
+		if (subscriptions == null) {
+			subscriptions = DEFAULT_SUBSCRIPTIONS;
+		}
+		if (connections < 1) {
+			throw new IllegalArgumentException("connections must be at least 1");
+		}
+		if (connections > subscriptions.length) {
+			// a filter is never split, the extra connections would stay idle
+			throw new IllegalArgumentException(connections + " MQTT connections need at least " + connections
+					+ " subscriptions, got " + subscriptions.length);
+		}
+		this.connections = connections;
+		this.subscriptions = subscriptions.clone();
+	}
+	
+	// number of outbound updates dropped because the queue was full
+	public long getDroppedCount() {
+		IOMqttPublisher p = publisher;
+		return p == null ? 0 : p.getDroppedCount();
+	}
+	
+	// number of outbound updates replaced by a newer value before they could be
+	// sent
+	public long getConflatedCount() {
+		IOMqttPublisher p = publisher;
+		return p == null ? 0 : p.getConflatedCount();
+	}
+	
+	// number of outbound updates paho failed to send
+	public long getFailedCount() {
+		IOMqttPublisher p = publisher;
+		return p == null ? 0 : p.getFailedCount();
+	}
+	
+	public long getPublishedCount() {
+		IOMqttPublisher p = publisher;
+		return p == null ? 0 : p.getPublishedCount();
+	}
+	
+	public long getReceivedCount() {
+		return receivedCount.get();
+	}
+	
+	// number of times a connection was lost and connected again
+	public long getReconnectCount() {
+		return reconnectCount.get();
+	}
+	
+	void onReceived() {
+		receivedCount.incrementAndGet();
+	}
+	
+	void onReconnect() {
+		reconnectCount.incrementAndGet();
+	}
+	
+	@Override
+	public void writeMetrics(IOMetricsWriter writer) {
+		writer.counter("rook_mqtt_received_total", "MQTT messages received.");
+		writer.sample("rook_mqtt_received_total", getReceivedCount());
+		writer.counter("rook_mqtt_sent_total", "MQTT messages sent.");
+		writer.sample("rook_mqtt_sent_total", getPublishedCount());
+		writer.counter("rook_mqtt_send_failures_total", "MQTT messages paho failed to send.");
+		writer.sample("rook_mqtt_send_failures_total", getFailedCount());
+		writer.counter("rook_mqtt_dropped_total", "Outbound updates dropped because the queue was full.");
+		writer.sample("rook_mqtt_dropped_total", getDroppedCount());
+		writer.counter("rook_mqtt_conflated_total", "Outbound updates replaced by a newer value before they were sent.");
+		writer.sample("rook_mqtt_conflated_total", getConflatedCount());
+		writer.counter("rook_mqtt_reconnects_total", "Lost MQTT connections.");
+		writer.sample("rook_mqtt_reconnects_total", getReconnectCount());
 	}
 	
 	private final IOCacheListener ioCacheListener = new IOCacheListener() {
 
 		@Override
-		public void onInput(String name, String dataType, DirectBuffer value, int valueLength, Object src) {
+		public void onInput(IOKey key, DirectBuffer value, int valueLength, Object src) {
 			// check source to avoid infinite send/receive loop over MQTT
 			if(src != IOMqttClient.this && src != cache) {
-				trySend(TOPIC_INPUT_PREFIX + name + TOPIC_SEPARATOR + dataType, value, valueLength);
+				publisher.offer(topics.getInput(key), value, valueLength);
 			}
 		}
 	
 		@Override
-		public void onOutput(String name, String dataType, DirectBuffer value, int valueLength, Object src) {
+		public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object src) {
 			// check source to avoid infinite send/receive loop over MQTT
 			if(src != IOMqttClient.this && src != cache) {
-				trySend(TOPIC_OUTPUT_PREFIX + name + TOPIC_SEPARATOR + dataType, value, valueLength);
+				publisher.offer(topics.getOutput(key), value, valueLength);
 			}
 		}
 	
 	};
 	
-	public void trySend(String topic, DirectBuffer value, int valueLength) {
-		MqttClient client = clientRef.get();
-		if(client != null) {
-			byte[] payload = new byte[valueLength];
-			value.getBytes(0, payload);
-			if(logger.isDebugEnabled()) {
-				logger.debug("Sending: topic=" + topic + " payload=" + Base64.getEncoder().encodeToString(payload));
-			}
-			MqttMessage message = new MqttMessage();
-			message.setQos(0);
-			message.setPayload(payload);
-			try {
-				client.publish(topic, message);
-			} catch (Exception e) {
-				logger.error("Could not send MQTT Message", e);
-			}
-		} else if(logger.isDebugEnabled()) {
-			logger.debug("Not connected to MQTT Broker. Will not send message.");
-		}
-	}
-
 	@Override
 	public void run() {
+		IOMqttPublisher publisher = new IOMqttPublisher(overflowPolicy, maxInFlight, queueSize);
+		publisher.start();
+		this.publisher = publisher;
 		cache.registerListener(ioCacheListener);
 		
-		final Object reconnectNotifier = new Object();
-		MqttClient client = null;
-		boolean inErrorState = false;
+		String[][] filters = partition(subscriptions, connections);
+		Thread[] threads = new Thread[connections];
+		for (int i = 0; i < connections; i++) {
+			String clientId = connections == 1 ? mqttClientId : mqttClientId + "-" + i;
+			IOMqttConnection connection = new IOMqttConnection(this, mqttUrl, clientId, filters[i], cache, maxInFlight,
+					i == 0 ? publisher : null);
+			threads[i] = new Thread(connection, connections == 1 ? "IOMqttConnection" : "IOMqttConnection-" + i);
+			threads[i].start();
+		}
+		
 		try {
-			logger.info("Connecting...");
-			while (true) {
-				try {
-					client = new MqttClient(mqttUrl, mqttClientId);
-					client.connect();
-					client.setCallback(new MqttCallback() {
-						@Override
-						public void messageArrived(String topic, MqttMessage message) throws Exception {
-							Matcher m = topicPatterm.matcher(topic);
-							if (m.matches()) {
-								switch (m.group(1)) {
-								case "i":
-									cache.processInput(m.group(2), m.group(3), message.getPayload(), message.getPayload().length, IOMqttClient.this);
-									break;
-								case "o":
-									cache.processOutput(m.group(2), m.group(3), message.getPayload(), message.getPayload().length, IOMqttClient.this);
-									break;
-								}
-							}
-						}
-
-						@Override
-						public void deliveryComplete(IMqttDeliveryToken token) {
-							// QoS=0
-						}
-
-						@Override
-						public void connectionLost(Throwable t) {
-							logger.error("Lost MQTT Connection", t);
-							synchronized (reconnectNotifier) {
-								reconnectNotifier.notifyAll();
-							}
-						}
-					});
-					client.subscribe("rook/io/i/+/+");
-					client.subscribe("rook/io/o/+/+");
-					clientRef.set(client);
-					
-					// successfully connected (no error thrown to this point)
-					logger.info("Connected");
-					inErrorState = false;
-
-					// wait for reconnect notification
-					synchronized (reconnectNotifier) {
-						while (client.isConnected()) {
-							reconnectNotifier.wait();
-						}
-					}
-					
-					logger.info("Reconnecting...");
-					clientRef.set(null);
-				} catch (MqttException e) {
-					// only log error once until a proper connection can be
-					// established
-					if (!inErrorState) {
-						logger.error("Could not connect to MQTT URL '" + mqttUrl + "' - Will continuously retry every "
-								+ RECONNECT_TIMEOUT + " milliseconds...", e);
-						inErrorState = true;
-					}
-					// throttle reconnecting
-					Thread.sleep(RECONNECT_TIMEOUT);
-				}
+			for (Thread thread : threads) {
+				thread.join();
 			}
 		} catch (InterruptedException e) {
 			logger.error("Interrupted. Exiting...");
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+			for (Thread thread : threads) {
+				try {
+					// let each connection disconnect cleanly
+					thread.join(DISCONNECT_TIMEOUT);
+				} catch (InterruptedException e2) {
+					break;
+				}
+			}
 		}
+		publisher.stop();
+	}
 
-		// attempt to close client when exiting thread
-		if (client != null) {
-			try {
-				client.close();
-			} catch (MqttException e) {
-
+	// splits the filters round-robin
+	static String[][] partition(String[] subscriptions, int connections) {
+		String[][] filters = new String[connections][];
+		for (int i = 0; i < connections; i++) {
+			List<String> share = new ArrayList<>();
+			for (int j = i; j < subscriptions.length; j += connections) {
+				share.add(subscriptions[j]);
 			}
+			filters[i] = share.toArray(new String[share.size()]);
 		}
+		return filters;
 	}
 }
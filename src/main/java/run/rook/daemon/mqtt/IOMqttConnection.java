@@ -0,0 +1,142 @@
+package run.rook.daemon.mqtt;
+
+import java.util.Arrays;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOKey;
+
+// one broker connection of an IOMqttClient, subscribed to its share of the
+// topic filters
+class IOMqttConnection implements Runnable {
+
+	private static final long RECONNECT_TIMEOUT = 500;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final IOMqttClient owner;
+	private final String mqttUrl;
+	private final String mqttClientId;
+	private final String[] filters;
+	private final IOCache cache;
+	private final int maxInFlight;
+	private final IOMqttPublisher publisher;
+	// only used from this connection's callback thread
+	private final IOMqttTopics topics;
+
+	// publisher: sends outbound updates over this connection, or null
+	public IOMqttConnection(IOMqttClient owner, String mqttUrl, String mqttClientId, String[] filters, IOCache cache,
+			int maxInFlight, IOMqttPublisher publisher) {
+		this.owner = owner;
+		this.mqttUrl = mqttUrl;
+		this.mqttClientId = mqttClientId;
+		this.filters = filters;
+		this.cache = cache;
+		this.maxInFlight = maxInFlight;
+		this.publisher = publisher;
+		this.topics = new IOMqttTopics(cache.getRegistry());
+	}
+
+	@Override
+	public void run() {
+		final Object reconnectNotifier = new Object();
+		MqttAsyncClient client = null;
+		boolean inErrorState = false;
+		try {
+			logger.info(mqttClientId + " connecting...");
+			while (true) {
+				try {
+					client = new MqttAsyncClient(mqttUrl, mqttClientId);
+					client.setCallback(new MqttCallback() {
+						@Override
+						public void messageArrived(String topic, MqttMessage message) throws Exception {
+							owner.onReceived();
+							IOKey key = topics.parse(topic);
+							if (key != null) {
+								byte[] payload = message.getPayload();
+								if (IOMqttTopics.isInput(topic)) {
+									cache.processInput(key.getId(), payload, payload.length, owner);
+								} else {
+									cache.processOutput(key.getId(), payload, payload.length, owner);
+								}
+							}
+						}
+
+						@Override
+						public void deliveryComplete(IMqttDeliveryToken token) {
+							// QoS=0
+						}
+
+						@Override
+						public void connectionLost(Throwable t) {
+							logger.error(mqttClientId + " lost MQTT Connection", t);
+							synchronized (reconnectNotifier) {
+								reconnectNotifier.notifyAll();
+							}
+						}
+					});
+					MqttConnectOptions options = new MqttConnectOptions();
+					options.setMaxInflight(maxInFlight);
+					client.connect(options).waitForCompletion();
+					for (String filter : filters) {
+						client.subscribe(filter, 1).waitForCompletion();
+					}
+					if (publisher != null) {
+						publisher.setClient(client);
+					}
+					
+					// successfully connected (no error thrown to this point)
+					logger.info(mqttClientId + " connected, subscribed to " + Arrays.toString(filters));
+					inErrorState = false;
+
+					// wait for reconnect notification
+					synchronized (reconnectNotifier) {
+						while (client.isConnected()) {
+							reconnectNotifier.wait();
+						}
+					}
+					
+					logger.info(mqttClientId + " reconnecting...");
+					owner.onReconnect();
+					if (publisher != null) {
+						publisher.setClient(null);
+					}
+				} catch (MqttException e) {
+					// only log error once until a proper connection can be
+					// established
+					if (!inErrorState) {
+						logger.error("Could not connect to MQTT URL '" + mqttUrl + "' - Will continuously retry every "
+								+ RECONNECT_TIMEOUT + " milliseconds...", e);
+						inErrorState = true;
+					}
+					// throttle reconnecting
+					Thread.sleep(RECONNECT_TIMEOUT);
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.error(mqttClientId + " interrupted. Exiting...");
+		}
+
+		// attempt to close client when exiting thread
+		if (publisher != null) {
+			publisher.setClient(null);
+		}
+		if (client != null) {
+			try {
+				if (client.isConnected()) {
+					client.disconnect().waitForCompletion(RECONNECT_TIMEOUT);
+				}
+				client.close();
+			} catch (MqttException e) {
+
+			}
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package run.rook.daemon.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+// one slot of the IOMqttPublisher's in-flight window
+class IOMqttInFlightMessage implements IMqttActionListener {
+	private static final byte[] EMPTY = new byte[0];
+
+	private final IOMqttPublisher publisher;
+	private final long generation;
+	private final MqttMessage message = new MqttMessage();
+	private byte[] payload = EMPTY;
+
+	public IOMqttInFlightMessage(IOMqttPublisher publisher, long generation) {
+		this.publisher = publisher;
+		this.generation = generation;
+		message.setQos(0);
+	}
+
+	// the connection the slot was created for
+	public long getGeneration() {
+		return generation;
+	}
+
+	public MqttMessage wrap(byte[] value, int valueLength) {
+		if (payload.length != valueLength) {
+			// paho sends the whole array, so it must match the value length
+			payload = new byte[valueLength];
+		}
+		System.arraycopy(value, 0, payload, 0, valueLength);
+		message.setPayload(payload);
+		return message;
+	}
+
+	@Override
+	public void onSuccess(IMqttToken asyncActionToken) {
+		publisher.complete(this, null);
+	}
+
+	@Override
+	public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+		publisher.complete(this, exception);
+	}
+}
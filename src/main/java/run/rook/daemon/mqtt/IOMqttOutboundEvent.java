@@ -0,0 +1,41 @@
+package run.rook.daemon.mqtt;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+// slot of the IOMqttPublisher ring
+class IOMqttOutboundEvent {
+	private IOMqttPublication publication;
+	private MutableDirectBuffer value = new UnsafeBuffer(new byte[64]);
+	private int length;
+
+	public IOMqttPublication getPublication() {
+		return publication;
+	}
+
+	public void setPublication(IOMqttPublication publication) {
+		this.publication = publication;
+	}
+
+	public void setValue(DirectBuffer src, int len) {
+		if (len > value.capacity()) {
+			value = new UnsafeBuffer(new byte[len]);
+		}
+		value.putBytes(0, src, 0, len);
+		length = len;
+	}
+
+	public DirectBuffer getValue() {
+		return value;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public void reset() {
+		publication = null;
+		length = 0;
+	}
+}
@@ -0,0 +1,10 @@
+package run.rook.daemon.mqtt;
+
+// what the MQTT publisher does with updates it cannot send yet, because the
+// broker is slow or disconnected
+public enum IOMqttOverflowPolicy {
+	// keeps only the latest value of each input and output
+	CONFLATE,
+	// keeps every update in order, dropping the oldest once the queue is full
+	DROP_OLDEST;
+}
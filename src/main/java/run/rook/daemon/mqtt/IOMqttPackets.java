@@ -0,0 +1,119 @@
+package run.rook.daemon.mqtt;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// MQTT 3.1.1 packet types and encoding used by the IOMqttBroker
+final class IOMqttPackets {
+
+	static final int CONNECT = 1;
+	static final int CONNACK = 2;
+	static final int PUBLISH = 3;
+	static final int PUBACK = 4;
+	static final int PUBREC = 5;
+	static final int PUBREL = 6;
+	static final int PUBCOMP = 7;
+	static final int SUBSCRIBE = 8;
+	static final int SUBACK = 9;
+	static final int UNSUBSCRIBE = 10;
+	static final int UNSUBACK = 11;
+	static final int PINGREQ = 12;
+	static final int PINGRESP = 13;
+	static final int DISCONNECT = 14;
+
+	static final int CONNACK_ACCEPTED = 0;
+	static final int CONNACK_UNACCEPTABLE_PROTOCOL = 1;
+	static final int CONNACK_IDENTIFIER_REJECTED = 2;
+	static final int SUBACK_FAILURE = 0x80;
+
+	static final byte[] PINGRESP_PACKET = { (byte) (PINGRESP << 4), 0 };
+
+	private static final int MAX_REMAINING_LENGTH = 268435455;
+
+	private IOMqttPackets() {
+	}
+
+	// reads the variable length encoded remaining length of the packet at the
+	// given index; returns the length and, in the upper bits, the number of
+	// length bytes, or -1 if the buffer does not hold all of them yet
+	static long readRemainingLength(byte[] buffer, int index, int end) throws IOException {
+		int value = 0;
+		int multiplier = 1;
+		for (int i = 0; i < 4; i++) {
+			if (index + i >= end) {
+				return -1;
+			}
+			int b = buffer[index + i] & 0xFF;
+			value += (b & 0x7F) * multiplier;
+			if ((b & 0x80) == 0) {
+				return (long) (i + 1) << 32 | value;
+			}
+			multiplier *= 128;
+		}
+		throw new IOException("Malformed remaining length");
+	}
+
+	static int remainingLengthSize(int length) {
+		return length < 128 ? 1 : length < 16384 ? 2 : length < 2097152 ? 3 : 4;
+	}
+
+	static int writeRemainingLength(byte[] packet, int offset, int length) {
+		do {
+			int b = length & 0x7F;
+			length >>>= 7;
+			packet[offset++] = (byte) (length > 0 ? b | 0x80 : b);
+		} while (length > 0);
+		return offset;
+	}
+
+	static byte[] encodeTopic(String topic) {
+		return topic.getBytes(StandardCharsets.UTF_8);
+	}
+
+	// size of a QoS 0 publish with the given topic and payload
+	static int publishSize(int topicLength, int payloadLength) {
+		int remaining = 2 + topicLength + payloadLength;
+		if (remaining > MAX_REMAINING_LENGTH) {
+			throw new IllegalArgumentException("Publish of " + remaining + " bytes is too large");
+		}
+		return 1 + remainingLengthSize(remaining) + remaining;
+	}
+
+	// writes everything of a QoS 0 publish but the payload, which goes at the
+	// returned offset
+	static int writePublishHeader(byte[] packet, byte[] topic, int payloadLength, boolean retain) {
+		packet[0] = (byte) (PUBLISH << 4 | (retain ? 1 : 0));
+		int offset = writeRemainingLength(packet, 1, 2 + topic.length + payloadLength);
+		packet[offset++] = (byte) (topic.length >> 8);
+		packet[offset++] = (byte) topic.length;
+		System.arraycopy(topic, 0, packet, offset, topic.length);
+		return offset + topic.length;
+	}
+
+	// encodes a QoS 0 publish of the payload
+	static byte[] publish(byte[] topic, byte[] payload, int payloadOffset, int payloadLength, boolean retain) {
+		byte[] packet = new byte[publishSize(topic.length, payloadLength)];
+		int offset = writePublishHeader(packet, topic, payloadLength, retain);
+		System.arraycopy(payload, payloadOffset, packet, offset, payloadLength);
+		return packet;
+	}
+
+	// encodes an acknowledgement that only carries a packet id
+	static byte[] ack(int type, int flags, int packetId) {
+		return new byte[] { (byte) (type << 4 | flags), 2, (byte) (packetId >> 8), (byte) packetId };
+	}
+
+	static byte[] connack(int returnCode) {
+		return new byte[] { (byte) (CONNACK << 4), 2, 0, (byte) returnCode };
+	}
+
+	static byte[] suback(int packetId, byte[] grantedQos) {
+		byte[] packet = new byte[1 + remainingLengthSize(2 + grantedQos.length) + 2 + grantedQos.length];
+		packet[0] = (byte) (SUBACK << 4);
+		int offset = writeRemainingLength(packet, 1, 2 + grantedQos.length);
+		packet[offset++] = (byte) (packetId >> 8);
+		packet[offset++] = (byte) packetId;
+		System.arraycopy(grantedQos, 0, packet, offset, grantedQos.length);
+		return packet;
+	}
+}
@@ -0,0 +1,81 @@
+package run.rook.daemon.mqtt;
+
+import java.nio.charset.StandardCharsets;
+
+import org.agrona.DirectBuffer;
+
+import run.rook.daemon.cache.IOKey;
+
+// outbound topic of one input or output, built once, and its latest value while
+// it waits to be published in IOMqttOverflowPolicy.CONFLATE mode
+class IOMqttPublication {
+	private static final byte[] EMPTY = new byte[0];
+
+	private final IOKey key;
+	private final String topic;
+	private final byte[] topicBytes;
+	private byte[] pending = EMPTY;
+	private int pendingLength;
+	private boolean dirty;
+	// only used from the thread delivering the updates of this IO
+	private byte[] packet = EMPTY;
+
+	public IOMqttPublication(IOKey key, String topic) {
+		this.key = key;
+		this.topic = topic;
+		this.topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+	}
+
+	public IOKey getKey() {
+		return key;
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	// the topic encoded as UTF-8
+	public byte[] getTopicBytes() {
+		return topicBytes;
+	}
+
+	public void setPending(DirectBuffer value, int valueLength) {
+		if (valueLength > pending.length) {
+			pending = new byte[valueLength];
+		}
+		value.getBytes(0, pending, 0, valueLength);
+		pendingLength = valueLength;
+	}
+
+	public byte[] getPending() {
+		return pending;
+	}
+
+	public int getPendingLength() {
+		return pendingLength;
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	public void setDirty(boolean dirty) {
+		this.dirty = dirty;
+	}
+
+	// encodes a QoS 0 publish of the value into the packet, which is reused by
+	// the next update; returns the length of the packet
+	public int encode(DirectBuffer value, int valueLength) {
+		int size = IOMqttPackets.publishSize(topicBytes.length, valueLength);
+		if (size > packet.length) {
+			packet = new byte[size];
+		}
+		int offset = IOMqttPackets.writePublishHeader(packet, topicBytes, valueLength, false);
+		value.getBytes(0, packet, offset, valueLength);
+		return size;
+	}
+
+	public byte[] getPacket() {
+		return packet;
+	}
+}
@@ -0,0 +1,264 @@
+package run.rook.daemon.mqtt;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.ManyToOneConcurrentArrayQueue;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.InsufficientCapacityException;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+
+// publishes outbound updates with MqttAsyncClient from its own thread, so the
+// IOCache event threads never wait on the broker
+class IOMqttPublisher {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final IOMqttOverflowPolicy overflowPolicy;
+	private final int maxInFlight;
+	private final Disruptor<IOMqttOutboundEvent> disruptor;
+	private final RingBuffer<IOMqttOutboundEvent> ringBuffer;
+	// returned by paho's callback threads, reclaimed by the publisher thread
+	private final ManyToOneConcurrentArrayQueue<IOMqttInFlightMessage> completed;
+	private volatile MqttAsyncClient client;
+	private volatile long generation = 0;
+
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong conflatedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong publishedCount = new AtomicLong();
+
+	// only used from the publisher thread
+	private final ArrayDeque<IOMqttPublication> dirty = new ArrayDeque<>();
+	private final IOMqttPublication[] queuedPublications;
+	private final byte[][] queuedValues;
+	private final int[] queuedLengths;
+	private int queueHead = 0;
+	private int queueSize = 0;
+	private IOMqttInFlightMessage[] free;
+	private int freeCount;
+	private long poolGeneration = -1;
+
+	// queueSize: capacity of the ring and, in IOMqttOverflowPolicy.DROP_OLDEST
+	// mode, of the updates waiting for the window; must be a power of 2
+	@SuppressWarnings("unchecked")
+	public IOMqttPublisher(IOMqttOverflowPolicy overflowPolicy, int maxInFlight, int queueSize) {
+		if (Integer.bitCount(queueSize) != 1) {
+			throw new IllegalArgumentException("queueSize must be a power of 2");
+		}
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be at least 1");
+		}
+		this.overflowPolicy = overflowPolicy;
+		this.maxInFlight = maxInFlight;
+		this.completed = new ManyToOneConcurrentArrayQueue<>(maxInFlight * 2);
+		boolean queued = overflowPolicy == IOMqttOverflowPolicy.DROP_OLDEST;
+		this.queuedPublications = new IOMqttPublication[queued ? queueSize : 0];
+		this.queuedValues = new byte[queued ? queueSize : 0][];
+		this.queuedLengths = new int[queued ? queueSize : 0];
+		disruptor = new Disruptor<>(IOMqttOutboundEvent::new, queueSize,
+				(Runnable r) -> new Thread(r, "IOMqttPublisher"), ProducerType.MULTI, new BlockingWaitStrategy());
+		disruptor.handleEventsWith(this::handleEvent);
+		ringBuffer = disruptor.getRingBuffer();
+	}
+
+	public void start() {
+		disruptor.start();
+	}
+
+	public void stop() {
+		disruptor.halt();
+	}
+
+	// sets the connected client, or null while disconnected
+	public void setClient(MqttAsyncClient client) {
+		this.client = client;
+		generation++;
+		wake();
+	}
+
+	// hands an update over to the publisher thread
+	public void offer(IOMqttPublication publication, DirectBuffer value, int valueLength) {
+		long seq;
+		try {
+			seq = ringBuffer.tryNext();
+		} catch (InsufficientCapacityException e) {
+			drop("Publisher ring is full");
+			return;
+		}
+		try {
+			IOMqttOutboundEvent event = ringBuffer.get(seq);
+			event.setPublication(publication);
+			event.setValue(value, valueLength);
+		} finally {
+			ringBuffer.publish(seq);
+		}
+	}
+
+	// called by paho once a publish completed or failed
+	void complete(IOMqttInFlightMessage message, Throwable exception) {
+		if (exception != null) {
+			failedCount.incrementAndGet();
+			if (logger.isDebugEnabled()) {
+				logger.debug("Could not send MQTT Message", exception);
+			}
+		}
+		completed.offer(message);
+		wake();
+	}
+
+	private void wake() {
+		try {
+			long seq = ringBuffer.tryNext();
+			ringBuffer.publish(seq);
+		} catch (InsufficientCapacityException e) {
+			// the publisher has plenty of events to wake up for
+		}
+	}
+
+	private void handleEvent(IOMqttOutboundEvent event, long sequence, boolean endOfBatch) {
+		if (event.getPublication() != null) {
+			if (overflowPolicy == IOMqttOverflowPolicy.CONFLATE) {
+				conflate(event.getPublication(), event.getValue(), event.getLength());
+			} else {
+				enqueue(event.getPublication(), event.getValue(), event.getLength());
+			}
+		}
+		event.reset();
+		if (endOfBatch) {
+			flush();
+		}
+	}
+
+	private void conflate(IOMqttPublication publication, DirectBuffer value, int valueLength) {
+		publication.setPending(value, valueLength);
+		if (publication.isDirty()) {
+			conflatedCount.incrementAndGet();
+		} else {
+			publication.setDirty(true);
+			dirty.add(publication);
+		}
+	}
+
+	private void enqueue(IOMqttPublication publication, DirectBuffer value, int valueLength) {
+		if (queueSize == queuedPublications.length) {
+			queuedPublications[queueHead] = null;
+			queueHead = (queueHead + 1) & (queuedPublications.length - 1);
+			queueSize--;
+			drop("Publisher queue is full");
+		}
+		int tail = (queueHead + queueSize) & (queuedPublications.length - 1);
+		byte[] bytes = queuedValues[tail];
+		if (bytes == null || bytes.length < valueLength) {
+			bytes = new byte[Math.max(valueLength, 64)];
+			queuedValues[tail] = bytes;
+		}
+		value.getBytes(0, bytes, 0, valueLength);
+		queuedPublications[tail] = publication;
+		queuedLengths[tail] = valueLength;
+		queueSize++;
+	}
+
+	private void flush() {
+		reclaim();
+		MqttAsyncClient c = client;
+		if (c == null || !c.isConnected()) {
+			// keep everything pending until connected again
+			return;
+		}
+		while (freeCount > 0) {
+			IOMqttPublication publication;
+			byte[] value;
+			int valueLength;
+			if (overflowPolicy == IOMqttOverflowPolicy.CONFLATE) {
+				publication = dirty.poll();
+				if (publication == null) {
+					return;
+				}
+				publication.setDirty(false);
+				value = publication.getPending();
+				valueLength = publication.getPendingLength();
+			} else {
+				if (queueSize == 0) {
+					return;
+				}
+				publication = queuedPublications[queueHead];
+				value = queuedValues[queueHead];
+				valueLength = queuedLengths[queueHead];
+				queuedPublications[queueHead] = null;
+				queueHead = (queueHead + 1) & (queuedPublications.length - 1);
+				queueSize--;
+			}
+			IOMqttInFlightMessage message = free[--freeCount];
+			try {
+				c.publish(publication.getTopic(), message.wrap(value, valueLength), null, message);
+				publishedCount.incrementAndGet();
+			} catch (MqttException e) {
+				free[freeCount++] = message;
+				failedCount.incrementAndGet();
+				logger.error("Could not send MQTT Message", e);
+				return;
+			}
+		}
+	}
+
+	private void reclaim() {
+		long g = generation;
+		if (g != poolGeneration) {
+			// publishes of an earlier connection may never complete
+			free = new IOMqttInFlightMessage[maxInFlight];
+			for (int i = 0; i < maxInFlight; i++) {
+				free[i] = new IOMqttInFlightMessage(this, g);
+			}
+			freeCount = maxInFlight;
+			poolGeneration = g;
+		}
+		IOMqttInFlightMessage message;
+		while ((message = completed.poll()) != null) {
+			if (message.getGeneration() == poolGeneration && freeCount < free.length) {
+				free[freeCount++] = message;
+			}
+		}
+	}
+
+	private void drop(String reason) {
+		long count = droppedCount.incrementAndGet();
+		if (Long.bitCount(count) == 1) {
+			// back off logging while updates keep getting dropped
+			logger.warn(reason + ", dropping MQTT updates (" + count + " dropped)");
+		}
+	}
+
+	// number of updates dropped because the ring or queue was full
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	// number of updates replaced by a newer value of the same IO before they
+	// could be sent
+	public long getConflatedCount() {
+		return conflatedCount.get();
+	}
+
+	// number of publishes paho failed to send
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	public long getPublishedCount() {
+		return publishedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [overflowPolicy=" + overflowPolicy + ", maxInFlight=" + maxInFlight
+				+ "]";
+	}
+}
@@ -0,0 +1,40 @@
+package run.rook.daemon.mqtt;
+
+import run.rook.daemon.cache.IOTopicPattern;
+
+// MQTT topic filter matching, with the + and # wildcards
+final class IOMqttTopicFilter {
+
+	private IOMqttTopicFilter() {
+	}
+
+	// returns true if the filter is valid: # only as the last level and + only
+	// as a whole level
+	public static boolean isValid(String filter) {
+		int length = filter.length();
+		if (length == 0) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char c = filter.charAt(i);
+			if (c == '+' || c == '#') {
+				boolean levelStart = i == 0 || filter.charAt(i - 1) == '/';
+				boolean levelEnd = i == length - 1 || filter.charAt(i + 1) == '/';
+				if (!levelStart || !levelEnd || (c == '#' && i != length - 1)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	// returns true if the topic matches the filter, which must be valid
+	public static boolean matches(String filter, String topic) {
+		if (!topic.isEmpty() && topic.charAt(0) == '$' && !filter.isEmpty()
+				&& (filter.charAt(0) == '+' || filter.charAt(0) == '#')) {
+			// wildcards never match system topics at the first level
+			return false;
+		}
+		return IOTopicPattern.matches(filter, topic);
+	}
+}
@@ -0,0 +1,111 @@
+package run.rook.daemon.mqtt;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IORegistry;
+
+// maps MQTT topics to IO keys and back
+class IOMqttTopics {
+
+	static final String INPUT_PREFIX = "rook/io/i/";
+	static final String OUTPUT_PREFIX = "rook/io/o/";
+	static final String INPUT_FILTER = "rook/io/i/+/+";
+	static final String OUTPUT_FILTER = "rook/io/o/+/+";
+
+	private static final String PREFIX = "rook/io/";
+	private static final int DIRECTION_INDEX = PREFIX.length();
+	private static final int NAME_INDEX = INPUT_PREFIX.length();
+	private static final char SEPARATOR = '/';
+	// bounds the cache if clients keep making up new topics
+	private static final int MAX_CACHED_TOPICS = 65536;
+
+	private final IORegistry registry;
+	// only used from the MQTT callback thread
+	private final Map<String, IOKey> inbound = new HashMap<>();
+	private final Object lock = new Object();
+	// tables are only replaced under the lock and read without it
+	private volatile IOMqttPublication[] inputs = new IOMqttPublication[64];
+	private volatile IOMqttPublication[] outputs = new IOMqttPublication[64];
+
+	public IOMqttTopics(IORegistry registry) {
+		this.registry = registry;
+	}
+
+	// returns true for input topics, only valid for topics parse() accepted
+	public static boolean isInput(String topic) {
+		return topic.charAt(DIRECTION_INDEX) == 'i';
+	}
+
+	// returns the key of a rook/io/[io]/name/dataType topic, or null if the
+	// topic does not match
+	public IOKey parse(String topic) {
+		IOKey key = inbound.get(topic);
+		if (key != null) {
+			return key;
+		}
+		if (!topic.startsWith(PREFIX) || topic.length() <= NAME_INDEX) {
+			return null;
+		}
+		char direction = topic.charAt(DIRECTION_INDEX);
+		if ((direction != 'i' && direction != 'o') || topic.charAt(NAME_INDEX - 1) != SEPARATOR) {
+			return null;
+		}
+		int split = topic.lastIndexOf(SEPARATOR);
+		if (split <= NAME_INDEX || split == topic.length() - 1) {
+			return null;
+		}
+		String name = topic.substring(NAME_INDEX, split);
+		String dataType = topic.substring(split + 1);
+		if (IORegistry.validate(name, dataType) != null) {
+			return null;
+		}
+		key = registry.register(name, dataType);
+		if (inbound.size() < MAX_CACHED_TOPICS) {
+			inbound.put(topic, key);
+		}
+		return key;
+	}
+
+	public IOMqttPublication getInput(IOKey key) {
+		IOMqttPublication[] table = inputs;
+		IOMqttPublication publication = key.getId() < table.length ? table[key.getId()] : null;
+		return publication != null ? publication : createInput(key);
+	}
+
+	public IOMqttPublication getOutput(IOKey key) {
+		IOMqttPublication[] table = outputs;
+		IOMqttPublication publication = key.getId() < table.length ? table[key.getId()] : null;
+		return publication != null ? publication : createOutput(key);
+	}
+
+	private IOMqttPublication createInput(IOKey key) {
+		synchronized (lock) {
+			IOMqttPublication[] table = grow(inputs, key.getId());
+			if (table[key.getId()] != null) {
+				return table[key.getId()];
+			}
+			table[key.getId()] = new IOMqttPublication(key, INPUT_PREFIX + key.getName() + SEPARATOR + key.getDataType());
+			inputs = table;
+			return table[key.getId()];
+		}
+	}
+
+	private IOMqttPublication createOutput(IOKey key) {
+		synchronized (lock) {
+			IOMqttPublication[] table = grow(outputs, key.getId());
+			if (table[key.getId()] != null) {
+				return table[key.getId()];
+			}
+			table[key.getId()] = new IOMqttPublication(key, OUTPUT_PREFIX + key.getName() + SEPARATOR + key.getDataType());
+			outputs = table;
+			return table[key.getId()];
+		}
+	}
+
+	private static IOMqttPublication[] grow(IOMqttPublication[] table, int id) {
+		return id < table.length ? table : Arrays.copyOf(table, Math.max(table.length * 2, id + 1));
+	}
+}
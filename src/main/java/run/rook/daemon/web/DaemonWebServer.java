@@ -7,24 +7,49 @@ import org.eclipse.jetty.server.handler.DefaultHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.websocket.server.WebSocketHandler;
-import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
 
 import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.history.IOHistory;
+import run.rook.daemon.metrics.IOMetrics;
+import run.rook.daemon.web.ws.IOWebSocket;
 
 public class DaemonWebServer {
 
 	private final int port;
 	private final IOCache cache;
+	private final IOHistory history;
+	private final IOMetrics metrics = new IOMetrics();
+	private long pingInterval = IOWebSocket.DEFAULT_PING_INTERVAL;
+	private long pingTimeout = IOWebSocket.DEFAULT_PING_TIMEOUT;
 	private Server server;
 
-	public DaemonWebServer(int port, IOCache cache) {
+	// history: recorded values to serve, null if history is disabled
+	public DaemonWebServer(int port, IOCache cache, IOHistory history) {
 		this.port = port;
 		this.cache = cache;
+		this.history = history;
+		metrics.register(cache);
+	}
+
+	// sets how often WebSocket sessions are pinged and how long they have to
+	// answer, in milliseconds; must be called before start()
+	public void setPing(long interval, long timeout) {
+		this.pingInterval = interval;
+		this.pingTimeout = timeout;
+	}
+
+	// metrics served at IOMetricsHandler.PATH
+	public IOMetrics getMetrics() {
+		return metrics;
 	}
 
 	public void start() throws Exception {
-		WebSocketCreator wsCreator = new DaemonWebSocketCreator(cache);
+		DaemonWebSocketCreator wsCreator = new DaemonWebSocketCreator(cache, history);
+		IOWebSocket ioWebSocket = wsCreator.getIOWebSocket();
+		ioWebSocket.setPingInterval(pingInterval);
+		ioWebSocket.setPingTimeout(pingTimeout);
+		metrics.register(ioWebSocket);
 		WebSocketHandler wsHandler = new WebSocketHandler() {
 			@Override
 			public void configure(WebSocketServletFactory factory) {
@@ -41,7 +66,7 @@ public class DaemonWebServer {
 		htmlContext.setHandler(htmlHandler);
 		
 		HandlerList handlerList = new HandlerList();
-	    handlerList.setHandlers(new Handler[] { wsHandler, htmlHandler, new DefaultHandler() });
+	    handlerList.setHandlers(new Handler[] { wsHandler, new IOSnapshotHandler(cache), new IOHistoryHandler(cache, history), new IOMetricsHandler(metrics), htmlHandler, new DefaultHandler() });
 	    
 	    server = new Server(port);
 	    server.setHandler(handlerList);
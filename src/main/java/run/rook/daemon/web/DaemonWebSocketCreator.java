@@ -5,14 +5,19 @@ import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
 import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
 
 import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.history.IOHistory;
 import run.rook.daemon.web.ws.IOWebSocket;
 
 public class DaemonWebSocketCreator implements WebSocketCreator {
 
 	private final IOWebSocket ioWebSocket;
 	
-	public DaemonWebSocketCreator(IOCache cache) {
-		this.ioWebSocket = new IOWebSocket(cache);
+	public DaemonWebSocketCreator(IOCache cache, IOHistory history) {
+		this.ioWebSocket = new IOWebSocket(cache, history);
+	}
+	
+	public IOWebSocket getIOWebSocket() {
+		return ioWebSocket;
 	}
 	
 	@Override
@@ -20,6 +25,8 @@ public class DaemonWebSocketCreator implements WebSocketCreator {
 		for (String protocol : req.getSubProtocols()) {
 			switch (protocol) {
 			case IOWebSocket.PROTOCOL:
+			case IOWebSocket.BINARY_PROTOCOL:
+			case IOWebSocket.TYPED_PROTOCOL:
 				resp.setAcceptedSubProtocol(protocol);
 				return ioWebSocket;
 			}
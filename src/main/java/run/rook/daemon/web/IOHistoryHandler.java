@@ -0,0 +1,119 @@
+package run.rook.daemon.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import com.google.gson.Gson;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.history.IODownsampling;
+import run.rook.daemon.history.IOHistory;
+import run.rook.daemon.history.IOHistorySample;
+
+// serves recorded values as JSON at PATH
+public class IOHistoryHandler extends AbstractHandler {
+
+	public static final String PATH = "/io/history";
+
+	private final Gson gson = new Gson();
+	private final IOCache cache;
+	private final IOHistory history;
+
+	public IOHistoryHandler(IOCache cache, IOHistory history) {
+		this.cache = cache;
+		this.history = history;
+	}
+
+	@Override
+	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+		if (!PATH.equals(target)) {
+			return;
+		}
+		baseRequest.setHandled(true);
+		if (history == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "History is disabled");
+			return;
+		}
+		String name = request.getParameter("name");
+		if (name == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing name");
+			return;
+		}
+		String dataType = request.getParameter("dataType");
+		boolean output = "output".equals(request.getParameter("type"));
+		long now = System.currentTimeMillis();
+		long from;
+		long to;
+		int points;
+		IODownsampling downsampling;
+		try {
+			from = IOHistory.resolveTime(parseLong(request.getParameter("from"), -60000), now);
+			String toVal = request.getParameter("to");
+			to = toVal == null ? Long.MAX_VALUE : IOHistory.resolveTime(Long.parseLong(toVal), now);
+			points = (int) parseLong(request.getParameter("points"), 0);
+			String downsamplingVal = request.getParameter("downsampling");
+			downsampling = downsamplingVal == null ? IODownsampling.MINMAX
+					: IODownsampling.valueOf(downsamplingVal.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+
+		IOKey[] keys;
+		if (dataType == null) {
+			keys = cache.getRegistry().find(name);
+		} else {
+			IOKey key = cache.getRegistry().find(name, dataType);
+			keys = key == null ? new IOKey[0] : new IOKey[] { key };
+		}
+		List<SeriesMessage> series = new ArrayList<>(keys.length);
+		for (IOKey key : keys) {
+			List<IOHistorySample> samples = output ? history.queryOutput(key, from, to, points, downsampling)
+					: history.queryInput(key, from, to, points, downsampling);
+			SeriesMessage m = new SeriesMessage();
+			m.id = key.getId();
+			m.name = key.getName();
+			m.dataType = key.getDataType();
+			m.samples = new ArrayList<>(samples.size());
+			for (IOHistorySample sample : samples) {
+				SampleMessage s = new SampleMessage();
+				s.t = sample.getTimestamp();
+				s.value = Base64.getEncoder().encodeToString(sample.getValue());
+				m.samples.add(s);
+			}
+			series.add(m);
+		}
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getWriter().write(gson.toJson(series));
+	}
+
+	private static long parseLong(String value, long defaultValue) {
+		return value == null ? defaultValue : Long.parseLong(value);
+	}
+
+	private static class SeriesMessage {
+		public int id;
+		public String name;
+		public String dataType;
+		public List<SampleMessage> samples;
+	}
+
+	private static class SampleMessage {
+		public long t;
+		public String value;
+	}
+}
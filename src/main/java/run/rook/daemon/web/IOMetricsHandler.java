@@ -0,0 +1,38 @@
+package run.rook.daemon.web;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import run.rook.daemon.metrics.IOMetrics;
+import run.rook.daemon.metrics.IOMetricsWriter;
+
+// serves the daemon's IOMetrics at PATH in the Prometheus text format
+public class IOMetricsHandler extends AbstractHandler {
+
+	public static final String PATH = "/metrics";
+
+	private final IOMetrics metrics;
+
+	public IOMetricsHandler(IOMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+		if (!PATH.equals(target)) {
+			return;
+		}
+		response.setContentType(IOMetricsWriter.CONTENT_TYPE);
+		response.setCharacterEncoding("UTF-8");
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getWriter().write(metrics.write());
+		baseRequest.setHandled(true);
+	}
+}
@@ -0,0 +1,85 @@
+package run.rook.daemon.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import com.google.gson.Gson;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheSnapshot;
+import run.rook.daemon.cache.IODataType;
+import run.rook.daemon.cache.IOValueSnapshot;
+
+// serves the current input and output values as JSON at PATH
+public class IOSnapshotHandler extends AbstractHandler {
+
+	public static final String PATH = "/io/snapshot";
+	
+	private final Gson gson = new Gson();
+	private final IOCache cache;
+	
+	public IOSnapshotHandler(IOCache cache) {
+		this.cache = cache;
+	}
+	
+	@Override
+	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+		if (!PATH.equals(target)) {
+			return;
+		}
+		IOCacheSnapshot snapshot = cache.read();
+		SnapshotMessage m = new SnapshotMessage();
+		m.inputs = toMessages(snapshot.getInputs());
+		m.outputs = toMessages(snapshot.getOutputs());
+		
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.getWriter().write(gson.toJson(m));
+		baseRequest.setHandled(true);
+	}
+	
+	private static List<ValueMessage> toMessages(List<IOValueSnapshot> values) {
+		List<ValueMessage> messages = new ArrayList<>(values.size());
+		for (IOValueSnapshot value : values) {
+			ValueMessage m = new ValueMessage();
+			m.id = value.getKey().getId();
+			m.name = value.getKey().getName();
+			m.dataType = value.getKey().getDataType();
+			m.value = Base64.getEncoder().encodeToString(value.getValue());
+			m.stale = value.isStale();
+			IODataType type = value.getKey().getType();
+			if (type != null && type.isNumeric() && Double.isFinite(value.getDouble())) {
+				// decoded once when the value was written
+				m.number = type.isIntegral() && type != IODataType.U64 ? (Number) value.getLong() : value.getDouble();
+			}
+			messages.add(m);
+		}
+		return messages;
+	}
+	
+	private static class SnapshotMessage {
+		public List<ValueMessage> inputs;
+		public List<ValueMessage> outputs;
+	}
+	
+	private static class ValueMessage {
+		public int id;
+		public String name;
+		public String dataType;
+		public String value;
+		public boolean stale;
+		// numeric data types only
+		public Number number;
+	}
+}
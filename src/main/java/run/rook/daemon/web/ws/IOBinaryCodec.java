@@ -0,0 +1,181 @@
+package run.rook.daemon.web.ws;
+
+import static run.rook.daemon.web.ws.IOConst.BINARY_OUTBOUND_INPUT;
+import static run.rook.daemon.web.ws.IOConst.BINARY_OUTBOUND_INPUT_SNAPSHOT;
+import static run.rook.daemon.web.ws.IOConst.BINARY_OUTBOUND_OUTPUT;
+import static run.rook.daemon.web.ws.IOConst.BINARY_OUTBOUND_OUTPUT_SNAPSHOT;
+import static run.rook.daemon.web.ws.IOConst.TYPE_OUTBOUND_INPUT;
+import static run.rook.daemon.web.ws.IOConst.TYPE_OUTBOUND_INPUT_SNAPSHOT;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.List;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOValueSnapshot;
+
+// binary frames of the IOWebSocket.BINARY_PROTOCOL subprotocol
+class IOBinaryCodec implements IOSessionCodec {
+	static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+	static final int TYPE_OFFSET = 0;
+	static final int ID_OFFSET = 1;
+	static final int NAME_LENGTH_OFFSET = 5;
+	static final int NAME_OFFSET = 7;
+	static final int NO_ID = -1;
+	static final int VALUE_LENGTH_LENGTH = 4;
+	// names are at most 32767 bytes, which leaves the high bit of their length
+	static final int STALE_FLAG = 0x8000;
+	static final int NAME_LENGTH_MASK = 0x7FFF;
+
+	private final BitSet announcedIds = new BitSet();
+	private ByteBuffer frame = ByteBuffer.allocate(256);
+	private final UnsafeBuffer frameBuffer = new UnsafeBuffer(frame);
+
+	@Override
+	public void encode(String type, IOKey key, DirectBuffer value, int valueLength) {
+		ensureCapacity(ID_OFFSET + maxRecordLength(key, valueLength));
+		frameBuffer.putByte(TYPE_OFFSET, TYPE_OUTBOUND_INPUT.equals(type) ? BINARY_OUTBOUND_INPUT : BINARY_OUTBOUND_OUTPUT);
+		int end = putRecord(ID_OFFSET, key, value, valueLength, false, false);
+		frame.limit(end);
+		frame.position(0);
+	}
+
+	@Override
+	public void encodeSnapshot(String type, List<IOValueSnapshot> values) {
+		int maxLength = ID_OFFSET;
+		for (IOValueSnapshot value : values) {
+			maxLength += maxRecordLength(value.getKey(), value.getValue().length) + VALUE_LENGTH_LENGTH;
+		}
+		ensureCapacity(maxLength);
+		frameBuffer.putByte(TYPE_OFFSET, TYPE_OUTBOUND_INPUT_SNAPSHOT.equals(type) ? BINARY_OUTBOUND_INPUT_SNAPSHOT
+				: BINARY_OUTBOUND_OUTPUT_SNAPSHOT);
+		UnsafeBuffer buffer = new UnsafeBuffer(new byte[0]);
+		int offset = ID_OFFSET;
+		for (IOValueSnapshot value : values) {
+			buffer.wrap(value.getValue());
+			offset = putRecord(offset, value.getKey(), buffer, value.getValue().length, true, value.isStale());
+		}
+		frame.limit(offset);
+		frame.position(0);
+	}
+
+	private static int maxRecordLength(IOKey key, int valueLength) {
+		int dataTypeLength = key.getDataType() == null ? 0 : key.getDataType().length();
+		return NAME_OFFSET - ID_OFFSET + key.getName().length() * 3 + 1 + dataTypeLength * 3 + valueLength;
+	}
+
+	private void ensureCapacity(int maxLength) {
+		if (maxLength > frame.capacity()) {
+			frame = ByteBuffer.allocate(Math.max(maxLength, frame.capacity() * 2));
+			frameBuffer.wrap(frame);
+		}
+	}
+
+	// writes a frame without its type byte at the offset and returns the offset
+	// after it
+	private int putRecord(int offset, IOKey key, DirectBuffer value, int valueLength, boolean withValueLength,
+			boolean stale) {
+		boolean announce = !announcedIds.get(key.getId());
+		String name = announce ? key.getName() : "";
+		String dataType = announce && key.getDataType() != null ? key.getDataType() : "";
+		frameBuffer.putInt(offset, key.getId(), BYTE_ORDER);
+		int nameOffset = offset + NAME_OFFSET - ID_OFFSET;
+		int nameLength = putUtf8(nameOffset, name);
+		frameBuffer.putShort(offset + NAME_LENGTH_OFFSET - ID_OFFSET, (short) (stale ? nameLength | STALE_FLAG : nameLength),
+				BYTE_ORDER);
+		int dataTypeLengthOffset = nameOffset + nameLength;
+		int dataTypeLength = putUtf8(dataTypeLengthOffset + 1, dataType);
+		frameBuffer.putByte(dataTypeLengthOffset, (byte) dataTypeLength);
+		if (announce) {
+			announcedIds.set(key.getId());
+		}
+		int valueOffset = dataTypeLengthOffset + 1 + dataTypeLength;
+		if (withValueLength) {
+			frameBuffer.putInt(valueOffset, valueLength, BYTE_ORDER);
+			valueOffset += VALUE_LENGTH_LENGTH;
+		}
+		frameBuffer.putBytes(valueOffset, value, 0, valueLength);
+		return valueOffset + valueLength;
+	}
+
+	private int putUtf8(int index, String s) {
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				// not plain ASCII, fall back to the full encoder
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				frameBuffer.putBytes(index, bytes);
+				return bytes.length;
+			}
+			frameBuffer.putByte(index + i, (byte) c);
+		}
+		return length;
+	}
+
+	@Override
+	public void send(RemoteEndpoint remote, WriteCallback callback) {
+		remote.sendBytes(frame, callback);
+	}
+
+	// returns why an inbound frame of the given length is malformed, or null if
+	// its name and data type fit in it
+	static String validate(DirectBuffer buffer, int length, boolean requireDataType) {
+		if (length < NAME_OFFSET) {
+			return "Frame of " + length + " bytes is shorter than its header";
+		}
+		int dataTypeLengthOffset = NAME_OFFSET + getNameLength(buffer);
+		if (dataTypeLengthOffset > length) {
+			return "Name runs past the end of the frame";
+		}
+		if (dataTypeLengthOffset == length) {
+			return requireDataType ? "Data type length is missing" : null;
+		}
+		if (dataTypeLengthOffset + 1 + (buffer.getByte(dataTypeLengthOffset) & 0xFF) > length) {
+			return "Data type runs past the end of the frame";
+		}
+		return null;
+	}
+
+	static byte getType(DirectBuffer buffer) {
+		return buffer.getByte(TYPE_OFFSET);
+	}
+
+	static int getId(DirectBuffer buffer) {
+		return buffer.getInt(ID_OFFSET, BYTE_ORDER);
+	}
+
+	static int getNameLength(DirectBuffer buffer) {
+		return buffer.getShort(NAME_LENGTH_OFFSET, BYTE_ORDER) & NAME_LENGTH_MASK;
+	}
+
+	static boolean isStale(DirectBuffer buffer) {
+		return (buffer.getShort(NAME_LENGTH_OFFSET, BYTE_ORDER) & STALE_FLAG) != 0;
+	}
+
+	static String getName(DirectBuffer buffer) {
+		int nameLength = getNameLength(buffer);
+		return nameLength == 0 ? null : buffer.getStringWithoutLengthUtf8(NAME_OFFSET, nameLength);
+	}
+
+	static String getDataType(DirectBuffer buffer) {
+		int dataTypeLengthOffset = NAME_OFFSET + getNameLength(buffer);
+		int dataTypeLength = buffer.getByte(dataTypeLengthOffset) & 0xFF;
+		if (dataTypeLength == 0) {
+			return null;
+		}
+		return buffer.getStringWithoutLengthUtf8(dataTypeLengthOffset + 1, dataTypeLength);
+	}
+
+	static int getValueOffset(DirectBuffer buffer) {
+		int dataTypeLengthOffset = NAME_OFFSET + getNameLength(buffer);
+		return dataTypeLengthOffset + 1 + (buffer.getByte(dataTypeLengthOffset) & 0xFF);
+	}
+}
@@ -9,6 +9,24 @@ public final class IOConst {
 	public static final String TYPE_INBOUND_OUTPUT_PUBLISH = "output_publish";
 	public static final String TYPE_OUTBOUND_INPUT = "input";
 	public static final String TYPE_OUTBOUND_OUTPUT = "output";
+	public static final String TYPE_OUTBOUND_INPUT_SNAPSHOT = "input_snapshot";
+	public static final String TYPE_OUTBOUND_OUTPUT_SNAPSHOT = "output_snapshot";
+	public static final String TYPE_INPUT_HISTORY = "input_history";
+	public static final String TYPE_OUTPUT_HISTORY = "output_history";
+	public static final String TYPE_INBOUND_SET_POLICY = "set_policy";
+	public static final String TYPE_INBOUND_CLEAR_POLICY = "clear_policy";
+	public static final String TYPE_OUTBOUND_ERROR = "error";
+
+	public static final byte BINARY_INBOUND_INPUT_SUBSCRIBE = 1;
+	public static final byte BINARY_INBOUND_INPUT_UNSUBSCRIBE = 2;
+	public static final byte BINARY_INBOUND_INPUT_PUBLISH = 3;
+	public static final byte BINARY_INBOUND_OUTPUT_SUBSCRIBE = 4;
+	public static final byte BINARY_INBOUND_OUTPUT_UNSUBSCRIBE = 5;
+	public static final byte BINARY_INBOUND_OUTPUT_PUBLISH = 6;
+	public static final byte BINARY_OUTBOUND_INPUT = 7;
+	public static final byte BINARY_OUTBOUND_OUTPUT = 8;
+	public static final byte BINARY_OUTBOUND_INPUT_SNAPSHOT = 9;
+	public static final byte BINARY_OUTBOUND_OUTPUT_SNAPSHOT = 10;
 	
 	private IOConst() {
 		
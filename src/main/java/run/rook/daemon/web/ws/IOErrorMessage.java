@@ -0,0 +1,6 @@
+package run.rook.daemon.web.ws;
+
+class IOErrorMessage {
+	public String type = IOConst.TYPE_OUTBOUND_ERROR;
+	public String message;
+}
@@ -0,0 +1,16 @@
+package run.rook.daemon.web.ws;
+
+import java.util.List;
+
+class IOHistoryMessage {
+	public String type;
+	public int id;
+	public String name;
+	public String dataType;
+	public List<Sample> samples;
+
+	static class Sample {
+		public long t;
+		public Object value;
+	}
+}
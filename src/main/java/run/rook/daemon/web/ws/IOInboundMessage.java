@@ -2,7 +2,20 @@ package run.rook.daemon.web.ws;
 
 class IOInboundMessage {
 	public String type;
+	public Integer id;
 	public String name;
 	public String dataType;
 	public String value;
+	// history queries
+	public Long from;
+	public Long to;
+	public Integer points;
+	public String downsampling;
+	// publication policies, a policy without name is the default
+	public Boolean changesOnly;
+	public Double deadband;
+	public Long heartbeat;
+	// rate limited subscriptions
+	public Double maxRate;
+	public String reduction;
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package run.rook.daemon.web.ws;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import com.google.gson.Gson;
+
+import run.rook.daemon.cache.IODataType;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOValueSnapshot;
+
+// JSON text frames of the IOWebSocket.PROTOCOL subprotocol, with values encoded
+// as Base64
+class IOJsonCodec implements IOSessionCodec {
+	private final Gson gson = new Gson();
+	private final boolean typed;
+	private String frame;
+
+	public IOJsonCodec(boolean typed) {
+		this.typed = typed;
+	}
+
+	@Override
+	public void encode(String type, IOKey key, DirectBuffer value, int valueLength) {
+		// a live update always replaces a stale value
+		frame = gson.toJson(message(type, key, value, valueLength, false));
+	}
+
+	@Override
+	public void encodeSnapshot(String type, List<IOValueSnapshot> values) {
+		IOOutboundSnapshot s = new IOOutboundSnapshot();
+		s.type = type;
+		s.values = new ArrayList<>(values.size());
+		UnsafeBuffer buffer = new UnsafeBuffer(new byte[0]);
+		for (IOValueSnapshot value : values) {
+			buffer.wrap(value.getValue());
+			s.values.add(message(null, value.getKey(), buffer, value.getValue().length, value.isStale()));
+		}
+		frame = gson.toJson(s);
+	}
+
+	private IOOutboundMessage message(String type, IOKey key, DirectBuffer value, int valueLength, boolean stale) {
+		IOOutboundMessage m = new IOOutboundMessage();
+		m.type = type;
+		m.id = key.getId();
+		m.name = key.getName();
+		m.dataType = key.getDataType();
+		m.value = encodeValue(typed ? key.getType() : null, value, valueLength);
+		m.stale = stale ? Boolean.TRUE : null;
+		return m;
+	}
+
+	// returns the value as a plain JSON value if the type is known, Base64
+	// otherwise
+	static Object encodeValue(IODataType type, DirectBuffer value, int valueLength) {
+		Object json = type == null ? null : type.toJson(value, 0, valueLength);
+		if (json != null) {
+			return json;
+		}
+		byte[] valueBytes = new byte[valueLength];
+		value.getBytes(0, valueBytes);
+		return Base64.getEncoder().encodeToString(valueBytes);
+	}
+
+	@Override
+	public void send(RemoteEndpoint remote, WriteCallback callback) {
+		remote.sendString(frame, callback);
+	}
+}
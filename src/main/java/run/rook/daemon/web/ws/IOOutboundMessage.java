@@ -2,7 +2,11 @@ package run.rook.daemon.web.ws;
 
 class IOOutboundMessage {
 	public String type;
+	public int id;
 	public String name;
 	public String dataType;
-	public String value;
+	// a Base64 string, or a plain JSON value in typed sessions
+	public Object value;
+	// only sent, as true, for a value restored at startup and not updated since
+	public Boolean stale;
 }
\ No newline at end of file
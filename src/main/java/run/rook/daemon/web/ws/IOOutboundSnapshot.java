@@ -0,0 +1,9 @@
+package run.rook.daemon.web.ws;
+
+import java.util.List;
+
+class IOOutboundSnapshot {
+	public String type;
+	// messages without a type of their own
+	public List<IOOutboundMessage> values;
+}
@@ -0,0 +1,24 @@
+package run.rook.daemon.web.ws;
+
+import java.util.List;
+
+import run.rook.daemon.cache.IOValueSnapshot;
+
+// snapshot waiting in an IOSessionSender to be encoded as one frame
+class IOPendingSnapshot {
+	private final String type;
+	private final List<IOValueSnapshot> values;
+
+	public IOPendingSnapshot(String type, List<IOValueSnapshot> values) {
+		this.type = type;
+		this.values = values;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public List<IOValueSnapshot> getValues() {
+		return values;
+	}
+}
@@ -0,0 +1,71 @@
+package run.rook.daemon.web.ws;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import run.rook.daemon.cache.IOKey;
+
+// latest value of an input or output that is waiting to be sent to a session
+class IOPendingValue {
+	private final String type;
+	private final IOKey key;
+	private MutableDirectBuffer value = new UnsafeBuffer(new byte[8]);
+	private int length;
+	private boolean dirty;
+	private IOSampleReducer reducer;
+
+	public IOPendingValue(String type, IOKey key) {
+		this.type = type;
+		this.key = key;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public IOKey getKey() {
+		return key;
+	}
+
+	public void setValue(DirectBuffer src, int len) {
+		if (len > value.capacity()) {
+			value = new UnsafeBuffer(new byte[len]);
+		}
+		value.putBytes(0, src, 0, len);
+		length = len;
+		if (reducer != null) {
+			reducer.add(src, len);
+		}
+	}
+
+	// sets the rate limit of the subscription, null if it has none
+	public void setRate(IORateLimit rate) {
+		if (rate == null) {
+			reducer = null;
+		} else if (reducer == null || reducer.getRate() != rate) {
+			reducer = new IOSampleReducer(rate, key.getType());
+		}
+	}
+
+	// null if the subscription is not rate limited
+	public IOSampleReducer getReducer() {
+		return reducer;
+	}
+
+	public MutableDirectBuffer getValue() {
+		return value;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	public void setDirty(boolean dirty) {
+		this.dirty = dirty;
+	}
+}
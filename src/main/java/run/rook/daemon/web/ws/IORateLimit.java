@@ -0,0 +1,38 @@
+package run.rook.daemon.web.ws;
+
+import java.util.concurrent.TimeUnit;
+
+// maximum update rate of a subscription, and how the updates in between are
+// reduced
+final class IORateLimit {
+	private final double maxRate;
+	private final IOReduction reduction;
+	private final long intervalNanos;
+
+	// maxRate: updates per second and IO
+	public IORateLimit(double maxRate, IOReduction reduction) {
+		if (!(maxRate > 0) || Double.isInfinite(maxRate)) {
+			throw new IllegalArgumentException("maxRate must be positive");
+		}
+		this.maxRate = maxRate;
+		this.reduction = reduction;
+		this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / maxRate);
+	}
+
+	public double getMaxRate() {
+		return maxRate;
+	}
+
+	public IOReduction getReduction() {
+		return reduction;
+	}
+
+	public long getIntervalNanos() {
+		return intervalNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "IORateLimit [maxRate=" + maxRate + ", reduction=" + reduction + "]";
+	}
+}
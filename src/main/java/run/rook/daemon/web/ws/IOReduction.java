@@ -0,0 +1,13 @@
+package run.rook.daemon.web.ws;
+
+// how the updates of an IO between two sends of a rate limited subscription are
+// reduced
+enum IOReduction {
+	// sends the latest value
+	LATEST,
+	// sends the smallest and the largest value in the order they arrived, so
+	// spikes are never lost
+	MINMAX,
+	// sends the mean, in the IO's data type
+	MEAN
+}
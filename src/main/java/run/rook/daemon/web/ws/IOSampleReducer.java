@@ -0,0 +1,136 @@
+package run.rook.daemon.web.ws;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import run.rook.daemon.cache.IODataType;
+
+// collects the updates of one IO between two sends of a rate limited
+// subscription, and reduces them to the values of the next send
+class IOSampleReducer {
+	private final IORateLimit rate;
+	private final IODataType type;
+	private final IOReduction reduction;
+	private long nextSendNanos;
+	private boolean scheduled;
+
+	private int updates;
+	// numeric updates, for MEAN and MINMAX
+	private int count;
+	private double sum;
+	private double min;
+	private double max;
+	private final Sample minSample = new Sample();
+	private final Sample maxSample = new Sample();
+	// taken values, never touched by add so they stay valid while sent
+	private final Sample[] out = { new Sample(), new Sample() };
+
+	public IOSampleReducer(IORateLimit rate, IODataType type) {
+		this.rate = rate;
+		this.type = type;
+		this.reduction = type != null && type.isNumeric() ? rate.getReduction() : IOReduction.LATEST;
+	}
+
+	public IORateLimit getRate() {
+		return rate;
+	}
+
+	public long getNextSendNanos() {
+		return nextSendNanos;
+	}
+
+	public boolean isScheduled() {
+		return scheduled;
+	}
+
+	public void setScheduled(boolean scheduled) {
+		this.scheduled = scheduled;
+	}
+
+	public boolean hasSamples() {
+		return updates > 0;
+	}
+
+	public void add(DirectBuffer value, int length) {
+		updates++;
+		if (reduction == IOReduction.LATEST) {
+			return;
+		}
+		double v = type.toDouble(value, 0, length);
+		if (Double.isNaN(v)) {
+			return;
+		}
+		if (reduction == IOReduction.MEAN) {
+			sum += v;
+		} else {
+			if (count == 0 || v < min) {
+				min = v;
+				minSample.set(value, length, count);
+			}
+			if (count == 0 || v > max) {
+				max = v;
+				maxSample.set(value, length, count);
+			}
+		}
+		count++;
+	}
+
+	// reduces the collected updates and starts the next interval; returns the
+	// number of values to send, the latest value is used for LATEST
+	public int take(MutableDirectBuffer latest, int latestLength, long now) {
+		nextSendNanos = now + rate.getIntervalNanos();
+		int n = 1;
+		switch (reduction) {
+		case MEAN:
+			out[0].set(latest, latestLength, 0);
+			if (count > 0) {
+				type.putDouble(out[0].value, 0, sum / count);
+			}
+			break;
+		case MINMAX:
+			if (count == 0) {
+				out[0].set(latest, latestLength, 0);
+			} else if (minSample.index == maxSample.index) {
+				out[0].set(minSample.value, minSample.length, 0);
+			} else {
+				Sample first = minSample.index < maxSample.index ? minSample : maxSample;
+				Sample second = first == minSample ? maxSample : minSample;
+				out[0].set(first.value, first.length, 0);
+				out[1].set(second.value, second.length, 0);
+				n = 2;
+			}
+			break;
+		default:
+			out[0].set(latest, latestLength, 0);
+			break;
+		}
+		updates = 0;
+		count = 0;
+		sum = 0;
+		return n;
+	}
+
+	public DirectBuffer getValue(int i) {
+		return out[i].value;
+	}
+
+	public int getLength(int i) {
+		return out[i].length;
+	}
+
+	private static final class Sample {
+		private MutableDirectBuffer value = new UnsafeBuffer(new byte[8]);
+		private int length;
+		private int index;
+
+		void set(DirectBuffer src, int len, int index) {
+			if (len > value.capacity()) {
+				value = new UnsafeBuffer(new byte[len]);
+			}
+			value.putBytes(0, src, 0, len);
+			this.length = len;
+			this.index = index;
+		}
+	}
+}
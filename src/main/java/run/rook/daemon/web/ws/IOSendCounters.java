@@ -0,0 +1,10 @@
+package run.rook.daemon.web.ws;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// send counts of all sessions of an IOWebSocket, kept after sessions close
+class IOSendCounters {
+	final AtomicLong sent = new AtomicLong();
+	final AtomicLong failed = new AtomicLong();
+	final AtomicLong conflated = new AtomicLong();
+}
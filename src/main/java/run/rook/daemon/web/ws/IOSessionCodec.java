@@ -0,0 +1,21 @@
+package run.rook.daemon.web.ws;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.agrona.DirectBuffer;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOValueSnapshot;
+
+// wire format of outbound updates for one session
+interface IOSessionCodec {
+	void encode(String type, IOKey key, DirectBuffer value, int valueLength);
+
+	// encodes several values of one type into a single frame
+	void encodeSnapshot(String type, List<IOValueSnapshot> values);
+
+	void send(RemoteEndpoint remote, WriteCallback callback) throws IOException;
+}
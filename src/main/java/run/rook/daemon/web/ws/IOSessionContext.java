@@ -1,165 +1,301 @@
 package run.rook.daemon.web.ws;
 
-import static run.rook.daemon.web.ws.IOConst.TYPE_OUTBOUND_INPUT;
-import static run.rook.daemon.web.ws.IOConst.TYPE_OUTBOUND_OUTPUT;
-
 import java.nio.ByteBuffer;
-import java.util.Base64;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.agrona.DirectBuffer;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+import org.eclipse.jetty.websocket.common.frames.PingFrame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
-
 import run.rook.daemon.cache.IOCache;
 import run.rook.daemon.cache.IOCacheListener;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOSnapshot;
+import run.rook.daemon.cache.IOTopicPattern;
+import run.rook.daemon.web.ws.IOTimerWheel.IOTimeout;
 
 class IOSessionContext implements IOCacheListener {
 	private static final ByteBuffer EMPTY_BYTE_BUFFER = ByteBuffer.allocate(0);
+	// a failed ping surfaces as a failed send or a missing pong
+	private static final WriteCallback PING_CALLBACK = new WriteCallback() {
+		@Override
+		public void writeSuccess() {
+		}
+
+		@Override
+		public void writeFailed(Throwable t) {
+		}
+	};
 	
 	private final Logger logger = LoggerFactory.getLogger(getClass());
-	private final Gson gson = new Gson();
 	private final Session session;
 	private final IOCache cache;
 	private final String address;
+	private final IOSessionSender sender;
 	
+	// names and patterns subscribed individually, so their pending values
+	// survive an unsubscribe from all names
 	private final Set<String> registeredInputs = new HashSet<>();
-	private boolean registeredAllInputs = false;
-
 	private final Set<String> registeredOutputs = new HashSet<>();
-	private boolean registeredAllOutputs = false;
+	private final IOSubscriptionRates inputRates = new IOSubscriptionRates();
+	private final IOSubscriptionRates outputRates = new IOSubscriptionRates();
+	// subscription changes of one burst of requests, handed to the cache in
+	// order on the subscriber thread, which may block while a ring is full.
+	// Subscribes are batched so the session gets one snapshot for all of them
+	private List<IOSubscriptionChange> pendingChanges = new ArrayList<>();
+	private IOTimeout subscribeFlush;
+	private final Executor subscriber;
 
-	private boolean registeredWithCache = false;
+	private final IOTimerWheel timer;
+	private final long pingIntervalMillis;
+	private final long pingTimeoutMillis;
+	// any frame from the client proves it is alive, not only pongs
+	private volatile long lastFrameNanos = System.nanoTime();
+	private volatile IOTimeout nextPing;
+	private volatile boolean closed = false;
 
-	public IOSessionContext(Session session, IOCache cache) {
+	public IOSessionContext(Session session, IOCache cache, IOSessionCodec codec, IOTimerWheel timer,
+			Executor subscriber, long pingIntervalMillis, long pingTimeoutMillis, IOSendCounters counters) {
 		this.session = session;
 		this.cache = cache;
 		this.address = session.getRemote().getInetSocketAddress().toString();
-		new Thread(this::pingLoop, address + " Ping Loop").start();
+		this.timer = timer;
+		this.subscriber = subscriber;
+		this.pingIntervalMillis = pingIntervalMillis;
+		this.pingTimeoutMillis = pingTimeoutMillis;
+		this.sender = new IOSessionSender(session, codec, this::onSendFailure, timer, counters);
+		nextPing = timer.schedule(this::ping, pingIntervalMillis, TimeUnit.MILLISECONDS);
 	}
-	
-	private void pingLoop() {
+
+	// called for every frame the client sends, including pongs
+	public void onFrame() {
+		lastFrameNanos = System.nanoTime();
+	}
+
+	private void ping() {
+		if (closed || !session.isOpen()) {
+			return;
+		}
+		long sentNanos = System.nanoTime();
 		try {
-			while(session.isOpen()) {
-				Thread.sleep(10000);
-				session.getRemote().sendPing(EMPTY_BYTE_BUFFER);
+			RemoteEndpoint remote = session.getRemote();
+			if (remote instanceof WebSocketRemoteEndpoint) {
+				// queued next to the data frames, the timer thread must not block
+				((WebSocketRemoteEndpoint) remote).uncheckedSendFrame(new PingFrame(), PING_CALLBACK);
+			} else {
+				remote.sendPing(EMPTY_BYTE_BUFFER);
 			}
-		} catch(Exception e) {
-			if(logger.isDebugEnabled()) {
+		} catch (Exception e) {
+			if (logger.isDebugEnabled()) {
 				logger.debug("Ping/Pong Exception", e);
 			}
 			close();
+			return;
 		}
+		timer.schedule(() -> checkPong(sentNanos), pingTimeoutMillis, TimeUnit.MILLISECONDS);
+		nextPing = timer.schedule(this::ping, pingIntervalMillis, TimeUnit.MILLISECONDS);
 	}
-	
+
+	private void checkPong(long sentNanos) {
+		if (!closed && lastFrameNanos - sentNanos < 0) {
+			logger.info(toString() + " did not answer a ping within " + pingTimeoutMillis + "ms. Closing Session.");
+			close();
+		}
+	}
+
 	public void close() {
-		cache.deregisterListener(this);
+		closed = true;
+		IOTimeout ping = nextPing;
+		if (ping != null) {
+			ping.cancel();
+		}
+		synchronized (this) {
+			if (subscribeFlush != null) {
+				subscribeFlush.cancel();
+				subscribeFlush = null;
+			}
+			pendingChanges.clear();
+		}
+		// after a flush that is already running
+		subscriber.execute(() -> cache.deregisterListener(this));
 		session.close();
 	}
 
-	public void inputSubscribe(String name) {
-		if (name == null) {
-			registeredAllInputs = true;
-		} else {
+	public void inputSubscribe(String name, IORateLimit rate) {
+		if (name != null) {
 			registeredInputs.add(name);
 		}
-		// first callback current values
-		cache.getInputs(this);
-		// second, register with cache
-		checkRegisterWithCache();
+		inputRates.set(name, rate);
+		queueChange(true, true, name);
 	}
 
-	public void outputSubscribe(String name) {
-		if (name == null) {
-			registeredAllOutputs = true;
-		} else {
+	public void outputSubscribe(String name, IORateLimit rate) {
+		if (name != null) {
 			registeredOutputs.add(name);
 		}
-		// first callback current values
-		cache.getOutputs(this);
-		// second, register with cache
-		checkRegisterWithCache();
+		outputRates.set(name, rate);
+		queueChange(false, true, name);
+	}
+
+	private synchronized void queueChange(boolean input, boolean subscribe, String name) {
+		if (closed) {
+			return;
+		}
+		IOSubscriptionChange batch = null;
+		if (subscribe) {
+			// joins an earlier subscribe unless an unsubscribe of the same
+			// direction came after it
+			for (int i = pendingChanges.size() - 1; i >= 0; i--) {
+				IOSubscriptionChange change = pendingChanges.get(i);
+				if (change.input == input) {
+					batch = change.subscribe ? change : null;
+					break;
+				}
+			}
+		}
+		if (batch == null) {
+			batch = new IOSubscriptionChange(input, subscribe);
+			pendingChanges.add(batch);
+		}
+		batch.names.add(name);
+		if (subscribeFlush == null) {
+			// on the next tick, so a burst of requests is handed over together
+			subscribeFlush = timer.schedule(() -> subscriber.execute(this::flushSubscribes), 0, TimeUnit.MILLISECONDS);
+		}
 	}
 
-	private void checkRegisterWithCache() {
-		if (!registeredWithCache) {
-			cache.registerListener(this);
-			registeredWithCache = true;
+	private void flushSubscribes() {
+		List<IOSubscriptionChange> changes;
+		synchronized (this) {
+			subscribeFlush = null;
+			if (closed) {
+				return;
+			}
+			changes = pendingChanges;
+			pendingChanges = new ArrayList<>();
+		}
+		for (IOSubscriptionChange change : changes) {
+			change.apply(cache, this);
 		}
 	}
 
 	public void inputUnsubscribe(String name) {
+		queueChange(true, false, name);
+		inputRates.set(name, null);
 		if (name == null) {
-			registeredAllInputs = false;
+			sender.discardAllInputs(registeredInputs);
 		} else {
 			registeredInputs.remove(name);
+			sender.discardInput(uncovered(keysOf(name), registeredInputs));
 		}
-		checkDeregisterWithCache();
 	}
 
 	public void outputUnsubscribe(String name) {
+		queueChange(false, false, name);
+		outputRates.set(name, null);
 		if (name == null) {
-			registeredAllOutputs = false;
+			sender.discardAllOutputs(registeredOutputs);
 		} else {
 			registeredOutputs.remove(name);
+			sender.discardOutput(uncovered(keysOf(name), registeredOutputs));
 		}
-		checkDeregisterWithCache();
 	}
 
-	private void checkDeregisterWithCache() {
-		if (registeredWithCache && !registeredAllInputs && !registeredAllOutputs
-				&& registeredInputs.size() == 0 && registeredOutputs.size() == 0) {
-			cache.deregisterListener(this);
-			registeredWithCache = false;
-		}
+	private IOKey[] keysOf(String name) {
+		return IOTopicPattern.isPattern(name) ? cache.getRegistry().match(name) : cache.getRegistry().find(name);
 	}
 
-	@Override
-	public void onInput(String name, String dataType, DirectBuffer value, int valueLength, Object src) {
-		if (registeredAllInputs || registeredInputs.contains(name)) {
-			IOOutboundMessage m = new IOOutboundMessage();
-			m.type = TYPE_OUTBOUND_INPUT;
-			m.name = name;
-			m.dataType = dataType;
-			byte[] valueBytes = new byte[valueLength];
-			value.getBytes(0, valueBytes);
-			m.value = Base64.getEncoder().encodeToString(valueBytes);
-			String json = gson.toJson(m);
-			try {
-				session.getRemote().sendString(json);
-			} catch (Throwable t) {
-				logger.info(toString() + " send failure. Closing Session.");
-				close();
+	// the keys no remaining subscription covers
+	private static IOKey[] uncovered(IOKey[] keys, Set<String> subscriptions) {
+		List<IOKey> uncovered = new ArrayList<>(keys.length);
+		for (IOKey key : keys) {
+			if (!covers(subscriptions, key.getName())) {
+				uncovered.add(key);
 			}
 		}
+		return uncovered.toArray(new IOKey[uncovered.size()]);
 	}
 
-	@Override
-	public void onOutput(String name, String dataType, DirectBuffer value, int valueLength, Object src) {
-		if (registeredAllOutputs || registeredOutputs.contains(name)) {
-			IOOutboundMessage m = new IOOutboundMessage();
-			m.type = TYPE_OUTBOUND_OUTPUT;
-			m.name = name;
-			m.dataType = dataType;
-			byte[] valueBytes = new byte[valueLength];
-			value.getBytes(0, valueBytes);
-			m.value = Base64.getEncoder().encodeToString(valueBytes);
-			String json = gson.toJson(m);
-			try {
-				session.getRemote().sendString(json);
-			} catch (Throwable t) {
-				logger.info(toString() + " send failure. Closing Session.");
-				close();
+	// returns true if the name is one of the subscriptions or matches one of
+	// their patterns
+	static boolean covers(Set<String> subscriptions, String name) {
+		if (subscriptions.contains(name)) {
+			return true;
+		}
+		for (String subscription : subscriptions) {
+			if (IOTopicPattern.isPattern(subscription) && IOTopicPattern.matches(subscription, name)) {
+				return true;
 			}
 		}
+		return false;
+	}
+
+	// sends a reply to a request of this session
+	public void sendText(String text) {
+		sender.sendText(text);
+	}
+
+	@Override
+	public void onInput(IOKey key, DirectBuffer value, int valueLength, Object src) {
+		sender.sendInput(key, value, valueLength, inputRates.get(key));
+	}
+
+	@Override
+	public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object src) {
+		sender.sendOutput(key, value, valueLength, outputRates.get(key));
+	}
+
+	@Override
+	public void onInputSnapshot(IOSnapshot snapshot, Object src) {
+		sender.sendInputSnapshot(snapshot.getValues());
+	}
+
+	@Override
+	public void onOutputSnapshot(IOSnapshot snapshot, Object src) {
+		sender.sendOutputSnapshot(snapshot.getValues());
+	}
+
+	private void onSendFailure() {
+		logger.info(toString() + " send failure. Closing Session.");
+		close();
 	}
 	
 	@Override
 	public String toString() {
 		return getClass().getSimpleName() + " [address=" + address + "]";
 	}
+
+	// subscribes or unsubscribes the names of one direction
+	private static final class IOSubscriptionChange {
+		final boolean input;
+		final boolean subscribe;
+		final List<String> names = new ArrayList<>(1);
+
+		IOSubscriptionChange(boolean input, boolean subscribe) {
+			this.input = input;
+			this.subscribe = subscribe;
+		}
+
+		void apply(IOCache cache, IOCacheListener listener) {
+			if (subscribe && input) {
+				cache.subscribeInputs(listener, names);
+			} else if (subscribe) {
+				cache.subscribeOutputs(listener, names);
+			} else if (input) {
+				cache.unsubscribeInputs(listener, names.get(0));
+			} else {
+				cache.unsubscribeOutputs(listener, names.get(0));
+			}
+		}
+	}
 }
\ No newline at end of file
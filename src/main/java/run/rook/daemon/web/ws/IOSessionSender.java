@@ -0,0 +1,326 @@
+package run.rook.daemon.web.ws;
+
+import static run.rook.daemon.web.ws.IOConst.TYPE_OUTBOUND_INPUT;
+import static run.rook.daemon.web.ws.IOConst.TYPE_OUTBOUND_INPUT_SNAPSHOT;
+import static run.rook.daemon.web.ws.IOConst.TYPE_OUTBOUND_OUTPUT;
+import static run.rook.daemon.web.ws.IOConst.TYPE_OUTBOUND_OUTPUT_SNAPSHOT;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Int2ObjectHashMap;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOValueSnapshot;
+
+// sends updates to a WebSocket session with at most one frame in flight
+class IOSessionSender implements WriteCallback {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final Session session;
+	private final IOSessionCodec codec;
+	private final Runnable onFailure;
+	private final IOTimerWheel timer;
+	private final IOSendCounters counters;
+	private final Int2ObjectHashMap<IOPendingValue> pendingInputs = new Int2ObjectHashMap<>();
+	private final Int2ObjectHashMap<IOPendingValue> pendingOutputs = new Int2ObjectHashMap<>();
+	// discarded values stay queued but are no longer dirty, they are skipped
+	// when polled so a discard does not search the queue
+	private final Queue<IOPendingValue> dirty = new ArrayDeque<>();
+	private int dirtyCount = 0;
+	// a reduced value whose second frame is still to be sent
+	private IOPendingValue reducing;
+	// replies to requests, never conflated and sent before pending values
+	private final Queue<String> texts = new ArrayDeque<>();
+	// sent after the texts, before pending values
+	private final Queue<IOPendingSnapshot> snapshots = new ArrayDeque<>();
+	private boolean sending = false;
+	private boolean flushing = false;
+	private long conflatedCount = 0;
+
+	// timer: releases held back updates of rate limited subscriptions
+	public IOSessionSender(Session session, IOSessionCodec codec, Runnable onFailure, IOTimerWheel timer,
+			IOSendCounters counters) {
+		this.session = session;
+		this.codec = codec;
+		this.onFailure = onFailure;
+		this.timer = timer;
+		this.counters = counters;
+	}
+
+	// rate: rate limit of the subscription, null if it has none
+	public void sendInput(IOKey key, DirectBuffer value, int valueLength, IORateLimit rate) {
+		send(pendingInputs, TYPE_OUTBOUND_INPUT, key, value, valueLength, rate);
+	}
+
+	public void sendOutput(IOKey key, DirectBuffer value, int valueLength, IORateLimit rate) {
+		send(pendingOutputs, TYPE_OUTBOUND_OUTPUT, key, value, valueLength, rate);
+	}
+
+	private void send(Int2ObjectHashMap<IOPendingValue> pending, String type, IOKey key, DirectBuffer value,
+			int valueLength, IORateLimit rate) {
+		boolean direct;
+		synchronized (this) {
+			direct = rate == null && !sending && !flushing && dirtyCount == 0 && texts.isEmpty() && snapshots.isEmpty()
+					&& reducing == null;
+			if (direct) {
+				// nothing is pending, so encode straight from the caller's buffer
+				codec.encode(type, key, value, valueLength);
+				sending = true;
+			} else {
+				update(pending, type, key, value, valueLength, rate);
+			}
+		}
+		if (direct) {
+			sendFrame();
+		} else {
+			flush();
+		}
+	}
+
+	// queues a text frame
+	public void sendText(String text) {
+		synchronized (this) {
+			texts.add(text);
+		}
+		flush();
+	}
+
+	public void sendInputSnapshot(List<IOValueSnapshot> values) {
+		sendSnapshot(pendingInputs, TYPE_OUTBOUND_INPUT_SNAPSHOT, values);
+	}
+
+	public void sendOutputSnapshot(List<IOValueSnapshot> values) {
+		sendSnapshot(pendingOutputs, TYPE_OUTBOUND_OUTPUT_SNAPSHOT, values);
+	}
+
+	private void sendSnapshot(Int2ObjectHashMap<IOPendingValue> pending, String type, List<IOValueSnapshot> values) {
+		synchronized (this) {
+			// the cache copied the snapshot after any update still pending
+			for (IOValueSnapshot value : values) {
+				discard(pending, value.getKey());
+			}
+			snapshots.add(new IOPendingSnapshot(type, values));
+		}
+		flush();
+	}
+
+	public synchronized void discardInput(IOKey[] keys) {
+		discard(pendingInputs, keys);
+	}
+
+	public synchronized void discardOutput(IOKey[] keys) {
+		discard(pendingOutputs, keys);
+	}
+
+	public synchronized void discardAllInputs(Set<String> keep) {
+		discardAll(pendingInputs, keep);
+	}
+
+	public synchronized void discardAllOutputs(Set<String> keep) {
+		discardAll(pendingOutputs, keep);
+	}
+
+	// number of updates that were replaced by a newer value before they could
+	// be sent
+	public synchronized long getConflatedCount() {
+		return conflatedCount;
+	}
+
+	private void update(Int2ObjectHashMap<IOPendingValue> pending, String type, IOKey key, DirectBuffer value,
+			int valueLength, IORateLimit rate) {
+		IOPendingValue p = pending.get(key.getId());
+		if (p == null) {
+			p = new IOPendingValue(type, key);
+			pending.put(key.getId(), p);
+		}
+		p.setRate(rate);
+		p.setValue(value, valueLength);
+		IOSampleReducer reducer = p.getReducer();
+		if (p.isDirty()) {
+			if (reducer == null) {
+				conflatedCount++;
+				counters.conflated.incrementAndGet();
+			}
+		} else if (reducer == null) {
+			p.setDirty(true);
+			dirty.add(p);
+			dirtyCount++;
+		} else if (!reducer.isScheduled()) {
+			long wait = reducer.getNextSendNanos() - System.nanoTime();
+			if (wait <= 0) {
+				p.setDirty(true);
+				dirty.add(p);
+				dirtyCount++;
+			} else {
+				reducer.setScheduled(true);
+				IOPendingValue held = p;
+				timer.schedule(() -> release(pending, held), wait, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	// sends a held back update once its interval passed
+	private void release(Int2ObjectHashMap<IOPendingValue> pending, IOPendingValue p) {
+		synchronized (this) {
+			IOSampleReducer reducer = p.getReducer();
+			if (reducer != null) {
+				reducer.setScheduled(false);
+			}
+			if (pending.get(p.getKey().getId()) != p || p.isDirty() || reducer == null || !reducer.hasSamples()) {
+				// discarded, already queued, or no longer rate limited
+				return;
+			}
+			p.setDirty(true);
+			dirty.add(p);
+			dirtyCount++;
+		}
+		flush();
+	}
+
+	private void discard(Int2ObjectHashMap<IOPendingValue> pending, IOKey[] keys) {
+		for (IOKey key : keys) {
+			discard(pending, key);
+		}
+	}
+
+	private void discard(Int2ObjectHashMap<IOPendingValue> pending, IOKey key) {
+		IOPendingValue p = pending.remove(key.getId());
+		if (p != null && p.isDirty()) {
+			undirty(p);
+		}
+		if (p != null && p == reducing) {
+			reducing = null;
+		}
+	}
+
+	private void discardAll(Int2ObjectHashMap<IOPendingValue> pending, Set<String> keep) {
+		Iterator<IOPendingValue> it = pending.values().iterator();
+		while (it.hasNext()) {
+			IOPendingValue p = it.next();
+			if (!IOSessionContext.covers(keep, p.getKey().getName())) {
+				if (p.isDirty()) {
+					undirty(p);
+				}
+				if (p == reducing) {
+					reducing = null;
+				}
+				it.remove();
+			}
+		}
+	}
+
+	private void undirty(IOPendingValue p) {
+		p.setDirty(false);
+		if (--dirtyCount == 0) {
+			dirty.clear();
+		}
+	}
+
+	private void flush() {
+		synchronized (this) {
+			if (flushing) {
+				// the flushing thread will pick up the update
+				return;
+			}
+			flushing = true;
+		}
+		while (true) {
+			String text;
+			synchronized (this) {
+				if (sending || (dirtyCount == 0 && texts.isEmpty() && snapshots.isEmpty() && reducing == null)) {
+					flushing = false;
+					return;
+				}
+				text = texts.poll();
+				if (text == null) {
+					IOPendingSnapshot snapshot = snapshots.poll();
+					if (snapshot != null) {
+						codec.encodeSnapshot(snapshot.getType(), snapshot.getValues());
+					} else {
+						encodeNext();
+					}
+				}
+				sending = true;
+			}
+			if (!(text == null ? sendFrame() : sendTextFrame(text))) {
+				synchronized (this) {
+					flushing = false;
+				}
+				return;
+			}
+		}
+	}
+
+	private void encodeNext() {
+		if (reducing != null) {
+			IOSampleReducer reducer = reducing.getReducer();
+			codec.encode(reducing.getType(), reducing.getKey(), reducer.getValue(1), reducer.getLength(1));
+			reducing = null;
+			return;
+		}
+		IOPendingValue p = dirty.poll();
+		while (!p.isDirty()) {
+			p = dirty.poll();
+		}
+		p.setDirty(false);
+		dirtyCount--;
+		IOSampleReducer reducer = p.getReducer();
+		if (reducer == null) {
+			codec.encode(p.getType(), p.getKey(), p.getValue(), p.getLength());
+		} else {
+			if (reducer.take(p.getValue(), p.getLength(), System.nanoTime()) > 1) {
+				reducing = p;
+			}
+			codec.encode(p.getType(), p.getKey(), reducer.getValue(0), reducer.getLength(0));
+		}
+	}
+
+	private boolean sendFrame() {
+		try {
+			// the callback may run synchronously, which clears sending
+			codec.send(session.getRemote(), this);
+			return true;
+		} catch (Throwable t) {
+			writeFailed(t);
+			return false;
+		}
+	}
+
+	private boolean sendTextFrame(String text) {
+		try {
+			session.getRemote().sendString(text, this);
+			return true;
+		} catch (Throwable t) {
+			writeFailed(t);
+			return false;
+		}
+	}
+
+	@Override
+	public void writeSuccess() {
+		counters.sent.incrementAndGet();
+		synchronized (this) {
+			sending = false;
+		}
+		flush();
+	}
+
+	@Override
+	public void writeFailed(Throwable t) {
+		counters.failed.incrementAndGet();
+		if (logger.isDebugEnabled()) {
+			logger.debug("Send failure", t);
+		}
+		onFailure.run();
+	}
+}
@@ -0,0 +1,79 @@
+package run.rook.daemon.web.ws;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOTopicPattern;
+
+// rate limits of one session's subscriptions in one direction
+final class IOSubscriptionRates {
+
+	// cached for IOs without a limit, never handed out
+	private static final IORateLimit NONE = new IORateLimit(1, IOReduction.LATEST);
+
+	private final Map<String, IORateLimit> byName = new ConcurrentHashMap<>();
+	private final Map<String, IORateLimit> byPattern = new ConcurrentHashMap<>();
+	private volatile IORateLimit all;
+	// replaced on every change, so a resolve that raced with it is dropped
+	private final AtomicReference<IORateLimit[]> byId = new AtomicReference<>(new IORateLimit[64]);
+
+	public void set(String name, IORateLimit rate) {
+		if (name == null) {
+			all = rate;
+		} else {
+			Map<String, IORateLimit> rates = IOTopicPattern.isPattern(name) ? byPattern : byName;
+			if (rate == null) {
+				rates.remove(name);
+			} else {
+				rates.put(name, rate);
+			}
+		}
+		invalidate();
+	}
+
+	// returns the limit of the IO, null if its updates are not limited
+	public IORateLimit get(IOKey key) {
+		IORateLimit[] cached = byId.get();
+		int id = key.getId();
+		IORateLimit rate = id < cached.length ? cached[id] : null;
+		if (rate == null) {
+			rate = resolve(key.getName());
+			if (id < cached.length) {
+				cached[id] = rate;
+			} else {
+				IORateLimit[] grown = Arrays.copyOf(cached, Math.max(cached.length * 2, id + 1));
+				grown[id] = rate;
+				byId.compareAndSet(cached, grown);
+			}
+		}
+		return rate == NONE ? null : rate;
+	}
+
+	// the limit of the name's own subscription takes precedence, then that of
+	// the most specific matching pattern
+	private IORateLimit resolve(String name) {
+		IORateLimit rate = byName.get(name);
+		if (rate == null) {
+			String best = null;
+			for (Map.Entry<String, IORateLimit> e : byPattern.entrySet()) {
+				String pattern = e.getKey();
+				if (IOTopicPattern.matches(pattern, name)
+						&& (best == null || IOTopicPattern.compareSpecificity(pattern, best) < 0)) {
+					best = pattern;
+					rate = e.getValue();
+				}
+			}
+		}
+		if (rate == null) {
+			rate = all;
+		}
+		return rate == null ? NONE : rate;
+	}
+
+	private void invalidate() {
+		byId.set(new IORateLimit[byId.get().length]);
+	}
+}
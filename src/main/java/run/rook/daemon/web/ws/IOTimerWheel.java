@@ -0,0 +1,148 @@
+package run.rook.daemon.web.ws;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// runs delayed tasks of any number of WebSocket sessions on one thread
+final class IOTimerWheel {
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+	private final long tickNanos;
+	private final IOTimeout[] buckets;
+	private final int mask;
+	private final long startNanos;
+	private final Thread thread;
+	// next tick to expire, guarded by this
+	private long tick = 0;
+	private volatile boolean running = true;
+
+	// wheelSize: number of buckets, must be a power of 2
+	public IOTimerWheel(String threadName, long tick, TimeUnit unit, int wheelSize) {
+		if (Integer.bitCount(wheelSize) != 1) {
+			throw new IllegalArgumentException("wheelSize must be a power of 2");
+		}
+		this.tickNanos = unit.toNanos(tick);
+		if (tickNanos <= 0) {
+			throw new IllegalArgumentException("tick must be positive");
+		}
+		this.buckets = new IOTimeout[wheelSize];
+		this.mask = wheelSize - 1;
+		this.startNanos = System.nanoTime();
+		this.thread = new Thread(this::run, threadName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+	// runs the task once the delay passed, from the wheel's thread
+	public synchronized IOTimeout schedule(Runnable task, long delay, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(delay);
+		// round up, a task never runs early
+		long deadlineTick = Math.max((deadline - startNanos + tickNanos - 1) / tickNanos, tick);
+		IOTimeout timeout = new IOTimeout(this, task);
+		timeout.rounds = (deadlineTick - tick) / buckets.length;
+		timeout.bucket = (int) (deadlineTick & mask);
+		timeout.next = buckets[timeout.bucket];
+		if (timeout.next != null) {
+			timeout.next.prev = timeout;
+		}
+		buckets[timeout.bucket] = timeout;
+		return timeout;
+	}
+
+	synchronized boolean cancel(IOTimeout timeout) {
+		if (timeout.bucket < 0) {
+			// expired or cancelled before
+			return false;
+		}
+		unlink(timeout);
+		return true;
+	}
+
+	private void unlink(IOTimeout timeout) {
+		if (timeout.prev == null) {
+			buckets[timeout.bucket] = timeout.next;
+		} else {
+			timeout.prev.next = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+	}
+
+	private void run() {
+		long nextTick = 0;
+		while (running) {
+			long due = startNanos + nextTick * tickNanos;
+			long wait = due - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(this, wait);
+				continue;
+			}
+			// tasks run outside the lock, they may schedule again
+			IOTimeout expired = expire();
+			while (expired != null) {
+				IOTimeout next = expired.next;
+				expired.next = null;
+				try {
+					expired.task.run();
+				} catch (Throwable t) {
+					logger.error("Timer task failed", t);
+				}
+				expired = next;
+			}
+			nextTick++;
+		}
+	}
+
+	// takes the due timeouts of the current tick off the wheel and returns them
+	// as a chain
+	private synchronized IOTimeout expire() {
+		IOTimeout expired = null;
+		IOTimeout timeout = buckets[(int) (tick & mask)];
+		while (timeout != null) {
+			IOTimeout next = timeout.next;
+			if (timeout.rounds <= 0) {
+				unlink(timeout);
+				timeout.next = expired;
+				expired = timeout;
+			} else {
+				timeout.rounds--;
+			}
+			timeout = next;
+		}
+		tick++;
+		return expired;
+	}
+
+	// a scheduled task, until it ran or was cancelled
+	static final class IOTimeout {
+		private final IOTimerWheel wheel;
+		private final Runnable task;
+		// guarded by the wheel
+		private long rounds;
+		private int bucket = -1;
+		private IOTimeout prev;
+		private IOTimeout next;
+
+		private IOTimeout(IOTimerWheel wheel, Runnable task) {
+			this.wheel = wheel;
+			this.task = task;
+		}
+
+		// returns false if the task already ran or was cancelled
+		public boolean cancel() {
+			return wheel.cancel(this);
+		}
+	}
+}
@@ -3,41 +3,119 @@ package run.rook.daemon.web.ws;
 import static run.rook.daemon.web.ws.IOConst.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.agrona.concurrent.UnsafeBuffer;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketFrame;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 
 import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IODataType;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOPublicationPolicy;
+import run.rook.daemon.cache.IORegistry;
+import run.rook.daemon.cache.IOSource;
+import run.rook.daemon.cache.IOSourceKind;
+import run.rook.daemon.history.IODownsampling;
+import run.rook.daemon.history.IOHistory;
+import run.rook.daemon.history.IOHistorySample;
+import run.rook.daemon.metrics.IOMetricsSource;
+import run.rook.daemon.metrics.IOMetricsWriter;
 
 @WebSocket
-public class IOWebSocket {
+public class IOWebSocket implements IOSource, IOMetricsSource {
 
 	public static final String PROTOCOL = "rook_io";
+	public static final String BINARY_PROTOCOL = "rook_io_binary";
+	public static final String TYPED_PROTOCOL = "rook_io_typed";
+	public static final long DEFAULT_PING_INTERVAL = 10000;
+	public static final long DEFAULT_PING_TIMEOUT = 10000;
+
+	private static final long TIMER_TICK_MILLIS = 10;
+	private static final int TIMER_WHEEL_SIZE = 512;
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 	private final Gson gson = new Gson();
 	private final Map<Session, IOSessionContext> sessionContexts = Collections.synchronizedMap(new HashMap<>());
 	private final IOCache cache;
+	private final IOHistory history;
+	private final IOSendCounters counters = new IOSendCounters();
+	// pings and held back updates of all sessions
+	private final IOTimerWheel timer = new IOTimerWheel("IOWebSocket-Timer", TIMER_TICK_MILLIS,
+			TimeUnit.MILLISECONDS, TIMER_WHEEL_SIZE);
+	// subscription changes of all sessions, blocks while a cache ring is full
+	private final ExecutorService subscriber = Executors.newSingleThreadExecutor((Runnable r) -> {
+		Thread t = new Thread(r, "IOWebSocket-Subscriber");
+		t.setDaemon(true);
+		return t;
+	});
+	private long pingIntervalMillis = DEFAULT_PING_INTERVAL;
+	private long pingTimeoutMillis = DEFAULT_PING_TIMEOUT;
 
-	public IOWebSocket(IOCache cache) {
+	// history: recorded values for history queries, null if history is disabled
+	public IOWebSocket(IOCache cache, IOHistory history) {
 		this.cache = cache;
+		this.history = history;
+	}
+
+	// milliseconds between pings of each session
+	public void setPingInterval(long pingIntervalMillis) {
+		if (pingIntervalMillis <= 0) {
+			throw new IllegalArgumentException("pingInterval must be positive");
+		}
+		this.pingIntervalMillis = pingIntervalMillis;
+	}
+
+	// milliseconds a session has to answer a ping before it is closed
+	public void setPingTimeout(long pingTimeoutMillis) {
+		if (pingTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("pingTimeout must be positive");
+		}
+		this.pingTimeoutMillis = pingTimeoutMillis;
+	}
+
+	@Override
+	public IOSourceKind getSourceKind() {
+		return IOSourceKind.WEBSOCKET;
+	}
+
+	@Override
+	public void writeMetrics(IOMetricsWriter writer) {
+		writer.gauge("rook_ws_sessions", "Open WebSocket sessions.");
+		writer.sample("rook_ws_sessions", sessionContexts.size());
+		writer.counter("rook_ws_sent_total", "WebSocket frames sent.");
+		writer.sample("rook_ws_sent_total", counters.sent.get());
+		writer.counter("rook_ws_send_failures_total", "WebSocket sends that failed and closed their session.");
+		writer.sample("rook_ws_send_failures_total", counters.failed.get());
+		writer.counter("rook_ws_conflated_total", "Updates replaced by a newer value before they were sent.");
+		writer.sample("rook_ws_conflated_total", counters.conflated.get());
 	}
 
 	@OnWebSocketConnect
 	public void onWebSocketConnect(Session session) {
 		logger.info("WebSocket Connect: " + session.getRemote().getInetSocketAddress());
-		sessionContexts.put(session, new IOSessionContext(session, cache));
+		IOSessionCodec codec = BINARY_PROTOCOL.equals(session.getUpgradeResponse().getAcceptedSubProtocol())
+				? new IOBinaryCodec() : new IOJsonCodec(isTyped(session));
+		sessionContexts.put(session, new IOSessionContext(session, cache, codec, timer, subscriber, pingIntervalMillis,
+				pingTimeoutMillis, counters));
 	}
 
 	@OnWebSocketClose
@@ -49,35 +127,233 @@ public class IOWebSocket {
 		}
 	}
 
+	@OnWebSocketFrame
+	public void onFrame(Session session, Frame frame) {
+		IOSessionContext context = sessionContexts.get(session);
+		if (context != null) {
+			context.onFrame();
+		}
+	}
+
 	@OnWebSocketMessage
 	public void onText(Session session, String message) throws IOException {
 		if (logger.isDebugEnabled()) {
 			logger.debug(
 					"Handling Request: remote=" + session.getRemote().getInetSocketAddress() + " message=" + message);
 		}
-		IOInboundMessage req = gson.fromJson(message, IOInboundMessage.class);
-		if (req.type.equals(TYPE_INBOUND_INPUT_SUBSCRIBE)) {
-			subscribeInputs(session, req.name);
-		} else if (req.type.equals(TYPE_INBOUND_OUTPUT_SUBSCRIBE)) {
-			subscribeOutputs(session, req.name);
+		IOInboundMessage req;
+		try {
+			req = gson.fromJson(message, IOInboundMessage.class);
+		} catch (JsonSyntaxException e) {
+			sendError(session, "Malformed message: " + e.getMessage());
+			return;
+		}
+		if (req == null || req.type == null) {
+			sendError(session, "Message type is missing");
+			return;
+		}
+		IOKey key = null;
+		if (req.id != null) {
+			key = lookupKey(session, req.id);
+			if (key == null) {
+				return;
+			}
+		}
+		String name = key == null ? req.name : key.getName();
+		if (req.type.equals(TYPE_INBOUND_INPUT_SUBSCRIBE) || req.type.equals(TYPE_INBOUND_OUTPUT_SUBSCRIBE)) {
+			IORateLimit rate = null;
+			if (req.maxRate != null) {
+				rate = rateLimit(session, req.maxRate, req.reduction);
+				if (rate == null) {
+					return;
+				}
+			}
+			if (req.type.equals(TYPE_INBOUND_INPUT_SUBSCRIBE)) {
+				subscribeInputs(session, name, rate);
+			} else {
+				subscribeOutputs(session, name, rate);
+			}
 		} else if (req.type.equals(TYPE_INBOUND_INPUT_UNSUBSCRIBE)) {
-			unsubscribeInputs(session, req.name);
+			unsubscribeInputs(session, name);
 		} else if (req.type.equals(TYPE_INBOUND_OUTPUT_UNSUBSCRIBE)) {
-			unsubscribeOutputs(session, req.name);
+			unsubscribeOutputs(session, name);
 		} else if (req.type.equals(TYPE_INBOUND_INPUT_PUBLISH)) {
-			publishInput(session, req.name, req.dataType, req.value);
+			if (key == null) {
+				publishInput(session, req.name, req.dataType, req.value);
+			} else {
+				publishInput(session, key, req.value);
+			}
 		} else if (req.type.equals(TYPE_INBOUND_OUTPUT_PUBLISH)) {
-			publishOutput(session, req.name, req.dataType, req.value);
+			if (key == null) {
+				publishOutput(session, req.name, req.dataType, req.value);
+			} else {
+				publishOutput(session, key, req.value);
+			}
+		} else if (req.type.equals(TYPE_INPUT_HISTORY) || req.type.equals(TYPE_OUTPUT_HISTORY)) {
+			queryHistory(session, req, key);
+		} else if (req.type.equals(TYPE_INBOUND_SET_POLICY)) {
+			setPolicy(session, name, req);
+		} else if (req.type.equals(TYPE_INBOUND_CLEAR_POLICY)) {
+			if (name != null) {
+				cache.clearPublicationPolicy(name);
+			}
+		}
+	}
+
+	private void setPolicy(Session session, String name, IOInboundMessage req) {
+		IOPublicationPolicy policy;
+		try {
+			policy = new IOPublicationPolicy(req.changesOnly != null && req.changesOnly,
+					req.deadband == null ? 0 : req.deadband, req.heartbeat == null ? 0 : req.heartbeat);
+		} catch (IllegalArgumentException e) {
+			logger.warn("Received invalid policy from: " + session.getRemote().getInetSocketAddress() + ": "
+					+ e.getMessage());
+			return;
+		}
+		logger.info("Setting publication policy of " + (name == null ? "all names" : name) + " to " + policy
+				+ " from: " + session.getRemote().getInetSocketAddress());
+		if (name == null) {
+			cache.setDefaultPublicationPolicy(policy);
+		} else {
+			cache.setPublicationPolicy(name, policy);
+		}
+	}
+
+	// returns null if the rate or reduction is invalid
+	private IORateLimit rateLimit(Session session, double maxRate, String reduction) {
+		try {
+			return new IORateLimit(maxRate,
+					reduction == null ? IOReduction.LATEST : IOReduction.valueOf(reduction.toUpperCase()));
+		} catch (IllegalArgumentException e) {
+			logger.warn("Received invalid rate limit " + maxRate + " " + reduction + " from: "
+					+ session.getRemote().getInetSocketAddress());
+			return null;
+		}
+	}
+
+	private static boolean isTyped(Session session) {
+		return TYPED_PROTOCOL.equals(session.getUpgradeResponse().getAcceptedSubProtocol());
+	}
+
+	// decodes a published value, a plain JSON value of a known data type in
+	// typed sessions and Base64 otherwise; returns null if it is invalid
+	private byte[] decodeValue(Session session, String dataType, String value) {
+		IODataType type = isTyped(session) ? IODataType.of(dataType) : null;
+		try {
+			return type == null ? Base64.getDecoder().decode(value) : type.parse(value);
+		} catch (IllegalArgumentException e) {
+			logger.warn("Received invalid " + dataType + " value from: " + session.getRemote().getInetSocketAddress()
+					+ ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void sendError(Session session, String message) {
+		logger.warn(message + " from: " + session.getRemote().getInetSocketAddress());
+		IOSessionContext context = sessionContexts.get(session);
+		if (context != null) {
+			IOErrorMessage m = new IOErrorMessage();
+			m.message = message;
+			context.sendText(gson.toJson(m));
+		}
+	}
+
+	private IOKey lookupKey(Session session, int id) {
+		IOKey key = cache.getRegistry().get(id);
+		if (key == null) {
+			logger.warn("Received unknown IO id " + id + " from: " + session.getRemote().getInetSocketAddress());
 		}
+		return key;
 	}
 
-	private void subscribeInputs(Session session, String name) {
+	@OnWebSocketMessage
+	public void onBinary(Session session, byte[] buf, int offset, int length) {
+		UnsafeBuffer frame = new UnsafeBuffer(buf, offset, length);
+		byte type = length == 0 ? 0 : IOBinaryCodec.getType(frame);
+		// the data type of a subscribe is optional, a publish needs it to find the value
+		String error = IOBinaryCodec.validate(frame, length,
+				type == BINARY_INBOUND_INPUT_PUBLISH || type == BINARY_INBOUND_OUTPUT_PUBLISH);
+		if (error != null) {
+			sendError(session, error);
+			return;
+		}
+		int id = IOBinaryCodec.getId(frame);
+		IOKey key = null;
+		if (id != IOBinaryCodec.NO_ID) {
+			key = lookupKey(session, id);
+			if (key == null) {
+				return;
+			}
+		}
+		String name = key == null ? IOBinaryCodec.getName(frame) : key.getName();
+		switch (type) {
+		case BINARY_INBOUND_INPUT_SUBSCRIBE:
+		case BINARY_INBOUND_OUTPUT_SUBSCRIBE: {
+			IORateLimit rate = null;
+			// the value of a subscribe frame is an optional f64 rate and u8 reduction
+			boolean hasDataType = length > IOBinaryCodec.NAME_OFFSET + IOBinaryCodec.getNameLength(frame);
+			int rateOffset = hasDataType ? IOBinaryCodec.getValueOffset(frame) : length;
+			if (length >= rateOffset + 8) {
+				double maxRate = frame.getDouble(rateOffset, IOBinaryCodec.BYTE_ORDER);
+				int reduction = length > rateOffset + 8 ? frame.getByte(rateOffset + 8) & 0xFF : 0;
+				IOReduction[] reductions = IOReduction.values();
+				rate = rateLimit(session, maxRate, reduction < reductions.length ? reductions[reduction].name() : "");
+				if (rate == null) {
+					return;
+				}
+			}
+			if (type == BINARY_INBOUND_INPUT_SUBSCRIBE) {
+				subscribeInputs(session, name, rate);
+			} else {
+				subscribeOutputs(session, name, rate);
+			}
+			break;
+		}
+		case BINARY_INBOUND_INPUT_UNSUBSCRIBE:
+			unsubscribeInputs(session, name);
+			break;
+		case BINARY_INBOUND_OUTPUT_UNSUBSCRIBE:
+			unsubscribeOutputs(session, name);
+			break;
+		case BINARY_INBOUND_INPUT_PUBLISH:
+		case BINARY_INBOUND_OUTPUT_PUBLISH:
+			String dataType = key == null ? IOBinaryCodec.getDataType(frame) : key.getDataType();
+			int valueOffset = IOBinaryCodec.getValueOffset(frame);
+			int valueLength = length - valueOffset;
+			if (logger.isDebugEnabled()) {
+				logger.debug("Publishing: session=" + session.getRemote().getInetSocketAddress() + " type=" + type
+						+ " name=" + name + " dataType=" + dataType + " valueLength=" + valueLength);
+			}
+			// re-point the frame at just the value bytes
+			frame.wrap(buf, offset + valueOffset, valueLength);
+			if (key == null) {
+				error = IORegistry.validate(name, dataType);
+				if (error != null) {
+					sendError(session, error);
+					return;
+				}
+				key = cache.getRegistry().register(name, dataType);
+			}
+			if (type == BINARY_INBOUND_INPUT_PUBLISH) {
+				cache.processInput(key.getId(), frame, valueLength, this);
+			} else {
+				cache.processOutput(key.getId(), frame, valueLength, this);
+			}
+			break;
+		default:
+			logger.warn("Received unknown binary message type " + type + " from: "
+					+ session.getRemote().getInetSocketAddress());
+			break;
+		}
+	}
+
+	private void subscribeInputs(Session session, String name, IORateLimit rate) {
 		IOSessionContext context = sessionContexts.get(session);
 		if (context == null) {
 			logger.warn("Received message from unknown session: " + session.getRemote().getInetSocketAddress());
 			return;
 		}
-		context.inputSubscribe(name);
+		context.inputSubscribe(name, rate);
 	}
 
 	private void unsubscribeInputs(Session session, String name) {
@@ -89,13 +365,13 @@ public class IOWebSocket {
 		context.inputUnsubscribe(name);
 	}
 
-	private void subscribeOutputs(Session session, String name) {
+	private void subscribeOutputs(Session session, String name, IORateLimit rate) {
 		IOSessionContext context = sessionContexts.get(session);
 		if (context == null) {
 			logger.warn("Received message from unknown session: " + session.getRemote().getInetSocketAddress());
 			return;
 		}
-		context.outputSubscribe(name);
+		context.outputSubscribe(name, rate);
 	}
 
 	private void unsubscribeOutputs(Session session, String name) {
@@ -107,21 +383,117 @@ public class IOWebSocket {
 		context.outputUnsubscribe(name);
 	}
 
-	private void publishInput(Session session, String name, String dataType, String b64Value) {
+	private void queryHistory(Session session, IOInboundMessage req, IOKey key) {
+		IOSessionContext context = sessionContexts.get(session);
+		if (context == null) {
+			logger.warn("Received message from unknown session: " + session.getRemote().getInetSocketAddress());
+			return;
+		}
+		if (history == null) {
+			logger.warn("Received history query while history is disabled from: "
+					+ session.getRemote().getInetSocketAddress());
+			return;
+		}
+		IODownsampling downsampling;
+		try {
+			downsampling = req.downsampling == null ? IODownsampling.MINMAX
+					: IODownsampling.valueOf(req.downsampling.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			logger.warn("Received unknown downsampling " + req.downsampling + " from: "
+					+ session.getRemote().getInetSocketAddress());
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long from = IOHistory.resolveTime(req.from == null ? -60000 : req.from, now);
+		long to = req.to == null ? Long.MAX_VALUE : IOHistory.resolveTime(req.to, now);
+		int points = req.points == null ? 0 : req.points;
+
+		IOKey[] keys;
+		if (key != null) {
+			keys = new IOKey[] { key };
+		} else if (req.dataType != null) {
+			IOKey found = cache.getRegistry().find(req.name, req.dataType);
+			keys = found == null ? new IOKey[0] : new IOKey[] { found };
+		} else {
+			keys = cache.getRegistry().find(req.name);
+		}
+		// one reply per data type recorded under the name
+		for (IOKey k : keys) {
+			List<IOHistorySample> samples = req.type.equals(TYPE_INPUT_HISTORY)
+					? history.queryInput(k, from, to, points, downsampling)
+					: history.queryOutput(k, from, to, points, downsampling);
+			IOHistoryMessage m = new IOHistoryMessage();
+			m.type = req.type;
+			m.id = k.getId();
+			m.name = k.getName();
+			m.dataType = k.getDataType();
+			m.samples = new ArrayList<>(samples.size());
+			for (IOHistorySample sample : samples) {
+				IOHistoryMessage.Sample s = new IOHistoryMessage.Sample();
+				s.t = sample.getTimestamp();
+				s.value = IOJsonCodec.encodeValue(isTyped(session) ? k.getType() : null,
+						new UnsafeBuffer(sample.getValue()), sample.getValue().length);
+				m.samples.add(s);
+			}
+			context.sendText(gson.toJson(m));
+		}
+	}
+
+	private void publishInput(Session session, String name, String dataType, String encodedValue) {
 		if (logger.isDebugEnabled()) {
 			logger.debug("Publishing Input: session=" + session.getRemote().getInetSocketAddress() + " name=" + name
-					+ " dataType=" + dataType + " value=" + b64Value);
+					+ " dataType=" + dataType + " value=" + encodedValue);
+		}
+		String error = IORegistry.validate(name, dataType);
+		if (error != null) {
+			sendError(session, error);
+			return;
+		}
+		byte[] value = decodeValue(session, dataType, encodedValue);
+		if (value == null) {
+			return;
 		}
-		byte[] value = Base64.getDecoder().decode(b64Value);
 		cache.processInput(name, dataType, value, value.length, this);
 	}
 
-	private void publishOutput(Session session, String name, String dataType, String b64Value) {
+	private void publishOutput(Session session, String name, String dataType, String encodedValue) {
 		if (logger.isDebugEnabled()) {
 			logger.debug("Publishing Output: session=" + session.getRemote().getInetSocketAddress() + " name=" + name
-					+ " dataType=" + dataType + " value=" + b64Value);
+					+ " dataType=" + dataType + " value=" + encodedValue);
+		}
+		String error = IORegistry.validate(name, dataType);
+		if (error != null) {
+			sendError(session, error);
+			return;
+		}
+		byte[] value = decodeValue(session, dataType, encodedValue);
+		if (value == null) {
+			return;
 		}
-		byte[] value = Base64.getDecoder().decode(b64Value);
 		cache.processOutput(name, dataType, value, value.length, this);
 	}
-}
\ No newline at end of file
+
+	private void publishInput(Session session, IOKey key, String encodedValue) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Publishing Input: session=" + session.getRemote().getInetSocketAddress() + " id=" + key.getId()
+					+ " value=" + encodedValue);
+		}
+		byte[] value = decodeValue(session, key.getDataType(), encodedValue);
+		if (value == null) {
+			return;
+		}
+		cache.processInput(key.getId(), value, value.length, this);
+	}
+
+	private void publishOutput(Session session, IOKey key, String encodedValue) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Publishing Output: session=" + session.getRemote().getInetSocketAddress() + " id=" + key.getId()
+					+ " value=" + encodedValue);
+		}
+		byte[] value = decodeValue(session, key.getDataType(), encodedValue);
+		if (value == null) {
+			return;
+		}
+		cache.processOutput(key.getId(), value, value.length, this);
+	}
+}
@@ -0,0 +1,72 @@
+package run.rook.daemon.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Test;
+
+public class IOCacheReadTest {
+
+	private IOCache cache;
+
+	@After
+	public void stop() {
+		cache.stop();
+	}
+
+	@Test
+	public void readsAllShardsAtOnePointInTime() throws Exception {
+		cache = new IOCache(3);
+		cache.start();
+		String[] names = { "a", "b", "c", "d", "e", "f" };
+		AtomicBoolean running = new AtomicBoolean(true);
+		// every round writes the same counter to all inputs, then all outputs
+		Thread writer = new Thread(() -> {
+			UnsafeBuffer value = new UnsafeBuffer(new byte[8]);
+			for (long round = 1; running.get(); round++) {
+				value.putLong(0, round);
+				for (String name : names) {
+					cache.processInput(name, "I64", value, 8, null);
+				}
+				for (String name : names) {
+					cache.processOutput(name, "I64", value, 8, null);
+				}
+			}
+		});
+		writer.start();
+		try {
+			for (int i = 0; i < 200; i++) {
+				IOCacheSnapshot snapshot = cache.read();
+				Map<String, Long> inputs = new HashMap<>();
+				for (IOValueSnapshot value : snapshot.getInputs()) {
+					inputs.put(value.getKey().getName(), value.getLong());
+				}
+				// an output is only written after the input of its round
+				for (IOValueSnapshot value : snapshot.getOutputs()) {
+					assertTrue(inputs.get(value.getKey().getName()) >= value.getLong());
+				}
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+
+	@Test
+	public void readsRestoredValuesBeforeStart() {
+		cache = new IOCache(2);
+		cache.restoreInput("a", "U8", new UnsafeBuffer(new byte[] { 1 }), 1);
+		cache.restoreOutput("b", "U8", new UnsafeBuffer(new byte[] { 2 }), 1);
+
+		IOCacheSnapshot snapshot = cache.read();
+		assertEquals(1, snapshot.getInputs().size());
+		assertTrue(snapshot.getInputs().get(0).isStale());
+		assertEquals(1, snapshot.getOutputs().size());
+	}
+}
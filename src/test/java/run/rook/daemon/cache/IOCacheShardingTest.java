@@ -0,0 +1,70 @@
+package run.rook.daemon.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class IOCacheShardingTest {
+
+	private static final String[] NAMES = { "a", "b", "c", "d", "e", "f", "g", "h" };
+
+	private IOCache cache;
+
+	@After
+	public void stop() {
+		cache.stop();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInlineDispatchWithSeveralShards() {
+		cache = new IOCache(3);
+		cache.setDispatchMode(IOCacheDispatchMode.INLINE);
+	}
+
+	@Test
+	public void queuesListenersOfSeveralShards() throws Exception {
+		cache = new IOCache(3);
+		RecordingListener listener = new RecordingListener();
+		cache.registerListener(listener);
+		cache.start();
+
+		for (String name : NAMES) {
+			cache.processInput(name, "U8", new byte[] { 1 }, 1, null);
+		}
+		Set<String> received = new HashSet<>();
+		for (int i = 0; i < NAMES.length; i++) {
+			RecordingListener.Update update = listener.next();
+			received.add(update.key.getName());
+			// never called from the shard threads themselves
+			assertTrue(update.thread.getName().startsWith("IOCache-Dispatch-"));
+		}
+		assertEquals(NAMES.length, received.size());
+	}
+
+	@Test
+	public void deregisterRemovesTheQueueFromEveryShard() throws Exception {
+		cache = new IOCache(3);
+		RecordingListener listener = new RecordingListener();
+		cache.start();
+		cache.registerListener(listener);
+		cache.subscribeInputs(listener, "a");
+		cache.subscribeOutputs(listener, "arm/#");
+		IOCacheListener queue = cache.deliveryTarget(listener);
+		assertNotSame(listener, queue);
+
+		cache.deregisterListener(listener);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!cache.getOverflowCounts().isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(cache.getOverflowCounts().isEmpty());
+		assertFalse(cache.isSubscribed(queue));
+	}
+}
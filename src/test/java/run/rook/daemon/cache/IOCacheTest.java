@@ -0,0 +1,116 @@
+package run.rook.daemon.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Test;
+
+public class IOCacheTest {
+
+	private IOCache cache;
+
+	@After
+	public void stop() {
+		cache.stop();
+	}
+
+	@Test
+	public void dispatchesInputsAndOutputsInOrder() throws Exception {
+		cache = new IOCache();
+		RecordingListener listener = new RecordingListener();
+		cache.registerListener(listener);
+		cache.start();
+
+		cache.processInput("a", "U8", new byte[] { 1 }, 1, null);
+		cache.processOutput("b", "U8", new UnsafeBuffer(new byte[] { 2 }), 1, null);
+		cache.processInput("a", "U8", new byte[] { 3 }, 1, null);
+
+		RecordingListener.Update first = listener.next();
+		assertTrue(first.input);
+		assertEquals("a", first.key.getName());
+		assertArrayEquals(new byte[] { 1 }, first.value);
+		RecordingListener.Update second = listener.next();
+		assertEquals("b", second.key.getName());
+		assertArrayEquals(new byte[] { 2 }, second.value);
+		assertArrayEquals(new byte[] { 3 }, listener.next().value);
+	}
+
+	@Test
+	public void dispatchesInEveryWaitMode() throws Exception {
+		for (IOCacheWaitMode waitMode : IOCacheWaitMode.values()) {
+			cache = new IOCache(1, IOCache.DEFAULT_MAX_VALUE_SIZE, null, waitMode);
+			RecordingListener listener = new RecordingListener();
+			cache.registerListener(listener);
+			cache.start();
+
+			cache.processInput("a", "U8", new byte[] { 1 }, 1, null);
+			cache.processInput("a", "U8", new byte[] { 2 }, 1, null);
+
+			assertArrayEquals(waitMode.name(), new byte[] { 1 }, listener.next().value);
+			assertArrayEquals(waitMode.name(), new byte[] { 2 }, listener.next().value);
+			cache.stop();
+		}
+	}
+
+	@Test
+	public void acceptsPayloadsUpToMaxValueSize() throws Exception {
+		cache = new IOCache(1, 1024);
+		RecordingListener listener = new RecordingListener();
+		cache.registerListener(listener);
+		cache.start();
+
+		byte[] large = new byte[1024];
+		large[1023] = 7;
+		cache.processInput("large", null, large, large.length, null);
+		cache.processInput("too large", null, new byte[1025], 1025, null);
+		cache.processInput("after", null, new byte[] { 1 }, 1, null);
+
+		assertArrayEquals(large, listener.next().value);
+		assertEquals("after", listener.next().key.getName());
+		assertEquals(1, cache.getRejectedCount());
+	}
+
+	@Test
+	public void publishesByIdIntoIdIndexedSlots() throws Exception {
+		cache = new IOCache();
+		RecordingListener listener = new RecordingListener();
+		cache.registerListener(listener);
+		cache.start();
+
+		IOKey key = cache.getRegistry().register("a", "U8");
+		cache.processInput(key.getId(), new byte[] { 5 }, 1, null);
+		cache.processOutput(key.getId(), new UnsafeBuffer(new byte[] { 6 }), 1, null);
+
+		assertSame(key, listener.next().key);
+		assertSame(key, listener.next().key);
+		assertArrayEquals(new byte[] { 5 }, cache.readInput(key.getId()).getValue());
+		assertArrayEquals(new byte[] { 6 }, cache.readOutput(key.getId()).getValue());
+		assertNull(cache.readInput(key.getId() + 1));
+		try {
+			cache.processInput(key.getId() + 1, new byte[] { 1 }, 1, null);
+			fail("published to an unknown id");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void getInputsReplaysStaleValuesAsASnapshot() throws Exception {
+		cache = new IOCache();
+		cache.restoreInput("a", "U8", new UnsafeBuffer(new byte[] { 1 }), 1);
+		cache.start();
+		RecordingListener listener = new RecordingListener();
+		cache.getInputs(listener);
+
+		IOValueSnapshot value = listener.nextSnapshot().getValues().get(0);
+		assertEquals("a", value.getKey().getName());
+		assertTrue(value.isStale());
+		listener.assertIdle();
+	}
+}
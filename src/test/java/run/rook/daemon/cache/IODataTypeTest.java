@@ -0,0 +1,99 @@
+package run.rook.daemon.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.Test;
+
+public class IODataTypeTest {
+
+	@Test
+	public void resolvesKnownNamesOnly() {
+		assertSame(IODataType.F64, IODataType.of("F64"));
+		assertSame(IODataType.F64, IODataType.of("f64"));
+		assertNull(IODataType.of("Float64"));
+		assertNull(IODataType.of(null));
+		assertTrue(IODataType.U16.isIntegral());
+		assertFalse(IODataType.F32.isIntegral());
+		assertFalse(IODataType.BOOL.isNumeric());
+	}
+
+	@Test
+	public void decodesLittleEndianIntegers() {
+		UnsafeBuffer value = new UnsafeBuffer(new byte[] { (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF });
+		assertEquals(-2, IODataType.I8.toLong(value, 0, 1));
+		assertEquals(0xFE, IODataType.U8.toLong(value, 0, 1));
+		assertEquals(-2, IODataType.I16.toLong(value, 0, 2));
+		assertEquals(0xFFFE, IODataType.U16.toLong(value, 0, 2));
+		assertEquals(-2, IODataType.I32.toLong(value, 0, 4));
+		assertEquals(0xFFFFFFFEL, IODataType.U32.toLong(value, 0, 4));
+		assertEquals(4294967294.0, IODataType.U32.toDouble(value, 0, 4), 0);
+	}
+
+	@Test
+	public void treatsShortValuesAsMissing() {
+		UnsafeBuffer value = new UnsafeBuffer(new byte[] { 1, 2 });
+		assertEquals(0, IODataType.I32.toLong(value, 0, 2));
+		assertTrue(Double.isNaN(IODataType.F64.toDouble(value, 0, 2)));
+		assertNull(IODataType.I32.toJson(value, 0, 2));
+	}
+
+	@Test
+	public void keepsU64AboveTheLongRange() {
+		byte[] bytes = IODataType.U64.parse("18446744073709551615");
+		UnsafeBuffer value = new UnsafeBuffer(bytes);
+		assertEquals(-1, IODataType.U64.toLong(value, 0, 8));
+		assertEquals(1.8446744073709552E19, IODataType.U64.toDouble(value, 0, 8), 0);
+		assertEquals(new BigInteger("18446744073709551615"), IODataType.U64.toJson(value, 0, 8));
+	}
+
+	@Test
+	public void writesJsonValues() {
+		assertEquals(true, IODataType.BOOL.toJson(new UnsafeBuffer(new byte[] { 2 }), 0, 1));
+		assertEquals(-2L, IODataType.I16.toJson(new UnsafeBuffer(IODataType.I16.parse("-2")), 0, 2));
+		assertEquals(1.5, IODataType.F64.toJson(new UnsafeBuffer(IODataType.F64.parse("1.5")), 0, 8));
+		assertEquals("NaN", IODataType.F32.toJson(new UnsafeBuffer(IODataType.F32.parse("NaN")), 0, 4));
+		byte[] text = "gr\u00fc\u00df".getBytes(StandardCharsets.UTF_8);
+		assertEquals("gr\u00fc\u00df", IODataType.STRING.toJson(new UnsafeBuffer(text), 0, text.length));
+	}
+
+	@Test
+	public void parsesTheTextItWrites() {
+		assertArrayEquals(new byte[] { 1 }, IODataType.BOOL.parse("true"));
+		assertArrayEquals(new byte[] { 0 }, IODataType.BOOL.parse("0"));
+		assertArrayEquals(new byte[] { 3, 0, 0, 0 }, IODataType.I32.parse("3.0"));
+		assertArrayEquals(new byte[] { (byte) 0xFF }, IODataType.U8.parse("255"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsValuesOutOfRange() {
+		IODataType.U8.parse("256");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsFractionsOfIntegers() {
+		IODataType.I32.parse("3.5");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOtherBooleans() {
+		IODataType.BOOL.parse("yes");
+	}
+
+	@Test
+	public void roundsNumbersIntoIntegralTypes() {
+		UnsafeBuffer value = new UnsafeBuffer(new byte[8]);
+		IODataType.I16.putDouble(value, 0, -2.6);
+		assertEquals(-3, IODataType.I16.toLong(value, 0, 2));
+		IODataType.F32.putDouble(value, 0, 0.25);
+		assertEquals(0.25, IODataType.F32.toDouble(value, 0, 4), 0);
+	}
+}
@@ -0,0 +1,181 @@
+package run.rook.daemon.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Test;
+
+import run.rook.daemon.metrics.IOHistogram;
+import run.rook.daemon.metrics.IOMetricsWriter;
+
+public class IOListenerQueueTest {
+
+	private IOCache cache;
+
+	@After
+	public void stop() {
+		if (cache != null) {
+			cache.stop();
+		}
+	}
+
+	@Test
+	public void blockedListenerDoesNotDelayOthers() throws Exception {
+		cache = new IOCache();
+		cache.setDispatchMode(IOCacheDispatchMode.QUEUED);
+		cache.setListenerQueueSize(8);
+		CountDownLatch release = new CountDownLatch(1);
+		BlockingListener blocked = new BlockingListener(release);
+		RecordingListener fast = new RecordingListener();
+		cache.registerListener(blocked);
+		cache.registerListener(fast);
+		cache.start();
+
+		for (int i = 0; i < 100; i++) {
+			cache.processInput("a", "U8", new byte[] { (byte) i }, 1, null);
+			assertEquals((byte) i, fast.next().value[0]);
+		}
+		assertTrue(cache.getOverflowCounts().get(blocked) > 0);
+		release.countDown();
+	}
+
+	@Test
+	public void keepsTheOverflowOfDeregisteredListeners() throws Exception {
+		cache = new IOCache();
+		cache.setDispatchMode(IOCacheDispatchMode.QUEUED);
+		cache.setListenerQueueSize(8);
+		CountDownLatch release = new CountDownLatch(1);
+		BlockingListener blocked = new BlockingListener(release);
+		RecordingListener fast = new RecordingListener();
+		cache.registerListener(blocked);
+		cache.registerListener(fast);
+		cache.start();
+
+		for (int i = 0; i < 100; i++) {
+			cache.processInput("a", "U8", new byte[] { (byte) i }, 1, null);
+			fast.next();
+		}
+		long overflow = cache.getListenerQueueOverflowCount();
+		assertTrue(overflow > 0);
+		cache.deregisterListener(blocked);
+		release.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (cache.getOverflowCounts().containsKey(blocked) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertFalse(cache.getOverflowCounts().containsKey(blocked));
+		assertEquals(overflow, cache.getListenerQueueOverflowCount());
+	}
+
+	@Test
+	public void timesTheListenerRatherThanItsQueue() throws Exception {
+		cache = new IOCache();
+		cache.setDispatchMode(IOCacheDispatchMode.QUEUED);
+		RecordingListener listener = new RecordingListener();
+		cache.registerListener(listener);
+		cache.start();
+
+		for (int i = 0; i < 10; i++) {
+			cache.processInput("a", "U8", new byte[] { (byte) i }, 1, null);
+			listener.next();
+		}
+		// the call is recorded after it returns
+		long deadline = System.currentTimeMillis() + 5000;
+		while (cache.getListenerTime(listener).getCount() < 10 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(10, cache.getListenerTime(listener).getCount());
+		IOMetricsWriter writer = new IOMetricsWriter();
+		cache.writeMetrics(writer);
+		assertTrue(writer.toString().contains("listener=\"RecordingListener\""));
+		assertFalse(writer.toString().contains("IOListenerQueue"));
+	}
+
+	@Test
+	public void deliversInOrderFromOneThreadAtATime() throws Exception {
+		cache = new IOCache();
+		cache.setDispatchMode(IOCacheDispatchMode.QUEUED);
+		RecordingListener listener = new RecordingListener();
+		cache.registerListener(listener);
+		cache.start();
+
+		for (int i = 0; i < 500; i++) {
+			cache.processInput("a", "I32", new byte[] { (byte) i, (byte) (i >> 8), 0, 0 }, 4, null);
+		}
+		for (int i = 0; i < 500; i++) {
+			byte[] value = listener.next().value;
+			assertEquals(i, (value[0] & 0xFF) | (value[1] & 0xFF) << 8);
+		}
+		assertEquals(Long.valueOf(0), cache.getOverflowCounts().get(listener));
+	}
+
+	@Test
+	public void deliversValuesLargerThanASlot() throws Exception {
+		cache = new IOCache();
+		cache.setDispatchMode(IOCacheDispatchMode.QUEUED);
+		RecordingListener listener = new RecordingListener();
+		cache.registerListener(listener);
+		cache.start();
+
+		int[] lengths = { 8, 1000, IOListenerQueue.SLOT_SIZE, IOListenerQueue.SLOT_SIZE + 1, IOCache.DEFAULT_MAX_VALUE_SIZE, 3 };
+		for (int i = 0; i < lengths.length; i++) {
+			byte[] value = new byte[lengths[i]];
+			Arrays.fill(value, (byte) i);
+			cache.processInput("a", null, value, value.length, null);
+		}
+		for (int i = 0; i < lengths.length; i++) {
+			byte[] expected = new byte[lengths[i]];
+			Arrays.fill(expected, (byte) i);
+			assertArrayEquals(expected, listener.next().value);
+		}
+	}
+
+	@Test
+	public void skipsASlotThatCouldNotBeFilled() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		// drains on the calling thread
+		IOListenerQueue queue = new IOListenerQueue(listener, new IOHistogram(), 8, 16, Runnable::run, false);
+		IOKey key = new IOKey(0, "a", null);
+		try {
+			queue.onInput(key, new UnsafeBuffer(new byte[17]), 17, null);
+			fail("queued a value larger than the max value size");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		queue.onInput(key, new UnsafeBuffer(new byte[] { 1 }), 1, null);
+
+		assertArrayEquals(new byte[] { 1 }, listener.next().value);
+		listener.assertIdle();
+	}
+
+	private static class BlockingListener implements IOCacheListener {
+		private final CountDownLatch release;
+
+		BlockingListener(CountDownLatch release) {
+			this.release = release;
+		}
+
+		@Override
+		public void onInput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		}
+	}
+}
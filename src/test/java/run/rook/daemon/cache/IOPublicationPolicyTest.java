@@ -0,0 +1,116 @@
+package run.rook.daemon.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.Test;
+
+public class IOPublicationPolicyTest {
+
+	@Test
+	public void alwaysAcceptsUnchangedValues() {
+		IOValue current = value("U8", 1);
+		assertTrue(IOPublicationPolicy.ALWAYS.accept(current, IODataType.U8, bytes(1), 1));
+	}
+
+	@Test
+	public void changesOnlyComparesTheBytes() {
+		IOPublicationPolicy policy = IOPublicationPolicy.CHANGES_ONLY;
+		IOValue current = new IOValue();
+		current.setType("blob");
+		assertTrue("no value yet", policy.accept(current, null, bytes(1, 2), 2));
+		current.setValue(bytes(1, 2), 2);
+		assertFalse(policy.accept(current, null, bytes(1, 2), 2));
+		assertTrue(policy.accept(current, null, bytes(1, 3), 2));
+		assertTrue(policy.accept(current, null, bytes(1), 1));
+	}
+
+	@Test
+	public void acceptsTheFirstUpdateOfARestoredValue() {
+		IOValue current = new IOValue();
+		current.setType("blob");
+		current.setStaleValue(bytes(1), 1);
+		assertTrue(IOPublicationPolicy.CHANGES_ONLY.accept(current, null, bytes(1), 1));
+	}
+
+	@Test
+	public void comparesNumbersAgainstTheLastDispatchedValue() {
+		IOPublicationPolicy policy = new IOPublicationPolicy(true, 0.5, 0);
+		IOValue current = new IOValue();
+		current.setType("F64");
+		assertTrue(policy.accept(current, IODataType.F64, f64(10.0), 8));
+		current.setValue(f64(10.0), 8);
+		assertFalse(policy.accept(current, IODataType.F64, f64(10.4), 8));
+		current.setValue(f64(10.4), 8);
+		// drift adds up against the last dispatched value, not the last update
+		assertTrue(policy.accept(current, IODataType.F64, f64(10.6), 8));
+		current.setValue(f64(10.6), 8);
+		assertFalse(policy.accept(current, IODataType.F64, f64(10.2), 8));
+	}
+
+	@Test
+	public void dispatchesAHeartbeatOfUnchangedValues() throws InterruptedException {
+		IOPublicationPolicy policy = new IOPublicationPolicy(true, 0, 20);
+		IOValue current = new IOValue();
+		current.setType("U8");
+		assertTrue(policy.accept(current, IODataType.U8, bytes(1), 1));
+		current.setValue(bytes(1), 1);
+		assertFalse(policy.accept(current, IODataType.U8, bytes(1), 1));
+		Thread.sleep(30);
+		assertTrue(policy.accept(current, IODataType.U8, bytes(1), 1));
+		assertFalse(policy.accept(current, IODataType.U8, bytes(1), 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNegativeDeadbands() {
+		new IOPublicationPolicy(true, -1, 0);
+	}
+
+	@Test
+	public void holdsBackUnchangedUpdatesInTheCache() throws Exception {
+		IOCache cache = new IOCache();
+		RecordingListener listener = new RecordingListener();
+		cache.registerListener(listener);
+		cache.setPublicationPolicy("steady", IOPublicationPolicy.CHANGES_ONLY);
+		cache.start();
+		try {
+			cache.processInput("steady", "U8", new byte[] { 1 }, 1, null);
+			cache.processInput("steady", "U8", new byte[] { 1 }, 1, null);
+			cache.processInput("steady", "U8", new byte[] { 2 }, 1, null);
+			cache.processInput("other", "U8", new byte[] { 1 }, 1, null);
+			cache.processInput("other", "U8", new byte[] { 1 }, 1, null);
+
+			assertArrayEquals(new byte[] { 1 }, listener.next().value);
+			assertArrayEquals(new byte[] { 2 }, listener.next().value);
+			assertEquals("other", listener.next().key.getName());
+			assertEquals("other", listener.next().key.getName());
+			listener.assertIdle();
+		} finally {
+			cache.stop();
+		}
+	}
+
+	private static IOValue value(String type, int value) {
+		IOValue current = new IOValue();
+		current.setType(type);
+		current.setValue(bytes(value), 1);
+		return current;
+	}
+
+	private static UnsafeBuffer bytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte) values[i];
+		}
+		return new UnsafeBuffer(bytes);
+	}
+
+	private static UnsafeBuffer f64(double value) {
+		UnsafeBuffer buffer = new UnsafeBuffer(new byte[8]);
+		IODataType.F64.putDouble(buffer, 0, value);
+		return buffer;
+	}
+}
@@ -0,0 +1,65 @@
+package run.rook.daemon.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class IORegistryTest {
+
+	private final IORegistry registry = new IORegistry();
+
+	@Test
+	public void rejectsNamesLongerThanTheBinaryProtocolAllows() {
+		char[] name = new char[IORegistry.MAX_NAME_LENGTH];
+		Arrays.fill(name, 'a');
+		registry.register(new String(name), null);
+		try {
+			registry.register(new String(name) + "a", null);
+			fail("registered a name of " + (name.length + 1) + " bytes");
+		} catch (IllegalArgumentException e) {
+			assertEquals(1, registry.size());
+		}
+		// 128 two byte characters are 256 bytes of UTF-8
+		char[] dataType = new char[128];
+		Arrays.fill(dataType, '\u00e9');
+		try {
+			registry.register("a", new String(dataType));
+			fail("registered a data type of 256 bytes");
+		} catch (IllegalArgumentException e) {
+			assertNull(registry.find("a", new String(dataType)));
+		}
+		assertNull(IORegistry.validate("a", new String(dataType, 0, 127)));
+	}
+
+	@Test
+	public void cacheCountsRejectedNames() throws Exception {
+		IOCache cache = new IOCache();
+		RecordingListener listener = new RecordingListener();
+		cache.registerListener(listener);
+		cache.start();
+		try {
+			cache.processInput("a", new String(new char[256]), new byte[] { 1 }, 1, null);
+			cache.processInput("b", "U8", new byte[] { 2 }, 1, null);
+			assertEquals("b", listener.next().key.getName());
+			assertEquals(1, cache.getRejectedCount());
+		} finally {
+			cache.stop();
+		}
+	}
+
+	@Test
+	public void returnsTheSameKeyForTheSamePair() {
+		IOKey a = registry.register("a", "U8");
+		IOKey b = registry.register("a", "I32");
+		assertSame(a, registry.register("a", "U8"));
+		assertEquals(0, a.getId());
+		assertEquals(1, b.getId());
+		assertSame(b, registry.get(1));
+		assertEquals(2, registry.find("a").length);
+	}
+}
@@ -0,0 +1,46 @@
+package run.rook.daemon.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class IOSubscriptionIndexTest {
+
+	private final IOSubscriptionIndex index = new IOSubscriptionIndex();
+	private final IOCacheListener a = new RecordingListener();
+	private final IOCacheListener b = new RecordingListener();
+	private final IOKey joint = new IOKey(0, "arm/joint1", "F64");
+	private final IOKey other = new IOKey(1, "gripper", "F64");
+
+	@Test
+	public void resolvesOnlySubscribedListeners() {
+		index.subscribe(a, "arm/joint1");
+		index.subscribe(b, null);
+
+		assertArrayEquals(new IOCacheListener[] { b, a }, index.get(joint));
+		assertArrayEquals(new IOCacheListener[] { b }, index.get(other));
+	}
+
+	@Test
+	public void listsListenersMatchingSeveralWaysOnce() {
+		index.subscribe(a, "arm/joint1");
+		index.subscribe(a, "arm/#");
+		index.subscribe(a, null);
+
+		assertEquals(1, index.get(joint).length);
+	}
+
+	@Test
+	public void invalidatesCachedListenersOnChanges() {
+		index.subscribe(a, "arm/joint1");
+		assertEquals(1, index.get(joint).length);
+
+		index.subscribe(b, "arm/+");
+		assertEquals(2, index.get(joint).length);
+		index.unsubscribe(a, "arm/joint1");
+		assertArrayEquals(new IOCacheListener[] { b }, index.get(joint));
+		index.remove(b);
+		assertEquals(0, index.get(joint).length);
+	}
+}
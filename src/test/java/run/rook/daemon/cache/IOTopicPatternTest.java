@@ -0,0 +1,61 @@
+package run.rook.daemon.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class IOTopicPatternTest {
+
+	@Test
+	public void recognizesWildcardsOnlyAsWholeLevels() {
+		assertTrue(IOTopicPattern.isPattern("arm/+"));
+		assertTrue(IOTopicPattern.isPattern("#"));
+		assertTrue(IOTopicPattern.isPattern("+/joint1/#"));
+		assertFalse(IOTopicPattern.isPattern("arm/joint1"));
+		assertFalse(IOTopicPattern.isPattern("arm/a+b"));
+		assertFalse(IOTopicPattern.isPattern("arm/#/angle"));
+		assertFalse(IOTopicPattern.isPattern("arm#"));
+	}
+
+	@Test
+	public void matchesOneLevelWithPlus() {
+		assertTrue(IOTopicPattern.matches("arm/+", "arm/joint1"));
+		assertTrue(IOTopicPattern.matches("+/joint1", "arm/joint1"));
+		assertTrue(IOTopicPattern.matches("arm/+", "arm/"));
+		assertFalse(IOTopicPattern.matches("arm/+", "arm"));
+		assertFalse(IOTopicPattern.matches("arm/+", "arm/joint1/angle"));
+	}
+
+	@Test
+	public void matchesAnyLevelsWithHash() {
+		assertTrue(IOTopicPattern.matches("arm/#", "arm"));
+		assertTrue(IOTopicPattern.matches("arm/#", "arm/joint1"));
+		assertTrue(IOTopicPattern.matches("arm/#", "arm/joint1/angle"));
+		assertTrue(IOTopicPattern.matches("#", "gripper"));
+		assertFalse(IOTopicPattern.matches("arm/#", "army"));
+		assertFalse(IOTopicPattern.matches("arm/#", "gripper"));
+	}
+
+	@Test
+	public void ordersPatternsMostSpecificFirst() {
+		List<String> patterns = Arrays.asList("#", "arm/#", "+/joint1/angle", "arm/+/#", "arm/+/angle",
+				"arm/joint1/#", "arm/joint1/+");
+		patterns.sort(IOTopicPattern::compareSpecificity);
+		assertEquals(Arrays.asList("arm/joint1/+", "arm/joint1/#", "arm/+/angle", "arm/+/#", "arm/#",
+				"+/joint1/angle", "#"), patterns);
+	}
+
+	@Test
+	public void ordersEquallySpecificPatternsByText() {
+		assertTrue(IOTopicPattern.compareSpecificity("a/+", "b/+") < 0);
+		assertTrue(IOTopicPattern.compareSpecificity("b/+", "a/+") > 0);
+		assertEquals(0, IOTopicPattern.compareSpecificity("a/+", "a/+"));
+		// a pattern that ends matches fewer names than one that goes on with "#"
+		assertTrue(IOTopicPattern.compareSpecificity("a/+", "a/+/#") < 0);
+	}
+}
@@ -0,0 +1,82 @@
+package run.rook.daemon.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class IOTopicTrieTest {
+
+	private final IOTopicTrie trie = new IOTopicTrie();
+	private final IOCacheListener a = new RecordingListener();
+	private final IOCacheListener b = new RecordingListener();
+	private final IOCacheListener c = new RecordingListener();
+
+	@Test
+	public void matchesNamesAndPatterns() {
+		trie.add("arm/joint1", a);
+		trie.add("arm/+", b);
+		trie.add("arm/#", c);
+
+		assertEquals(set(c, a, b), match("arm/joint1"));
+		assertEquals(set(c, b), match("arm/joint2"));
+		// "#" matches its parent level
+		assertEquals(set(c), match("arm"));
+		assertEquals(set(c), match("arm/joint1/angle"));
+		assertEquals(set(), match("gripper"));
+	}
+
+	@Test
+	public void matchesPlusAtAnyLevel() {
+		trie.add("+/joint1", a);
+		trie.add("+/+/angle", b);
+
+		assertEquals(set(a), match("arm/joint1"));
+		assertEquals(set(b), match("arm/joint1/angle"));
+		assertEquals(set(), match("arm/joint1/speed"));
+	}
+
+	@Test
+	public void removesOneSubscription() {
+		trie.add("arm/joint1", a);
+		trie.add("arm/#", a);
+		trie.add("arm/joint1", b);
+
+		trie.remove("arm/joint1", a);
+		assertEquals(set(a, b), match("arm/joint1"));
+		trie.remove("arm/#", a);
+		assertEquals(set(b), match("arm/joint1"));
+		assertFalse(trie.contains(a));
+		// removing what was never added is ignored
+		trie.remove("arm/joint2", b);
+		assertTrue(trie.contains(b));
+	}
+
+	@Test
+	public void removesEverySubscriptionOfAListener() {
+		trie.add("arm/joint1", a);
+		trie.add("+/joint1", a);
+		trie.add("#", a);
+		trie.add("arm/joint1", b);
+
+		trie.removeAll(a);
+		assertFalse(trie.contains(a));
+		assertEquals(set(b), match("arm/joint1"));
+	}
+
+	private Set<IOCacheListener> match(String name) {
+		Set<IOCacheListener> listeners = new LinkedHashSet<>();
+		trie.match(name, listeners);
+		return listeners;
+	}
+
+	private static Set<IOCacheListener> set(IOCacheListener... listeners) {
+		return listeners.length == 0 ? Collections.emptySet() : new LinkedHashSet<>(Arrays.asList(listeners));
+	}
+}
@@ -0,0 +1,71 @@
+package run.rook.daemon.cache;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.agrona.DirectBuffer;
+
+class RecordingListener implements IOCacheListener {
+
+	static class Update {
+		final boolean input;
+		final IOKey key;
+		final byte[] value;
+		final Thread thread;
+
+		Update(boolean input, IOKey key, DirectBuffer value, int valueLength) {
+			this.input = input;
+			this.key = key;
+			this.value = new byte[valueLength];
+			value.getBytes(0, this.value);
+			this.thread = Thread.currentThread();
+		}
+	}
+
+	final BlockingQueue<Update> updates = new LinkedBlockingQueue<>();
+	final BlockingQueue<IOSnapshot> snapshots = new LinkedBlockingQueue<>();
+
+	@Override
+	public void onInput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		updates.add(new Update(true, key, value, valueLength));
+	}
+
+	@Override
+	public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		updates.add(new Update(false, key, value, valueLength));
+	}
+
+	@Override
+	public void onInputSnapshot(IOSnapshot snapshot, Object source) {
+		snapshots.add(snapshot);
+	}
+
+	@Override
+	public void onOutputSnapshot(IOSnapshot snapshot, Object source) {
+		snapshots.add(snapshot);
+	}
+
+	Update next() throws InterruptedException {
+		Update update = updates.poll(5, TimeUnit.SECONDS);
+		if (update == null) {
+			throw new AssertionError("No update within 5s");
+		}
+		return update;
+	}
+
+	IOSnapshot nextSnapshot() throws InterruptedException {
+		IOSnapshot snapshot = snapshots.poll(5, TimeUnit.SECONDS);
+		if (snapshot == null) {
+			throw new AssertionError("No snapshot within 5s");
+		}
+		return snapshot;
+	}
+
+	void assertIdle() throws InterruptedException {
+		Update update = updates.poll(100, TimeUnit.MILLISECONDS);
+		if (update != null) {
+			throw new AssertionError("Unexpected update of " + update.key.getName());
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package run.rook.daemon.checkpoint;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheSnapshot;
+import run.rook.daemon.cache.IOValueSnapshot;
+
+public class IOCheckpointTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void restoresValuesAsStale() throws Exception {
+		File file = new File(folder.getRoot(), "values.checkpoint");
+		IOCache before = new IOCache();
+		before.restoreInput("arm/joint1", "F64", new UnsafeBuffer(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }), 8);
+		before.restoreOutput("gripper", null, new UnsafeBuffer(new byte[] { 9 }), 1);
+		new IOCheckpoint(file).write(before);
+
+		IOCache after = new IOCache();
+		assertEquals(2, new IOCheckpoint(file).restore(after));
+		IOCacheSnapshot snapshot = after.read();
+		IOValueSnapshot input = snapshot.getInputs().get(0);
+		assertEquals("arm/joint1", input.getKey().getName());
+		assertEquals("F64", input.getKey().getDataType());
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }, input.getValue());
+		assertTrue(input.isStale());
+		IOValueSnapshot output = snapshot.getOutputs().get(0);
+		assertNull(output.getKey().getDataType());
+		assertTrue(output.isStale());
+	}
+
+	@Test
+	public void restoresNothingWithoutAFile() throws Exception {
+		IOCache cache = new IOCache();
+		assertEquals(0, new IOCheckpoint(new File(folder.getRoot(), "missing")).restore(cache));
+		assertTrue(cache.read().getInputs().isEmpty());
+	}
+}
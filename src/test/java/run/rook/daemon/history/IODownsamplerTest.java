@@ -0,0 +1,59 @@
+package run.rook.daemon.history;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class IODownsamplerTest {
+
+	private final long[] timestamps = new long[1000];
+	private final double[] values = new double[1000];
+
+	public IODownsamplerTest() {
+		for (int i = 0; i < timestamps.length; i++) {
+			timestamps[i] = i * 10;
+			values[i] = Math.sin(i / 50.0);
+		}
+		values[537] = 100;
+	}
+
+	@Test
+	public void keepsEverySampleBelowMaxPoints() {
+		assertArrayEquals(new int[] { 0, 1, 2 }, IODownsampler.select(timestamps, values, 3, 10, IODownsampling.MINMAX));
+		assertEquals(1000, IODownsampler.select(timestamps, values, 1000, 0, IODownsampling.LTTB).length);
+	}
+
+	@Test
+	public void minMaxNeverLosesASpike() {
+		int[] selected = IODownsampler.select(timestamps, values, 1000, 20, IODownsampling.MINMAX);
+		assertTrue(selected.length <= 20);
+		assertTrue(Arrays.stream(selected).anyMatch(i -> i == 537));
+		assertSorted(selected);
+	}
+
+	@Test
+	public void lttbKeepsTheEndsAndTheSpike() {
+		int[] selected = IODownsampler.select(timestamps, values, 1000, 50, IODownsampling.LTTB);
+		assertEquals(50, selected.length);
+		assertEquals(0, selected[0]);
+		assertEquals(999, selected[49]);
+		assertTrue(Arrays.stream(selected).anyMatch(i -> i == 537));
+		assertSorted(selected);
+	}
+
+	@Test
+	public void spacesValuesThatAreNotNumericEvenly() {
+		assertArrayEquals(new int[] { 0, 333, 666, 999 },
+				IODownsampler.select(timestamps, null, 1000, 4, IODownsampling.MINMAX));
+	}
+
+	private static void assertSorted(int[] indices) {
+		for (int i = 1; i < indices.length; i++) {
+			assertTrue(indices[i - 1] < indices[i]);
+		}
+	}
+}
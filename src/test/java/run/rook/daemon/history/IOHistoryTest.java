@@ -0,0 +1,69 @@
+package run.rook.daemon.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.Test;
+
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IORegistry;
+
+public class IOHistoryTest {
+
+	private final IORegistry registry = new IORegistry();
+
+	@Test
+	public void keepsTheLastValuesPerIo() {
+		IOHistory history = new IOHistory(4);
+		IOKey key = registry.register("a", "I32");
+		UnsafeBuffer value = new UnsafeBuffer(new byte[4]);
+		for (int i = 0; i < 10; i++) {
+			value.putInt(0, i);
+			history.onInput(key, value, 4, null);
+		}
+
+		List<IOHistorySample> samples = history.queryInput(key, 0, Long.MAX_VALUE, 0, IODownsampling.MINMAX);
+		assertEquals(4, samples.size());
+		assertEquals(6, new UnsafeBuffer(samples.get(0).getValue()).getInt(0));
+		assertEquals(9, new UnsafeBuffer(samples.get(3).getValue()).getInt(0));
+		assertTrue(history.queryOutput(key, 0, Long.MAX_VALUE, 0, IODownsampling.MINMAX).isEmpty());
+	}
+
+	@Test
+	public void keepsTheHistoryWhenValuesGrow() {
+		IOHistory history = new IOHistory(8);
+		IOKey key = registry.register("status", "STRING");
+		history.onInput(key, new UnsafeBuffer("ok".getBytes(StandardCharsets.UTF_8)), 2, null);
+		byte[] longer = "motor stalled on joint 3".getBytes(StandardCharsets.UTF_8);
+		history.onInput(key, new UnsafeBuffer(longer), longer.length, null);
+
+		List<IOHistorySample> samples = history.queryInput(key, 0, Long.MAX_VALUE, 0, IODownsampling.MINMAX);
+		assertEquals(2, samples.size());
+		assertEquals("ok", new String(samples.get(0).getValue(), StandardCharsets.UTF_8));
+		assertEquals("motor stalled on joint 3", new String(samples.get(1).getValue(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void recordsOnlyNamesWithACapacity() {
+		IOHistory history = new IOHistory(0);
+		history.setCapacity("b", 2);
+		IOKey a = registry.register("a", "U8");
+		IOKey b = registry.register("b", "U8");
+		UnsafeBuffer value = new UnsafeBuffer(new byte[] { 1 });
+		history.onOutput(a, value, 1, null);
+		history.onOutput(b, value, 1, null);
+
+		assertTrue(history.queryOutput(a, 0, Long.MAX_VALUE, 0, IODownsampling.MINMAX).isEmpty());
+		assertEquals(1, history.queryOutput(b, 0, Long.MAX_VALUE, 0, IODownsampling.MINMAX).size());
+	}
+
+	@Test
+	public void resolvesRelativeTimes() {
+		assertEquals(70000, IOHistory.resolveTime(-30000, 100000));
+		assertEquals(5, IOHistory.resolveTime(5, 100000));
+	}
+}
@@ -0,0 +1,125 @@
+package run.rook.daemon.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.agrona.DirectBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import run.rook.daemon.cache.IOCache;
+
+public class IOIpcTransportTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private IOCache cache;
+	private IOIpcTransport transport;
+	private File file;
+
+	@Before
+	public void start() throws IOException {
+		cache = new IOCache();
+		cache.start();
+		file = new File(folder.getRoot(), "rook.ipc");
+		transport = new IOIpcTransport(file, 64 * 1024, cache);
+		transport.start();
+	}
+
+	@After
+	public void stop() {
+		transport.stop();
+		cache.stop();
+	}
+
+	@Test
+	public void roundTripsUpdatesThroughTheCache() throws Exception {
+		IOIpcClient sender = new IOIpcClient(file);
+		IOIpcClient receiver = new IOIpcClient(file);
+		IOIpcKey speed = sender.key("motor/speed", "U8");
+		IOIpcKey target = sender.key("motor/target", "U8");
+
+		int count = 100;
+		for (int i = 0; i < count; i++) {
+			assertTrue(sender.sendInput(speed, new byte[] { (byte) i }));
+			assertTrue(sender.sendOutput(target, new byte[] { (byte) i }));
+		}
+		Recorder received = poll(receiver, 2 * count);
+		for (int i = 0; i < count; i++) {
+			assertEquals("i motor/speed U8 " + i, received.updates.get(2 * i));
+			assertEquals("o motor/target U8 " + i, received.updates.get(2 * i + 1));
+		}
+		// senders see their own updates too
+		assertEquals(2 * count, poll(sender, 2 * count).updates.size());
+		assertEquals(2 * count, transport.getReceivedCount());
+		assertEquals(0, receiver.getLappedCount());
+	}
+
+	@Test
+	public void broadcastsUpdatesOfOtherSources() throws Exception {
+		IOIpcClient client = new IOIpcClient(file);
+		cache.processInput("web", "U8", new byte[] { 7 }, 1, null);
+		assertEquals("i web U8 7", poll(client, 1).updates.get(0));
+		assertTrue(client.isDaemonAlive(5000));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsDataTypesThatAreTooLong() throws Exception {
+		IOIpcClient client = new IOIpcClient(file);
+		char[] dataType = new char[256];
+		Arrays.fill(dataType, 't');
+		client.key("ok", new String(dataType));
+	}
+
+	@Test
+	public void rejectsFilesThatAreNotReady() throws IOException {
+		File other = folder.newFile("other.ipc");
+		try (RandomAccessFile raf = new RandomAccessFile(other, "rw")) {
+			raf.setLength(4096);
+		}
+		try {
+			new IOIpcClient(other);
+			throw new AssertionError("connected to an empty file");
+		} catch (IOException e) {
+			assertFalse(e.getMessage().isEmpty());
+		}
+	}
+
+	private static Recorder poll(IOIpcClient client, int count) throws InterruptedException {
+		Recorder recorder = new Recorder();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (recorder.updates.size() < count && System.currentTimeMillis() < deadline) {
+			if (client.poll(recorder, 64) == 0) {
+				Thread.sleep(1);
+			}
+		}
+		assertEquals(count, recorder.updates.size());
+		return recorder;
+	}
+
+	private static class Recorder implements IOIpcHandler {
+		final List<String> updates = new ArrayList<>();
+
+		@Override
+		public void onInput(IOIpcKey key, DirectBuffer value, int valueLength) {
+			updates.add("i " + key.getName() + " " + key.getDataType() + " " + value.getByte(0));
+		}
+
+		@Override
+		public void onOutput(IOIpcKey key, DirectBuffer value, int valueLength) {
+			updates.add("o " + key.getName() + " " + key.getDataType() + " " + value.getByte(0));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package run.rook.daemon.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheListener;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IORegistry;
+
+public class IOJournalReplayTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replaysRecordsIntoTheCache() throws Exception {
+		File dir = folder.getRoot();
+		IORegistry registry = new IORegistry();
+		IOJournalWriter writer = new IOJournalWriter(dir, 0, 4096);
+		IOKey input = registry.register("a", "U8");
+		IOKey output = registry.register("b", null);
+		for (int i = 0; i < 3; i++) {
+			writer.onInput(input, new UnsafeBuffer(new byte[] { (byte) i }), 1, null, true);
+		}
+		writer.onOutput(output, new UnsafeBuffer(new byte[] { 9 }), 1, null, true);
+
+		IOCache cache = new IOCache();
+		BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		cache.registerListener(new IOCacheListener() {
+			@Override
+			public void onInput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+				received.add("input " + key.getName() + " " + value.getByte(0));
+			}
+
+			@Override
+			public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+				received.add("output " + key.getName() + " " + key.getDataType() + " " + value.getByte(0));
+			}
+		});
+		cache.start();
+		try {
+			IOJournalReplay replay = new IOJournalReplay(new IOJournalReader(dir), cache,
+					IOJournalReplay.AS_FAST_AS_POSSIBLE, 0, Long.MAX_VALUE);
+			replay.run();
+
+			assertEquals(4, replay.getCount());
+			assertEquals("input a 0", received.poll(5, TimeUnit.SECONDS));
+			assertEquals("input a 1", received.poll(5, TimeUnit.SECONDS));
+			assertEquals("input a 2", received.poll(5, TimeUnit.SECONDS));
+			assertEquals("output b null 9", received.poll(5, TimeUnit.SECONDS));
+			assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+			assertTrue(replay.getRate() > 0);
+		} finally {
+			cache.stop();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package run.rook.daemon.journal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IORegistry;
+import run.rook.daemon.cache.IOSourceKind;
+
+public class IOJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final IORegistry registry = new IORegistry();
+
+	@Test
+	public void readsBackRecordsAcrossSegments() throws Exception {
+		File dir = folder.getRoot();
+		IOJournalWriter writer = new IOJournalWriter(dir, 0, 256);
+		IOKey input = registry.register("arm/joint1", "I32");
+		IOKey output = registry.register("gripper", null);
+		UnsafeBuffer value = new UnsafeBuffer(new byte[4]);
+		for (int i = 0; i < 20; i++) {
+			value.putInt(0, i);
+			writer.onInput(input, value, 4, null, true);
+			writer.onOutput(output, value, 1, null, true);
+		}
+		assertTrue(dir.list().length > 1);
+
+		List<String> records = new ArrayList<>();
+		List<byte[]> values = new ArrayList<>();
+		long count = new IOJournalReader(dir).read(0, Long.MAX_VALUE, record -> {
+			records.add((record.isInput() ? "input " : "output ") + record.getName() + " " + record.getDataType());
+			values.add(record.copyValue());
+			assertEquals(IOSourceKind.of(null), record.getSourceKind());
+		});
+
+		assertEquals(40, count);
+		assertEquals("input arm/joint1 I32", records.get(0));
+		assertEquals("output gripper null", records.get(1));
+		assertEquals(19, new UnsafeBuffer(values.get(38)).getInt(0));
+		assertArrayEquals(new byte[] { 19 }, values.get(39));
+	}
+
+	@Test
+	public void skipsRecordsOutsideTheRange() throws Exception {
+		File dir = folder.getRoot();
+		IOJournalWriter writer = new IOJournalWriter(dir, 0, 4096);
+		writer.onInput(registry.register("a", "U8"), new UnsafeBuffer(new byte[] { 1 }), 1, null, true);
+
+		long now = System.currentTimeMillis();
+		assertEquals(0, new IOJournalReader(dir).read(now + 60000, Long.MAX_VALUE, record -> {
+		}));
+		assertEquals(1, new IOJournalReader(dir).read(now - 60000, now + 60000, record -> {
+		}));
+	}
+
+	@Test
+	public void neverAppendsToSegmentsOfAnEarlierRun() throws Exception {
+		File dir = folder.getRoot();
+		IOKey key = registry.register("a", "U8");
+		new IOJournalWriter(dir, 0, 4096).onInput(key, new UnsafeBuffer(new byte[] { 1 }), 1, null, true);
+		new IOJournalWriter(dir, 0, 4096).onInput(key, new UnsafeBuffer(new byte[] { 2 }), 1, null, true);
+
+		assertEquals(2, dir.list().length);
+		assertEquals(2, new IOJournalReader(dir).read(0, Long.MAX_VALUE, record -> {
+		}));
+	}
+
+	@Test
+	public void doesNotJournalReplayedRecords() throws Exception {
+		File dir = folder.getRoot();
+		IOJournalWriter writer = new IOJournalWriter(dir, 0, 4096);
+		IOKey key = registry.register("a", "U8");
+		IOJournalReplay replay = new IOJournalReplay(new IOJournalReader(dir), null, 1, 0, Long.MAX_VALUE);
+		writer.onInput(key, new UnsafeBuffer(new byte[] { 1 }), 1, replay, true);
+		writer.onInput(key, new UnsafeBuffer(new byte[] { 2 }), 1, null, true);
+
+		List<byte[]> values = new ArrayList<>();
+		assertEquals(1, new IOJournalReader(dir).read(0, Long.MAX_VALUE, record -> values.add(record.copyValue())));
+		assertArrayEquals(new byte[] { 2 }, values.get(0));
+	}
+}
@@ -0,0 +1,376 @@
+package run.rook.daemon.mqtt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.agrona.DirectBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheListener;
+import run.rook.daemon.cache.IOKey;
+
+public class IOMqttBrokerTest {
+
+	private IOCache cache;
+	private IOMqttBroker broker;
+	private final List<Client> clients = new ArrayList<>();
+
+	@Before
+	public void start() throws IOException {
+		cache = new IOCache();
+		cache.start();
+		broker = new IOMqttBroker(0, cache);
+		broker.start();
+	}
+
+	@After
+	public void stop() throws IOException {
+		for (Client client : clients) {
+			client.socket.close();
+		}
+		broker.stop();
+		cache.stop();
+	}
+
+	@Test
+	public void acceptsConnectAndRejectsUnknownProtocols() throws IOException {
+		Client client = connect("a", 0);
+		assertEquals(1, broker.getSessionCount());
+
+		Client old = client();
+		old.send(IOMqttPackets.CONNECT, 0, connectBody("MQTT", 3, "b", 0));
+		Packet connack = old.read();
+		assertEquals(IOMqttPackets.CONNACK, connack.type);
+		assertEquals(IOMqttPackets.CONNACK_UNACCEPTABLE_PROTOCOL, connack.body[1]);
+		old.assertClosed();
+
+		client.send(IOMqttPackets.PINGREQ, 0, new byte[0]);
+		assertEquals(IOMqttPackets.PINGRESP, client.read().type);
+	}
+
+	@Test
+	public void forwardsPublishesToMatchingSubscriptions() throws IOException {
+		Client levels = connect("levels", 0);
+		levels.subscribe(1, "sensors/+/temp");
+		Client all = connect("all", 0);
+		all.subscribe(2, "sensors/#");
+		Client publisher = connect("publisher", 0);
+
+		publisher.publish("sensors/kitchen/temp", "21");
+		publisher.publish("sensors/kitchen/humidity", "40");
+
+		levels.assertPublish("sensors/kitchen/temp", "21");
+		all.assertPublish("sensors/kitchen/temp", "21");
+		all.assertPublish("sensors/kitchen/humidity", "40");
+		levels.assertNothing();
+	}
+
+	@Test
+	public void rejectsInvalidFilters() throws IOException {
+		Client client = connect("a", 0);
+		Packet suback = client.subscribe(7, "a/#/b", "a/+");
+		assertArrayEquals(new byte[] { 0, 7, (byte) IOMqttPackets.SUBACK_FAILURE, 0 }, suback.body);
+	}
+
+	@Test
+	public void acknowledgesQos1AndSendsRetainedMessages() throws IOException {
+		Client publisher = connect("publisher", 0);
+		publisher.send(IOMqttPackets.PUBLISH, 0x02 | 0x01, publishBody("state", 42, "on"));
+		Packet puback = publisher.read();
+		assertEquals(IOMqttPackets.PUBACK, puback.type);
+		assertArrayEquals(new byte[] { 0, 42 }, puback.body);
+
+		Client late = connect("late", 0);
+		late.subscribe(1, "state");
+		Packet retained = late.read();
+		assertEquals(IOMqttPackets.PUBLISH, retained.type);
+		assertEquals(1, retained.flags & 0x01);
+	}
+
+	@Test
+	public void passesRookTopicsToTheCacheAndBack() throws Exception {
+		Recorder recorder = new Recorder();
+		cache.registerListener(recorder);
+		Client publisher = connect("publisher", 0);
+		publisher.publish("rook/io/i/arm/U8", new byte[] { 5 });
+		assertEquals("arm=5", recorder.updates.poll(5, TimeUnit.SECONDS));
+
+		Client subscriber = connect("subscriber", 0);
+		subscriber.subscribe(1, "rook/io/o/+/+");
+		for (int i = 0; i < 3; i++) {
+			cache.processOutput("arm", "U8", new byte[] { (byte) i }, 1, null);
+		}
+		for (int i = 0; i < 3; i++) {
+			Packet publish = subscriber.read();
+			assertEquals("rook/io/o/arm/U8", publish.topic());
+			assertArrayEquals(new byte[] { (byte) i }, publish.payload());
+		}
+	}
+
+	@Test
+	public void readsPacketsSplitAcrossReadsAndLargerThanTheBuffer() throws IOException {
+		Client subscriber = connect("subscriber", 0);
+		subscriber.subscribe(1, "big");
+		Client publisher = connect("publisher", 0);
+		byte[] value = new byte[20000];
+		for (int i = 0; i < value.length; i++) {
+			value[i] = (byte) i;
+		}
+		byte[] packet = publisher.packet(IOMqttPackets.PUBLISH, 0, publishBody("big", -1, value));
+		for (byte b : packet) {
+			publisher.out.write(b);
+			publisher.out.flush();
+		}
+		Packet publish = subscriber.read();
+		assertEquals("big", publish.topic());
+		assertArrayEquals(value, publish.payload());
+	}
+
+	@Test
+	public void dropsForSubscribersThatDoNotRead() throws IOException {
+		Client stuck = connect("stuck", 0);
+		stuck.subscribe(1, "bulk");
+		Client reader = connect("reader", 0);
+		reader.subscribe(2, "bulk");
+		Client publisher = connect("publisher", 0);
+
+		// far more than the socket and send buffers of the stuck client hold
+		byte[] value = new byte[50000];
+		int count = 400;
+		for (int i = 0; i < count; i++) {
+			value[0] = (byte) i;
+			publisher.publish("bulk", value);
+			Packet publish = reader.read();
+			assertEquals((byte) i, publish.payload()[0]);
+		}
+		assertEquals(3, broker.getSessionCount());
+	}
+
+	@Test
+	public void closesSessionsThatMissTheirKeepAlive() throws IOException {
+		Client watcher = connect("watcher", 0);
+		watcher.subscribe(1, "will");
+		Client client = client();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		writeString(body, "MQTT");
+		body.write(4);
+		// will flag, keep alive of 1 second
+		body.write(0x04 | 0x02);
+		body.write(0);
+		body.write(1);
+		writeString(body, "quiet");
+		writeString(body, "will");
+		writeString(body, "gone");
+		client.send(IOMqttPackets.CONNECT, 0, body.toByteArray());
+		assertEquals(IOMqttPackets.CONNACK, client.read().type);
+
+		// closed after 1.5 seconds and the next check
+		client.socket.setSoTimeout(5000);
+		client.assertClosed();
+		watcher.socket.setSoTimeout(5000);
+		watcher.assertPublish("will", "gone");
+	}
+
+	@Test
+	public void keepsSessionsThatPing() throws Exception {
+		Client client = connect("pinging", 1);
+		for (int i = 0; i < 5; i++) {
+			Thread.sleep(500);
+			client.send(IOMqttPackets.PINGREQ, 0, new byte[0]);
+			assertEquals(IOMqttPackets.PINGRESP, client.read().type);
+		}
+	}
+
+	private Client client() throws IOException {
+		Socket socket = new Socket("localhost", broker.getLocalPort());
+		socket.setSoTimeout(2000);
+		Client client = new Client(socket);
+		clients.add(client);
+		return client;
+	}
+
+	private Client connect(String clientId, int keepAlive) throws IOException {
+		Client client = client();
+		client.send(IOMqttPackets.CONNECT, 0, connectBody("MQTT", 4, clientId, keepAlive));
+		Packet connack = client.read();
+		assertEquals(IOMqttPackets.CONNACK, connack.type);
+		assertEquals(IOMqttPackets.CONNACK_ACCEPTED, connack.body[1]);
+		return client;
+	}
+
+	private static byte[] connectBody(String protocol, int level, String clientId, int keepAlive) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		writeString(body, protocol);
+		body.write(level);
+		// clean session
+		body.write(0x02);
+		body.write(keepAlive >> 8);
+		body.write(keepAlive);
+		writeString(body, clientId);
+		return body.toByteArray();
+	}
+
+	private static byte[] publishBody(String topic, int packetId, String payload) throws IOException {
+		return publishBody(topic, packetId, payload.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] publishBody(String topic, int packetId, byte[] payload) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		writeString(body, topic);
+		if (packetId >= 0) {
+			body.write(packetId >> 8);
+			body.write(packetId);
+		}
+		body.write(payload);
+		return body.toByteArray();
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.write(bytes.length >> 8);
+		out.write(bytes.length);
+		out.write(bytes);
+	}
+
+	private static class Packet {
+		final int type;
+		final int flags;
+		final byte[] body;
+
+		Packet(int header, byte[] body) {
+			this.type = header >> 4;
+			this.flags = header & 0x0F;
+			this.body = body;
+		}
+
+		String topic() {
+			int length = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+			return new String(body, 2, length, StandardCharsets.UTF_8);
+		}
+
+		byte[] payload() {
+			int offset = 2 + topic().getBytes(StandardCharsets.UTF_8).length;
+			byte[] payload = new byte[body.length - offset];
+			System.arraycopy(body, offset, payload, 0, payload.length);
+			return payload;
+		}
+	}
+
+	private static class Client {
+		final Socket socket;
+		final OutputStream out;
+		final DataInputStream in;
+
+		Client(Socket socket) throws IOException {
+			this.socket = socket;
+			this.out = socket.getOutputStream();
+			this.in = new DataInputStream(socket.getInputStream());
+		}
+
+		byte[] packet(int type, int flags, byte[] body) {
+			byte[] packet = new byte[1 + IOMqttPackets.remainingLengthSize(body.length) + body.length];
+			packet[0] = (byte) (type << 4 | flags);
+			int offset = IOMqttPackets.writeRemainingLength(packet, 1, body.length);
+			System.arraycopy(body, 0, packet, offset, body.length);
+			return packet;
+		}
+
+		void send(int type, int flags, byte[] body) throws IOException {
+			out.write(packet(type, flags, body));
+			out.flush();
+		}
+
+		void publish(String topic, String payload) throws IOException {
+			send(IOMqttPackets.PUBLISH, 0, publishBody(topic, -1, payload));
+		}
+
+		void publish(String topic, byte[] payload) throws IOException {
+			send(IOMqttPackets.PUBLISH, 0, publishBody(topic, -1, payload));
+		}
+
+		Packet subscribe(int packetId, String... filters) throws IOException {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			body.write(packetId >> 8);
+			body.write(packetId);
+			for (String filter : filters) {
+				writeString(body, filter);
+				body.write(0);
+			}
+			send(IOMqttPackets.SUBSCRIBE, 0x02, body.toByteArray());
+			Packet suback = read();
+			assertEquals(IOMqttPackets.SUBACK, suback.type);
+			return suback;
+		}
+
+		Packet read() throws IOException {
+			int header = in.readUnsignedByte();
+			int length = 0;
+			int multiplier = 1;
+			int b;
+			do {
+				b = in.readUnsignedByte();
+				length += (b & 0x7F) * multiplier;
+				multiplier *= 128;
+			} while ((b & 0x80) != 0);
+			byte[] body = new byte[length];
+			in.readFully(body);
+			return new Packet(header, body);
+		}
+
+		void assertPublish(String topic, String payload) throws IOException {
+			Packet publish = read();
+			assertEquals(IOMqttPackets.PUBLISH, publish.type);
+			assertEquals(topic, publish.topic());
+			assertEquals(payload, new String(publish.payload(), StandardCharsets.UTF_8));
+		}
+
+		void assertNothing() throws IOException {
+			socket.setSoTimeout(200);
+			try {
+				Packet packet = read();
+				throw new AssertionError("unexpected packet of type " + packet.type);
+			} catch (SocketTimeoutException e) {
+				// nothing sent
+			}
+		}
+
+		void assertClosed() throws IOException {
+			try {
+				in.readUnsignedByte();
+				throw new AssertionError("still open");
+			} catch (EOFException e) {
+				// closed by the broker
+			}
+		}
+	}
+
+	private static class Recorder implements IOCacheListener {
+		final BlockingQueue<String> updates = new LinkedBlockingQueue<>();
+
+		@Override
+		public void onInput(IOKey key, DirectBuffer value, int valueLength, Object src) {
+			updates.add(key.getName() + "=" + value.getByte(0));
+		}
+
+		@Override
+		public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object src) {
+		}
+	}
+}
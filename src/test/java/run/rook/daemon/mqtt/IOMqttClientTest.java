@@ -0,0 +1,145 @@
+package run.rook.daemon.mqtt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.agrona.DirectBuffer;
+import org.junit.After;
+import org.junit.Test;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheListener;
+import run.rook.daemon.cache.IOKey;
+
+public class IOMqttClientTest {
+
+	private IOCache brokerCache;
+	private IOMqttBroker broker;
+	private IOCache cache;
+	private Thread clientThread;
+
+	@After
+	public void stop() throws Exception {
+		if (clientThread != null) {
+			clientThread.interrupt();
+			clientThread.join(5000);
+		}
+		if (broker != null) {
+			broker.stop();
+		}
+		if (brokerCache != null) {
+			brokerCache.stop();
+		}
+		if (cache != null) {
+			cache.stop();
+		}
+	}
+
+	@Test
+	public void splitsTheSubscriptionsRoundRobin() {
+		String[][] filters = IOMqttClient.partition(new String[] { "a", "b", "c", "d", "e" }, 2);
+		assertArrayEquals(new String[] { "a", "c", "e" }, filters[0]);
+		assertArrayEquals(new String[] { "b", "d" }, filters[1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsMoreConnectionsThanSubscriptions() {
+		new IOMqttClient("tcp://localhost:1883", "test", new IOCache()).setConnections(3, null);
+	}
+
+	@Test
+	public void receivesOnSeveralConnectionsInOrder() throws Exception {
+		// the embedded broker, with a cache of its own, stands in for mosquitto
+		brokerCache = new IOCache();
+		brokerCache.start();
+		broker = new IOMqttBroker(0, brokerCache);
+		broker.start();
+
+		cache = new IOCache();
+		Recorder recorder = new Recorder();
+		cache.registerListener(recorder);
+		cache.start();
+		IOMqttClient client = new IOMqttClient("tcp://localhost:" + broker.getLocalPort(), "test", cache);
+		client.setConnections(2, null);
+		clientThread = new Thread(client, "IOMqttClient");
+		clientThread.start();
+
+		// inputs and outputs arrive on different connections
+		awaitSubscribed(recorder, true);
+		awaitSubscribed(recorder, false);
+		assertEquals(2, broker.getSessionCount());
+
+		int count = 200;
+		for (int i = 0; i < count; i++) {
+			byte[] value = { (byte) i };
+			brokerCache.processInput("a", "U8", value, 1, null);
+			brokerCache.processOutput("b", "U8", value, 1, null);
+		}
+		int nextInput = 0;
+		int nextOutput = 0;
+		while (nextInput < count || nextOutput < count) {
+			Update update = recorder.updates.poll(5, TimeUnit.SECONDS);
+			assertNotNull("received " + nextInput + " inputs and " + nextOutput + " outputs", update);
+			if (update.input) {
+				assertEquals("a", update.name);
+				assertEquals((byte) nextInput++, update.value);
+			} else {
+				assertEquals("b", update.name);
+				assertEquals((byte) nextOutput++, update.value);
+			}
+		}
+		assertTrue(client.getReceivedCount() >= 2 * count);
+	}
+
+	private void awaitSubscribed(Recorder recorder, boolean input) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (System.currentTimeMillis() < deadline) {
+			if (input) {
+				brokerCache.processInput("ready", "U8", new byte[] { 0 }, 1, null);
+			} else {
+				brokerCache.processOutput("ready", "U8", new byte[] { 0 }, 1, null);
+			}
+			Update update = recorder.updates.poll(50, TimeUnit.MILLISECONDS);
+			while (update != null) {
+				if (update.input == input) {
+					recorder.updates.clear();
+					return;
+				}
+				update = recorder.updates.poll();
+			}
+		}
+		throw new AssertionError("never subscribed to " + (input ? "inputs" : "outputs"));
+	}
+
+	private static class Update {
+		final boolean input;
+		final String name;
+		final byte value;
+
+		Update(boolean input, String name, byte value) {
+			this.input = input;
+			this.name = name;
+			this.value = value;
+		}
+	}
+
+	private static class Recorder implements IOCacheListener {
+		final BlockingQueue<Update> updates = new LinkedBlockingQueue<>();
+
+		@Override
+		public void onInput(IOKey key, DirectBuffer value, int valueLength, Object src) {
+			updates.add(new Update(true, key.getName(), value.getByte(0)));
+		}
+
+		@Override
+		public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object src) {
+			updates.add(new Update(false, key.getName(), value.getByte(0)));
+		}
+	}
+}
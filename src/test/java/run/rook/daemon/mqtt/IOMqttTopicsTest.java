@@ -0,0 +1,50 @@
+package run.rook.daemon.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IORegistry;
+
+public class IOMqttTopicsTest {
+
+	private final IORegistry registry = new IORegistry();
+	private final IOMqttTopics topics = new IOMqttTopics(registry);
+
+	@Test
+	public void parsesNamesWithLevels() {
+		IOKey key = topics.parse("rook/io/i/arm/joint1/F64");
+		assertEquals("arm/joint1", key.getName());
+		assertEquals("F64", key.getDataType());
+		assertTrue(IOMqttTopics.isInput("rook/io/i/arm/joint1/F64"));
+		assertSame(key, topics.parse("rook/io/i/arm/joint1/F64"));
+		assertSame(key, topics.parse("rook/io/o/arm/joint1/F64"));
+		assertFalse(IOMqttTopics.isInput("rook/io/o/arm/joint1/F64"));
+	}
+
+	@Test
+	public void rejectsTopicsThatDoNotMatch() {
+		assertNull(topics.parse("rook/io/i/"));
+		assertNull(topics.parse("rook/io/x/a/U8"));
+		assertNull(topics.parse("rook/io/ia/b/U8"));
+		assertNull(topics.parse("rook/io/i/a"));
+		assertNull(topics.parse("rook/io/i/a/"));
+		assertNull(topics.parse("other/io/i/a/U8"));
+		assertNull(topics.parse("rook/io/i/a/" + new String(new char[256]).replace('\0', 'x')));
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void buildsOutboundTopicsOnce() {
+		IOKey key = registry.register("arm/joint1", "F64");
+		IOMqttPublication input = topics.getInput(key);
+		assertEquals("rook/io/i/arm/joint1/F64", input.getTopic());
+		assertSame(input, topics.getInput(key));
+		assertEquals("rook/io/o/arm/joint1/F64", topics.getOutput(key).getTopic());
+	}
+}
@@ -0,0 +1,71 @@
+package run.rook.daemon.web.ws;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.agrona.DirectBuffer;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOValueSnapshot;
+
+// records frames instead of writing them, a send only completes when the
+// test calls writeSuccess on the sender
+class FakeCodec implements IOSessionCodec {
+	final List<String> sent = new ArrayList<>();
+	private String frame;
+
+	@Override
+	public void encode(String type, IOKey key, DirectBuffer value, int valueLength) {
+		StringBuilder sb = new StringBuilder(type).append(' ').append(key.getName());
+		for (int i = 0; i < valueLength; i++) {
+			sb.append(' ').append(value.getByte(i));
+		}
+		frame = sb.toString();
+	}
+
+	@Override
+	public void encodeSnapshot(String type, List<IOValueSnapshot> values) {
+		StringBuilder sb = new StringBuilder(type);
+		for (IOValueSnapshot value : values) {
+			sb.append(' ').append(value.getKey().getName());
+			for (byte b : value.getValue()) {
+				sb.append(' ').append(b);
+			}
+		}
+		frame = sb.toString();
+	}
+
+	@Override
+	public void send(RemoteEndpoint remote, WriteCallback callback) {
+		sent.add(frame);
+	}
+
+	// a session whose remote records text frames into the same list
+	Session session() {
+		RemoteEndpoint remote = (RemoteEndpoint) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { RemoteEndpoint.class }, (proxy, method, args) -> {
+					if (method.getName().equals("sendString")) {
+						sent.add((String) args[0]);
+					} else if (method.getName().equals("getInetSocketAddress")) {
+						return InetSocketAddress.createUnresolved("test", 1);
+					}
+					return null;
+				});
+		return (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Session.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getRemote":
+						return remote;
+					case "isOpen":
+						return true;
+					default:
+						return null;
+					}
+				});
+	}
+}
@@ -0,0 +1,99 @@
+package run.rook.daemon.web.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.junit.Test;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IORegistry;
+
+public class IOBinaryCodecTest {
+
+	private final IORegistry registry = new IORegistry();
+	private final IOBinaryCodec codec = new IOBinaryCodec();
+
+	@Test
+	public void announcesNameAndDataTypeOnce() {
+		IOKey key = registry.register("arm/j\u00f6int1", "U16");
+
+		UnsafeBuffer first = send(key, new byte[] { 1, 2 });
+		assertEquals(IOConst.BINARY_OUTBOUND_INPUT, IOBinaryCodec.getType(first));
+		assertEquals(key.getId(), IOBinaryCodec.getId(first));
+		assertEquals("arm/j\u00f6int1", IOBinaryCodec.getName(first));
+		assertEquals("U16", IOBinaryCodec.getDataType(first));
+		assertEquals(2, first.capacity() - IOBinaryCodec.getValueOffset(first));
+		assertEquals(2, first.getByte(first.capacity() - 1));
+		assertFalse(IOBinaryCodec.isStale(first));
+
+		UnsafeBuffer second = send(key, new byte[] { 3 });
+		assertNull(IOBinaryCodec.getName(second));
+		assertNull(IOBinaryCodec.getDataType(second));
+		assertEquals(3, second.getByte(IOBinaryCodec.getValueOffset(second)));
+	}
+
+	@Test
+	public void flagsStaleSnapshotRecords() {
+		IOCache cache = new IOCache();
+		cache.restoreInput("a", "U8", new UnsafeBuffer(new byte[] { 7 }), 1);
+		codec.encodeSnapshot(IOConst.TYPE_OUTBOUND_INPUT_SNAPSHOT, cache.read().getInputs());
+		UnsafeBuffer frame = sent();
+
+		assertEquals(IOConst.BINARY_OUTBOUND_INPUT_SNAPSHOT, IOBinaryCodec.getType(frame));
+		// a record is laid out like a frame without its type byte
+		UnsafeBuffer record = new UnsafeBuffer(frame, 0, frame.capacity());
+		assertTrue(IOBinaryCodec.isStale(record));
+		assertEquals("a", IOBinaryCodec.getName(record));
+		assertEquals(1, record.getInt(IOBinaryCodec.getValueOffset(record), IOBinaryCodec.BYTE_ORDER));
+		assertEquals(7, record.getByte(IOBinaryCodec.getValueOffset(record) + IOBinaryCodec.VALUE_LENGTH_LENGTH));
+	}
+
+	@Test
+	public void validatesLengthsAgainstTheFrame() {
+		UnsafeBuffer frame = new UnsafeBuffer(new byte[32]);
+		assertNotNull(IOBinaryCodec.validate(frame, 6, false));
+		// a subscribe to all names without a data type
+		assertNull(IOBinaryCodec.validate(frame, 7, false));
+		assertNotNull(IOBinaryCodec.validate(frame, 7, true));
+
+		// a 4 byte name and a 5 byte data type end at 17
+		frame.putShort(IOBinaryCodec.NAME_LENGTH_OFFSET, (short) 4, IOBinaryCodec.BYTE_ORDER);
+		frame.putByte(11, (byte) 5);
+		assertNotNull(IOBinaryCodec.validate(frame, 10, false));
+		assertNull(IOBinaryCodec.validate(frame, 11, false));
+		assertNotNull(IOBinaryCodec.validate(frame, 16, true));
+		assertNull(IOBinaryCodec.validate(frame, 17, true));
+
+		frame.putShort(IOBinaryCodec.NAME_LENGTH_OFFSET, (short) 0xFFFF, IOBinaryCodec.BYTE_ORDER);
+		assertNotNull(IOBinaryCodec.validate(frame, 32, false));
+	}
+
+	private UnsafeBuffer send(IOKey key, byte[] value) {
+		codec.encode(IOConst.TYPE_OUTBOUND_INPUT, key, new UnsafeBuffer(value), value.length);
+		return sent();
+	}
+
+	private UnsafeBuffer sent() {
+		ByteBuffer[] sent = new ByteBuffer[1];
+		RemoteEndpoint remote = (RemoteEndpoint) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { RemoteEndpoint.class }, (proxy, method, args) -> {
+					if (method.getName().equals("sendBytes")) {
+						sent[0] = (ByteBuffer) args[0];
+					}
+					return null;
+				});
+		codec.send(remote, null);
+		byte[] frame = new byte[sent[0].remaining()];
+		sent[0].duplicate().get(frame);
+		return new UnsafeBuffer(frame);
+	}
+}
@@ -0,0 +1,66 @@
+package run.rook.daemon.web.ws;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.junit.Test;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IOValueSnapshot;
+
+public class IOJsonCodecTest {
+
+	@Test
+	public void encodesValuesAsBase64() {
+		IOJsonCodec codec = new IOJsonCodec(false);
+		IOKey key = new IOCache().getRegistry().register("a", null);
+		codec.encode(IOConst.TYPE_OUTBOUND_INPUT, key, new UnsafeBuffer(new byte[] { 1, 2, 3 }), 3);
+
+		// live updates are never stale, the field is left out
+		assertEquals("{\"type\":\"input\",\"id\":0,\"name\":\"a\",\"value\":\"AQID\"}", send(codec));
+	}
+
+	@Test
+	public void encodesKnownDataTypesAsJsonValuesWhenTyped() {
+		IOJsonCodec codec = new IOJsonCodec(true);
+		IOCache cache = new IOCache();
+		IOKey count = cache.getRegistry().register("count", "I16");
+		codec.encode(IOConst.TYPE_OUTBOUND_OUTPUT, count, new UnsafeBuffer(new byte[] { (byte) 0xFE, (byte) 0xFF }), 2);
+		assertEquals("{\"type\":\"output\",\"id\":0,\"name\":\"count\",\"dataType\":\"I16\",\"value\":-2}", send(codec));
+
+		IOKey blob = cache.getRegistry().register("blob", "image/png");
+		codec.encode(IOConst.TYPE_OUTBOUND_OUTPUT, blob, new UnsafeBuffer(new byte[] { 1, 2, 3 }), 3);
+		assertEquals("{\"type\":\"output\",\"id\":1,\"name\":\"blob\",\"dataType\":\"image/png\",\"value\":\"AQID\"}",
+				send(codec));
+	}
+
+	@Test
+	public void marksStaleSnapshotValues() {
+		IOCache cache = new IOCache();
+		cache.restoreInput("a", "F64", new UnsafeBuffer(new byte[8]), 8);
+		List<IOValueSnapshot> values = cache.read().getInputs();
+		IOJsonCodec codec = new IOJsonCodec(true);
+		codec.encodeSnapshot(IOConst.TYPE_OUTBOUND_INPUT_SNAPSHOT, values);
+
+		assertEquals("{\"type\":\"input_snapshot\",\"values\":[{\"id\":0,\"name\":\"a\",\"dataType\":\"F64\",\"value\":0.0,\"stale\":true}]}",
+				send(codec));
+	}
+
+	private static String send(IOJsonCodec codec) {
+		String[] sent = new String[1];
+		RemoteEndpoint remote = (RemoteEndpoint) Proxy.newProxyInstance(IOJsonCodecTest.class.getClassLoader(),
+				new Class<?>[] { RemoteEndpoint.class }, (proxy, method, args) -> {
+					if (method.getName().equals("sendString")) {
+						sent[0] = (String) args[0];
+					}
+					return null;
+				});
+		codec.send(remote, null);
+		return sent[0];
+	}
+}
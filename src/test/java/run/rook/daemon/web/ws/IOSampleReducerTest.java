@@ -0,0 +1,88 @@
+package run.rook.daemon.web.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.Test;
+
+import run.rook.daemon.cache.IODataType;
+
+public class IOSampleReducerTest {
+
+	private final UnsafeBuffer value = new UnsafeBuffer(new byte[2]);
+
+	@Test
+	public void sendsTheLatestValue() {
+		IOSampleReducer reducer = new IOSampleReducer(new IORateLimit(10, IOReduction.LATEST), IODataType.I16);
+		assertFalse(reducer.hasSamples());
+		add(reducer, 3);
+		add(reducer, 7);
+		assertTrue(reducer.hasSamples());
+		assertEquals(1, reducer.take(value, 2, 1000));
+		assertEquals(7, get(reducer, 0));
+		assertFalse(reducer.hasSamples());
+		assertEquals(1000 + 100_000_000, reducer.getNextSendNanos());
+	}
+
+	@Test
+	public void sendsTheMeanInTheDataType() {
+		IOSampleReducer reducer = new IOSampleReducer(new IORateLimit(10, IOReduction.MEAN), IODataType.I16);
+		add(reducer, 1);
+		add(reducer, 2);
+		add(reducer, 4);
+		assertEquals(1, reducer.take(value, 2, 0));
+		// 7 / 3 rounded
+		assertEquals(2, get(reducer, 0));
+
+		// the next interval starts over
+		add(reducer, 10);
+		reducer.take(value, 2, 0);
+		assertEquals(10, get(reducer, 0));
+	}
+
+	@Test
+	public void sendsMinAndMaxInTheOrderTheyArrived() {
+		IOSampleReducer reducer = new IOSampleReducer(new IORateLimit(10, IOReduction.MINMAX), IODataType.I16);
+		add(reducer, 5);
+		add(reducer, 9);
+		add(reducer, -3);
+		add(reducer, 4);
+		assertEquals(2, reducer.take(value, 2, 0));
+		assertEquals(9, get(reducer, 0));
+		assertEquals(-3, get(reducer, 1));
+	}
+
+	@Test
+	public void sendsOneValueIfMinAndMaxAreTheSameUpdate() {
+		IOSampleReducer reducer = new IOSampleReducer(new IORateLimit(10, IOReduction.MINMAX), IODataType.I16);
+		add(reducer, 5);
+		assertEquals(1, reducer.take(value, 2, 0));
+		assertEquals(5, get(reducer, 0));
+	}
+
+	@Test
+	public void reducesOtherDataTypesToTheLatest() {
+		IOSampleReducer reducer = new IOSampleReducer(new IORateLimit(10, IOReduction.MEAN), null);
+		add(reducer, 1);
+		add(reducer, 3);
+		assertEquals(1, reducer.take(value, 2, 0));
+		assertEquals(3, get(reducer, 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsRatesThatAreNotPositive() {
+		new IORateLimit(0, IOReduction.LATEST);
+	}
+
+	private void add(IOSampleReducer reducer, int v) {
+		// the pending value always holds the latest update
+		IODataType.I16.putDouble(value, 0, v);
+		reducer.add(value, 2);
+	}
+
+	private static long get(IOSampleReducer reducer, int i) {
+		return IODataType.I16.toLong(reducer.getValue(i), 0, reducer.getLength(i));
+	}
+}
@@ -0,0 +1,100 @@
+package run.rook.daemon.web.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.agrona.DirectBuffer;
+import org.junit.After;
+import org.junit.Test;
+
+import run.rook.daemon.cache.IOCache;
+import run.rook.daemon.cache.IOCacheListener;
+import run.rook.daemon.cache.IOKey;
+
+public class IOSessionContextTest {
+
+	private final IOCache cache = new IOCache();
+	private final FakeCodec codec = new FakeCodec();
+	private final IOTimerWheel timer = new IOTimerWheel("test-timer", 1, TimeUnit.MILLISECONDS, 64);
+	private final ExecutorService subscriber = Executors.newSingleThreadExecutor();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private IOSessionContext context;
+
+	@After
+	public void stop() {
+		release.countDown();
+		if (context != null) {
+			context.close();
+		}
+		timer.stop();
+		subscriber.shutdown();
+		cache.stop();
+	}
+
+	@Test(timeout = 10000)
+	public void fullRingBlocksNeitherRequestsNorTheTimer() throws Exception {
+		cache.registerListener(new BlockingListener());
+		cache.start();
+		context = new IOSessionContext(codec.session(), cache, codec, timer, subscriber, 60000, 60000,
+				new IOSendCounters());
+
+		// the listener holds the cache thread until the ring is full
+		AtomicInteger published = new AtomicInteger();
+		Thread producer = new Thread(() -> {
+			cache.processInput("block", "U8", new byte[] { 0 }, 1, null);
+			for (int i = 0; i < 1100; i++) {
+				cache.processInput("fill", "U8", new byte[] { 0 }, 1, null);
+				published.incrementAndGet();
+			}
+		});
+		producer.start();
+		while (published.get() < 1000) {
+			Thread.sleep(1);
+		}
+		Thread.sleep(50);
+
+		context.inputSubscribe("a", null);
+		context.inputUnsubscribe("a");
+		context.inputSubscribe("b", null);
+		CountDownLatch ticked = new CountDownLatch(1);
+		timer.schedule(ticked::countDown, 5, TimeUnit.MILLISECONDS);
+		assertTrue("timer blocked", ticked.await(1, TimeUnit.SECONDS));
+
+		release.countDown();
+		producer.join();
+		// the flush was handed over while the ring was full, wait until it is done
+		subscriber.submit(() -> {
+		}).get();
+
+		// the unsubscribe of "a" still follows its subscribe
+		cache.processInput("a", "U8", new byte[] { 1 }, 1, null);
+		cache.processInput("b", "U8", new byte[] { 2 }, 1, null);
+		while (codec.sent.isEmpty()) {
+			Thread.sleep(1);
+		}
+		assertEquals("input b 2", codec.sent.get(0));
+	}
+
+	private class BlockingListener implements IOCacheListener {
+		@Override
+		public void onInput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+			if (key.getName().equals("block")) {
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		public void onOutput(IOKey key, DirectBuffer value, int valueLength, Object source) {
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package run.rook.daemon.web.ws;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import run.rook.daemon.cache.IORegistry;
+import run.rook.daemon.cache.IOKey;
+
+public class IOSessionSenderTest {
+
+	private final IORegistry registry = new IORegistry();
+	private final FakeCodec codec = new FakeCodec();
+	private final IOSendCounters counters = new IOSendCounters();
+	private IOTimerWheel timer;
+	private IOSessionSender sender;
+
+	@Before
+	public void start() {
+		timer = new IOTimerWheel("test-timer", 1, TimeUnit.MILLISECONDS, 64);
+		sender = new IOSessionSender(codec.session(), codec, () -> {
+		}, timer, counters);
+	}
+
+	@After
+	public void stop() {
+		timer.stop();
+	}
+
+	@Test
+	public void conflatesUpdatesWhileAFrameIsInFlight() {
+		IOKey a = registry.register("a", null);
+		IOKey b = registry.register("b", null);
+		send(a, 1);
+		for (int i = 2; i <= 100; i++) {
+			send(a, i);
+		}
+		send(b, 7);
+		assertEquals(Arrays.asList("input a 1"), codec.sent);
+
+		sender.writeSuccess();
+		sender.writeSuccess();
+		assertEquals(Arrays.asList("input a 1", "input a 100", "input b 7"), codec.sent);
+		assertEquals(98, sender.getConflatedCount());
+		assertEquals(98, counters.conflated.get());
+	}
+
+	@Test
+	public void sendsTextsBeforePendingValues() {
+		IOKey a = registry.register("a", null);
+		send(a, 1);
+		send(a, 2);
+		sender.sendText("reply");
+		sender.writeSuccess();
+		sender.writeSuccess();
+		assertEquals(Arrays.asList("input a 1", "reply", "input a 2"), codec.sent);
+	}
+
+	@Test
+	public void dropsPendingValuesOfUnsubscribedNames() {
+		IOKey a = registry.register("a", null);
+		IOKey b = registry.register("b", null);
+		send(a, 1);
+		send(a, 2);
+		send(b, 3);
+		sender.discardInput(new IOKey[] { a });
+		sender.writeSuccess();
+		sender.writeSuccess();
+		assertEquals(Arrays.asList("input a 1", "input b 3"), codec.sent);
+
+		send(a, 4);
+		send(b, 5);
+		sender.discardAllInputs(Collections.singleton("b"));
+		sender.writeSuccess();
+		assertEquals(Arrays.asList("input a 1", "input b 3", "input a 4", "input b 5"), codec.sent);
+	}
+
+	@Test
+	public void skipsDiscardedValuesInTheQueue() {
+		IOKey a = registry.register("a", null);
+		IOKey b = registry.register("b", null);
+		IOKey c = registry.register("c", null);
+		send(a, 1);
+		send(b, 2);
+		send(c, 3);
+		send(a, 4);
+		sender.discardInput(new IOKey[] { b, a });
+		// queued again behind c
+		send(b, 5);
+		sender.writeSuccess();
+		sender.writeSuccess();
+		sender.writeSuccess();
+		assertEquals(Arrays.asList("input a 1", "input c 3", "input b 5"), codec.sent);
+
+		// nothing is pending any more, so the next update goes out directly
+		send(a, 6);
+		assertEquals("input a 6", codec.sent.get(3));
+	}
+
+	@Test
+	public void holdsBackRateLimitedUpdatesUntilTheInterval() throws InterruptedException {
+		IOKey a = registry.register("a", "I8");
+		IORateLimit rate = new IORateLimit(20, IOReduction.MINMAX);
+		sender.sendInput(a, new UnsafeBuffer(new byte[] { 5 }), 1, rate);
+		sender.writeSuccess();
+		sender.sendInput(a, new UnsafeBuffer(new byte[] { 9 }), 1, rate);
+		sender.sendInput(a, new UnsafeBuffer(new byte[] { -3 }), 1, rate);
+		sender.sendInput(a, new UnsafeBuffer(new byte[] { 4 }), 1, rate);
+		assertEquals(Arrays.asList("input a 5"), codec.sent);
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (sent() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		sender.writeSuccess();
+		assertEquals(Arrays.asList("input a 5", "input a 9", "input a -3"), codec.sent);
+	}
+
+	private int sent() {
+		synchronized (sender) {
+			return codec.sent.size();
+		}
+	}
+
+	private void send(IOKey key, int value) {
+		sender.sendInput(key, new UnsafeBuffer(new byte[] { (byte) value }), 1, null);
+	}
+}
@@ -0,0 +1,72 @@
+package run.rook.daemon.web.ws;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import run.rook.daemon.cache.IOKey;
+import run.rook.daemon.cache.IORegistry;
+
+public class IOSubscriptionRatesTest {
+
+	private final IOSubscriptionRates rates = new IOSubscriptionRates();
+	private final IORegistry registry = new IORegistry();
+	private final IOKey angle = registry.register("arm/joint1/angle", "F64");
+	private final IOKey speed;
+	private final IORateLimit slow = new IORateLimit(1, IOReduction.LATEST);
+	private final IORateLimit medium = new IORateLimit(10, IOReduction.LATEST);
+	private final IORateLimit fast = new IORateLimit(100, IOReduction.LATEST);
+
+	public IOSubscriptionRatesTest() {
+		// an id beyond the initial cache
+		for (int i = 0; i < 100; i++) {
+			registry.register("other" + i, null);
+		}
+		speed = registry.register("arm/joint1/speed", "F64");
+	}
+
+	@Test
+	public void namesComeBeforePatternsAndPatternsBeforeAll() {
+		assertNull(rates.get(angle));
+		rates.set(null, slow);
+		assertSame(slow, rates.get(angle));
+		rates.set("arm/#", medium);
+		assertSame(medium, rates.get(angle));
+		rates.set("arm/joint1/angle", fast);
+		assertSame(fast, rates.get(angle));
+		assertSame(medium, rates.get(speed));
+	}
+
+	@Test
+	public void theMostSpecificPatternWins() {
+		// in either subscription order
+		rates.set("arm/#", slow);
+		rates.set("arm/+/angle", fast);
+		rates.set("+/joint1/+", medium);
+		assertSame(fast, rates.get(angle));
+		assertSame(slow, rates.get(speed));
+
+		IOSubscriptionRates reversed = new IOSubscriptionRates();
+		reversed.set("+/joint1/+", medium);
+		reversed.set("arm/+/angle", fast);
+		reversed.set("arm/#", slow);
+		assertSame(fast, reversed.get(angle));
+		assertSame(slow, reversed.get(speed));
+	}
+
+	@Test
+	public void resolvesAgainAfterChanges() {
+		rates.set("arm/+/angle", fast);
+		assertSame(fast, rates.get(angle));
+		assertNull(rates.get(speed));
+
+		rates.set("arm/+/angle", null);
+		assertNull(rates.get(angle));
+		rates.set(null, slow);
+		assertSame(slow, rates.get(angle));
+		assertSame(slow, rates.get(speed));
+		rates.set(null, null);
+		assertNull(rates.get(speed));
+	}
+}
@@ -0,0 +1,90 @@
+package run.rook.daemon.web.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+import run.rook.daemon.web.ws.IOTimerWheel.IOTimeout;
+
+public class IOTimerWheelTest {
+
+	// one turn of the wheel is 4ms
+	private final IOTimerWheel timer = new IOTimerWheel("test-timer", 1, TimeUnit.MILLISECONDS, 4);
+
+	@After
+	public void stop() {
+		timer.stop();
+	}
+
+	@Test
+	public void waitsForTheRoundOfLongDelays() throws InterruptedException {
+		CountDownLatch ran = new CountDownLatch(1);
+		AtomicLong elapsed = new AtomicLong();
+		long start = System.nanoTime();
+		timer.schedule(() -> {
+			elapsed.set(System.nanoTime() - start);
+			ran.countDown();
+		}, 30, TimeUnit.MILLISECONDS);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertTrue("ran early: " + elapsed.get(), elapsed.get() >= TimeUnit.MILLISECONDS.toNanos(30));
+	}
+
+	@Test
+	public void cancelledTasksDoNotRun() throws InterruptedException {
+		AtomicInteger runs = new AtomicInteger();
+		IOTimeout cancelled = timer.schedule(runs::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+		CountDownLatch later = new CountDownLatch(1);
+		// shares the bucket of the cancelled task
+		timer.schedule(later::countDown, 10, TimeUnit.MILLISECONDS);
+		assertTrue(cancelled.cancel());
+		assertFalse(cancelled.cancel());
+		assertTrue(later.await(5, TimeUnit.SECONDS));
+		Thread.sleep(20);
+		assertEquals(0, runs.get());
+	}
+
+	@Test
+	public void cannotCancelTasksThatRan() throws InterruptedException {
+		CountDownLatch ran = new CountDownLatch(1);
+		IOTimeout timeout = timer.schedule(ran::countDown, 0, TimeUnit.MILLISECONDS);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertFalse(timeout.cancel());
+	}
+
+	@Test
+	public void tasksCanScheduleAgain() throws InterruptedException {
+		CountDownLatch ran = new CountDownLatch(3);
+		Runnable[] task = new Runnable[1];
+		task[0] = () -> {
+			ran.countDown();
+			if (ran.getCount() > 0) {
+				timer.schedule(task[0], 2, TimeUnit.MILLISECONDS);
+			}
+		};
+		timer.schedule(task[0], 0, TimeUnit.MILLISECONDS);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void keepsRunningAfterAFailedTask() throws InterruptedException {
+		CountDownLatch ran = new CountDownLatch(1);
+		timer.schedule(() -> {
+			throw new IllegalStateException("expected");
+		}, 0, TimeUnit.MILLISECONDS);
+		timer.schedule(ran::countDown, 5, TimeUnit.MILLISECONDS);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsWheelSizesThatAreNotPowersOf2() {
+		new IOTimerWheel("test-timer", 1, TimeUnit.MILLISECONDS, 6);
+	}
+}